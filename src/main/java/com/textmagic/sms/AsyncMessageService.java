@@ -0,0 +1,46 @@
+package com.textmagic.sms;
+
+import com.textmagic.sms.dto.ReceivedMessage;
+import com.textmagic.sms.dto.MessageStatus;
+import com.textmagic.sms.dto.SentMessage;
+import com.textmagic.sms.dto.PhoneInfo;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <code>AsyncMessageService</code> is non-blocking counterpart of {@link com.textmagic.sms.MessageService}.
+ * Every method returns immediately with {@link CompletableFuture} of the gateway call result. The future completes
+ * exceptionally with {@link com.textmagic.sms.exception.ServiceBackendException} or
+ * {@link com.textmagic.sms.exception.ServiceTechnicalException} in the same cases the blocking methods throw them.
+ * <br/>
+ * Please, see {@link com.textmagic.sms.TextMagicAsyncMessageService} for full specification
+ */
+public interface AsyncMessageService {
+
+    public CompletableFuture<SentMessage> send(String text, String phone);
+
+    public CompletableFuture<List<SentMessage>> send(String text, List<String> phones);
+
+    public CompletableFuture<List<SentMessage>> send(String text, List<String> phones, boolean useUnicode, Integer maxLength);
+
+    public CompletableFuture<BigDecimal> account();
+
+    public CompletableFuture<MessageStatus> messageStatus(Long messageId);
+
+    public CompletableFuture<List<MessageStatus>> messageStatus(List<Long> messageIds);
+
+    public CompletableFuture<List<ReceivedMessage>> receive();
+
+    public CompletableFuture<List<ReceivedMessage>> receive(Long lastRecievedId);
+
+    public CompletableFuture<List<Long>> deleteReply(List<Long> messageIds);
+
+    public CompletableFuture<Long> deleteReply(Long messageId);
+
+    public CompletableFuture<PhoneInfo> checkNumber(String phone);
+
+    public CompletableFuture<List<PhoneInfo>> checkNumbers(List<String> phones);
+
+}
@@ -0,0 +1,93 @@
+package com.textmagic.sms;
+
+import com.textmagic.sms.core.invoker.Deadline;
+import com.textmagic.sms.dto.MessageStatus;
+import com.textmagic.sms.dto.PhoneInfo;
+import com.textmagic.sms.dto.ReceivedMessage;
+import com.textmagic.sms.dto.SentMessage;
+import com.textmagic.sms.exception.ServiceBackendException;
+import com.textmagic.sms.exception.ServiceTechnicalException;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * View of {@link MessageService} which makes every call within the deadline
+ * (see {@link TextMagicMessageService#withDeadline(Deadline)})
+ */
+class DeadlineMessageService implements MessageService {
+
+    private static interface Call<T> {
+        T call() throws ServiceBackendException, ServiceTechnicalException;
+    }
+
+    private final MessageService service;
+    private final Deadline deadline;
+
+    DeadlineMessageService(MessageService service, Deadline deadline) {
+        this.service = service;
+        this.deadline = deadline;
+    }
+
+    private <T> T withinDeadline(Call<T> call) throws ServiceBackendException, ServiceTechnicalException {
+        Deadline previous = Deadline.bind(deadline);
+        try {
+            return call.call();
+        } finally {
+            Deadline.bind(previous);
+        }
+    }
+
+    public SentMessage send(String text, String phone) throws ServiceBackendException, ServiceTechnicalException {
+        return withinDeadline(() -> service.send(text, phone));
+    }
+
+    public List<SentMessage> send(String text, List<String> phones) throws ServiceBackendException, ServiceTechnicalException {
+        return withinDeadline(() -> service.send(text, phones));
+    }
+
+    public List<SentMessage> send(String text, List<String> phones, boolean useUnicode, Integer maxLength) throws ServiceBackendException, ServiceTechnicalException {
+        return withinDeadline(() -> service.send(text, phones, useUnicode, maxLength));
+    }
+
+    public List<SentMessage> scheduleMessageSending(String text, List<String> phones, Date sendingTime, Integer maxLength) throws ServiceTechnicalException, ServiceBackendException {
+        return withinDeadline(() -> service.scheduleMessageSending(text, phones, sendingTime, maxLength));
+    }
+
+    public BigDecimal account() throws ServiceBackendException, ServiceTechnicalException {
+        return withinDeadline(() -> service.account());
+    }
+
+    public MessageStatus messageStatus(Long messageId) throws ServiceBackendException, ServiceTechnicalException {
+        return withinDeadline(() -> service.messageStatus(messageId));
+    }
+
+    public List<MessageStatus> messageStatus(List<Long> messageIds) throws ServiceBackendException, ServiceTechnicalException {
+        return withinDeadline(() -> service.messageStatus(messageIds));
+    }
+
+    public List<ReceivedMessage> receive() throws ServiceBackendException, ServiceTechnicalException {
+        return withinDeadline(() -> service.receive());
+    }
+
+    public List<ReceivedMessage> receive(Long lastRecievedId) throws ServiceBackendException, ServiceTechnicalException {
+        return withinDeadline(() -> service.receive(lastRecievedId));
+    }
+
+    public List<Long> deleteReply(List<Long> messageIds) throws ServiceBackendException, ServiceTechnicalException {
+        return withinDeadline(() -> service.deleteReply(messageIds));
+    }
+
+    public Long deleteReply(Long messageId) throws ServiceBackendException, ServiceTechnicalException {
+        return withinDeadline(() -> service.deleteReply(messageId));
+    }
+
+    public PhoneInfo checkNumber(String phone) throws ServiceBackendException, ServiceTechnicalException {
+        return withinDeadline(() -> service.checkNumber(phone));
+    }
+
+    public List<PhoneInfo> checkNumbers(List<String> phones) throws ServiceBackendException, ServiceTechnicalException {
+        return withinDeadline(() -> service.checkNumbers(phones));
+    }
+}
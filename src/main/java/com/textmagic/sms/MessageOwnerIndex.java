@@ -0,0 +1,110 @@
+package com.textmagic.sms;
+
+/**
+ * Compact index of accounts owning message ids, used by {@link ShardedMessageService}.
+ * <br/><br/>
+ * Ids are kept in open addressing hash table of primitive arrays (28 to 48 bytes per id) with linear probing.
+ * Once <tt>maxSize</tt> ids are indexed the oldest ones are evicted, so memory stays bounded.
+ * The index is thread-safe.
+ */
+final class MessageOwnerIndex {
+
+    /**
+     * Owner returned for ids which are not indexed
+     */
+    static final int UNKNOWN = -1;
+
+    private final int maxSize;
+    private final int mask;
+    private final long[] ids;
+    // owner account number plus one, zero marks empty slot
+    private final short[] owners;
+    // ids in order of insertion, the oldest one is at head
+    private final long[] order;
+    private int head;
+    private int size;
+
+    MessageOwnerIndex(int maxSize) {
+        if (maxSize < 1 || maxSize > (1 << 29)) {
+            throw new IllegalArgumentException("Index size " + maxSize + " is out of range");
+        }
+        // table is at most half full
+        int capacity = Integer.highestOneBit(maxSize * 2 - 1) << 1;
+        this.maxSize = maxSize;
+        this.mask = capacity - 1;
+        this.ids = new long[capacity];
+        this.owners = new short[capacity];
+        this.order = new long[maxSize];
+    }
+
+    synchronized void put(long id, int owner) {
+        if (owner < 0 || owner >= Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Owner " + owner + " is out of range");
+        }
+        int slot = find(id);
+        if (owners[slot] != 0) {
+            owners[slot] = (short) (owner + 1);
+            return;
+        }
+        if (size == maxSize) {
+            remove(find(order[head]));
+            head = (head + 1) % maxSize;
+            size--;
+            slot = find(id);
+        }
+        ids[slot] = id;
+        owners[slot] = (short) (owner + 1);
+        order[(head + size) % maxSize] = id;
+        size++;
+    }
+
+    /**
+     * @return number of account owning the message, {@link #UNKNOWN} if the id is not indexed
+     */
+    synchronized int get(long id) {
+        return owners[find(id)] - 1;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return slot holding <tt>id</tt>, or empty slot it should be put to
+     */
+    private int find(long id) {
+        int slot = hash(id) & mask;
+        while (owners[slot] != 0 && ids[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Empties the slot and shifts following ids of the probe sequence back, so that they stay reachable
+     */
+    private void remove(int slot) {
+        int empty = slot;
+        owners[empty] = 0;
+        int next = empty;
+        while (true) {
+            next = (next + 1) & mask;
+            if (owners[next] == 0) {
+                return;
+            }
+            int home = hash(ids[next]) & mask;
+            boolean reachable = empty <= next ? (empty < home && home <= next) : (empty < home || home <= next);
+            if (!reachable) {
+                ids[empty] = ids[next];
+                owners[empty] = owners[next];
+                owners[next] = 0;
+                empty = next;
+            }
+        }
+    }
+
+    private static int hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,11 @@
+package com.textmagic.sms;
+
+import com.textmagic.sms.core.parsing.ParsedResponse;
+import com.textmagic.sms.core.parsing.ResponseParsingException;
+
+/**
+ * Single-pass parser of exact gateway command response
+ */
+interface ResponseHandler<T> {
+    ParsedResponse<T> handle(String response) throws ResponseParsingException;
+}
@@ -0,0 +1,456 @@
+package com.textmagic.sms;
+
+import com.textmagic.sms.dto.Message;
+import com.textmagic.sms.dto.MessageStatus;
+import com.textmagic.sms.dto.PhoneInfo;
+import com.textmagic.sms.dto.ReceivedMessage;
+import com.textmagic.sms.dto.SentMessage;
+import com.textmagic.sms.exception.ServiceBackendException;
+import com.textmagic.sms.exception.ServiceTechnicalException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * {@link MessageService} which spreads traffic across several TextMagic accounts, to get beyond throughput
+ * of a single one.
+ * <br/><br/>
+ * Every sending (and number check) goes to one account chosen according to {@link Balancing}.
+ * Ids of sent and received messages are remembered in compact index together with the account owning them,
+ * so {@link #messageStatus(Long)} and {@link #deleteReply(Long)} are routed back to the owner. Ids which are not
+ * indexed (e.g. evicted from the index after <tt>maxTrackedMessages</tt> newer ones) are looked up in accounts
+ * one by one, until one of them answers about the very id: failure with {@link ServiceBackendException} or empty
+ * answer mean the account does not own it.
+ * <br/>
+ * {@link #account()} returns the sum of accounts balances, {@link #receive()} merges replies received by all accounts.
+ * Failures of chosen account are thrown as is, the call is not repeated with another account.
+ * <br/>
+ * The service is thread-safe if account services are. It should be configured before it is used.
+ */
+public class ShardedMessageService implements MessageService {
+    Log log = LogFactory.getLog(ShardedMessageService.class);
+
+    /**
+     * Strategy of choosing account for a sending
+     */
+    public static enum Balancing {
+        /**
+         * Accounts get sendings in proportion to their weights, evenly interleaved
+         */
+        WEIGHTED_ROUND_ROBIN,
+        /**
+         * Account with the fewest calls in flight per unit of weight is chosen
+         */
+        LEAST_OUTSTANDING,
+        /**
+         * Accounts get sendings in proportion to their balances, which are refreshed periodically in background thread.
+         * Account of unknown balance (not refreshed yet or failed to refresh) gets as many sendings as account of
+         * average balance. Accounts without funds get no sendings, unless none has them
+         */
+        BALANCE_AWARE
+    }
+
+    private static interface Call<T> {
+        T call(MessageService service) throws ServiceBackendException, ServiceTechnicalException;
+    }
+
+    private static interface BatchCall<T> {
+        List<T> call(MessageService service, List<Long> messageIds) throws ServiceBackendException, ServiceTechnicalException;
+    }
+
+    private final List<Account> accounts;
+    private final LongSupplier clock;
+    private final Executor refreshExecutor;
+    private Balancing balancing = Balancing.WEIGHTED_ROUND_ROBIN;
+    private long balanceRefreshNanos = TimeUnit.MINUTES.toNanos(1);
+    private MessageOwnerIndex owners = new MessageOwnerIndex(100000);
+
+    private final AtomicBoolean refreshingBalances = new AtomicBoolean();
+    private volatile long balancesRefreshedAt;
+    private volatile boolean balancesRefreshed;
+    private final AtomicInteger rotation = new AtomicInteger();
+
+    /**
+     * Constructs the service with {@link TextMagicMessageService} for every account
+     *
+     * @param credentials passwords of TextMagic accounts by their usernames
+     */
+    public ShardedMessageService(Map<String, String> credentials) {
+        this(servicesOf(credentials));
+    }
+
+    /**
+     * @param services services of TextMagic accounts, each one using its own credentials
+     */
+    public ShardedMessageService(List<? extends MessageService> services) {
+        this(services, System::nanoTime, runnable -> {
+            Thread thread = new Thread(runnable, "textmagic-balance-refresh");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    ShardedMessageService(List<? extends MessageService> services, LongSupplier clock, Executor refreshExecutor) {
+        if (services.isEmpty() || services.size() >= Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Number of accounts " + services.size() + " is out of range");
+        }
+        List<Account> list = new ArrayList<Account>(services.size());
+        for (MessageService service : services) {
+            list.add(new Account(list.size(), service));
+        }
+        this.accounts = Collections.unmodifiableList(list);
+        this.clock = clock;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    private static List<MessageService> servicesOf(Map<String, String> credentials) {
+        List<MessageService> services = new ArrayList<MessageService>(credentials.size());
+        for (Map.Entry<String, String> account : credentials.entrySet()) {
+            services.add(new TextMagicMessageService(account.getKey(), account.getValue()));
+        }
+        return services;
+    }
+
+    /**
+     * @param balancing strategy of choosing account, {@link Balancing#WEIGHTED_ROUND_ROBIN} by default
+     */
+    public void setBalancing(Balancing balancing) {
+        this.balancing = balancing;
+    }
+
+    /**
+     * Sets weight of account used by {@link Balancing#WEIGHTED_ROUND_ROBIN} and {@link Balancing#LEAST_OUTSTANDING}
+     *
+     * @param account number of account in the order services were given
+     * @param weight positive weight, 1 by default
+     */
+    public void setWeight(int account, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight should be positive");
+        }
+        accounts.get(account).weight = weight;
+    }
+
+    /**
+     * @param interval how often balances are refreshed for {@link Balancing#BALANCE_AWARE}, 1 minute by default
+     * @param unit time unit of <tt>interval</tt>
+     */
+    public void setBalanceRefreshInterval(long interval, TimeUnit unit) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("Refresh interval should not be negative");
+        }
+        this.balanceRefreshNanos = unit.toNanos(interval);
+    }
+
+    /**
+     * @param maxTrackedMessages number of the latest message ids whose owners are remembered, 100000 by default
+     */
+    public void setMaxTrackedMessages(int maxTrackedMessages) {
+        this.owners = new MessageOwnerIndex(maxTrackedMessages);
+    }
+
+    /**
+     * @return number of account owning the message, <tt>-1</tt> if it is not known
+     */
+    public int getOwner(Long messageId) {
+        return owners.get(messageId);
+    }
+
+    public SentMessage send(String text, String phone) throws ServiceBackendException, ServiceTechnicalException {
+        Account account = choose();
+        SentMessage message = account.call(service -> service.send(text, phone));
+        track(account, Collections.singletonList(message));
+        return message;
+    }
+
+    public List<SentMessage> send(String text, List<String> phones) throws ServiceBackendException, ServiceTechnicalException {
+        Account account = choose();
+        return track(account, account.call(service -> service.send(text, phones)));
+    }
+
+    public List<SentMessage> send(String text, List<String> phones, boolean useUnicode, Integer maxLength) throws ServiceBackendException, ServiceTechnicalException {
+        Account account = choose();
+        return track(account, account.call(service -> service.send(text, phones, useUnicode, maxLength)));
+    }
+
+    public List<SentMessage> scheduleMessageSending(String text, List<String> phones, Date sendingTime, Integer maxLength) throws ServiceTechnicalException, ServiceBackendException {
+        Account account = choose();
+        return track(account, account.call(service -> service.scheduleMessageSending(text, phones, sendingTime, maxLength)));
+    }
+
+    public BigDecimal account() throws ServiceBackendException, ServiceTechnicalException {
+        BigDecimal total = BigDecimal.ZERO;
+        for (Account account : accounts) {
+            BigDecimal balance = account.call(service -> service.account());
+            account.balance = balance;
+            total = total.add(balance);
+        }
+        return total;
+    }
+
+    public MessageStatus messageStatus(Long messageId) throws ServiceBackendException, ServiceTechnicalException {
+        return callOwner(messageId, service -> service.messageStatus(messageId),
+                status -> messageId.equals(statusId(status)));
+    }
+
+    public List<MessageStatus> messageStatus(List<Long> messageIds) throws ServiceBackendException, ServiceTechnicalException {
+        return callOwners(messageIds, (service, ids) -> service.messageStatus(ids), ShardedMessageService::statusId);
+    }
+
+    public List<ReceivedMessage> receive() throws ServiceBackendException, ServiceTechnicalException {
+        return receiveAll(service -> service.receive());
+    }
+
+    /**
+     * Receives replies from all accounts, passing the same <tt>lastRecievedId</tt> to each of them
+     */
+    public List<ReceivedMessage> receive(Long lastRecievedId) throws ServiceBackendException, ServiceTechnicalException {
+        return receiveAll(service -> service.receive(lastRecievedId));
+    }
+
+    public List<Long> deleteReply(List<Long> messageIds) throws ServiceBackendException, ServiceTechnicalException {
+        return callOwners(messageIds, (service, ids) -> service.deleteReply(ids), id -> id);
+    }
+
+    public Long deleteReply(Long messageId) throws ServiceBackendException, ServiceTechnicalException {
+        return callOwner(messageId, service -> service.deleteReply(messageId), messageId::equals);
+    }
+
+    public PhoneInfo checkNumber(String phone) throws ServiceBackendException, ServiceTechnicalException {
+        return choose().call(service -> service.checkNumber(phone));
+    }
+
+    public List<PhoneInfo> checkNumbers(List<String> phones) throws ServiceBackendException, ServiceTechnicalException {
+        return choose().call(service -> service.checkNumbers(phones));
+    }
+
+    private List<ReceivedMessage> receiveAll(Call<List<ReceivedMessage>> call) throws ServiceBackendException, ServiceTechnicalException {
+        List<ReceivedMessage> received = new ArrayList<ReceivedMessage>();
+        for (Account account : accounts) {
+            received.addAll(track(account, account.call(call)));
+        }
+        return received;
+    }
+
+    /**
+     * Calls the owner of the message. If it is not known, accounts are called one by one until result of one of them
+     * is <tt>owned</tt>, that account is remembered as the owner. If none owns the message, the last failure is thrown,
+     * or the last not owned result is returned if no account failed
+     */
+    private <T> T callOwner(Long messageId, Call<T> call, Predicate<T> owned) throws ServiceBackendException, ServiceTechnicalException {
+        int owner = owners.get(messageId);
+        if (owner != MessageOwnerIndex.UNKNOWN) {
+            return accounts.get(owner).call(call);
+        }
+        ServiceBackendException failure = null;
+        T notOwned = null;
+        for (int i = 0; i < accounts.size(); i++) {
+            T result;
+            try {
+                result = accounts.get(i).call(call);
+            } catch (ServiceBackendException ex) {
+                failure = ex;
+                continue;
+            }
+            if (owned.test(result)) {
+                owners.put(messageId, i);
+                return result;
+            }
+            notOwned = result;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return notOwned;
+    }
+
+    /**
+     * Splits ids by owning accounts and calls each owner with its ids, ids of unknown owner are called one by one
+     */
+    private <T> List<T> callOwners(List<Long> messageIds, BatchCall<T> call, Function<T, Long> idOf) throws ServiceBackendException, ServiceTechnicalException {
+        Map<Integer, List<Long>> idsByOwner = new LinkedHashMap<Integer, List<Long>>();
+        for (Long messageId : messageIds) {
+            int owner = owners.get(messageId);
+            List<Long> ids = idsByOwner.get(owner);
+            if (ids == null) {
+                ids = new ArrayList<Long>();
+                idsByOwner.put(owner, ids);
+            }
+            ids.add(messageId);
+        }
+        List<T> results = new ArrayList<T>(messageIds.size());
+        for (Map.Entry<Integer, List<Long>> group : idsByOwner.entrySet()) {
+            final List<Long> ids = group.getValue();
+            if (group.getKey() != MessageOwnerIndex.UNKNOWN) {
+                results.addAll(accounts.get(group.getKey()).call(service -> call.call(service, ids)));
+            } else {
+                for (final Long messageId : ids) {
+                    results.addAll(callOwner(messageId, service -> call.call(service, Collections.singletonList(messageId)),
+                            answer -> answer != null && answer.size() == 1 && messageId.equals(idOf.apply(answer.get(0)))));
+                }
+            }
+        }
+        return results;
+    }
+
+    private static Long statusId(MessageStatus status) {
+        return status == null || status.getMessage() == null ? null : status.getMessage().getId();
+    }
+
+    private <T extends Message> List<T> track(Account account, List<T> messages) {
+        for (Message message : messages) {
+            if (message != null && message.getId() != null) {
+                owners.put(message.getId(), account.number);
+            }
+        }
+        return messages;
+    }
+
+    private Account choose() {
+        switch (balancing) {
+            case LEAST_OUTSTANDING:
+                return leastOutstanding();
+            case BALANCE_AWARE:
+                refreshBalancesIfStale();
+                return roundRobin(true);
+            default:
+                return roundRobin(false);
+        }
+    }
+
+    /**
+     * Smooth weighted round-robin: every account gains its weight, the richest one is chosen and loses total weight
+     */
+    private synchronized Account roundRobin(boolean byBalance) {
+        double total = 0;
+        Account chosen = null;
+        boolean anyFunded = false;
+        double fundedSum = 0;
+        int fundedCount = 0;
+        if (byBalance) {
+            for (Account account : accounts) {
+                BigDecimal balance = account.balance;
+                anyFunded |= balance == null || balance.signum() > 0;
+                if (balance != null && balance.signum() > 0) {
+                    fundedSum += balance.doubleValue();
+                    fundedCount++;
+                }
+            }
+        }
+        double averageBalance = fundedCount == 0 ? 1 : fundedSum / fundedCount;
+        for (Account account : accounts) {
+            double weight = byBalance ? balanceWeight(account, anyFunded, averageBalance) : account.weight;
+            account.currentWeight += weight;
+            total += weight;
+            if (weight > 0 && (chosen == null || account.currentWeight > chosen.currentWeight)) {
+                chosen = account;
+            }
+        }
+        if (chosen == null) {
+            return accounts.get(0);
+        }
+        chosen.currentWeight -= total;
+        return chosen;
+    }
+
+    /**
+     * Balance relative to average balance of funded accounts, so that account of unknown balance weighs as average one.
+     * Accounts without funds get no sendings, unless none has them
+     */
+    private static double balanceWeight(Account account, boolean anyFunded, double averageBalance) {
+        BigDecimal balance = account.balance;
+        if (balance == null) {
+            return 1;
+        }
+        return balance.signum() > 0 ? balance.doubleValue() / averageBalance : anyFunded ? 0 : 1;
+    }
+
+    private Account leastOutstanding() {
+        int size = accounts.size();
+        int start = Math.abs(rotation.getAndIncrement() % size);
+        Account chosen = null;
+        double chosenLoad = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Account account = accounts.get((start + i) % size);
+            double load = (double) account.outstanding.get() / account.weight;
+            if (load < chosenLoad) {
+                chosen = account;
+                chosenLoad = load;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * Starts refresh of balances in background, if they are stale. The sending goes on with balances known so far
+     */
+    private void refreshBalancesIfStale() {
+        if (balancesRefreshed && clock.getAsLong() - balancesRefreshedAt < balanceRefreshNanos) {
+            return;
+        }
+        if (!refreshingBalances.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(this::refreshBalances);
+        } catch (RejectedExecutionException ex) {
+            refreshingBalances.set(false);
+            log.warn("Couldn't start refresh of account balances: " + ex.getMessage());
+        }
+    }
+
+    private void refreshBalances() {
+        try {
+            for (Account account : accounts) {
+                try {
+                    account.balance = account.call(service -> service.account());
+                } catch (ServiceBackendException | ServiceTechnicalException ex) {
+                    log.warn("Couldn't refresh account balance: " + ex.getMessage());
+                }
+            }
+            balancesRefreshedAt = clock.getAsLong();
+            balancesRefreshed = true;
+        } finally {
+            refreshingBalances.set(false);
+        }
+    }
+
+    private static final class Account {
+        final int number;
+        final MessageService service;
+        final AtomicInteger outstanding = new AtomicInteger();
+        volatile int weight = 1;
+        volatile BigDecimal balance;
+        // guarded by the sharded service
+        double currentWeight;
+
+        Account(int number, MessageService service) {
+            this.number = number;
+            this.service = service;
+        }
+
+        <T> T call(Call<T> call) throws ServiceBackendException, ServiceTechnicalException {
+            outstanding.incrementAndGet();
+            try {
+                return call.call(service);
+            } finally {
+                outstanding.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.textmagic.sms;
+
+import com.textmagic.sms.core.parsing.ParsedResponse;
+import com.textmagic.sms.core.parsing.ResponseParsingException;
+
+import java.io.Reader;
+
+/**
+ * Single-pass parser of exact gateway command response read from stream
+ */
+interface StreamingResponseHandler<T> {
+    ParsedResponse<T> handle(Reader response) throws ResponseParsingException;
+}
@@ -0,0 +1,320 @@
+package com.textmagic.sms;
+
+import com.textmagic.sms.dto.SentMessage;
+import com.textmagic.sms.dto.MessageStatus;
+import com.textmagic.sms.dto.ReceivedMessage;
+import com.textmagic.sms.dto.PhoneInfo;
+import com.textmagic.sms.exception.ServiceBackendException;
+import com.textmagic.sms.exception.ServiceTechnicalException;
+import com.textmagic.sms.core.invoker.AsyncHttpServiceInvoker;
+import com.textmagic.sms.core.invoker.JdkHttpServiceInvoker;
+import com.textmagic.sms.core.parsing.TextMagicResponseParser;
+import com.textmagic.sms.core.parsing.ResponseParsingException;
+import com.textmagic.sms.core.parsing.TextMagicJSONResponseParser;
+import com.textmagic.sms.core.parsing.SinglePassResponseParser;
+import com.textmagic.sms.core.parsing.SinglePassResponseParserAdapter;
+import com.textmagic.sms.util.StringUtils;
+import com.textmagic.sms.util.GsmCharsetUtil;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.math.BigDecimal;
+
+/**
+ * Non-blocking Java facade for <a href="www.textmagic.com">TextMagic SMS Gateway</a> service.
+ * The class provides the same set of commands as {@link TextMagicMessageService}, but each method returns
+ * immediately with {@link CompletableFuture} of the result, so few threads can keep many gateway calls in flight.
+ * <br/><br/>
+ * Arguments are validated in the calling thread: invalid phone format, too long text etc. cause
+ * {@link IllegalArgumentException} to be thrown right away.
+ * The returned future completes exceptionally with:
+ * <ul>
+ *  <li>{@link com.textmagic.sms.exception.ServiceBackendException} if server responds with error code
+ *  <li>{@link ServiceTechnicalException} if http service call failed or response is unexpected
+ * </ul>
+ * The class use {@link AsyncHttpServiceInvoker} implementation for calling http service
+ * and {@link TextMagicResponseParser} implementation for parsing http api responses
+ */
+public class TextMagicAsyncMessageService implements AsyncMessageService {
+
+    private String login;
+    private String password;
+    AsyncHttpServiceInvoker invoker;
+    SinglePassResponseParser parser;
+
+    /**
+     * Constructs facade object.
+     *
+     * Initialize AsyncHttpServiceInvoker with non-blocking {@link JdkHttpServiceInvoker} implementation
+     * and TextMagicResponseParser with {@link TextMagicJSONResponseParser} implementation
+     *
+     * @param login your TextMagic account username
+     * @param password your TextMagic account password
+     */
+    public TextMagicAsyncMessageService(String login, String password) {
+        this(login, password, new JdkHttpServiceInvoker());
+    }
+
+    /**
+     * Constructs facade object with provided invoker.
+     *
+     * @param login your TextMagic account username
+     * @param password your TextMagic account password
+     * @param invoker appropriate implementation of {@link AsyncHttpServiceInvoker} to be used to call http api
+     */
+    public TextMagicAsyncMessageService(String login, String password, AsyncHttpServiceInvoker invoker) {
+        this.login = login;
+        this.password = password;
+        this.invoker = invoker;
+        this.parser = new TextMagicJSONResponseParser();
+    }
+
+    /**
+     * Sets alternative AsyncHttpServiceInvoker implementation
+     *
+     * @param invoker appropriate implementation of {@link AsyncHttpServiceInvoker} to be used to call http api
+     */
+    public void setInvoker(AsyncHttpServiceInvoker invoker) {
+        this.invoker = invoker;
+    }
+
+    /**
+     * Sets alternative TextMagicResponseParser implementation
+     *
+     * @param parser appropriate implementation of {@link TextMagicResponseParser} to be used to parse server response
+     */
+    public void setParser(TextMagicResponseParser parser) {
+        this.parser = SinglePassResponseParserAdapter.adapt(parser);
+    }
+
+    /**
+     * Non-blocking version of {@link TextMagicMessageService#send(String, String)}
+     *
+     * @param text message body to be sent. max length in case of plain message - 459 septets, in case of Unicode message - 201
+     * @param phone the msisdn of the message recipient
+     * @return future of populated SentMessage DTO
+     * @throws IllegalArgumentException if phone format is invalid, or text length is too long
+     */
+    public CompletableFuture<SentMessage> send(String text, String phone) {
+        return single(send(text, Arrays.asList(phone)), false);
+    }
+
+    /**
+     * Non-blocking version of {@link TextMagicMessageService#send(String, java.util.List)}
+     *
+     * @param text message body to be sent. max length in case of plain message - 459 septets, in case of Unicode message - 201
+     * @param phones list of msisdn of the message recipients
+     * @return future of list of populated {@link SentMessage} DTOs
+     * @throws IllegalArgumentException if one of phones format is invalid, or text length is too long
+     */
+    public CompletableFuture<List<SentMessage>> send(String text, List<String> phones) {
+        boolean useUnicode = !GsmCharsetUtil.isLegalString(text);
+        return sendInternal(text, TextMagicMessageService.MAX_SMS_PARTS_COUNT, useUnicode, phones, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Non-blocking version of {@link TextMagicMessageService#send(String, java.util.List, boolean, Integer)}
+     *
+     * @param text the message to be sent
+     * @param phones the list of msisdn the message should be sent to
+     * @param useUnicode specifies whether message contains non-GSM characters (true) or not (false)
+     * @param maxLength maximum number of parts the text can be divided. accepts 1-3 integer values included
+     * @return future of list of populated {@link SentMessage} DTOs
+     * @throws IllegalArgumentException if one of phones format is invalid, text length is too long, text contains non-GSM characters but useUnicode = false, maxLength in out of bounds
+     */
+    public CompletableFuture<List<SentMessage>> send(String text, List<String> phones, boolean useUnicode, Integer maxLength) {
+        if(maxLength > 3 || maxLength < 1) {
+            throw new IllegalArgumentException("maxLength value is invalid");
+        }
+        if(!useUnicode && ! GsmCharsetUtil.isLegalString(text)){
+            throw new IllegalArgumentException("Text '" +text + "' contains illegal characters. " +
+                    "Consider calling 'send' with useUnicode=true");
+        }
+        return sendInternal(text, maxLength, useUnicode, phones, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * The method for internal use. Do not checks validness of maxLength and Unicode parameters. But do check text length.
+     */
+    protected CompletableFuture<List<SentMessage>> sendInternal(String text, Integer maxLength, boolean useUnicode, List<String> phones, Map<String, String> auxValues) {
+        TextMagicMessageService.checkTextLength(text, maxLength, useUnicode);
+        validatePhonesFormat(phones);
+        Map<String, String> params = TextMagicMessageService.sendParameters(text, maxLength, useUnicode, phones, auxValues);
+        return invoke(TextMagicMessageService.SEND_COMMAND, params, response -> parser.parseSendResult(response));
+    }
+
+    /**
+     * Checks whether all phones in provided list have correct msisdn format
+     * <br/>
+     * The check is the same as {@link TextMagicMessageService#validatePhonesFormat(java.util.List)} does
+     *
+     * @param phones phone numbers to be validated
+     * @throws IllegalArgumentException if founds invalid phone number
+     */
+    protected void validatePhonesFormat(List<String> phones){
+        for (String phone : phones) {
+            if(!TextMagicMessageService.msisdnFormat.matcher(phone).matches()){
+                throw new IllegalArgumentException("Phone '" + phone + "' has invalid format");
+            }
+        }
+    }
+
+    /**
+     * Does main http api calling cycle asynchronously: calls http service and parses the response with <tt>handler</tt>
+     * in single pass, detecting whether the response contains error code.
+     * <br/>
+     * Failures are mapped the same way {@link TextMagicMessageService#invoke(String, java.util.Map, ResponseHandler)} does
+     *
+     * @param command http api command to be called
+     * @param params the parameters for http api command
+     * @param handler single-pass parser of command response
+     * @return future of parsed response
+     */
+    protected <T> CompletableFuture<T> invoke(final String command, Map<String, String> params, final ResponseHandler<T> handler) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        invoker.invokeAsync(login, password, command, params).whenComplete((response, failure) -> {
+            if (failure != null) {
+                result.completeExceptionally(new ServiceTechnicalException("Couldn't invoke service with '" + command + "' command",
+                        unwrap(failure)));
+                return;
+            }
+            try {
+                result.complete(handler.handle(response).getResult());
+            } catch (ServiceBackendException ex) {
+                result.completeExceptionally(ex);
+            } catch (ResponseParsingException ex) {
+                result.completeExceptionally(new ServiceTechnicalException(ex.getMessage(), ex));
+            } catch (RuntimeException ex) {
+                result.completeExceptionally(ex);
+            }
+        });
+        return result;
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            return failure.getCause();
+        }
+        return failure;
+    }
+
+    /**
+     * Converts future of list into future of its single element
+     *
+     * @param emptyAllowed whether empty list is a valid result (the future then completes with <tt>null</tt>)
+     */
+    private static <T> CompletableFuture<T> single(CompletableFuture<List<T>> future, final boolean emptyAllowed) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        future.whenComplete((list, failure) -> {
+            if (failure != null) {
+                result.completeExceptionally(unwrap(failure));
+            } else if (emptyAllowed && list.isEmpty()) {
+                result.complete(null);
+            } else if (list.size() != 1) {
+                result.completeExceptionally(new ServiceTechnicalException("The server response is unexpected. " +
+                        "The response object was not populated with single result: [" + Arrays.toString(list.toArray()) + "]"));
+            } else {
+                result.complete(list.get(0));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Non-blocking version of {@link TextMagicMessageService#account()}
+     *
+     * @return future of current balance value
+     */
+    public CompletableFuture<BigDecimal> account() {
+        Map<String, String> parameters = Collections.emptyMap();
+        return invoke(TextMagicMessageService.ACCOUNT_COMMAND, parameters, response -> parser.parseAccountResult(response));
+    }
+
+    /**
+     * Non-blocking version of {@link TextMagicMessageService#messageStatus(Long)}
+     *
+     * @param messageId id of the message, which status is to be queried
+     * @return future of status of requested message
+     */
+    public CompletableFuture<MessageStatus> messageStatus(Long messageId) {
+        return single(messageStatus(Arrays.asList(messageId)), true);
+    }
+
+    /**
+     * Non-blocking version of {@link TextMagicMessageService#messageStatus(java.util.List)}
+     *
+     * @param messageIds ids of the messages, whose statuses are to be queried
+     * @return future of list of {@link MessageStatus} DTOs
+     */
+    public CompletableFuture<List<MessageStatus>> messageStatus(List<Long> messageIds) {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("ids", StringUtils.join(messageIds, ","));
+        return invoke(TextMagicMessageService.MESSAGE_STATUS_COMMAND, params, response -> parser.parseMessageStatusResult(response));
+    }
+
+    /**
+     * Non-blocking version of {@link TextMagicMessageService#receive()}
+     *
+     * @return future of list of {@link ReceivedMessage} DTOs
+     */
+    public CompletableFuture<List<ReceivedMessage>> receive() {
+        return receive(0L);
+    }
+
+    /**
+     * Non-blocking version of {@link TextMagicMessageService#receive(Long)}
+     *
+     * @param lastRecievedId define min value for id of messages to be retrieved
+     * @return future of list of {@link ReceivedMessage} DTOs
+     */
+    public CompletableFuture<List<ReceivedMessage>> receive(Long lastRecievedId) {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("last_retrieved_id", lastRecievedId.toString());
+        return invoke(TextMagicMessageService.RECEIVE_COMMAND, params, response -> parser.parseReceiveResult(response));
+    }
+
+    /**
+     * Non-blocking version of {@link TextMagicMessageService#deleteReply(java.util.List)}
+     *
+     * @param messageIds ids of message to be deleted
+     * @return future of list of ids of messages being actually deleted
+     */
+    public CompletableFuture<List<Long>> deleteReply(List<Long> messageIds) {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("ids", StringUtils.join(messageIds, ","));
+        return invoke(TextMagicMessageService.DELETE_REPLY_COMMAND, params, response -> parser.parseDeleteReplyResult(response));
+    }
+
+    /**
+     * Non-blocking version of {@link TextMagicMessageService#deleteReply(Long)}
+     *
+     * @param messageId the id of the message to be deleted
+     * @return future of the id of the message being actually deleted
+     */
+    public CompletableFuture<Long> deleteReply(Long messageId) {
+        return single(deleteReply(Arrays.asList(messageId)), false);
+    }
+
+    /**
+     * Non-blocking version of {@link TextMagicMessageService#checkNumber(String)}
+     *
+     * @param phone MSISDN number to check
+     * @return future of {@link PhoneInfo} DTO
+     */
+    public CompletableFuture<PhoneInfo> checkNumber(String phone) {
+        return single(checkNumbers(Arrays.asList(phone)), false);
+    }
+
+    /**
+     * Non-blocking version of {@link TextMagicMessageService#checkNumbers(java.util.List)}
+     *
+     * @param phones MSISDNs to check
+     * @return future of list of {@link PhoneInfo} DTOs
+     */
+    public CompletableFuture<List<PhoneInfo>> checkNumbers(List<String> phones) {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("phone", StringUtils.join(phones, ","));
+        return invoke(TextMagicMessageService.CHECK_NUMBER_COMMAND, params, response -> parser.parseCheckNumberResult(response));
+    }
+}
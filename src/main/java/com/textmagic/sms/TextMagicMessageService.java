@@ -9,13 +9,31 @@ import com.textmagic.sms.exception.ServiceTechnicalException;
 import com.textmagic.sms.core.invoker.HttpServiceInvoker;
 import com.textmagic.sms.core.invoker.ServiceInvokerException;
 import com.textmagic.sms.core.invoker.HttpServiceInvokerImpl;
+import com.textmagic.sms.core.invoker.StreamingHttpServiceInvoker;
+import com.textmagic.sms.core.invoker.ResponseBody;
+import com.textmagic.sms.core.invoker.Deadline;
 import com.textmagic.sms.core.parsing.TextMagicResponseParser;
 import com.textmagic.sms.core.parsing.ResponseParsingException;
 import com.textmagic.sms.core.parsing.TextMagicJSONResponseParser;
+import com.textmagic.sms.core.parsing.SinglePassResponseParser;
+import com.textmagic.sms.core.parsing.SinglePassResponseParserAdapter;
+import com.textmagic.sms.core.parsing.StreamingResponseParser;
+import com.textmagic.sms.core.bulk.BulkExecutor;
+import com.textmagic.sms.core.bulk.BulkResult;
+import com.textmagic.sms.core.bulk.SendCoalescer;
+import com.textmagic.sms.core.bulk.StatusCollapser;
+import com.textmagic.sms.core.dedup.IdempotencyCache;
+import com.textmagic.sms.core.retry.RetryPolicy;
+import com.textmagic.sms.core.ratelimit.AccountRateLimiter;
 import com.textmagic.sms.util.StringUtils;
 import com.textmagic.sms.util.GsmCharsetUtil;
+import com.textmagic.sms.util.SegmentationUtil;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.math.BigDecimal;
 
@@ -25,28 +43,42 @@ import java.math.BigDecimal;
  * <br/><br/>
  * The class use {@link HttpServiceInvoker} implementation for calling http service
  * and {@link com.textmagic.sms.core.parsing.TextMagicResponseParser} implementation for parsing http api responses
+ * <br/><br/>
+ * When invoker implements {@link StreamingHttpServiceInvoker} and parser implements {@link StreamingResponseParser}
+ * (e.g. {@link com.textmagic.sms.core.parsing.TextMagicStreamingResponseParser}), responses are parsed straight from
+ * http connection stream without being read into String
  *
  * @author Rafael Bagmanov
  */
 public class TextMagicMessageService implements MessageService {
 
     // universal constants
-    private static final int MAX_SMS_PARTS_COUNT = 3;
-    private static final int MAX_PLAIN_SMS_TEXT_LENGTH = 160;
-    private static final int MAX_UNICODE_SMS_TEXT_LENGTH = 70;
+    static final int MAX_SMS_PARTS_COUNT = 3;
+    static final int BULK_SEND_CHUNK_SIZE = 100;
+    static final int IDEMPOTENCY_CACHE_SIZE = 10000;
+    static final long IDEMPOTENCY_TTL_MINUTES = 10;
 
     // http api commands
-    private static final String SEND_COMMAND = "send";
-    private static final String ACCOUNT_COMMAND = "account";
-    private static final String MESSAGE_STATUS_COMMAND = "message_status";
-    private static final String RECEIVE_COMMAND = "receive";
-    private static final String DELETE_REPLY_COMMAND = "delete_reply";
-    private static final String CHECK_NUMBER_COMMAND = "check_number";
+    static final String SEND_COMMAND = "send";
+    static final String ACCOUNT_COMMAND = "account";
+    static final String MESSAGE_STATUS_COMMAND = "message_status";
+    static final String RECEIVE_COMMAND = "receive";
+    static final String DELETE_REPLY_COMMAND = "delete_reply";
+    static final String CHECK_NUMBER_COMMAND = "check_number";
 
     private String login;
     private String password;
     HttpServiceInvoker invoker;
-    TextMagicResponseParser parser;
+    SinglePassResponseParser parser;
+    StreamingResponseParser streamingParser;
+    BulkExecutor bulkExecutor;
+    volatile SendCoalescer sendCoalescer;
+    volatile StatusCollapser statusCollapser;
+    volatile RetryPolicy retryPolicy;
+    volatile AccountRateLimiter rateLimiter;
+    final Map<String, Long> commandTimeouts = new ConcurrentHashMap<String, Long>();
+    // created on first idempotent send, unless set explicitly
+    volatile IdempotencyCache idempotencyCache;
 
     /**
      * Constructs facade object.
@@ -80,17 +112,177 @@ public class TextMagicMessageService implements MessageService {
      * @param parser appropriate implementation of {@link TextMagicResponseParser} to be used to parse server response
      */
     public void setParser(TextMagicResponseParser parser) {
-        this.parser = parser;
+        this.parser = SinglePassResponseParserAdapter.adapt(parser);
+        this.streamingParser = parser instanceof StreamingResponseParser ? (StreamingResponseParser) parser : null;
     }
 
 
+    /**
+     * Enables bulk execution mode.
+     * <br/>
+     * In bulk mode sending to phone lists, querying statuses of message lists and checking phone lists are split into
+     * chunks of {@link BulkExecutor#getChunkSize()} elements, and the chunks are called concurrently through <tt>bulkExecutor</tt>
+     * (see {@link BulkExecutor#virtualThreads(int, int)}). The invoker must be thread-safe in this mode.
+     * Lists which fit into one chunk are handled in calling thread as usual.
+     *
+     * @param bulkExecutor executor of chunked commands, <tt>null</tt> disables bulk mode
+     */
+    public void setBulkExecutor(BulkExecutor bulkExecutor) {
+        this.bulkExecutor = bulkExecutor;
+    }
+
+    /**
+     * Enables retries of failed http api calls.
+     * <br/>
+     * Read-only commands are retried on transient failures, while 'send' is retried only if the gateway
+     * provably did not receive it (see {@link RetryPolicy}). Calls are retried in calling thread.
+     *
+     * @param retryPolicy policy of retries, <tt>null</tt> (the default) disables retries
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Enables client side rate limiting of http api calls.
+     * <br/>
+     * Every call, including retries, takes permit for the account login and command from <tt>rateLimiter</tt>
+     * (see {@link AccountRateLimiter#acquirePermit(String, String)}) before the gateway is called.
+     * The same limiter can be shared by services of different accounts.
+     *
+     * @param rateLimiter limiter of calls rate, <tt>null</tt> (the default) disables rate limiting
+     */
+    public void setRateLimiter(AccountRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Sets default timeout of http api command. The call of the command, including retries and waiting for
+     * rate limiter, is aborted when the timeout expires. If the call is made within {@link Deadline}
+     * (see {@link #withDeadline(Deadline)}), the earlier of them applies.
+     *
+     * @param command http api command name, e.g. 'send'
+     * @param timeout time limit of the command call, 0 - removes the limit
+     * @param unit time unit of <tt>timeout</tt>
+     */
+    public void setCommandTimeout(String command, long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout should not be negative");
+        }
+        if (timeout == 0) {
+            commandTimeouts.remove(command);
+        } else {
+            commandTimeouts.put(command, unit.toNanos(timeout));
+        }
+    }
+
+    /**
+     * Returns view of the service which makes all calls within <tt>deadline</tt>.
+     * <br/>
+     * Calls in flight are aborted once deadline expires or is cancelled with {@link Deadline#cancel()} from any thread,
+     * and fail with {@link ServiceTechnicalException}. Abort is supported by {@link HttpServiceInvokerImpl} and
+     * {@link com.textmagic.sms.core.invoker.JdkHttpServiceInvoker}, other invokers are only not called after deadline.
+     * <br/>
+     * Usage:
+     * <pre>
+     *     service.withDeadline(Deadline.after(5, TimeUnit.SECONDS)).send(text, phone);
+     * </pre>
+     *
+     * @param deadline deadline of all calls made through the view
+     * @return lightweight view of the service
+     */
+    public MessageService withDeadline(Deadline deadline) {
+        return new DeadlineMessageService(this, deadline);
+    }
+
+    /**
+     * Convenient shortcut for <code>withDeadline(Deadline.after(timeout, unit))</code>.
+     * Note, that the deadline is started right away and is shared by all calls made through the view
+     */
+    public MessageService withTimeout(long timeout, TimeUnit unit) {
+        return withDeadline(Deadline.after(timeout, unit));
+    }
+
+    /**
+     * Sets alternative cache of idempotent send results. By default results are remembered for 10 minutes,
+     * up to 10000 keys (see {@link #sendIdempotent(String, String, java.util.List, boolean, Integer)})
+     *
+     * @param idempotencyCache cache of send results by idempotency key
+     */
+    public void setIdempotencyCache(IdempotencyCache idempotencyCache) {
+        this.idempotencyCache = idempotencyCache;
+    }
+
+    /**
+     * Enables coalescing of single recipient sends.
+     * <br/>
+     * Sends to one phone (e.g. {@link #send(String, String)}) of the same text, which are called concurrently within
+     * <tt>window</tt>, are merged into one 'send' command with up to <tt>maxBatchSize</tt> phones
+     * (see {@link SendCoalescer}). Each caller still gets its own {@link SentMessage}, but waits up to <tt>window</tt> longer.
+     * The invoker must be thread-safe in this mode.
+     *
+     * @param window how long the first send waits for others to join
+     * @param unit time unit of <tt>window</tt>
+     * @param maxBatchSize maximum number of phones in one merged command
+     */
+    public void enableSendCoalescing(long window, TimeUnit unit, int maxBatchSize) {
+        SendCoalescer previous = sendCoalescer;
+        sendCoalescer = new SendCoalescer((text, maxLength, useUnicode, phones) ->
+                sendChunk(text, maxLength, useUnicode, phones, Collections.<String, String>emptyMap()), window, unit, maxBatchSize);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Disables coalescing of single recipient sends. Pending sends are sent right away
+     */
+    public void disableSendCoalescing() {
+        SendCoalescer previous = sendCoalescer;
+        sendCoalescer = null;
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Enables collapsing of single message status lookups.
+     * <br/>
+     * Calls of {@link #messageStatus(Long)} made concurrently within <tt>window</tt> are merged into one
+     * 'message_status' command with up to <tt>maxBatchSize</tt> ids (see {@link StatusCollapser}).
+     * Each caller still gets the status of its own message, but waits up to <tt>window</tt> longer.
+     * The invoker must be thread-safe in this mode.
+     *
+     * @param window how long the first lookup waits for others to join
+     * @param unit time unit of <tt>window</tt>
+     * @param maxBatchSize maximum number of ids in one merged command
+     */
+    public void enableStatusCollapsing(long window, TimeUnit unit, int maxBatchSize) {
+        StatusCollapser previous = statusCollapser;
+        statusCollapser = new StatusCollapser(messageIds -> messageStatusChunk(messageIds), window, unit, maxBatchSize);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Disables collapsing of single message status lookups. Pending lookups are made right away
+     */
+    public void disableStatusCollapsing() {
+        StatusCollapser previous = statusCollapser;
+        statusCollapser = null;
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
     /**
      * Convenient shortcut for send(String text, List<String> phones, Integer maxLength, boolean useUnicode) method
      * maxLength is set to 3. <br/>
      * Value of useUnicode flag will be set based on whether <tt>text</tt> contains Unicode
      * (non GSM 03.38) characters
      *
-     * @param text message body to be sent. max length in case of plain message - 480, in case of Unicode message - 210
+     * @param text message body to be sent. max length in case of plain message - 459 septets, in case of Unicode message - 201
      * @param phone the msisdn of the message recipient
      * @return populated SentMessage DTO
      * @throws ServiceBackendException if server responds with error code
@@ -112,7 +304,7 @@ public class TextMagicMessageService implements MessageService {
      * Value of useUnicode flag will be set based on whether <tt>text</tt> contains Unicode
      * (non GSM 03.38) characters
      *
-     * @param text message body to be sent. max length in case of plain message - 480, in case of Unicode message - 210
+     * @param text message body to be sent. max length in case of plain message - 459 septets, in case of Unicode message - 201
      * @param phones list of msisdn of the message recipients
      * @return list of populated {@link SentMessage} DTOs
      * @throws ServiceBackendException if server responds with error code
@@ -134,7 +326,8 @@ public class TextMagicMessageService implements MessageService {
      * </ul>
      * <br/></br/>
      * One sms message can contain 160 symbols in case of plain text, and 70 in case of unicode.<br/>
-     * If the text length is not fit, the text can be divided into parts.<br/>
+     * If the text length is not fit, the text can be divided into parts of 153 and 67 symbols respectively.
+     * Extension characters of GSM 03.38 (<tt>^{}\[~]|€</tt>) take two symbols.<br/>
      * The <tt>maxLength</tt> parameter provides the ability to set the maximum amount of parts the message can be divided into.
      * Current standard do not supports more than 3 parts.
      *
@@ -160,6 +353,62 @@ public class TextMagicMessageService implements MessageService {
         return sendInternal(text, maxLength, useUnicode, phones, Collections.EMPTY_MAP);
     }
 
+    /**
+     * Convenient shortcut for <code>sendIdempotent(String key, String text, List&lt;String&gt; phones, boolean useUnicode, Integer maxLength)</code>
+     * method. maxLength is set to 3, value of useUnicode flag is set based on whether <tt>text</tt> contains Unicode
+     * (non GSM 03.38) characters
+     *
+     * @param key idempotency key of the send, e.g. id of business operation the message is sent for
+     * @param text message body to be sent. max length in case of plain message - 459 septets, in case of Unicode message - 201
+     * @param phones list of msisdn of the message recipients
+     * @return list of populated {@link SentMessage} DTOs
+     * @throws ServiceBackendException if server responds with error code
+     * @throws ServiceTechnicalException if server is inaccessible or response is unexpected
+     * @throws IllegalArgumentException if one of phones format is invalid, text length is too long, or the key was used for another message
+     */
+    public List<SentMessage> sendIdempotent(String key, String text, List<String> phones) throws ServiceBackendException, ServiceTechnicalException {
+        boolean useUnicode = !GsmCharsetUtil.isLegalString(text);
+        return sendIdempotent(key, text, phones, useUnicode, MAX_SMS_PARTS_COUNT);
+    }
+
+    /**
+     * Sends sms messages like {@link #send(String, java.util.List, boolean, Integer)} at most once per <tt>key</tt>.
+     * <br/><br/>
+     * Repeated calls with the same key get the result of the first successful call without calling the gateway,
+     * while it is kept in idempotency cache (see {@link #setIdempotencyCache(IdempotencyCache)}).
+     * Calls coming while the first one is in flight wait for its result. Failed calls are not remembered,
+     * so it is safe to retry the call with the same key until it succeeds.
+     *
+     * @param key idempotency key of the send, e.g. id of business operation the message is sent for
+     * @param text the message to be sent
+     * @param phones the list of msisdn the message should be sent to
+     * @param useUnicode specifies whether message contains non-GSM characters (true) or not (false)
+     * @param maxLength maximum number of parts the text can be divided. accepts 1-3 integer values included
+     * @return list of populated {@link SentMessage} DTOs
+     * @throws ServiceBackendException if server responds with error code
+     * @throws ServiceTechnicalException if server is inaccessible or response is unexpected
+     * @throws IllegalArgumentException if one of phones format is invalid, text length is too long, text contains non-GSM characters but useUnicode = false, maxLength in out of bounds, or the key was used for another message
+     */
+    public List<SentMessage> sendIdempotent(String key, final String text, final List<String> phones, final boolean useUnicode,
+                                            final Integer maxLength) throws ServiceBackendException, ServiceTechnicalException {
+        List<Object> fingerprint = Arrays.<Object>asList(text, new ArrayList<String>(phones), useUnicode, maxLength);
+        return idempotencyCache().execute(key, fingerprint, () -> send(text, phones, useUnicode, maxLength));
+    }
+
+    private IdempotencyCache idempotencyCache() {
+        IdempotencyCache cache = idempotencyCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = idempotencyCache;
+                if (cache == null) {
+                    cache = new IdempotencyCache(IDEMPOTENCY_CACHE_SIZE, IDEMPOTENCY_TTL_MINUTES, TimeUnit.MINUTES);
+                    idempotencyCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
     /**
      * Schedule sms message sending with <tt>text</tt> body to phones specified at exact time.
      *
@@ -196,28 +445,120 @@ public class TextMagicMessageService implements MessageService {
      * @throws ServiceBackendException
      * @throws ServiceTechnicalException
      */
-    protected List<SentMessage> sendInternal(String text, Integer maxLength, boolean useUnicode, List<String> phones, Map<String, String> auxValues) throws ServiceBackendException, ServiceTechnicalException {
-        int smsPartLength = useUnicode ? MAX_UNICODE_SMS_TEXT_LENGTH : MAX_PLAIN_SMS_TEXT_LENGTH;
-        if (smsPartLength * maxLength < text.length()) {
-            throw new IllegalArgumentException("Message text length is too long.");
+    protected List<SentMessage> sendInternal(final String text, final Integer maxLength, final boolean useUnicode, List<String> phones, final Map<String, String> auxValues) throws ServiceBackendException, ServiceTechnicalException {
+        checkTextLength(text, maxLength, useUnicode);
+        validatePhonesFormat(phones);
+        SendCoalescer coalescer = sendCoalescer;
+        if (coalescer != null && phones.size() == 1 && auxValues.isEmpty()) {
+            return Collections.singletonList(awaitCoalesced(coalescer.submit(text, maxLength, useUnicode, phones.get(0)), SEND_COMMAND));
+        }
+        if (bulkExecutor != null) {
+            return bulkExecutor.execute(phones, chunk -> sendChunk(text, maxLength, useUnicode, chunk, auxValues));
+        }
+        return sendChunk(text, maxLength, useUnicode, phones, auxValues);
+    }
+
+    private static <T> T awaitCoalesced(CompletableFuture<T> future, final String commandName) throws ServiceBackendException, ServiceTechnicalException {
+        final Deadline deadline = Deadline.current();
+        // the batch is sent anyway, the caller just stops waiting for it
+        Runnable deadlineWatch = deadline == null ? () -> { } : deadline.abortOnExpiry(() ->
+                future.completeExceptionally(new ServiceTechnicalException(deadline.expiryMessage(commandName))));
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ServiceTechnicalException("Waiting for coalesced '" + commandName + "' command was interrupted", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof ServiceBackendException) {
+                throw (ServiceBackendException) ex.getCause();
+            }
+            if (ex.getCause() instanceof ServiceTechnicalException) {
+                throw (ServiceTechnicalException) ex.getCause();
+            }
+            throw new ServiceTechnicalException(String.valueOf(ex.getCause().getMessage()), ex.getCause());
+        } finally {
+            deadlineWatch.run();
         }
+    }
+
+    private List<SentMessage> sendChunk(String text, Integer maxLength, boolean useUnicode, List<String> phones, Map<String, String> auxValues) throws ServiceBackendException, ServiceTechnicalException {
+        Map<String, String> params = sendParameters(text, maxLength, useUnicode, phones, auxValues);
+        return invoke(SEND_COMMAND, params, response -> parser.parseSendResult(response),
+                body -> streamingParser.parseSendResult(body));
+    }
+
+    /**
+     * Convenient shortcut for <code>sendBulk(String text, List&lt;String&gt; phones, boolean useUnicode, Integer maxLength)</code>
+     * method. maxLength is set to 3, value of useUnicode flag is set based on whether <tt>text</tt> contains Unicode
+     * (non GSM 03.38) characters
+     *
+     * @param text message body to be sent
+     * @param phones list of msisdn of the message recipients, of any size
+     * @return sent messages and failed chunks of recipients
+     * @throws IllegalArgumentException if one of phones format is invalid, or text length is too long
+     */
+    public BulkResult<String, SentMessage> sendBulk(String text, List<String> phones) {
+        boolean useUnicode = !GsmCharsetUtil.isLegalString(text);
+        return sendBulk(text, phones, useUnicode, MAX_SMS_PARTS_COUNT);
+    }
+
+    /**
+     * Sends sms messages with <tt>text</tt> body to huge list of phones.
+     * <br/><br/>
+     * The phones are split into chunks and every chunk is sent with separate 'send' command. The chunks are sent
+     * through bulk executor (see {@link #setBulkExecutor(BulkExecutor)}), or one by one in calling thread in chunks of
+     * 100 phones if bulk mode is disabled.
+     * Unlike {@link #send(String, java.util.List, boolean, Integer)} the method does not stop at failed chunk:
+     * messages sent by other chunks are returned along with failures, so failed recipients can be retried.
+     * <br/>
+     * Text and phones are validated before any chunk is sent.
+     *
+     * @param text the message to be sent
+     * @param phones the list of msisdn the message should be sent to, of any size
+     * @param useUnicode specifies whether message contains non-GSM characters (true) or not (false)
+     * @param maxLength maximum number of parts the text can be divided. accepts 1-3 integer values included
+     * @return sent messages and failed chunks of recipients
+     * @throws IllegalArgumentException if one of phones format is invalid, text length is too long, text contains non-GSM characters but useUnicode = false, maxLength in out of bounds
+     */
+    public BulkResult<String, SentMessage> sendBulk(final String text, List<String> phones, final boolean useUnicode, final Integer maxLength) {
+        if(maxLength > 3 || maxLength < 1) {
+            throw new IllegalArgumentException("maxLength value is invalid");
+        }
+        checkTextLength(text, maxLength, useUnicode);
         validatePhonesFormat(phones);
+        BulkExecutor executor = bulkExecutor != null ? bulkExecutor : new BulkExecutor(Runnable::run, 1, BULK_SEND_CHUNK_SIZE);
+        final Map<String, String> auxValues = Collections.emptyMap();
+        return executor.executeAll(phones, chunk -> sendChunk(text, maxLength, useUnicode, chunk, auxValues));
+    }
+
+    /**
+     * Checks whether <tt>text</tt> fits into <tt>maxLength</tt> sms parts.
+     * Parts are counted exactly as network splits the text (see {@link SegmentationUtil})
+     *
+     * @throws IllegalArgumentException if text length is too long, or plain text contains non-GSM characters
+     */
+    static void checkTextLength(String text, Integer maxLength, boolean useUnicode) {
+        int partsCount = SegmentationUtil.partsCount(text, useUnicode);
+        if (partsCount > maxLength) {
+            throw new IllegalArgumentException("Message text length is too long. The text takes " + partsCount +
+                    " sms parts, while at most " + maxLength + " are allowed");
+        }
+    }
+
+    /**
+     * Builds parameters of 'send' http api command
+     */
+    static Map<String, String> sendParameters(String text, Integer maxLength, boolean useUnicode, List<String> phones, Map<String, String> auxValues) {
         Map<String, String> params = new HashMap<String, String>();
         params.put("text", text);
         params.put("phone", StringUtils.join(phones, ","));
         params.put("unicode", useUnicode ? "1" : "0");
         params.put("max_length", maxLength.toString());
         params.putAll(auxValues);
-        try {
-            String response = invoke(SEND_COMMAND, params);
-            return parser.parseSendResponse(response);
-        } catch (ResponseParsingException ex) {
-            throw new ServiceTechnicalException(ex.getMessage(), ex);
-        }
-
+        return params;
     }
 
-    private final static Pattern msisdnFormat = Pattern.compile("^\\d{8,20}$");
+    final static Pattern msisdnFormat = Pattern.compile("^\\d{8,20}$");
 
     /**
      * Checks whether all phones in provided list have correct msisdn format
@@ -237,25 +578,109 @@ public class TextMagicMessageService implements MessageService {
     }
 
     /**
-     * Does main http api calling cycle: calls http service and check whether the response contains error code
+     * Does main http api calling cycle: calls http service and parses the response with <tt>handler</tt>
+     * in single pass, detecting whether the response contains error code
+     *
+     * @param command http api command to be called
+     * @param params the parameters for http api command
+     * @param handler single-pass parser of command response
+     * @return parsed command result
+     * @throws ServiceBackendException if http service return error code
+     * @throws ServiceTechnicalException if http service call failed or response could not be parsed
+     */
+    protected <T> T invoke(String command, Map<String, String> params, ResponseHandler<T> handler) throws ServiceBackendException, ServiceTechnicalException {
+        return invoke(command, params, handler, null);
+    }
+
+    /**
+     * Does main http api calling cycle. If both invoker and parser support streaming, response body is parsed
+     * with <tt>streamingHandler</tt> right from http connection, otherwise it is read into String and parsed with <tt>handler</tt>
+     * <br/>
+     * Failed calls are repeated if retry policy is set (see {@link #setRetryPolicy(RetryPolicy)}).
+     * Calls are delayed or rejected if rate limiter is set (see {@link #setRateLimiter(AccountRateLimiter)}).
+     * The call is made within deadline of calling thread and command timeout (see {@link #setCommandTimeout(String, long, java.util.concurrent.TimeUnit)})
      *
      * @param command http api command to be called
      * @param params the parameters for http api command
-     * @return backend response
-     * @throws ResponseParsingException if parser could not determine whether response contains error code
+     * @param handler single-pass parser of command response
+     * @param streamingHandler single-pass parser of command response stream, may be <tt>null</tt>
+     * @return parsed command result
      * @throws ServiceBackendException if http service return error code
-     * @throws ServiceTechnicalException if http service call failed
+     * @throws ServiceTechnicalException if http service call failed or response could not be parsed
      */
-    protected String invoke(String command, Map<String, String> params) throws ResponseParsingException, ServiceBackendException, ServiceTechnicalException {
+    protected <T> T invoke(String command, Map<String, String> params, ResponseHandler<T> handler,
+                           StreamingResponseHandler<T> streamingHandler) throws ServiceBackendException, ServiceTechnicalException {
+        Deadline outer = Deadline.current();
+        Long timeout = commandTimeouts.get(command);
+        if (timeout == null) {
+            return invokeWithRetries(command, params, handler, streamingHandler, outer);
+        }
+        Deadline deadline = outer == null ? Deadline.after(timeout, TimeUnit.NANOSECONDS) : outer.withTimeout(timeout, TimeUnit.NANOSECONDS);
+        Deadline.bind(deadline);
+        try {
+            return invokeWithRetries(command, params, handler, streamingHandler, deadline);
+        } finally {
+            Deadline.bind(outer);
+        }
+    }
+
+    private <T> T invokeWithRetries(String command, Map<String, String> params, ResponseHandler<T> handler,
+                                    StreamingResponseHandler<T> streamingHandler, Deadline deadline) throws ServiceBackendException, ServiceTechnicalException {
+        RetryPolicy policy = retryPolicy;
+        for (int attempt = 1; ; attempt++) {
+            if (deadline != null && deadline.isExpired()) {
+                throw new ServiceTechnicalException(deadline.expiryMessage(command));
+            }
+            acquirePermit(command);
+            try {
+                T result = invokeOnce(command, params, handler, streamingHandler);
+                if (policy != null) {
+                    policy.onSuccess();
+                }
+                return result;
+            } catch (ServiceInvokerException ex) {
+                if (policy == null || !policy.awaitRetry(command, ex, attempt)) {
+                    throw new ServiceTechnicalException("Couldn't invoke service with '" + command + "' command", ex);
+                }
+            } catch (ResponseParsingException ex) {
+                if (policy == null || !policy.awaitRetry(command, ex, attempt)) {
+                    throw new ServiceTechnicalException(ex.getMessage(), ex);
+                }
+            } catch (ServiceBackendException ex) {
+                if (policy == null || !policy.awaitRetry(command, ex, attempt)) {
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    private void acquirePermit(String command) throws ServiceTechnicalException {
+        AccountRateLimiter limiter = rateLimiter;
+        if (limiter == null) {
+            return;
+        }
         try {
-            String response = invoker.invoke(login, password, command, params);
-            if (parser.isFailureResponse(response)) {
-                throw parser.parseFailureResponse(response);
+            if (!limiter.acquirePermit(login, command)) {
+                throw new ServiceTechnicalException("Rate limit of '" + command + "' command is exceeded");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ServiceTechnicalException("Waiting for rate limit permit of '" + command + "' command was interrupted", ex);
+        }
+    }
+
+    private <T> T invokeOnce(String command, Map<String, String> params, ResponseHandler<T> handler,
+                             StreamingResponseHandler<T> streamingHandler) throws ServiceBackendException, ServiceInvokerException, ResponseParsingException {
+        if (streamingHandler != null && streamingParser != null && invoker instanceof StreamingHttpServiceInvoker) {
+            ResponseBody body = ((StreamingHttpServiceInvoker) invoker).invokeStreaming(login, password, command, params);
+            try {
+                return streamingHandler.handle(body.getReader()).getResult();
+            } finally {
+                body.close();
             }
-            return response;
-        } catch (ServiceInvokerException ex) {
-            throw new ServiceTechnicalException("Couldn't invoke service with '" + command + "' command", ex);
         }
+        String response = invoker.invoke(login, password, command, params);
+        return handler.handle(response).getResult();
     }
 
     /**
@@ -267,16 +692,14 @@ public class TextMagicMessageService implements MessageService {
      */
     public BigDecimal account() throws ServiceBackendException, ServiceTechnicalException {
         Map<String, String> parameters = Collections.emptyMap();
-        try {
-            String response = invoke(ACCOUNT_COMMAND, parameters);
-            return parser.parseAccountResponse(response);
-        } catch (ResponseParsingException ex) {
-             throw new ServiceTechnicalException(ex.getMessage(), ex);
-        }
+        return invoke(ACCOUNT_COMMAND, parameters, response -> parser.parseAccountResult(response),
+                body -> streamingParser.parseAccountResult(body));
     }
 
     /**
-     * This is convenient shortcut for <code>messageStatus(List&gtLong&lt messageIds)</code> method 
+     * This is convenient shortcut for <code>messageStatus(List&gtLong&lt messageIds)</code> method.
+     * Concurrent calls are merged into one command if status collapsing is enabled
+     * (see {@link #enableStatusCollapsing(long, java.util.concurrent.TimeUnit, int)})
      *
      * @param messageId id of the message, which status is to be queried
      * @return status of requested message
@@ -284,6 +707,10 @@ public class TextMagicMessageService implements MessageService {
      * @throws ServiceTechnicalException if http service call failed or response is unexpected
      */
     public MessageStatus messageStatus(Long messageId) throws ServiceBackendException, ServiceTechnicalException {
+        StatusCollapser collapser = statusCollapser;
+        if (collapser != null) {
+            return awaitCoalesced(collapser.submit(messageId), MESSAGE_STATUS_COMMAND);
+        }
         List<MessageStatus> list = messageStatus(Arrays.asList(messageId));
         if(list.isEmpty()) {
             return null;
@@ -304,14 +731,17 @@ public class TextMagicMessageService implements MessageService {
      * @throws ServiceTechnicalException if http service call failed or response is unexpected
      */
     public List<MessageStatus> messageStatus(List<Long> messageIds) throws ServiceBackendException, ServiceTechnicalException {
+        if (bulkExecutor != null) {
+            return bulkExecutor.execute(messageIds, chunk -> messageStatusChunk(chunk));
+        }
+        return messageStatusChunk(messageIds);
+    }
+
+    private List<MessageStatus> messageStatusChunk(List<Long> messageIds) throws ServiceBackendException, ServiceTechnicalException {
         Map<String, String> params = new HashMap<String, String>();
         params.put("ids",StringUtils.join(messageIds, ","));
-        try {
-            String response = invoke(MESSAGE_STATUS_COMMAND, params);
-            return parser.parseMessageStatusResponse(response);
-        } catch (ResponseParsingException ex) {
-            throw new ServiceTechnicalException(ex.getMessage(), ex);
-        }
+        return invoke(MESSAGE_STATUS_COMMAND, params, response -> parser.parseMessageStatusResult(response),
+                body -> streamingParser.parseMessageStatusResult(body));
     }
 
     /**
@@ -340,12 +770,8 @@ public class TextMagicMessageService implements MessageService {
     public List<ReceivedMessage> receive(Long lastRecievedId) throws ServiceBackendException, ServiceTechnicalException {
         Map<String, String> params = new HashMap<String, String>();
         params.put("last_retrieved_id", lastRecievedId.toString());
-        try {
-            String response = invoke(RECEIVE_COMMAND, params);
-            return parser.parseReceiveResponse(response);
-        } catch (ResponseParsingException ex) {
-            throw new ServiceTechnicalException(ex.getMessage(), ex);
-        }
+        return invoke(RECEIVE_COMMAND, params, response -> parser.parseReceiveResult(response),
+                body -> streamingParser.parseReceiveResult(body));
     }
 
     /**
@@ -361,12 +787,8 @@ public class TextMagicMessageService implements MessageService {
     public List<Long> deleteReply(List<Long> messageIds) throws ServiceBackendException, ServiceTechnicalException {
         Map<String, String> params = new HashMap<String, String>();
         params.put("ids",StringUtils.join(messageIds, ","));
-        try {
-            String response = invoke(DELETE_REPLY_COMMAND, params);
-            return parser.parseDeleteReplyResponse(response);
-        } catch (ResponseParsingException ex) {
-            throw new ServiceTechnicalException(ex.getMessage(), ex);
-        }
+        return invoke(DELETE_REPLY_COMMAND, params, response -> parser.parseDeleteReplyResult(response),
+                body -> streamingParser.parseDeleteReplyResult(body));
     }
 
     /**
@@ -412,13 +834,16 @@ public class TextMagicMessageService implements MessageService {
      * @throws ServiceTechnicalException if http service call failed or response is unexpected
      */
     public List<PhoneInfo> checkNumbers(List<String> phones) throws ServiceBackendException, ServiceTechnicalException {
+        if (bulkExecutor != null) {
+            return bulkExecutor.execute(phones, chunk -> checkNumbersChunk(chunk));
+        }
+        return checkNumbersChunk(phones);
+    }
+
+    private List<PhoneInfo> checkNumbersChunk(List<String> phones) throws ServiceBackendException, ServiceTechnicalException {
         Map<String, String> params = new HashMap<String, String>();
         params.put("phone", StringUtils.join(phones, ","));
-        try {
-            String response = invoke(CHECK_NUMBER_COMMAND, params);
-            return parser.parseCheckNumberResponse(response);
-        } catch (ResponseParsingException ex) {
-            throw new ServiceTechnicalException(ex.getMessage(), ex);
-        }
+        return invoke(CHECK_NUMBER_COMMAND, params, response -> parser.parseCheckNumberResult(response),
+                body -> streamingParser.parseCheckNumberResult(body));
     }
 }
@@ -0,0 +1,307 @@
+package com.textmagic.sms.core.bulk;
+
+import com.textmagic.sms.core.invoker.Deadline;
+import com.textmagic.sms.exception.ServiceBackendException;
+import com.textmagic.sms.exception.ServiceException;
+import com.textmagic.sms.exception.ServiceTechnicalException;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <code>BulkExecutor</code> splits bulk gateway commands (sending to large phone lists, querying statuses of many messages etc.)
+ * into chunks of <tt>chunkSize</tt> elements and runs chunks concurrently, one task per chunk.
+ * <br/><br/>
+ * The number of chunks in flight is capped with <tt>maxConcurrency</tt>: the calling thread waits for a free slot
+ * before it dispatches next chunk. Since every chunk task is a plain blocking gateway call, the executor is best
+ * backed by virtual threads (see {@link #virtualThreads(int, int)}), so no platform thread pool needs to be sized.
+ * Virtual threads require JDK 21 or later, on older JVMs daemon platform threads are used instead.
+ */
+public class BulkExecutor {
+
+    /**
+     * The gateway command applied to one chunk of bulk command elements
+     */
+    public static interface ChunkTask<E, R> {
+        List<R> execute(List<E> chunk) throws ServiceBackendException, ServiceTechnicalException;
+    }
+
+    private final Executor executor;
+    private final int maxConcurrency;
+    private final int chunkSize;
+
+    /**
+     * @param executor executor to run chunk tasks on
+     * @param maxConcurrency maximum number of chunks being executed at the same time
+     * @param chunkSize maximum number of elements in one chunk
+     */
+    public BulkExecutor(Executor executor, int maxConcurrency, int chunkSize) {
+        if (maxConcurrency < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("maxConcurrency and chunkSize should be positive");
+        }
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Constructs executor which runs every chunk on its own virtual thread.
+     * If the running JVM does not support virtual threads (they require JDK 21), daemon platform threads of cached pool
+     * are used instead (their number is bounded by <tt>maxConcurrency</tt> anyway, idle ones end after a minute).
+     * <br/>
+     * All bulk executors constructed this way share the same underlying executor, it is never shut down.
+     *
+     * @param maxConcurrency maximum number of chunks being executed at the same time
+     * @param chunkSize maximum number of elements in one chunk
+     * @return bulk executor
+     */
+    public static BulkExecutor virtualThreads(int maxConcurrency, int chunkSize) {
+        return new BulkExecutor(threadPerTaskExecutor(), maxConcurrency, chunkSize);
+    }
+
+    /**
+     * @return executor shared by all bulk executors, coalescers and collapsers which are not given their own one
+     */
+    static Executor threadPerTaskExecutor() {
+        return SharedExecutor.INSTANCE;
+    }
+
+    private static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception ex) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "textmagic-bulk");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Splits <tt>elements</tt> into chunks, executes <tt>task</tt> for each chunk concurrently and joins chunk results
+     * in order of chunks. If elements fit into single chunk, the task is executed in calling thread.
+     * <br/>
+     * When some chunk fails, no more chunks are dispatched and the failure is rethrown after chunks in flight are over.
+     * Note, that chunks completed before the failure are not rolled back.
+     *
+     * @param elements bulk command elements
+     * @param task gateway command to apply to each chunk
+     * @return joined results of all chunks
+     * @throws ServiceBackendException if some chunk failed with server error code
+     * @throws ServiceTechnicalException if some chunk failed technically or the calling thread was interrupted
+     */
+    public <E, R> List<R> execute(List<E> elements, final ChunkTask<E, R> task) throws ServiceBackendException, ServiceTechnicalException {
+        if (elements.size() <= chunkSize) {
+            return task.execute(elements);
+        }
+        final Deadline deadline = Deadline.current();
+        final Semaphore slots = new Semaphore(maxConcurrency);
+        final AtomicBoolean failed = new AtomicBoolean();
+        final List<CompletableFuture<List<R>>> futures = new ArrayList<CompletableFuture<List<R>>>();
+        try {
+            for (int from = 0; from < elements.size(); from += chunkSize) {
+                final List<E> chunk = elements.subList(from, Math.min(from + chunkSize, elements.size()));
+                slots.acquire();
+                if (failed.get()) {
+                    slots.release();
+                    break;
+                }
+                final CompletableFuture<List<R>> future = new CompletableFuture<List<R>>();
+                futures.add(future);
+                try {
+                    executor.execute(() -> {
+                        try {
+                            future.complete(executeWithin(deadline, task, chunk));
+                        } catch (Throwable ex) {
+                            failed.set(true);
+                            future.completeExceptionally(ex);
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                } catch (RejectedExecutionException ex) {
+                    slots.release();
+                    future.completeExceptionally(new ServiceTechnicalException("Bulk chunk execution was rejected", ex));
+                    break;
+                }
+            }
+            List<R> result = new ArrayList<R>(elements.size());
+            ServiceException failure = null;
+            for (CompletableFuture<List<R>> future : futures) {
+                try {
+                    result.addAll(future.get());
+                } catch (ExecutionException ex) {
+                    if (failure == null) {
+                        failure = asServiceException(ex.getCause());
+                    }
+                }
+            }
+            if (failure instanceof ServiceBackendException) {
+                throw (ServiceBackendException) failure;
+            } else if (failure != null) {
+                throw (ServiceTechnicalException) failure;
+            }
+            return result;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            for (CompletableFuture<List<R>> future : futures) {
+                future.cancel(false);
+            }
+            throw new ServiceTechnicalException("Bulk execution was interrupted", ex);
+        }
+    }
+
+    /**
+     * Splits <tt>elements</tt> into chunks and executes <tt>task</tt> for each chunk concurrently, like
+     * {@link #execute(java.util.List, BulkExecutor.ChunkTask)} does, but never stops on chunk failure:
+     * all chunks are executed and each failure is reported with elements of the failed chunk.
+     * <br/>
+     * If the calling thread is interrupted, no more chunks are dispatched and not dispatched chunks are reported
+     * as failed; chunks in flight are still awaited, so their outcome is known. The interrupt status is kept.
+     *
+     * @param elements bulk command elements
+     * @param task gateway command to apply to each chunk
+     * @return joined results of succeeded chunks and failures of the others
+     */
+    public <E, R> BulkResult<E, R> executeAll(List<E> elements, final ChunkTask<E, R> task) {
+        final Deadline deadline = Deadline.current();
+        final Semaphore slots = new Semaphore(maxConcurrency);
+        final List<CompletableFuture<List<R>>> futures = new ArrayList<CompletableFuture<List<R>>>();
+        final List<List<E>> chunks = new ArrayList<List<E>>();
+        boolean interrupted = false;
+        for (int from = 0; from < elements.size(); from += chunkSize) {
+            final List<E> chunk = new ArrayList<E>(elements.subList(from, Math.min(from + chunkSize, elements.size())));
+            final CompletableFuture<List<R>> future = new CompletableFuture<List<R>>();
+            chunks.add(chunk);
+            futures.add(future);
+            if (interrupted) {
+                future.completeExceptionally(new ServiceTechnicalException("Bulk execution was interrupted"));
+                continue;
+            }
+            try {
+                slots.acquire();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+                future.completeExceptionally(new ServiceTechnicalException("Bulk execution was interrupted", ex));
+                continue;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        future.complete(executeWithin(deadline, task, chunk));
+                    } catch (Throwable ex) {
+                        future.completeExceptionally(ex);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                slots.release();
+                future.completeExceptionally(new ServiceTechnicalException("Bulk chunk execution was rejected", ex));
+            }
+        }
+        List<R> results = new ArrayList<R>(elements.size());
+        List<ChunkFailure<E>> failures = new ArrayList<ChunkFailure<E>>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.addAll(awaitUninterruptibly(futures.get(i)));
+            } catch (ExecutionException ex) {
+                failures.add(new ChunkFailure<E>(i, chunks.get(i), asChunkFailureCause(ex.getCause())));
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return new BulkResult<E, R>(results, failures);
+    }
+
+    /**
+     * Executes the chunk within deadline of the thread which started bulk execution
+     */
+    private static <E, R> List<R> executeWithin(Deadline deadline, ChunkTask<E, R> task, List<E> chunk) throws ServiceBackendException, ServiceTechnicalException {
+        Deadline previous = Deadline.bind(deadline);
+        try {
+            return task.execute(chunk);
+        } finally {
+            Deadline.bind(previous);
+        }
+    }
+
+    /**
+     * Splits merged batch in two halves keeping order of elements, so that failing element is isolated
+     * in O(log n) calls instead of n
+     */
+    static <K, V> List<Map<K, V>> halves(Map<K, V> batch) {
+        Map<K, V> first = new LinkedHashMap<K, V>();
+        Map<K, V> second = new LinkedHashMap<K, V>();
+        for (Map.Entry<K, V> entry : batch.entrySet()) {
+            (first.size() < batch.size() / 2 ? first : second).put(entry.getKey(), entry.getValue());
+        }
+        List<Map<K, V>> halves = new ArrayList<Map<K, V>>(2);
+        halves.add(first);
+        halves.add(second);
+        return halves;
+    }
+
+    private static <T> T awaitUninterruptibly(CompletableFuture<T> future) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static ServiceException asChunkFailureCause(Throwable cause) {
+        if (cause instanceof ServiceBackendException || cause instanceof ServiceTechnicalException) {
+            return (ServiceException) cause;
+        }
+        return new ServiceTechnicalException(String.valueOf(cause.getMessage()), cause);
+    }
+
+    private static ServiceException asServiceException(Throwable cause) {
+        if (cause instanceof ServiceBackendException || cause instanceof ServiceTechnicalException) {
+            return (ServiceException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new ServiceTechnicalException(cause.getMessage(), cause);
+    }
+
+    private static final class SharedExecutor {
+        static final ExecutorService INSTANCE = newThreadPerTaskExecutor();
+    }
+}
@@ -0,0 +1,58 @@
+package com.textmagic.sms.core.bulk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Aggregated outcome of bulk command: joined results of succeeded chunks and failures of the others.
+ */
+public final class BulkResult<E, R> {
+    private final List<R> results;
+    private final List<ChunkFailure<E>> failures;
+
+    BulkResult(List<R> results, List<ChunkFailure<E>> failures) {
+        this.results = Collections.unmodifiableList(results);
+        this.failures = Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * @return results of succeeded chunks in order of chunks
+     */
+    public List<R> getResults() {
+        return results;
+    }
+
+    /**
+     * @return failed chunks in order of chunks
+     */
+    public List<ChunkFailure<E>> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return true - if all chunks succeeded
+     */
+    public boolean isComplete() {
+        return failures.isEmpty();
+    }
+
+    /**
+     * @return elements of all failed chunks
+     */
+    public List<E> getFailedElements() {
+        List<E> elements = new ArrayList<E>();
+        for (ChunkFailure<E> failure : failures) {
+            elements.addAll(failure.getElements());
+        }
+        return elements;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkResult{" +
+                "results=" + results.size() +
+                ", failures=" + failures +
+                '}';
+    }
+}
@@ -0,0 +1,52 @@
+package com.textmagic.sms.core.bulk;
+
+import com.textmagic.sms.exception.ServiceException;
+
+import java.util.List;
+
+/**
+ * Failure of one chunk of bulk command (see {@link BulkExecutor#executeAll(java.util.List, BulkExecutor.ChunkTask)}).
+ * Holds chunk elements, so the chunk can be inspected or resubmitted.
+ */
+public final class ChunkFailure<E> {
+    private final int chunkIndex;
+    private final List<E> elements;
+    private final ServiceException cause;
+
+    ChunkFailure(int chunkIndex, List<E> elements, ServiceException cause) {
+        this.chunkIndex = chunkIndex;
+        this.elements = elements;
+        this.cause = cause;
+    }
+
+    /**
+     * @return zero based index of the chunk in bulk command
+     */
+    public int getChunkIndex() {
+        return chunkIndex;
+    }
+
+    /**
+     * @return elements of failed chunk
+     */
+    public List<E> getElements() {
+        return elements;
+    }
+
+    /**
+     * @return {@link com.textmagic.sms.exception.ServiceBackendException} or
+     * {@link com.textmagic.sms.exception.ServiceTechnicalException} the chunk failed with
+     */
+    public ServiceException getCause() {
+        return cause;
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkFailure{" +
+                "chunkIndex=" + chunkIndex +
+                ", elements=" + elements.size() +
+                ", cause=" + cause +
+                '}';
+    }
+}
@@ -0,0 +1,266 @@
+package com.textmagic.sms.core.bulk;
+
+import com.textmagic.sms.dto.SentMessage;
+import com.textmagic.sms.exception.ServiceBackendException;
+import com.textmagic.sms.exception.ServiceTechnicalException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>SendCoalescer</code> merges single recipient sends of the same text into multi-phone 'send' commands.
+ * <br/><br/>
+ * Sends sharing text, unicode flag and max length, which are submitted within <tt>window</tt> of the first one,
+ * are sent together with one command. The batch is sent earlier if it reaches <tt>maxBatchSize</tt> phones.
+ * Each submitter gets its own {@link SentMessage}, matched by recipient phone. A phone is never put into
+ * one batch twice: repeated phone closes current batch and starts a new one.
+ * <br/>
+ * If the merged command fails with {@link ServiceBackendException} (e.g. one of the phones is invalid), the batch is
+ * split in halves which are sent again, recursively, so that the error reaches only submitters of the faulty phone
+ * and a single faulty phone costs O(log n) extra calls. The gateway sends nothing when it rejects the command,
+ * so the phones are not sent twice.
+ * <br/><br/>
+ * The coalescer trades up to <tt>window</tt> of latency for fewer gateway calls, so it pays off only when
+ * the same text is sent to many phones at high rate. It should be closed with {@link #close()} when not needed anymore.
+ */
+public class SendCoalescer {
+
+    /**
+     * Sends one merged batch with single 'send' command
+     */
+    public static interface BatchSender {
+        List<SentMessage> send(String text, Integer maxLength, boolean useUnicode, List<String> phones) throws ServiceBackendException, ServiceTechnicalException;
+    }
+
+    private final BatchSender sender;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final Executor executor;
+    private final ScheduledExecutorService scheduler;
+    private final Map<BatchKey, Batch> pending = new HashMap<BatchKey, Batch>();
+    private boolean closed;
+
+    /**
+     * Constructs coalescer which sends batches on virtual threads (or daemon threads, if virtual ones are not supported)
+     * shared with {@link BulkExecutor#virtualThreads(int, int)}
+     *
+     * @param sender the command merged batches are sent with
+     * @param window how long the first send of batch waits for others
+     * @param unit time unit of <tt>window</tt>
+     * @param maxBatchSize maximum number of phones in one batch
+     */
+    public SendCoalescer(BatchSender sender, long window, TimeUnit unit, int maxBatchSize) {
+        this(sender, window, unit, maxBatchSize, BulkExecutor.threadPerTaskExecutor());
+    }
+
+    /**
+     * @param sender the command merged batches are sent with
+     * @param window how long the first send of batch waits for others
+     * @param unit time unit of <tt>window</tt>
+     * @param maxBatchSize maximum number of phones in one batch
+     * @param executor executor batches are sent on
+     */
+    public SendCoalescer(BatchSender sender, long window, TimeUnit unit, int maxBatchSize, Executor executor) {
+        if (window < 0 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("window should not be negative and maxBatchSize should be positive");
+        }
+        this.sender = sender;
+        this.windowNanos = unit.toNanos(window);
+        this.maxBatchSize = maxBatchSize;
+        this.executor = executor;
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "textmagic-send-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Submits single recipient send. Text and phone are expected to be validated already
+     *
+     * @return future of sent message. The future completes exceptionally with {@link ServiceBackendException} or
+     * {@link ServiceTechnicalException} if the batch failed
+     */
+    public CompletableFuture<SentMessage> submit(String text, Integer maxLength, boolean useUnicode, String phone) {
+        CompletableFuture<SentMessage> future = new CompletableFuture<SentMessage>();
+        BatchKey key = new BatchKey(text, maxLength, useUnicode);
+        Batch full = null;
+        Batch repeated = null;
+        synchronized (pending) {
+            if (closed) {
+                future.completeExceptionally(new ServiceTechnicalException("Send coalescer is closed"));
+                return future;
+            }
+            Batch batch = pending.get(key);
+            if (batch != null && batch.futures.containsKey(phone)) {
+                // the batch is replaced in pending map below, so its timer flush becomes no-op
+                repeated = batch;
+                batch = null;
+            }
+            if (batch == null) {
+                batch = new Batch(key);
+                pending.put(key, batch);
+                if (windowNanos > 0 && maxBatchSize > 1) {
+                    final Batch scheduled = batch;
+                    scheduled.timer = scheduler.schedule(() -> flush(scheduled), windowNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+            batch.futures.put(phone, future);
+            if (batch.futures.size() >= maxBatchSize || windowNanos == 0) {
+                pending.remove(key);
+                full = batch;
+            }
+        }
+        if (repeated != null) {
+            dispatch(repeated);
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        return future;
+    }
+
+    /**
+     * @return number of sends waiting for their batch to be sent
+     */
+    public int getPendingCount() {
+        synchronized (pending) {
+            int count = 0;
+            for (Batch batch : pending.values()) {
+                count += batch.futures.size();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Sends all pending batches right away and stops accepting new sends
+     */
+    public void close() {
+        List<Batch> batches;
+        synchronized (pending) {
+            closed = true;
+            batches = new ArrayList<Batch>(pending.values());
+            pending.clear();
+        }
+        for (Batch batch : batches) {
+            dispatch(batch);
+        }
+        scheduler.shutdown();
+    }
+
+    private void flush(Batch batch) {
+        synchronized (pending) {
+            if (pending.get(batch.key) != batch) {
+                return;
+            }
+            pending.remove(batch.key);
+        }
+        dispatch(batch);
+    }
+
+    private void dispatch(final Batch batch) {
+        if (batch.timer != null) {
+            batch.timer.cancel(false);
+        }
+        try {
+            executor.execute(() -> send(batch.key, batch.futures));
+        } catch (RejectedExecutionException ex) {
+            fail(batch.futures, new ServiceTechnicalException("Coalesced send was rejected", ex));
+        }
+    }
+
+    private void send(BatchKey key, Map<String, CompletableFuture<SentMessage>> futures) {
+        List<SentMessage> messages;
+        try {
+            messages = sender.send(key.text, key.maxLength, key.useUnicode, new ArrayList<String>(futures.keySet()));
+        } catch (ServiceBackendException ex) {
+            if (futures.size() == 1) {
+                fail(futures, ex);
+            } else {
+                // isolates the faulty phone
+                for (Map<String, CompletableFuture<SentMessage>> half : BulkExecutor.halves(futures)) {
+                    send(key, half);
+                }
+            }
+            return;
+        } catch (Throwable ex) {
+            fail(futures, ex instanceof ServiceTechnicalException ? ex : new ServiceTechnicalException(String.valueOf(ex.getMessage()), ex));
+            return;
+        }
+        Map<String, Queue<SentMessage>> byPhone = new HashMap<String, Queue<SentMessage>>();
+        for (SentMessage message : messages) {
+            byPhone.computeIfAbsent(message.getRecipientPhone(), phone -> new ArrayDeque<SentMessage>()).add(message);
+        }
+        for (Map.Entry<String, CompletableFuture<SentMessage>> entry : futures.entrySet()) {
+            Queue<SentMessage> phoneMessages = byPhone.get(entry.getKey());
+            SentMessage message = phoneMessages == null ? null : phoneMessages.poll();
+            if (message != null) {
+                entry.getValue().complete(message);
+            } else {
+                entry.getValue().completeExceptionally(new ServiceTechnicalException("The server response is unexpected. " +
+                        "No message was sent to phone '" + entry.getKey() + "': " + messages));
+            }
+        }
+    }
+
+    private static void fail(Map<String, CompletableFuture<SentMessage>> futures, Throwable cause) {
+        for (CompletableFuture<SentMessage> future : futures.values()) {
+            future.completeExceptionally(cause);
+        }
+    }
+
+    private static final class BatchKey {
+        private final String text;
+        private final Integer maxLength;
+        private final boolean useUnicode;
+
+        BatchKey(String text, Integer maxLength, boolean useUnicode) {
+            this.text = text;
+            this.maxLength = maxLength;
+            this.useUnicode = useUnicode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BatchKey)) {
+                return false;
+            }
+            BatchKey other = (BatchKey) o;
+            return useUnicode == other.useUnicode && text.equals(other.text) && maxLength.equals(other.maxLength);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * text.hashCode() + maxLength.hashCode()) + (useUnicode ? 1 : 0);
+        }
+    }
+
+    private static final class Batch {
+        private final BatchKey key;
+        // phone -> submitter future, in submission order
+        private final Map<String, CompletableFuture<SentMessage>> futures = new LinkedHashMap<String, CompletableFuture<SentMessage>>();
+        private ScheduledFuture<?> timer;
+
+        Batch(BatchKey key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.textmagic.sms.core.bulk;
+
+import com.textmagic.sms.dto.MessageStatus;
+import com.textmagic.sms.exception.ServiceBackendException;
+import com.textmagic.sms.exception.ServiceTechnicalException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>StatusCollapser</code> merges single message status lookups into multi-id 'message_status' commands.
+ * <br/><br/>
+ * Lookups submitted within <tt>window</tt> of the first one are made with one command, which is sent earlier if it
+ * reaches <tt>maxBatchSize</tt> ids. Concurrent lookups of the same id share one result. Each submitter gets the status
+ * of its own message, matched by message id, or <tt>null</tt> if the gateway did not return it.
+ * <br/>
+ * If the merged command fails with {@link ServiceBackendException} (e.g. one of the ids is invalid), the batch is
+ * split in halves which are looked up again, recursively, so that the error reaches only submitters of the faulty id
+ * and a single faulty id costs O(log n) extra calls.
+ * <br/><br/>
+ * The collapser trades up to <tt>window</tt> of latency for fewer gateway calls. It should be closed with
+ * {@link #close()} when not needed anymore.
+ */
+public class StatusCollapser {
+
+    /**
+     * Looks up statuses of one merged batch with single 'message_status' command
+     */
+    public static interface BatchLookup {
+        List<MessageStatus> messageStatus(List<Long> messageIds) throws ServiceBackendException, ServiceTechnicalException;
+    }
+
+    private final BatchLookup lookup;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final Executor executor;
+    private final ScheduledExecutorService scheduler;
+    private Batch pending;
+    private boolean closed;
+
+    /**
+     * Constructs collapser which makes lookups on virtual threads (or daemon threads, if virtual ones are not supported)
+     * shared with {@link BulkExecutor#virtualThreads(int, int)}
+     *
+     * @param lookup the command merged batches are looked up with
+     * @param window how long the first lookup of batch waits for others
+     * @param unit time unit of <tt>window</tt>
+     * @param maxBatchSize maximum number of ids in one batch
+     */
+    public StatusCollapser(BatchLookup lookup, long window, TimeUnit unit, int maxBatchSize) {
+        this(lookup, window, unit, maxBatchSize, BulkExecutor.threadPerTaskExecutor());
+    }
+
+    /**
+     * @param lookup the command merged batches are looked up with
+     * @param window how long the first lookup of batch waits for others
+     * @param unit time unit of <tt>window</tt>
+     * @param maxBatchSize maximum number of ids in one batch
+     * @param executor executor batches are looked up on
+     */
+    public StatusCollapser(BatchLookup lookup, long window, TimeUnit unit, int maxBatchSize, Executor executor) {
+        if (window < 0 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("window should not be negative and maxBatchSize should be positive");
+        }
+        this.lookup = lookup;
+        this.windowNanos = unit.toNanos(window);
+        this.maxBatchSize = maxBatchSize;
+        this.executor = executor;
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "textmagic-status-collapser");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Submits status lookup of single message
+     *
+     * @return future of message status, completed with <tt>null</tt> if the gateway did not return the status.
+     * The future completes exceptionally with {@link ServiceBackendException} or {@link ServiceTechnicalException}
+     * if the lookup failed
+     */
+    public CompletableFuture<MessageStatus> submit(Long messageId) {
+        Batch full = null;
+        CompletableFuture<MessageStatus> future;
+        synchronized (this) {
+            if (closed) {
+                future = new CompletableFuture<MessageStatus>();
+                future.completeExceptionally(new ServiceTechnicalException("Status collapser is closed"));
+                return future;
+            }
+            Batch batch = pending;
+            if (batch == null) {
+                batch = new Batch();
+                pending = batch;
+                if (windowNanos > 0 && maxBatchSize > 1) {
+                    final Batch scheduled = batch;
+                    scheduled.timer = scheduler.schedule(() -> flush(scheduled), windowNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+            future = batch.futures.get(messageId);
+            if (future == null) {
+                future = new CompletableFuture<MessageStatus>();
+                batch.futures.put(messageId, future);
+            }
+            if (batch.futures.size() >= maxBatchSize || windowNanos == 0) {
+                pending = null;
+                full = batch;
+            }
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        return future;
+    }
+
+    /**
+     * @return number of ids waiting for their batch to be looked up
+     */
+    public synchronized int getPendingCount() {
+        return pending == null ? 0 : pending.futures.size();
+    }
+
+    /**
+     * Looks up pending batch right away and stops accepting new lookups
+     */
+    public void close() {
+        Batch batch;
+        synchronized (this) {
+            closed = true;
+            batch = pending;
+            pending = null;
+        }
+        if (batch != null) {
+            dispatch(batch);
+        }
+        scheduler.shutdown();
+    }
+
+    private void flush(Batch batch) {
+        synchronized (this) {
+            if (pending != batch) {
+                return;
+            }
+            pending = null;
+        }
+        dispatch(batch);
+    }
+
+    private void dispatch(final Batch batch) {
+        if (batch.timer != null) {
+            batch.timer.cancel(false);
+        }
+        try {
+            executor.execute(() -> lookUp(batch.futures));
+        } catch (RejectedExecutionException ex) {
+            fail(batch.futures, new ServiceTechnicalException("Collapsed status lookup was rejected", ex));
+        }
+    }
+
+    private void lookUp(Map<Long, CompletableFuture<MessageStatus>> futures) {
+        List<MessageStatus> statuses;
+        try {
+            statuses = lookup.messageStatus(new ArrayList<Long>(futures.keySet()));
+        } catch (ServiceBackendException ex) {
+            if (futures.size() == 1) {
+                fail(futures, ex);
+            } else {
+                // isolates the faulty id
+                for (Map<Long, CompletableFuture<MessageStatus>> half : BulkExecutor.halves(futures)) {
+                    lookUp(half);
+                }
+            }
+            return;
+        } catch (Throwable ex) {
+            fail(futures, ex instanceof ServiceTechnicalException ? ex : new ServiceTechnicalException(String.valueOf(ex.getMessage()), ex));
+            return;
+        }
+        Map<Long, MessageStatus> byId = new HashMap<Long, MessageStatus>();
+        for (MessageStatus status : statuses) {
+            if (status != null && status.getMessage() != null) {
+                byId.put(status.getMessage().getId(), status);
+            }
+        }
+        for (Map.Entry<Long, CompletableFuture<MessageStatus>> entry : futures.entrySet()) {
+            entry.getValue().complete(byId.get(entry.getKey()));
+        }
+    }
+
+    private static void fail(Map<Long, CompletableFuture<MessageStatus>> futures, Throwable cause) {
+        for (CompletableFuture<MessageStatus> future : futures.values()) {
+            future.completeExceptionally(cause);
+        }
+    }
+
+    private static final class Batch {
+        // message id -> future shared by its submitters, in submission order
+        private final Map<Long, CompletableFuture<MessageStatus>> futures = new LinkedHashMap<Long, CompletableFuture<MessageStatus>>();
+        private ScheduledFuture<?> timer;
+    }
+}
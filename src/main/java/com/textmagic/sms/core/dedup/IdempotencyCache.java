@@ -0,0 +1,213 @@
+package com.textmagic.sms.core.dedup;
+
+import com.textmagic.sms.dto.SentMessage;
+import com.textmagic.sms.exception.ServiceBackendException;
+import com.textmagic.sms.exception.ServiceTechnicalException;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache of send results by client supplied idempotency key.
+ * <br/><br/>
+ * The first send with a key calls the gateway, sends repeated with the same key within <tt>ttl</tt> get
+ * the original list of {@link SentMessage} without calling it again. Repeated sends coming while the first one is
+ * still in flight wait for its result. Only successful results are remembered: if the send fails, the key is released
+ * and next send with it calls the gateway again.
+ * <br/><br/>
+ * Keys are spread over independently locked stripes, so concurrent sends with different keys rarely contend.
+ * Each stripe keeps its entries in insertion order and evicts the oldest ones when it is full. Entries of sends in flight
+ * are never evicted, otherwise repeated send could call the gateway again: while they do not fit, the stripe holds
+ * more entries than its share of <tt>maxSize</tt>.
+ */
+public class IdempotencyCache {
+
+    /**
+     * Sends the message, when result for key is not cached
+     */
+    public static interface Sender {
+        List<SentMessage> send() throws ServiceBackendException, ServiceTechnicalException;
+    }
+
+    private static final int DEFAULT_STRIPES_COUNT = 16;
+
+    private final Stripe[] stripes;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+
+    /**
+     * @param maxSize maximum number of remembered keys
+     * @param ttl how long results are remembered after the send
+     * @param unit time unit of <tt>ttl</tt>
+     */
+    public IdempotencyCache(int maxSize, long ttl, TimeUnit unit) {
+        this(maxSize, ttl, unit, System::nanoTime);
+    }
+
+    IdempotencyCache(int maxSize, long ttl, TimeUnit unit, LongSupplier clock) {
+        if (maxSize < 1 || ttl <= 0) {
+            throw new IllegalArgumentException("maxSize and ttl should be positive");
+        }
+        int stripesCount = Integer.highestOneBit(Math.min(DEFAULT_STRIPES_COUNT, maxSize));
+        this.stripes = new Stripe[stripesCount];
+        for (int i = 0; i < stripesCount; i++) {
+            // spread remainder over first stripes, so capacities sum up to maxSize
+            stripes[i] = new Stripe(maxSize / stripesCount + (i < maxSize % stripesCount ? 1 : 0));
+        }
+        this.ttlNanos = unit.toNanos(ttl);
+        this.clock = clock;
+    }
+
+    /**
+     * Returns cached result of the send with <tt>key</tt>, or sends the message with <tt>sender</tt>
+     *
+     * @param key idempotency key of the send
+     * @param fingerprint parameters of the send. Repeated send with the same key must have equal fingerprint
+     * @param sender calls the gateway
+     * @return result of the first successful send with the key
+     * @throws ServiceBackendException if the send failed with error code
+     * @throws ServiceTechnicalException if the send failed or waiting for it was interrupted
+     * @throws IllegalArgumentException if the key was used with another fingerprint
+     */
+    public List<SentMessage> execute(String key, Object fingerprint, Sender sender) throws ServiceBackendException, ServiceTechnicalException {
+        Stripe stripe = stripeOf(key);
+        Entry entry;
+        boolean owner = false;
+        synchronized (stripe) {
+            long now = clock.getAsLong();
+            entry = stripe.entries.get(key);
+            if (entry != null && entry.isExpired(now)) {
+                stripe.entries.remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry(fingerprint);
+                stripe.put(key, entry, now);
+                owner = true;
+            }
+        }
+        if (!entry.fingerprint.equals(fingerprint)) {
+            throw new IllegalArgumentException("Idempotency key '" + key + "' was already used for another message");
+        }
+        if (owner) {
+            return send(stripe, key, entry, sender);
+        }
+        return await(entry.result);
+    }
+
+    /**
+     * Forgets the result of the send with <tt>key</tt>, so next send with it calls the gateway
+     */
+    public void invalidate(String key) {
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            stripe.entries.remove(key);
+        }
+    }
+
+    /**
+     * @return number of remembered keys including in flight and not yet evicted expired ones
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.entries.size();
+            }
+        }
+        return size;
+    }
+
+    private List<SentMessage> send(Stripe stripe, String key, Entry entry, Sender sender) throws ServiceBackendException, ServiceTechnicalException {
+        try {
+            List<SentMessage> messages = sender.send();
+            synchronized (stripe) {
+                entry.expiresAt = clock.getAsLong() + ttlNanos;
+            }
+            entry.result.complete(messages);
+            return messages;
+        } catch (ServiceBackendException | ServiceTechnicalException | RuntimeException | Error ex) {
+            synchronized (stripe) {
+                stripe.entries.remove(key, entry);
+            }
+            entry.result.completeExceptionally(ex);
+            throw ex;
+        }
+    }
+
+    private static List<SentMessage> await(CompletableFuture<List<SentMessage>> result) throws ServiceBackendException, ServiceTechnicalException {
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ServiceTechnicalException("Waiting for the send with the same idempotency key was interrupted", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof ServiceBackendException) {
+                throw (ServiceBackendException) cause;
+            }
+            if (cause instanceof ServiceTechnicalException) {
+                throw (ServiceTechnicalException) cause;
+            }
+            throw new ServiceTechnicalException(String.valueOf(cause.getMessage()), cause);
+        }
+    }
+
+    private Stripe stripeOf(String key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return stripes[hash & (stripes.length - 1)];
+    }
+
+    private static final class Stripe {
+        private final int capacity;
+        // insertion ordered; eviction scans from the oldest insertion, skips entries in flight and stops at the
+        // first completed entry that is not expired once the stripe has room
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+        Stripe(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void put(String key, Entry entry, long now) {
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Entry eldest = iterator.next().getValue();
+                if (eldest.isInFlight()) {
+                    // stays until the send completes, even if the stripe is full
+                    continue;
+                }
+                if (entries.size() < capacity && !eldest.isExpired(now)) {
+                    break;
+                }
+                iterator.remove();
+            }
+            entries.put(key, entry);
+        }
+    }
+
+    private static final class Entry {
+        private final Object fingerprint;
+        private final CompletableFuture<List<SentMessage>> result = new CompletableFuture<List<SentMessage>>();
+        // guarded by stripe lock, Long.MAX_VALUE while the send is in flight
+        private long expiresAt = Long.MAX_VALUE;
+
+        Entry(Object fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        boolean isInFlight() {
+            return expiresAt == Long.MAX_VALUE;
+        }
+
+        boolean isExpired(long now) {
+            return !isInFlight() && now - expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.textmagic.sms.core.dispatch;
+
+import com.textmagic.sms.MessageService;
+import com.textmagic.sms.dto.SentMessage;
+import com.textmagic.sms.exception.ServiceTechnicalException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <code>OutboundQueue</code> decouples application threads from gateway latency: messages are put into bounded
+ * lock-free ring buffer and sent by pool of dispatcher threads calling
+ * {@link MessageService#send(String, java.util.List, boolean, Integer)}.
+ * <br/><br/>
+ * Submitting costs few CAS operations, the result is delivered through returned future. When the queue is full,
+ * the configured {@link OverflowPolicy} is applied. Queue depth, wait time and counters of submitted,
+ * rejected and dropped messages are exposed for monitoring.
+ * <br/><br/>
+ * The service must be thread-safe if more than one dispatcher is used (see
+ * {@link com.textmagic.sms.core.invoker.HttpServiceInvokerImpl#HttpServiceInvokerImpl(int, int, long)}).
+ * The queue should be stopped with {@link #shutdown()} when it is not needed anymore.
+ */
+public class OutboundQueue {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final MessageService service;
+    private final OverflowPolicy overflowPolicy;
+    private final MpmcRingBuffer<OutboundMessage> buffer;
+    private final Thread[] dispatchers;
+    private final ConcurrentLinkedQueue<Thread> idleDispatchers = new ConcurrentLinkedQueue<Thread>();
+    private volatile boolean shutdown;
+    private final AtomicInteger activeDispatchers = new AtomicInteger();
+
+    private final LongAdder submittedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder dispatchedCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private static final class OutboundMessage {
+        private final String text;
+        private final List<String> phones;
+        private final Boolean useUnicode;
+        private final Integer maxLength;
+        private final CompletableFuture<List<SentMessage>> future = new CompletableFuture<List<SentMessage>>();
+        private final long enqueuedAt = System.nanoTime();
+
+        OutboundMessage(String text, List<String> phones, Boolean useUnicode, Integer maxLength) {
+            this.text = text;
+            this.phones = phones;
+            this.useUnicode = useUnicode;
+            this.maxLength = maxLength;
+        }
+    }
+
+    /**
+     * Constructs the queue and starts dispatcher threads
+     *
+     * @param service the service messages are sent with
+     * @param capacity maximum number of queued messages, rounded up to power of two (at least 2)
+     * @param dispatchersCount number of dispatcher threads
+     * @param overflowPolicy what to do with new messages when the queue is full
+     */
+    public OutboundQueue(MessageService service, int capacity, int dispatchersCount, OverflowPolicy overflowPolicy) {
+        if (dispatchersCount < 1) {
+            throw new IllegalArgumentException("dispatchersCount should be positive");
+        }
+        this.service = service;
+        this.overflowPolicy = overflowPolicy;
+        this.buffer = new MpmcRingBuffer<OutboundMessage>(capacity);
+        this.dispatchers = new Thread[dispatchersCount];
+        activeDispatchers.set(dispatchersCount);
+        for (int i = 0; i < dispatchersCount; i++) {
+            dispatchers[i] = new Thread(this::dispatch, "textmagic-outbound-dispatcher-" + i);
+            dispatchers[i].setDaemon(true);
+            dispatchers[i].start();
+        }
+    }
+
+    /**
+     * Queues sms message with <tt>text</tt> body to the phone.
+     * Unicode flag is set based on whether <tt>text</tt> contains non GSM 03.38 characters
+     *
+     * @return future of sent message
+     */
+    public CompletableFuture<List<SentMessage>> submit(String text, String phone) {
+        return enqueue(new OutboundMessage(text, Arrays.asList(phone), null, null));
+    }
+
+    /**
+     * Queues sms message with <tt>text</tt> body to the phones.
+     * Unicode flag is set based on whether <tt>text</tt> contains non GSM 03.38 characters
+     *
+     * @return future of sent messages. The future fails with {@link com.textmagic.sms.exception.ServiceBackendException}
+     * or {@link ServiceTechnicalException} if sending failed, the message was rejected or dropped,
+     * or with {@link IllegalArgumentException} if text or phones are invalid
+     */
+    public CompletableFuture<List<SentMessage>> submit(String text, List<String> phones) {
+        return enqueue(new OutboundMessage(text, new ArrayList<String>(phones), null, null));
+    }
+
+    /**
+     * Queues sms message, see {@link MessageService#send(String, java.util.List, boolean, Integer)}
+     *
+     * @return future of sent messages
+     */
+    public CompletableFuture<List<SentMessage>> submit(String text, List<String> phones, boolean useUnicode, Integer maxLength) {
+        return enqueue(new OutboundMessage(text, new ArrayList<String>(phones), useUnicode, maxLength));
+    }
+
+    private CompletableFuture<List<SentMessage>> enqueue(OutboundMessage message) {
+        if (shutdown) {
+            rejectedCount.increment();
+            message.future.completeExceptionally(new ServiceTechnicalException("Outbound queue is shut down"));
+            return message.future;
+        }
+        while (!buffer.offer(message)) {
+            if (overflowPolicy == OverflowPolicy.FAIL_FAST) {
+                rejectedCount.increment();
+                message.future.completeExceptionally(new ServiceTechnicalException("Outbound queue is full"));
+                return message.future;
+            } else if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                OutboundMessage oldest = buffer.poll();
+                if (oldest != null) {
+                    droppedCount.increment();
+                    oldest.future.completeExceptionally(new ServiceTechnicalException("Message was dropped from full outbound queue"));
+                }
+            } else {
+                LockSupport.parkNanos(this, FULL_PARK_NANOS);
+                if (Thread.currentThread().isInterrupted() || shutdown) {
+                    rejectedCount.increment();
+                    message.future.completeExceptionally(new ServiceTechnicalException("Waiting for free slot in outbound queue was interrupted"));
+                    return message.future;
+                }
+            }
+        }
+        submittedCount.increment();
+        Thread idle = idleDispatchers.poll();
+        if (idle != null) {
+            LockSupport.unpark(idle);
+        }
+        if (shutdown && activeDispatchers.get() == 0) {
+            // the message was queued after the last dispatcher had left
+            failRemaining();
+        }
+        return message.future;
+    }
+
+    private void dispatch() {
+        Thread current = Thread.currentThread();
+        while (true) {
+            OutboundMessage message = buffer.poll();
+            if (message == null) {
+                if (shutdown) {
+                    if (activeDispatchers.decrementAndGet() == 0) {
+                        failRemaining();
+                    }
+                    return;
+                }
+                idleDispatchers.add(current);
+                // re-check to not miss message queued before this thread became visible as idle
+                if (buffer.isEmpty() && !shutdown) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                idleDispatchers.remove(current);
+                continue;
+            }
+            long waited = System.nanoTime() - message.enqueuedAt;
+            totalWaitNanos.add(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+            dispatchedCount.increment();
+            try {
+                List<SentMessage> result = message.useUnicode == null
+                        ? service.send(message.text, message.phones)
+                        : service.send(message.text, message.phones, message.useUnicode, message.maxLength);
+                message.future.complete(result);
+            } catch (Throwable ex) {
+                message.future.completeExceptionally(ex);
+            }
+        }
+    }
+
+    private void failRemaining() {
+        OutboundMessage message;
+        while ((message = buffer.poll()) != null) {
+            message.future.completeExceptionally(new ServiceTechnicalException("Outbound queue is shut down"));
+        }
+    }
+
+    /**
+     * Stops accepting new messages. Already queued messages are still sent
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (Thread dispatcher : dispatchers) {
+            LockSupport.unpark(dispatcher);
+        }
+    }
+
+    /**
+     * Waits until all queued messages are sent after {@link #shutdown()}
+     *
+     * @return true - if dispatchers finished, false - if timeout elapsed
+     * @throws InterruptedException if the current thread was interrupted
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread dispatcher : dispatchers) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return !dispatcher.isAlive();
+            }
+            TimeUnit.NANOSECONDS.timedJoin(dispatcher, remaining);
+            if (dispatcher.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return current number of queued messages
+     */
+    public int getDepth() {
+        return buffer.size();
+    }
+
+    public int getCapacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * @return number of messages accepted into the queue
+     */
+    public long getSubmittedCount() {
+        return submittedCount.sum();
+    }
+
+    /**
+     * @return number of messages rejected because the queue was full or shut down
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * @return number of messages dropped with {@link OverflowPolicy#DROP_OLDEST} policy
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * @return number of messages taken by dispatchers
+     */
+    public long getDispatchedCount() {
+        return dispatchedCount.sum();
+    }
+
+    /**
+     * @return average time messages spent in the queue, in nanoseconds
+     */
+    public long getAverageWaitNanos() {
+        long dispatched = dispatchedCount.sum();
+        return dispatched == 0 ? 0 : totalWaitNanos.sum() / dispatched;
+    }
+
+    /**
+     * @return longest time a message spent in the queue, in nanoseconds
+     */
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+}
@@ -0,0 +1,20 @@
+package com.textmagic.sms.core.dispatch;
+
+/**
+ * Defines what {@link OutboundQueue} does with new message when the queue is full
+ */
+public enum OverflowPolicy {
+    /**
+     * Submitting thread waits until dispatchers free a slot
+     */
+    BLOCK,
+    /**
+     * New message is rejected right away, its future fails with {@link com.textmagic.sms.exception.ServiceTechnicalException}
+     */
+    FAIL_FAST,
+    /**
+     * The oldest queued message is dropped to make room for new one, future of dropped message fails with
+     * {@link com.textmagic.sms.exception.ServiceTechnicalException}
+     */
+    DROP_OLDEST
+}
@@ -0,0 +1,400 @@
+package com.textmagic.sms.core.invoker;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * {@link HttpServiceInvoker} decorator which limits number of calls in flight and adapts the limit to observed
+ * gateway latency and errors.
+ * <br/><br/>
+ * Calls exceeding current limit wait in queue for free slot, up to <tt>maxQueueWait</tt> but not past {@link Deadline}
+ * of calling thread, and then fail with
+ * {@link CallNotPermittedException}. The limit is adjusted every <tt>windowSize</tt> completed calls
+ * (additive increase, multiplicative decrease):
+ * <ul>
+ * <li> if share of failed calls in the window reaches <tt>errorRateThreshold</tt>, or 99th percentile of
+ * window latencies exceeds baseline latency <tt>latencyTolerance</tt> times, the limit is multiplied by <tt>backoffRatio</tt>
+ * <li> otherwise, if the limit was reached during the window, it is increased by one
+ * </ul>
+ * Failed calls are the ones which found the gateway inaccessible, timed out or got 5xx http status. Calls refused
+ * with 4xx status, rejected by other decorators or cancelled or run out of their {@link Deadline} (e.g. losers of
+ * hedged calls) are not sampled at all.
+ * <br/>
+ * Baseline latency is the lowest 99th percentile seen, slowly drifting up to the latencies of later windows,
+ * so the limit grows while latency stays flat and shrinks quickly as soon as the gateway slows down or fails.
+ * Slow windows move the baseline too, so after latency rises for good (e.g. the gateway fails over to distant endpoint)
+ * the baseline catches up with it and the limit grows again.
+ * <br/>
+ * Streaming calls hold their slot until response body is closed, their latency is measured until the body is handed over.
+ * <br/>
+ * The invoker is thread-safe if decorated invoker is. It should be configured before it is used.
+ */
+public class AdaptiveConcurrencyInvoker implements StreamingHttpServiceInvoker {
+    Log log = LogFactory.getLog(AdaptiveConcurrencyInvoker.class);
+
+    // share of difference between window latency and baseline the baseline drifts by
+    private static final double BASELINE_DRIFT = 0.05;
+
+    private final HttpServiceInvoker invoker;
+    private final LongSupplier clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotReleased = lock.newCondition();
+
+    private int minLimit = 1;
+    private int maxLimit = 200;
+    private double latencyTolerance = 2.0;
+    private float errorRateThreshold = 10;
+    private double backoffRatio = 0.75;
+    private long maxQueueWaitNanos = Long.MAX_VALUE;
+
+    // guarded by lock
+    private double limit = 10;
+    private int inFlight;
+    private int queued;
+    private boolean limitReached;
+    private long[] latencies = new long[50];
+    private int sampled;
+    private int failed;
+    private long baselineNanos = -1;
+    private long lastP99Nanos = -1;
+    private long queuedCount;
+    private long rejectedCount;
+    private long totalQueueWaitNanos;
+    private long maxQueueWaitSeenNanos;
+
+    /**
+     * @param invoker thread-safe invoker to be limited
+     */
+    public AdaptiveConcurrencyInvoker(HttpServiceInvoker invoker) {
+        this(invoker, System::nanoTime);
+    }
+
+    AdaptiveConcurrencyInvoker(HttpServiceInvoker invoker, LongSupplier clock) {
+        this.invoker = invoker;
+        this.clock = clock;
+    }
+
+    /**
+     * @param initialLimit limit of calls in flight to start with, 10 by default
+     * @param minLimit lowest limit, 1 by default
+     * @param maxLimit highest limit, 200 by default
+     */
+    public void setLimits(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("Limits should satisfy 1 <= minLimit <= initialLimit <= maxLimit");
+        }
+        lock.lock();
+        try {
+            this.limit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param windowSize number of completed calls the limit is adjusted after, 50 by default
+     */
+    public void setWindowSize(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize should be positive");
+        }
+        lock.lock();
+        try {
+            this.latencies = new long[windowSize];
+            this.sampled = 0;
+            this.failed = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param latencyTolerance how many times 99th percentile latency may exceed baseline before the limit is decreased, 2 by default
+     */
+    public void setLatencyTolerance(double latencyTolerance) {
+        if (latencyTolerance < 1) {
+            throw new IllegalArgumentException("latencyTolerance should not be less than 1");
+        }
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    /**
+     * @param errorRateThreshold percentage of failed calls which decreases the limit, 10 by default
+     */
+    public void setErrorRateThreshold(float errorRateThreshold) {
+        if (errorRateThreshold <= 0 || errorRateThreshold > 100) {
+            throw new IllegalArgumentException("Error rate threshold " + errorRateThreshold + " should be in (0, 100] range");
+        }
+        this.errorRateThreshold = errorRateThreshold;
+    }
+
+    /**
+     * @param backoffRatio ratio the limit is multiplied by on overload, 0.75 by default
+     */
+    public void setBackoffRatio(double backoffRatio) {
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("backoffRatio should be in (0, 1) range");
+        }
+        this.backoffRatio = backoffRatio;
+    }
+
+    /**
+     * @param maxQueueWait how long calls wait for free slot, by default they wait as long as needed
+     * @param unit time unit of <tt>maxQueueWait</tt>
+     */
+    public void setMaxQueueWait(long maxQueueWait, TimeUnit unit) {
+        if (maxQueueWait < 0) {
+            throw new IllegalArgumentException("maxQueueWait should not be negative");
+        }
+        this.maxQueueWaitNanos = unit.toNanos(maxQueueWait);
+    }
+
+    public String invoke(String login, String password, String commandName, Map<String, String> parameters) throws ServiceInvokerException {
+        acquireSlot(commandName);
+        long start = clock.getAsLong();
+        Throwable failure = null;
+        try {
+            return invoker.invoke(login, password, commandName, parameters);
+        } catch (Throwable ex) {
+            failure = ex;
+            throw ex;
+        } finally {
+            releaseSlot(clock.getAsLong() - start, failure);
+        }
+    }
+
+    public ResponseBody invokeStreaming(String login, String password, String commandName, Map<String, String> parameters) throws ServiceInvokerException {
+        acquireSlot(commandName);
+        long start = clock.getAsLong();
+        final ResponseBody body;
+        try {
+            body = Invokers.invokeStreaming(invoker, login, password, commandName, parameters);
+        } catch (ServiceInvokerException | RuntimeException | Error ex) {
+            releaseSlot(clock.getAsLong() - start, ex);
+            throw ex;
+        }
+        final long latency = clock.getAsLong() - start;
+        final AtomicBoolean released = new AtomicBoolean();
+        return new ResponseBody(body.getInputStream(), body.getCharset(), ResponseBody.UNLIMITED, () -> {
+            body.close();
+            if (released.compareAndSet(false, true)) {
+                releaseSlot(latency, null);
+            }
+        });
+    }
+
+    /**
+     * @return current limit of calls in flight
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return effectiveLimit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of calls waiting for free slot
+     */
+    public int getQueueLength() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of calls which had to wait for free slot
+     */
+    public long getQueuedCount() {
+        lock.lock();
+        try {
+            return queuedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of calls rejected after waiting <tt>maxQueueWait</tt>
+     */
+    public long getRejectedCount() {
+        lock.lock();
+        try {
+            return rejectedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return average time in nanoseconds calls waited for free slot, among calls which had to wait
+     */
+    public long getAverageQueueWaitNanos() {
+        lock.lock();
+        try {
+            return queuedCount == 0 ? 0 : totalQueueWaitNanos / queuedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxQueueWaitNanos() {
+        lock.lock();
+        try {
+            return maxQueueWaitSeenNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 99th percentile of latencies in last complete window, or -1 if there was no complete window yet
+     */
+    public long getLatencyP99Nanos() {
+        lock.lock();
+        try {
+            return lastP99Nanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return baseline latency the latency of windows is compared with, or -1 if there was no complete window yet
+     */
+    public long getBaselineLatencyNanos() {
+        lock.lock();
+        try {
+            return baselineNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int effectiveLimit() {
+        return (int) limit;
+    }
+
+    private void acquireSlot(String commandName) throws ServiceInvokerException {
+        lock.lock();
+        try {
+            if (inFlight < effectiveLimit()) {
+                inFlight++;
+                limitReached |= inFlight == effectiveLimit();
+                return;
+            }
+            limitReached = true;
+            queued++;
+            queuedCount++;
+            long start = clock.getAsLong();
+            try {
+                long remaining = maxQueueWaitNanos;
+                Deadline deadline = Deadline.current();
+                if (deadline != null) {
+                    remaining = Math.min(remaining, deadline.remaining(TimeUnit.NANOSECONDS));
+                }
+                while (inFlight >= effectiveLimit()) {
+                    if (remaining <= 0) {
+                        rejectedCount++;
+                        throw new CallNotPermittedException("Concurrency limit of " + effectiveLimit() +
+                                " calls is reached, call of '" + commandName + "' command was not sent");
+                    }
+                    remaining = slotReleased.awaitNanos(remaining);
+                }
+                inFlight++;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new ServiceInvokerException("Waiting for call of '" + commandName + "' command was interrupted", ex);
+            } finally {
+                queued--;
+                long wait = clock.getAsLong() - start;
+                totalQueueWaitNanos += wait;
+                maxQueueWaitSeenNanos = Math.max(maxQueueWaitSeenNanos, wait);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void releaseSlot(long latencyNanos, Throwable failure) {
+        // calls which failed not because of the gateway say nothing about its latency either
+        boolean sampledCall = failure == null || Invokers.isGatewayFailure(failure);
+        lock.lock();
+        try {
+            inFlight--;
+            if (sampledCall) {
+                latencies[sampled++] = latencyNanos;
+                if (failure != null) {
+                    failed++;
+                }
+            }
+            int previousLimit = effectiveLimit();
+            if (sampled == latencies.length) {
+                adjustLimit();
+            }
+            if (effectiveLimit() > previousLimit) {
+                slotReleased.signalAll();
+            } else {
+                slotReleased.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void adjustLimit() {
+        Arrays.sort(latencies);
+        long p99 = latencies[(int) Math.ceil(latencies.length * 0.99) - 1];
+        boolean errors = 100f * failed / latencies.length >= errorRateThreshold;
+        boolean slow = baselineNanos >= 0 && p99 > baselineNanos * latencyTolerance;
+        double previous = limit;
+        if (errors || slow) {
+            limit = Math.max(limit * backoffRatio, minLimit);
+            if (slow && !errors) {
+                // sustained latency becomes the new normal
+                baselineNanos += (long) ((p99 - baselineNanos) * BASELINE_DRIFT);
+            }
+        } else {
+            if (baselineNanos < 0 || p99 < baselineNanos) {
+                baselineNanos = p99;
+            } else {
+                baselineNanos += (long) ((p99 - baselineNanos) * BASELINE_DRIFT);
+            }
+            if (limitReached) {
+                limit = Math.min(limit + 1, maxLimit);
+            }
+        }
+        if (log.isDebugEnabled() && (int) previous != (int) limit) {
+            log.debug(String.format("concurrency limit changed [from = %d; to = %d; p99 = %d; baseline = %d; failed = %d]",
+                    (int) previous, (int) limit, p99, baselineNanos, failed));
+        }
+        lastP99Nanos = p99;
+        sampled = 0;
+        failed = 0;
+        limitReached = inFlight >= effectiveLimit();
+    }
+}
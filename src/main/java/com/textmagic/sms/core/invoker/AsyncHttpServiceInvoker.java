@@ -0,0 +1,23 @@
+package com.textmagic.sms.core.invoker;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A <tt>AsyncHttpServiceInvoker</tt> is non-blocking invoker of TextMagic Gateway Http API.
+ * Unlike {@link HttpServiceInvoker} it does not hold the calling thread while http call is in progress.
+ */
+public interface AsyncHttpServiceInvoker {
+    /**
+     * Starts TextMagic sms gateway command call
+     *
+     * @param login the TextMagic account username
+     * @param password the TextMagic account password
+     * @param commandName the http api command name
+     * @param parameters the command parameters to pass
+     * @return future of http api gateway response. The future completes exceptionally with {@link ServiceInvokerException}
+     * if TextMagic server is inaccessible or server responds with http error status code
+     */
+    public CompletableFuture<String> invokeAsync(String login, String password, String commandName, Map<String, String> parameters);
+
+}
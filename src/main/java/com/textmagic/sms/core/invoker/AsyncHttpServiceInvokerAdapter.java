@@ -0,0 +1,51 @@
+package com.textmagic.sms.core.invoker;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Adapts blocking {@link HttpServiceInvoker} to {@link AsyncHttpServiceInvoker} contract
+ * by running each call on provided {@link Executor}.
+ * <br/><br/>
+ * The adapter is useful for invokers built on blocking http stacks (like {@link HttpServiceInvokerImpl}).
+ * The number of calls in flight is bounded by executor size, so the adapted invoker should be thread-safe
+ * (e.g. {@link HttpServiceInvokerImpl} constructed in pooled mode)
+ */
+public class AsyncHttpServiceInvokerAdapter implements AsyncHttpServiceInvoker {
+
+    private final HttpServiceInvoker invoker;
+    private final Executor executor;
+
+    /**
+     * @param invoker thread-safe blocking invoker to delegate calls to
+     * @param executor executor to run blocking calls on
+     */
+    public AsyncHttpServiceInvokerAdapter(HttpServiceInvoker invoker, Executor executor) {
+        this.invoker = invoker;
+        this.executor = executor;
+    }
+
+    public CompletableFuture<String> invokeAsync(final String login, final String password, final String commandName,
+                                                 final Map<String, String> parameters) {
+        final CompletableFuture<String> result = new CompletableFuture<String>();
+        try {
+            executor.execute(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                try {
+                    result.complete(invoker.invoke(login, password, commandName, parameters));
+                } catch (ServiceInvokerException ex) {
+                    result.completeExceptionally(ex);
+                } catch (RuntimeException ex) {
+                    result.completeExceptionally(new ServiceInvokerException(ex.getMessage(), ex));
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            result.completeExceptionally(new ServiceInvokerException("Call of '" + commandName + "' command was rejected by executor", ex));
+        }
+        return result;
+    }
+}
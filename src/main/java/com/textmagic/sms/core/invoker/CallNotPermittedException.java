@@ -0,0 +1,11 @@
+package com.textmagic.sms.core.invoker;
+
+/**
+ * Indicates that a call to sms api gateway was rejected by the client without being sent,
+ * e.g. by open {@link CircuitBreakerInvoker}
+ */
+public class CallNotPermittedException extends ServiceInvokerException {
+    public CallNotPermittedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,305 @@
+package com.textmagic.sms.core.invoker;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * {@link HttpServiceInvoker} decorator which stops calling the gateway while it fails or responds too slowly.
+ * <br/><br/>
+ * The breaker records outcomes of last <tt>windowSize</tt> calls. In {@link State#CLOSED} state calls are passed to
+ * the gateway; when at least <tt>minimumCalls</tt> are recorded and the share of failed calls reaches
+ * <tt>failureRateThreshold</tt>, or the share of calls longer than <tt>slowCallDuration</tt> reaches
+ * <tt>slowCallRateThreshold</tt>, the breaker goes {@link State#OPEN}.
+ * Open breaker rejects calls right away with {@link CallNotPermittedException}, which
+ * {@link com.textmagic.sms.TextMagicMessageService} reports as {@link com.textmagic.sms.exception.ServiceTechnicalException},
+ * so threads do not pile up waiting for degraded gateway.
+ * After <tt>openDuration</tt> the breaker goes {@link State#HALF_OPEN} and lets <tt>halfOpenCalls</tt> trial calls through:
+ * if their rates are below thresholds it closes again, otherwise it opens for another <tt>openDuration</tt>.
+ * <br/><br/>
+ * Failures are calls which found the gateway inaccessible, timed out or got 5xx http status. Calls refused with
+ * 4xx status, rejected by other decorators or cancelled or run out of their {@link Deadline} by the caller are not
+ * recorded at all. Streaming calls are measured until response body is handed over.
+ * State changes can be observed with {@link StateListener}s, which are called in the thread which caused the change.
+ * <br/>
+ * The breaker is thread-safe if decorated invoker is. It should be configured before it is used.
+ */
+public class CircuitBreakerInvoker implements StreamingHttpServiceInvoker {
+    Log log = LogFactory.getLog(CircuitBreakerInvoker.class);
+
+    public static enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Listener of breaker state changes
+     */
+    public static interface StateListener {
+        void onStateChange(CircuitBreakerInvoker breaker, State from, State to);
+    }
+
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private final HttpServiceInvoker invoker;
+    private final LongSupplier clock;
+    private final List<StateListener> listeners = new CopyOnWriteArrayList<StateListener>();
+
+    private float failureRateThreshold = 50;
+    private float slowCallRateThreshold = 100;
+    private long slowCallDurationNanos = TimeUnit.SECONDS.toNanos(60);
+    private long openDurationNanos = TimeUnit.SECONDS.toNanos(30);
+    private int minimumCalls = 10;
+    private int halfOpenCalls = 5;
+
+    // guarded by this
+    private State state = State.CLOSED;
+    private long epoch;
+    private long openedAt;
+    private int halfOpenPermits;
+    private byte[] outcomes = new byte[50];
+    private int next;
+    private int recorded;
+    private int failedCount;
+    private int slowCount;
+
+    /**
+     * @param invoker invoker to be protected with the breaker
+     */
+    public CircuitBreakerInvoker(HttpServiceInvoker invoker) {
+        this(invoker, System::nanoTime);
+    }
+
+    CircuitBreakerInvoker(HttpServiceInvoker invoker, LongSupplier clock) {
+        this.invoker = invoker;
+        this.clock = clock;
+    }
+
+    /**
+     * @param failureRateThreshold percentage of failed calls which opens the breaker, 50 by default
+     */
+    public void setFailureRateThreshold(float failureRateThreshold) {
+        checkPercentage(failureRateThreshold);
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    /**
+     * @param slowCallRateThreshold percentage of slow calls which opens the breaker, 100 by default
+     */
+    public void setSlowCallRateThreshold(float slowCallRateThreshold) {
+        checkPercentage(slowCallRateThreshold);
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    /**
+     * @param slowCallDuration duration from which calls are counted as slow, 60 seconds by default
+     * @param unit time unit of <tt>slowCallDuration</tt>
+     */
+    public void setSlowCallDuration(long slowCallDuration, TimeUnit unit) {
+        this.slowCallDurationNanos = unit.toNanos(slowCallDuration);
+    }
+
+    /**
+     * @param openDuration how long the breaker rejects calls before trial ones, 30 seconds by default
+     * @param unit time unit of <tt>openDuration</tt>
+     */
+    public void setOpenDuration(long openDuration, TimeUnit unit) {
+        this.openDurationNanos = unit.toNanos(openDuration);
+    }
+
+    /**
+     * @param windowSize number of last calls rates are calculated over, 50 by default
+     * @param minimumCalls number of recorded calls required to calculate rates, 10 by default
+     */
+    public synchronized void setWindow(int windowSize, int minimumCalls) {
+        if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize) {
+            throw new IllegalArgumentException("Window of " + windowSize + " calls with minimum of " + minimumCalls + " calls is invalid");
+        }
+        this.outcomes = new byte[windowSize];
+        this.minimumCalls = minimumCalls;
+        resetWindow();
+    }
+
+    /**
+     * @param halfOpenCalls number of trial calls in half-open state, 5 by default
+     */
+    public void setHalfOpenCalls(int halfOpenCalls) {
+        if (halfOpenCalls < 1) {
+            throw new IllegalArgumentException("halfOpenCalls should be positive");
+        }
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    public void addListener(StateListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(StateListener listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return percentage of failed calls in current window, or -1 if there are not enough calls recorded
+     */
+    public synchronized float getFailureRate() {
+        return recorded < minimumCalls ? -1 : 100f * failedCount / recorded;
+    }
+
+    /**
+     * @return percentage of slow calls in current window, or -1 if there are not enough calls recorded
+     */
+    public synchronized float getSlowCallRate() {
+        return recorded < minimumCalls ? -1 : 100f * slowCount / recorded;
+    }
+
+    public String invoke(String login, String password, String commandName, Map<String, String> parameters) throws ServiceInvokerException {
+        long permit = acquirePermission(commandName);
+        long start = clock.getAsLong();
+        Throwable failure = null;
+        try {
+            return invoker.invoke(login, password, commandName, parameters);
+        } catch (Throwable ex) {
+            failure = ex;
+            throw ex;
+        } finally {
+            record(permit, clock.getAsLong() - start, failure);
+        }
+    }
+
+    public ResponseBody invokeStreaming(String login, String password, String commandName, Map<String, String> parameters) throws ServiceInvokerException {
+        long permit = acquirePermission(commandName);
+        long start = clock.getAsLong();
+        Throwable failure = null;
+        try {
+            return Invokers.invokeStreaming(invoker, login, password, commandName, parameters);
+        } catch (Throwable ex) {
+            failure = ex;
+            throw ex;
+        } finally {
+            record(permit, clock.getAsLong() - start, failure);
+        }
+    }
+
+    /**
+     * @return state epoch the call is permitted in
+     * @throws CallNotPermittedException if the breaker is open
+     */
+    private long acquirePermission(String commandName) throws CallNotPermittedException {
+        State from = null;
+        State rejectedIn = null;
+        long permit;
+        synchronized (this) {
+            if (state == State.OPEN && clock.getAsLong() - openedAt >= openDurationNanos) {
+                from = transitionTo(State.HALF_OPEN);
+            }
+            if (state == State.OPEN || (state == State.HALF_OPEN && halfOpenPermits == 0)) {
+                rejectedIn = state;
+            } else if (state == State.HALF_OPEN) {
+                halfOpenPermits--;
+            }
+            permit = epoch;
+        }
+        if (from != null) {
+            fireStateChange(from, State.HALF_OPEN);
+        }
+        if (rejectedIn != null) {
+            throw new CallNotPermittedException("Circuit breaker is " + rejectedIn + ", call of '" + commandName + "' command was not sent");
+        }
+        return permit;
+    }
+
+    private void record(long permit, long durationNanos, Throwable failure) {
+        boolean failed = failure != null;
+        boolean ignored = failed && !Invokers.isGatewayFailure(failure);
+        State from = null;
+        State to = null;
+        synchronized (this) {
+            if (permit != epoch) {
+                // the call was permitted in previous state
+                return;
+            }
+            if (ignored) {
+                if (state == State.HALF_OPEN) {
+                    // gives the trial permit to another call
+                    halfOpenPermits++;
+                }
+                return;
+            }
+            byte outcome = (byte) ((failed ? FAILED : 0) | (durationNanos >= slowCallDurationNanos ? SLOW : 0));
+            if (recorded == outcomes.length) {
+                byte evicted = outcomes[next];
+                failedCount -= evicted & FAILED;
+                slowCount -= (evicted & SLOW) >> 1;
+            } else {
+                recorded++;
+            }
+            outcomes[next] = outcome;
+            next = (next + 1) % outcomes.length;
+            failedCount += outcome & FAILED;
+            slowCount += (outcome & SLOW) >> 1;
+            if (state == State.CLOSED && recorded >= minimumCalls && isAboveThresholds()) {
+                to = State.OPEN;
+            } else if (state == State.HALF_OPEN && recorded >= Math.min(halfOpenCalls, outcomes.length)) {
+                to = isAboveThresholds() ? State.OPEN : State.CLOSED;
+            }
+            if (to != null) {
+                from = transitionTo(to);
+            }
+        }
+        if (to != null) {
+            fireStateChange(from, to);
+        }
+    }
+
+    private boolean isAboveThresholds() {
+        return 100f * failedCount / recorded >= failureRateThreshold || 100f * slowCount / recorded >= slowCallRateThreshold;
+    }
+
+    private State transitionTo(State to) {
+        State from = state;
+        state = to;
+        epoch++;
+        resetWindow();
+        if (to == State.OPEN) {
+            openedAt = clock.getAsLong();
+        } else if (to == State.HALF_OPEN) {
+            halfOpenPermits = halfOpenCalls;
+        }
+        return from;
+    }
+
+    private void resetWindow() {
+        next = 0;
+        recorded = 0;
+        failedCount = 0;
+        slowCount = 0;
+    }
+
+    private void fireStateChange(State from, State to) {
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("circuit breaker state changed [from = %s; to = %s]", from, to));
+        }
+        for (StateListener listener : listeners) {
+            try {
+                listener.onStateChange(this, from, to);
+            } catch (RuntimeException ex) {
+                log.warn("Circuit breaker state listener failed", ex);
+            }
+        }
+    }
+
+    private static void checkPercentage(float value) {
+        if (value <= 0 || value > 100) {
+            throw new IllegalArgumentException("Rate threshold " + value + " should be in (0, 100] range");
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.textmagic.sms.core.invoker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time by which gateway call must complete, which can also be cancelled before that.
+ * <br/><br/>
+ * Deadline is bound to calling thread (see {@link #bind(Deadline)}) by
+ * {@link com.textmagic.sms.TextMagicMessageService#withDeadline(Deadline)} and per-command timeouts, and invokers
+ * take it with {@link #current()}: they limit their i/o timeouts by remaining time and abort the call in flight
+ * when deadline expires or is cancelled (see {@link #abortOnExpiry(Runnable)}).
+ * <br/>
+ * Deadlines derived with {@link #withTimeout(long, java.util.concurrent.TimeUnit)} share cancellation
+ * with their origin, while {@link #fork()} derives deadline which can be cancelled on its own.
+ * Deadline is thread-safe, so it can be cancelled from any thread.
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<Deadline>();
+
+    private final long deadlineNanos;
+    private final Cancellation cancellation;
+
+    private Deadline(long deadlineNanos, Cancellation cancellation) {
+        this.deadlineNanos = deadlineNanos;
+        this.cancellation = cancellation;
+    }
+
+    /**
+     * @return deadline which expires in <tt>timeout</tt> from now
+     */
+    public static Deadline after(long timeout, TimeUnit unit) {
+        return new Deadline(expiryOf(timeout, unit), new Cancellation());
+    }
+
+    /**
+     * @return deadline bound to current thread, or <tt>null</tt> if the thread has no deadline
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Binds <tt>deadline</tt> to current thread. Previous deadline should be bound back once the calls are done
+     *
+     * @param deadline deadline of calls made by current thread, <tt>null</tt> unbinds deadline
+     * @return previously bound deadline, may be <tt>null</tt>
+     */
+    public static Deadline bind(Deadline deadline) {
+        Deadline previous = CURRENT.get();
+        if (deadline == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(deadline);
+        }
+        return previous;
+    }
+
+    /**
+     * @return deadline which expires in <tt>timeout</tt> from now or at this deadline, whichever is earlier.
+     * The deadline is cancelled together with this one
+     */
+    public Deadline withTimeout(long timeout, TimeUnit unit) {
+        long expiry = expiryOf(timeout, unit);
+        return expiry - deadlineNanos < 0 ? new Deadline(expiry, cancellation) : this;
+    }
+
+    /**
+     * @return deadline which expires together with this one and is cancelled when this one is cancelled,
+     * but whose cancellation does not affect this deadline. Used to abort one of several calls made within a deadline
+     */
+    public Deadline fork() {
+        final Deadline child = new Deadline(deadlineNanos, new Cancellation());
+        final Runnable link = child::cancel;
+        if (!cancellation.add(link)) {
+            child.cancel();
+        } else {
+            child.cancellation.unlink = () -> cancellation.remove(link);
+            if (child.isCancelled()) {
+                cancellation.remove(link);
+            }
+        }
+        return child;
+    }
+
+    /**
+     * @return time left to deadline in <tt>unit</tt>, zero or negative if it is expired
+     */
+    public long remaining(TimeUnit unit) {
+        return unit.convert(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return true - if the deadline is passed or cancelled
+     */
+    public boolean isExpired() {
+        return cancellation.cancelled || deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    public boolean isCancelled() {
+        return cancellation.cancelled;
+    }
+
+    /**
+     * Cancels the deadline: calls in flight are aborted, and no more calls are made within it
+     */
+    public void cancel() {
+        cancellation.cancel();
+    }
+
+    /**
+     * @return message describing why call of <tt>commandName</tt> can not be completed within the deadline
+     */
+    public String expiryMessage(String commandName) {
+        return isCancelled() ? "Call of '" + commandName + "' command was cancelled"
+                : "Deadline of '" + commandName + "' command is exceeded";
+    }
+
+    /**
+     * Registers <tt>abort</tt> action of a call in flight, which is run when deadline expires or is cancelled.
+     * If the deadline is already expired the action is run right away.
+     *
+     * @param abort action aborting the call, e.g. {@link org.apache.commons.httpclient.HttpMethod#abort()}
+     * @return action which unregisters <tt>abort</tt>. Once it returns, <tt>abort</tt> is not run anymore
+     */
+    public Runnable abortOnExpiry(Runnable abort) {
+        final AbortAction action = new AbortAction(abort);
+        if (!cancellation.add(action) || isExpired()) {
+            action.run();
+            return () -> cancellation.remove(action);
+        }
+        final ScheduledFuture<?> timer = Timer.INSTANCE.schedule(action, remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        return () -> {
+            timer.cancel(false);
+            cancellation.remove(action);
+            action.disarm();
+        };
+    }
+
+    private static long expiryOf(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout should not be negative");
+        }
+        // keeps enough room for nanoTime arithmetic
+        return System.nanoTime() + Math.min(unit.toNanos(timeout), Long.MAX_VALUE / 4);
+    }
+
+    private static final class Cancellation {
+        private volatile boolean cancelled;
+        private final List<Runnable> aborts = new ArrayList<Runnable>();
+        // detaches forked cancellation from its origin once it is cancelled
+        private volatile Runnable unlink;
+
+        synchronized boolean add(Runnable abort) {
+            if (cancelled) {
+                return false;
+            }
+            aborts.add(abort);
+            return true;
+        }
+
+        synchronized void remove(Runnable abort) {
+            aborts.remove(abort);
+        }
+
+        void cancel() {
+            List<Runnable> pending;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                pending = new ArrayList<Runnable>(aborts);
+                aborts.clear();
+            }
+            Runnable detach = unlink;
+            if (detach != null) {
+                detach.run();
+            }
+            for (Runnable abort : pending) {
+                abort.run();
+            }
+        }
+    }
+
+    /**
+     * Abort which runs at most once, either by timer or by cancellation
+     */
+    private static final class AbortAction implements Runnable {
+        private final Runnable abort;
+        private boolean done;
+
+        AbortAction(Runnable abort) {
+            this.abort = abort;
+        }
+
+        public synchronized void run() {
+            if (!done) {
+                done = true;
+                abort.run();
+            }
+        }
+
+        /**
+         * Prevents the abort, waiting for it to finish if it is already running
+         */
+        synchronized void disarm() {
+            done = true;
+        }
+    }
+
+    private static final class Timer {
+        static final ScheduledThreadPoolExecutor INSTANCE = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "textmagic-deadline-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        static {
+            INSTANCE.setRemoveOnCancelPolicy(true);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.textmagic.sms.core.invoker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Chooses gateway endpoint for every call among several ones (e.g. primary and backup, or regional),
+ * based on their health and latency.
+ * <br/><br/>
+ * Latency of every endpoint is tracked as exponentially weighted moving average of response times, which decays
+ * to zero while the endpoint is not used, so an endpoint left for a while is tried again.
+ * The earliest endpoint in the list whose latency is unknown or within <tt>latencyTolerance</tt> times of the best one
+ * is chosen, so the primary one is preferred until another endpoint is noticeably faster.
+ * <br/>
+ * After <tt>failureThreshold</tt> consecutive failures endpoint is considered unhealthy and is not chosen for
+ * <tt>ejectionTime</tt>; then it gets calls again, and the first failure ejects it once more. If all endpoints are
+ * unhealthy, the one to be back soonest is chosen.
+ * <br/>
+ * The selector is thread-safe. It should be configured before it is used.
+ */
+public class EndpointSelector {
+
+    private final List<Endpoint> endpoints;
+    private final LongSupplier clock;
+
+    private int failureThreshold = 3;
+    private long ejectionNanos = TimeUnit.SECONDS.toNanos(30);
+    private double latencyTolerance = 1.5;
+    private long decayNanos = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * @param urls endpoint urls in order of preference
+     */
+    public EndpointSelector(Collection<String> urls) {
+        this(urls, System::nanoTime);
+    }
+
+    EndpointSelector(Collection<String> urls, LongSupplier clock) {
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("At least one endpoint should be given");
+        }
+        List<Endpoint> list = new ArrayList<Endpoint>(urls.size());
+        for (String url : urls) {
+            list.add(new Endpoint(url));
+        }
+        this.endpoints = Collections.unmodifiableList(list);
+        this.clock = clock;
+    }
+
+    /**
+     * @param failureThreshold consecutive failures after which endpoint is ejected, 3 by default
+     * @param ejectionTime time unhealthy endpoint is not chosen for, 30 seconds by default
+     * @param unit time unit of <tt>ejectionTime</tt>
+     */
+    public void setEjection(int failureThreshold, long ejectionTime, TimeUnit unit) {
+        if (failureThreshold < 1 || ejectionTime < 0) {
+            throw new IllegalArgumentException("Failure threshold should be positive and ejection time not negative");
+        }
+        this.failureThreshold = failureThreshold;
+        this.ejectionNanos = unit.toNanos(ejectionTime);
+    }
+
+    /**
+     * @param latencyTolerance how many times endpoint may be slower than the fastest one and still be preferred,
+     * 1.5 by default
+     */
+    public void setLatencyTolerance(double latencyTolerance) {
+        if (!(latencyTolerance >= 1)) {
+            throw new IllegalArgumentException("Latency tolerance should not be less than 1");
+        }
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    /**
+     * Sets time constant of latency average: the weight of a sample falls <tt>e</tt> times in <tt>decayTime</tt>,
+     * and so does the latency of an endpoint which is not used
+     *
+     * @param decayTime time constant, 10 seconds by default
+     * @param unit time unit of <tt>decayTime</tt>
+     */
+    public void setDecayTime(long decayTime, TimeUnit unit) {
+        if (decayTime <= 0) {
+            throw new IllegalArgumentException("Decay time should be positive");
+        }
+        this.decayNanos = unit.toNanos(decayTime);
+    }
+
+    /**
+     * @return endpoints in order of preference
+     */
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * @return endpoint the next call should be sent to
+     */
+    public Endpoint select() {
+        return select(Collections.<Endpoint>emptySet());
+    }
+
+    /**
+     * @param excluded endpoints already tried by the call
+     * @return endpoint the next call should be sent to, <tt>null</tt> if all endpoints are excluded
+     */
+    public Endpoint select(Collection<Endpoint> excluded) {
+        long now = clock.getAsLong();
+        double best = Double.MAX_VALUE;
+        for (Endpoint endpoint : endpoints) {
+            double latency = endpoint.latency(now);
+            if (!excluded.contains(endpoint) && endpoint.isAvailable(now) && latency >= 0) {
+                best = Math.min(best, latency);
+            }
+        }
+        for (Endpoint endpoint : endpoints) {
+            if (!excluded.contains(endpoint) && endpoint.isAvailable(now)) {
+                // endpoint of unknown latency is as good as any
+                double latency = endpoint.latency(now);
+                if (latency < 0 || latency <= best * latencyTolerance) {
+                    return endpoint;
+                }
+            }
+        }
+        // all endpoints are unhealthy, the one to be back soonest is tried
+        Endpoint soonest = null;
+        for (Endpoint endpoint : endpoints) {
+            if (!excluded.contains(endpoint) && (soonest == null || endpoint.ejectedUntil() - soonest.ejectedUntil() < 0)) {
+                soonest = endpoint;
+            }
+        }
+        return soonest;
+    }
+
+    /**
+     * Records successful call of <tt>endpoint</tt>
+     *
+     * @param latencyNanos time the endpoint took to respond
+     */
+    public void onSuccess(Endpoint endpoint, long latencyNanos) {
+        endpoint.succeeded(clock.getAsLong(), latencyNanos);
+    }
+
+    /**
+     * Records failed call of <tt>endpoint</tt>, which is ejected once failures reach the threshold
+     */
+    public void onFailure(Endpoint endpoint) {
+        endpoint.failed(clock.getAsLong());
+    }
+
+    /**
+     * Gateway endpoint with its health and latency
+     */
+    public final class Endpoint {
+        private final String url;
+
+        // guarded by this
+        private double latencyNanos;
+        private long sampledAt;
+        private boolean sampled;
+        private int consecutiveFailures;
+        private long ejectedUntil;
+        private boolean ejected;
+
+        private Endpoint(String url) {
+            this.url = url;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return true - if the endpoint is not ejected because of failures
+         */
+        public synchronized boolean isHealthy() {
+            return isAvailable(clock.getAsLong());
+        }
+
+        /**
+         * @return current latency average in nanoseconds, <tt>-1</tt> if it is unknown
+         */
+        public synchronized long getLatencyNanos() {
+            return (long) latency(clock.getAsLong());
+        }
+
+        public synchronized int getConsecutiveFailures() {
+            return consecutiveFailures;
+        }
+
+        synchronized boolean isAvailable(long now) {
+            return !ejected || now - ejectedUntil >= 0;
+        }
+
+        synchronized long ejectedUntil() {
+            return ejectedUntil;
+        }
+
+        synchronized double latency(long now) {
+            return sampled ? latencyNanos * Math.exp(-(double) (now - sampledAt) / decayNanos) : -1;
+        }
+
+        synchronized void succeeded(long now, long latency) {
+            if (sampled) {
+                double weight = Math.exp(-(double) (now - sampledAt) / decayNanos);
+                latencyNanos = latencyNanos * weight + latency * (1 - weight);
+            } else {
+                latencyNanos = latency;
+                sampled = true;
+            }
+            sampledAt = now;
+            consecutiveFailures = 0;
+            ejected = false;
+        }
+
+        synchronized void failed(long now) {
+            consecutiveFailures++;
+            if (consecutiveFailures >= failureThreshold) {
+                ejected = true;
+                ejectedUntil = now + ejectionNanos;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return url;
+        }
+    }
+}
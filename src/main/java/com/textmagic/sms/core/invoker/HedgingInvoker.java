@@ -0,0 +1,352 @@
+package com.textmagic.sms.core.invoker;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * {@link HttpServiceInvoker} decorator which hedges slow calls of idempotent commands.
+ * <br/><br/>
+ * If response to hedged command is not received within <tt>percentile</tt> of recently observed latencies,
+ * identical call is sent once more. Decorated invoker takes another pooled connection for it, since the first one
+ * is still busy. Whichever call responds first wins, the other one is aborted by cancelling its {@link Deadline}
+ * (see {@link Deadline#fork()}). If one of the calls fails, response of the other one is awaited.
+ * <br/>
+ * Extra load is capped: every hedged command call earns <tt>maxExtraLoad</tt> of a hedge, and a hedge is only sent
+ * if a whole one is earned, so hedges never exceed <tt>maxExtraLoad</tt> share of calls (plus a small burst).
+ * Until <tt>minSamples</tt> latencies are observed calls are not hedged.
+ * Latency of hedged command call is the time the first call took; if the hedge wins, the first call's time until
+ * it is aborted is taken as its lower bound, so slow calls keep the percentile up.
+ * <br/>
+ * Only commands which are safe to repeat should be hedged. Hedged calls read response into memory,
+ * other commands are passed to decorated invoker as is. The invoker is thread-safe if decorated invoker is.
+ * It should be configured before it is used.
+ */
+public class HedgingInvoker implements StreamingHttpServiceInvoker {
+    Log log = LogFactory.getLog(HedgingInvoker.class);
+
+    /**
+     * Read-only commands of the gateway, which are hedged by default
+     */
+    public static final Set<String> DEFAULT_HEDGED_COMMANDS = Collections.unmodifiableSet(new HashSet<String>(
+            Arrays.asList("account", "message_status", "receive", "check_number")));
+
+    // hedges which can be sent in a row, when enough of them are earned
+    private static final int MAX_HEDGE_BURST = 10;
+    // hedge budget is counted in thousandths of a hedge
+    private static final long HEDGE_COST = 1000;
+
+    private final HttpServiceInvoker invoker;
+    private final Executor executor;
+    private final LongSupplier clock;
+
+    private Set<String> hedgedCommands = DEFAULT_HEDGED_COMMANDS;
+    private double percentile = 95;
+    private int minSamples = 20;
+    private long minDelayNanos = TimeUnit.MILLISECONDS.toNanos(5);
+    private long hedgeEarning = 50;
+
+    private final Object samplesLock = new Object();
+    // guarded by samplesLock
+    private long[] latencies = new long[200];
+    private int sampled;
+    private int sampledSinceUpdate;
+
+    private volatile long hedgeDelayNanos = -1;
+    private final AtomicLong hedgeBudget = new AtomicLong();
+    private final AtomicLong callCount = new AtomicLong();
+    private final AtomicLong hedgeCount = new AtomicLong();
+    private final AtomicLong hedgeWinCount = new AtomicLong();
+
+    /**
+     * Constructs hedging invoker, which runs calls on shared pool of daemon threads
+     *
+     * @param invoker thread-safe invoker to be hedged, it should abort calls when {@link Deadline} is cancelled
+     */
+    public HedgingInvoker(HttpServiceInvoker invoker) {
+        this(invoker, CallExecutor.INSTANCE);
+    }
+
+    /**
+     * @param invoker thread-safe invoker to be hedged, it should abort calls when {@link Deadline} is cancelled
+     * @param executor executor running the calls, it should not queue them
+     */
+    public HedgingInvoker(HttpServiceInvoker invoker, Executor executor) {
+        this(invoker, executor, System::nanoTime);
+    }
+
+    HedgingInvoker(HttpServiceInvoker invoker, Executor executor, LongSupplier clock) {
+        this.invoker = invoker;
+        this.executor = executor;
+        this.clock = clock;
+    }
+
+    /**
+     * @param commands names of commands which may be hedged, {@link #DEFAULT_HEDGED_COMMANDS} by default
+     */
+    public void setHedgedCommands(Collection<String> commands) {
+        this.hedgedCommands = Collections.unmodifiableSet(new HashSet<String>(commands));
+    }
+
+    /**
+     * Sets percentile of observed latencies after which the call is hedged
+     *
+     * @param percentile percentile between 0 and 100 exclusive, 95 by default
+     */
+    public void setPercentile(double percentile) {
+        if (!(percentile > 0 && percentile < 100)) {
+            throw new IllegalArgumentException("Percentile should be between 0 and 100");
+        }
+        this.percentile = percentile;
+    }
+
+    /**
+     * Sets how many latencies are observed before calls are hedged, and how many recent latencies
+     * the percentile is taken of
+     *
+     * @param minSamples latencies observed before hedging starts, 20 by default
+     * @param windowSize recent latencies the percentile is taken of, 200 by default
+     */
+    public void setSamples(int minSamples, int windowSize) {
+        if (minSamples < 1 || windowSize < minSamples) {
+            throw new IllegalArgumentException("Samples should be positive and not exceed window size");
+        }
+        synchronized (samplesLock) {
+            this.minSamples = minSamples;
+            this.latencies = new long[windowSize];
+            this.sampled = 0;
+            this.sampledSinceUpdate = 0;
+            this.hedgeDelayNanos = -1;
+        }
+    }
+
+    /**
+     * Sets the lowest delay of a hedge, so fast responses with little latency spread are not hedged
+     *
+     * @param minDelay the lowest delay, 5 milliseconds by default
+     */
+    public void setMinDelay(long minDelay, TimeUnit unit) {
+        if (minDelay < 0) {
+            throw new IllegalArgumentException("Minimum delay should not be negative");
+        }
+        this.minDelayNanos = unit.toNanos(minDelay);
+    }
+
+    /**
+     * Sets the cap of extra load created by hedging
+     *
+     * @param maxExtraLoad maximum share of hedges in hedged command calls, between 0 and 1; 0.05 by default
+     */
+    public void setMaxExtraLoad(double maxExtraLoad) {
+        if (!(maxExtraLoad >= 0 && maxExtraLoad <= 1)) {
+            throw new IllegalArgumentException("Extra load share should be between 0 and 1");
+        }
+        this.hedgeEarning = Math.round(maxExtraLoad * HEDGE_COST);
+    }
+
+    /**
+     * @return current delay of a hedge in nanoseconds, <tt>-1</tt> if not enough latencies are observed yet
+     */
+    public long getHedgeDelayNanos() {
+        return hedgeDelayNanos;
+    }
+
+    /**
+     * @return number of hedged command calls
+     */
+    public long getCallCount() {
+        return callCount.get();
+    }
+
+    /**
+     * @return number of hedges sent
+     */
+    public long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * @return number of calls answered by the hedge rather than by the first call
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    public String invoke(String login, String password, String commandName, Map<String, String> parameters) throws ServiceInvokerException {
+        if (!hedgedCommands.contains(commandName)) {
+            return invoker.invoke(login, password, commandName, parameters);
+        }
+        callCount.incrementAndGet();
+        earnHedge();
+        long delay = hedgeDelayNanos;
+        if (delay < 0) {
+            long start = clock.getAsLong();
+            String response = invoker.invoke(login, password, commandName, parameters);
+            recordLatency(clock.getAsLong() - start);
+            return response;
+        }
+        return invokeHedged(login, password, commandName, parameters, delay);
+    }
+
+    public ResponseBody invokeStreaming(String login, String password, String commandName, Map<String, String> parameters) throws ServiceInvokerException {
+        if (!hedgedCommands.contains(commandName)) {
+            return Invokers.invokeStreaming(invoker, login, password, commandName, parameters);
+        }
+        String response = invoke(login, password, commandName, parameters);
+        byte[] bytes = response == null ? new byte[0] : response.getBytes(StandardCharsets.UTF_8);
+        return new ResponseBody(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8, ResponseBody.UNLIMITED, null);
+    }
+
+    private String invokeHedged(String login, String password, String commandName, Map<String, String> parameters,
+                                long delayNanos) throws ServiceInvokerException {
+        Deadline current = Deadline.current();
+        Deadline origin = current != null ? current : Deadline.after(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        CompletableFuture<String> result = new CompletableFuture<String>();
+        AtomicInteger running = new AtomicInteger(1);
+        long firstStart = clock.getAsLong();
+        Deadline first = start(origin.fork(), result, running, false, firstStart, login, password, commandName, parameters);
+        Deadline hedge = null;
+        try {
+            try {
+                return result.get(delayNanos, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException ex) {
+                if (!result.isDone() && takeHedge()) {
+                    if(log.isDebugEnabled()) {
+                        log.debug("Call of '" + commandName + "' command is hedged after " + delayNanos + " ns");
+                    }
+                    hedgeCount.incrementAndGet();
+                    running.incrementAndGet();
+                    hedge = start(origin.fork(), result, running, true, firstStart, login, password, commandName, parameters);
+                }
+                return result.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ServiceInvokerException("Call of '" + commandName + "' command was interrupted", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof ServiceInvokerException) {
+                throw (ServiceInvokerException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ServiceInvokerException(String.valueOf(cause.getMessage()), cause);
+        } finally {
+            // aborts the loser, the winner has already completed
+            first.cancel();
+            if (hedge != null) {
+                hedge.cancel();
+            }
+        }
+    }
+
+    /**
+     * Starts the call within <tt>deadline</tt>. Its response completes <tt>result</tt> unless other call
+     * has already done that, and its failure completes <tt>result</tt> only if no other call is running.
+     * The winner records time elapsed since <tt>firstStart</tt>: latency of the first call, or its lower bound
+     * if the first call is aborted
+     */
+    private Deadline start(final Deadline deadline, final CompletableFuture<String> result, final AtomicInteger running,
+                           final boolean isHedge, final long firstStart, final String login, final String password,
+                           final String commandName, final Map<String, String> parameters) {
+        Runnable call = () -> {
+            Deadline previous = Deadline.bind(deadline);
+            try {
+                String response = invoker.invoke(login, password, commandName, parameters);
+                if (result.complete(response)) {
+                    recordLatency(clock.getAsLong() - firstStart);
+                    if (isHedge) {
+                        hedgeWinCount.incrementAndGet();
+                    }
+                }
+            } catch (Throwable ex) {
+                if (running.decrementAndGet() == 0) {
+                    result.completeExceptionally(ex);
+                }
+            } finally {
+                Deadline.bind(previous);
+            }
+        };
+        try {
+            executor.execute(call);
+        } catch (RejectedExecutionException ex) {
+            if (running.decrementAndGet() == 0) {
+                result.completeExceptionally(new ServiceInvokerException(
+                        "Call of '" + commandName + "' command was rejected by executor", ex));
+            }
+        }
+        return deadline;
+    }
+
+    private void earnHedge() {
+        long earning = hedgeEarning;
+        long budget;
+        do {
+            budget = hedgeBudget.get();
+            if (budget >= MAX_HEDGE_BURST * HEDGE_COST) {
+                return;
+            }
+        } while (!hedgeBudget.compareAndSet(budget, Math.min(budget + earning, MAX_HEDGE_BURST * HEDGE_COST)));
+    }
+
+    private boolean takeHedge() {
+        long budget;
+        do {
+            budget = hedgeBudget.get();
+            if (budget < HEDGE_COST) {
+                return false;
+            }
+        } while (!hedgeBudget.compareAndSet(budget, budget - HEDGE_COST));
+        return true;
+    }
+
+    /**
+     * Stores latency in the ring of recent ones and recalculates hedge delay every tenth of the ring
+     */
+    private void recordLatency(long latencyNanos) {
+        long[] window;
+        int size;
+        synchronized (samplesLock) {
+            latencies[sampled % latencies.length] = latencyNanos;
+            sampled++;
+            sampledSinceUpdate++;
+            if (sampled < minSamples || (hedgeDelayNanos >= 0 && sampledSinceUpdate < Math.max(latencies.length / 10, 1))) {
+                return;
+            }
+            sampledSinceUpdate = 0;
+            size = Math.min(sampled, latencies.length);
+            window = Arrays.copyOf(latencies, size);
+        }
+        Arrays.sort(window);
+        int index = (int) Math.min(size - 1, Math.ceil(size * percentile / 100) - 1);
+        hedgeDelayNanos = Math.max(window[Math.max(index, 0)], minDelayNanos);
+    }
+
+    private static final class CallExecutor {
+        static final ExecutorService INSTANCE = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "textmagic-hedging");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
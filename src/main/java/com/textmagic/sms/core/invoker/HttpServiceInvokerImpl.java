@@ -1,14 +1,28 @@
 package com.textmagic.sms.core.invoker;
 
+import org.apache.commons.httpclient.ConnectTimeoutException;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.RequestEntity;
 import org.apache.commons.httpclient.methods.FileRequestEntity;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
 
 import com.textmagic.sms.util.StringUtils;
 
@@ -29,56 +43,346 @@ import com.textmagic.sms.util.StringUtils;
  *      }
  *  </pre>
  * <br/>
- * To change https to http protocol, one should override <code>textMagicUrl<code> value 
+ * To change https to http protocol, one should override <code>textMagicUrl<code> value
+ * <br/><br/>
+ * Several gateway endpoints can be set with {@link #setEndpoints(java.util.Collection)}: every call is then sent
+ * to the endpoint chosen by {@link EndpointSelector} according to endpoints health and latency. If connection to
+ * the endpoint can not be established, the call fails over to the next endpoint at once, since the gateway has not
+ * received it; other failures are thrown, leaving retries to {@link com.textmagic.sms.core.retry.RetryPolicy}.
+ * <br/><br/>
+ * The default constructor uses single-connection manager, so the invoker must not be shared between threads.
+ * When one invoker is to be used by many threads concurrently, construct it in pooled mode
+ * (see {@link #HttpServiceInvokerImpl(int, int, long)}): connections are kept alive and reused between calls,
+ * stale connections are checked before reuse and idle ones are evicted in background.
+ * Pooled invoker should be released with {@link #shutdown()} when it is not needed anymore.
+ * <br/><br/>
+ * Response body can be taken unread with {@link #invokeStreaming(String, String, String, java.util.Map)},
+ * and its size can be limited with {@link #setMaxResponseBodySize(long)}.
+ * <br/><br/>
+ * Connect, socket and connection acquire timeouts are 30, 60 and 30 seconds by default. If calling thread has
+ * {@link Deadline}, socket timeout is limited by time left and the request is aborted when the deadline expires
+ * or is cancelled, so the thread never waits past the deadline.
  *
  * @author Rafael Bagmanov
  */
-public class HttpServiceInvokerImpl implements HttpServiceInvoker{
+public class HttpServiceInvokerImpl implements StreamingHttpServiceInvoker {
     Log log = LogFactory.getLog(HttpServiceInvokerImpl.class);
 
     protected String textMagicUrl = "https://www.textmagic.com/app/api";
     protected HttpClient httpclient;
+    protected IdleConnectionTimeoutThread idleConnectionEvictor;
+    protected long maxResponseBodySize = ResponseBody.UNLIMITED;
+    protected int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    protected int socketTimeout = DEFAULT_SOCKET_TIMEOUT;
+    protected long connectionAcquireTimeout = DEFAULT_CONNECTION_ACQUIRE_TIMEOUT;
+    protected EndpointSelector endpoints;
+
+    private static final int DEFAULT_CONNECT_TIMEOUT = 30000;
+    private static final int DEFAULT_SOCKET_TIMEOUT = 60000;
+    private static final long DEFAULT_CONNECTION_ACQUIRE_TIMEOUT = 30000;
 
     /**
      *  Constructs the invoker and instantiate httpclient as {@link HttpClient}
      */
     public HttpServiceInvokerImpl() {
         httpclient = new HttpClient();
+        applyTimeouts();
     }
 
-    public String invoke(String login, String password, String commandName, Map<String, String> parameters) throws ServiceInvokerException {
-        PostMethod post = new UTF8PostMethod(textMagicUrl);
-        post.addParameter("username", login);
-        post.addParameter("password", password);
-        post.addParameter("cmd", commandName);
-        for (String key : parameters.keySet()) {
-            post.addParameter(key, parameters.get(key));
+    /**
+     * Constructs thread-safe invoker which keeps pool of persistent connections to the gateway.
+     *
+     * @param maxTotalConnections maximum number of connections the pool can hold
+     * @param maxConnectionsPerHost maximum number of connections to single host
+     * @param idleConnectionTimeout time in milliseconds after which idle connection is closed. Non positive value disables idle connections eviction
+     */
+    public HttpServiceInvokerImpl(int maxTotalConnections, int maxConnectionsPerHost, long idleConnectionTimeout) {
+        if (maxTotalConnections < 1 || maxConnectionsPerHost < 1 || maxConnectionsPerHost > maxTotalConnections) {
+            throw new IllegalArgumentException("Connection pool limits [total = " + maxTotalConnections +
+                    "; per host = " + maxConnectionsPerHost + "] are invalid");
+        }
+        MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setMaxTotalConnections(maxTotalConnections);
+        params.setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+        params.setStaleCheckingEnabled(true);
+        httpclient = new HttpClient(connectionManager);
+        applyTimeouts();
+        if (idleConnectionTimeout > 0) {
+            idleConnectionEvictor = new IdleConnectionTimeoutThread();
+            idleConnectionEvictor.setName("textmagic-idle-connection-evictor");
+            idleConnectionEvictor.setConnectionTimeout(idleConnectionTimeout);
+            idleConnectionEvictor.setTimeoutInterval(Math.max(idleConnectionTimeout / 2, 1L));
+            idleConnectionEvictor.addConnectionManager(connectionManager);
+            idleConnectionEvictor.start();
         }
+    }
+
+    /**
+     * Stops idle connections eviction and closes all pooled connections.
+     * The invoker constructed with default constructor holds nothing to release, so the call is a no-op for it.
+     */
+    public void shutdown() {
+        if (idleConnectionEvictor != null) {
+            idleConnectionEvictor.shutdown();
+            idleConnectionEvictor = null;
+        }
+        if (httpclient.getHttpConnectionManager() instanceof MultiThreadedHttpConnectionManager) {
+            ((MultiThreadedHttpConnectionManager) httpclient.getHttpConnectionManager()).shutdown();
+        }
+    }
+
+    /**
+     * Sets maximum size of gateway response body in bytes.
+     * Bigger responses fail with {@link ServiceInvokerException} instead of being read into memory.
+     *
+     * @param maxResponseBodySize body size limit, {@link ResponseBody#UNLIMITED} by default
+     */
+    public void setMaxResponseBodySize(long maxResponseBodySize) {
+        if (maxResponseBodySize < 0) {
+            throw new IllegalArgumentException("Response body size limit " + maxResponseBodySize + " is negative");
+        }
+        this.maxResponseBodySize = maxResponseBodySize;
+    }
+
+    /**
+     * Sets gateway endpoints to be used instead of <tt>textMagicUrl</tt>
+     *
+     * @param urls endpoint urls in order of preference, e.g. primary one and then backup one
+     */
+    public void setEndpoints(Collection<String> urls) {
+        this.endpoints = new EndpointSelector(urls);
+    }
+
+    /**
+     * Sets configured selector of gateway endpoints to be used instead of <tt>textMagicUrl</tt>
+     *
+     * @param endpoints endpoint selector, <tt>null</tt> - only <tt>textMagicUrl</tt> is used
+     */
+    public void setEndpointSelector(EndpointSelector endpoints) {
+        this.endpoints = endpoints;
+    }
+
+    public EndpointSelector getEndpointSelector() {
+        return endpoints;
+    }
+
+    /**
+     * @param connectTimeout time limit of connection establishment, 0 - no limit
+     * @param unit time unit of <tt>connectTimeout</tt>
+     */
+    public void setConnectTimeout(long connectTimeout, TimeUnit unit) {
+        this.connectTimeout = toMillis(connectTimeout, unit);
+        applyTimeouts();
+    }
+
+    /**
+     * @param socketTimeout time limit of waiting for response data, 0 - no limit
+     * @param unit time unit of <tt>socketTimeout</tt>
+     */
+    public void setSocketTimeout(long socketTimeout, TimeUnit unit) {
+        this.socketTimeout = toMillis(socketTimeout, unit);
+        applyTimeouts();
+    }
+
+    /**
+     * @param connectionAcquireTimeout time limit of waiting for free connection in pooled mode, 0 - no limit
+     * @param unit time unit of <tt>connectionAcquireTimeout</tt>
+     */
+    public void setConnectionAcquireTimeout(long connectionAcquireTimeout, TimeUnit unit) {
+        this.connectionAcquireTimeout = toMillis(connectionAcquireTimeout, unit);
+        applyTimeouts();
+    }
+
+    private void applyTimeouts() {
+        httpclient.getHttpConnectionManager().getParams().setConnectionTimeout(connectTimeout);
+        httpclient.getHttpConnectionManager().getParams().setSoTimeout(socketTimeout);
+        httpclient.getParams().setConnectionManagerTimeout(connectionAcquireTimeout);
+    }
+
+    private static int toMillis(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout should not be negative");
+        }
+        return (int) Math.min(unit.toMillis(timeout), Integer.MAX_VALUE);
+    }
+
+    public String invoke(String login, String password, String commandName, Map<String, String> parameters) throws ServiceInvokerException {
+        Exchange exchange = exchange(login, password, commandName, parameters);
         try {
-            if(log.isDebugEnabled()){
-                String logStr = String.format("<<< [login = %s; command = %s; parameters = %s]", login,
-                        commandName, StringUtils.toString(parameters));
-                log.debug(logStr);
+            InputStream in = exchange.post.getResponseBodyAsStream();
+            String response = in == null ? null
+                    : new ResponseBody(in, Charset.forName(exchange.post.getResponseCharSet()), maxResponseBodySize, null).asString();
+            if(log.isDebugEnabled()) {
+                log.debug(String.format(">>> [body = %s]", response));
             }
-            int result = httpclient.executeMethod(post);
+            return response;
+        } catch (IOException ex) {
             if(log.isDebugEnabled()) {
-                String logStr = String.format(">>> [http_result = %d; body = %s", result, post.getResponseBodyAsString());
-                log.debug(logStr);
+                log.debug (">>> exception thrown" + ex.getMessage());
             }
-            if(result < 200 || result > 299){
-                throw new ServiceInvokerException("Server responded with " + result + " http code");
+            throw failure(commandName, ex);
+        } finally {
+            exchange.release();
+        }
+    }
+
+    public ResponseBody invokeStreaming(String login, String password, String commandName, Map<String, String> parameters) throws ServiceInvokerException {
+        final Exchange exchange = exchange(login, password, commandName, parameters);
+        boolean succeeded = false;
+        try {
+            InputStream in = exchange.post.getResponseBodyAsStream();
+            if (in == null) {
+                in = new ByteArrayInputStream(new byte[0]);
             }
-            return post.getResponseBodyAsString();  
+            ResponseBody body = new ResponseBody(in, Charset.forName(exchange.post.getResponseCharSet()), maxResponseBodySize,
+                    exchange::release);
+            succeeded = true;
+            return body;
         } catch (IOException ex) {
             if(log.isDebugEnabled()) {
                 log.debug (">>> exception thrown" + ex.getMessage());
             }
-            throw new ServiceInvokerException (ex.getMessage(), ex);
+            throw failure(commandName, ex);
         } finally {
+            if (!succeeded) {
+                exchange.release();
+            }
+        }
+    }
+
+    /**
+     * Sends the command to <tt>textMagicUrl</tt> or to the endpoint chosen by selector, failing over to other
+     * endpoints while connection can not be established.
+     * Caller must release the exchange after reading the body
+     */
+    private Exchange exchange(String login, String password, String commandName, Map<String, String> parameters) throws ServiceInvokerException {
+        EndpointSelector selector = endpoints;
+        EndpointSelector.Endpoint endpoint = selector == null ? null : selector.select();
+        List<EndpointSelector.Endpoint> tried = new ArrayList<EndpointSelector.Endpoint>(1);
+        while (true) {
+            PostMethod post = createMethod(endpoint == null ? textMagicUrl : endpoint.getUrl(), login, password, commandName, parameters);
+            Exchange exchange = new Exchange(post, watchDeadline(post, commandName));
+            long start = System.nanoTime();
+            try {
+                execute(post, login, commandName, parameters);
+                if (endpoint != null) {
+                    selector.onSuccess(endpoint, System.nanoTime() - start);
+                }
+                return exchange;
+            } catch (ServiceInvokerException ex) {
+                exchange.release();
+                if (endpoint != null && ex.getHttpStatus() >= 500) {
+                    selector.onFailure(endpoint);
+                }
+                throw ex;
+            } catch (IOException ex) {
+                exchange.release();
+                if(log.isDebugEnabled()) {
+                    log.debug (">>> exception thrown" + ex.getMessage());
+                }
+                ServiceInvokerException failure = failure(commandName, ex);
+                Deadline deadline = Deadline.current();
+                if (endpoint == null || (deadline != null && deadline.isExpired())) {
+                    throw failure;
+                }
+                selector.onFailure(endpoint);
+                tried.add(endpoint);
+                EndpointSelector.Endpoint next = isNotConnected(ex) ? selector.select(tried) : null;
+                if (next == null) {
+                    throw failure;
+                }
+                log.warn("Endpoint " + endpoint + " is not reachable, '" + commandName + "' command fails over to " + next);
+                endpoint = next;
+            }
+        }
+    }
+
+    private PostMethod createMethod(String url, String login, String password, String commandName, Map<String, String> parameters) {
+        PostMethod post = new UTF8PostMethod(url);
+        post.addParameter("username", login);
+        post.addParameter("password", password);
+        post.addParameter("cmd", commandName);
+        for (String key : parameters.keySet()) {
+            post.addParameter(key, parameters.get(key));
+        }
+        return post;
+    }
+
+    /**
+     * Limits socket timeout of <tt>post</tt> by deadline of calling thread and aborts it when the deadline expires
+     *
+     * @return action which stops watching the deadline
+     * @throws ServiceInvokerException if the deadline is already expired
+     */
+    private Runnable watchDeadline(PostMethod post, String commandName) throws ServiceInvokerException {
+        final Deadline deadline = Deadline.current();
+        if (deadline == null) {
+            return () -> { };
+        }
+        if (deadline.isExpired()) {
+            throw new ServiceInvokerException(deadline.expiryMessage(commandName));
+        }
+        long remaining = Math.max(deadline.remaining(TimeUnit.MILLISECONDS), 1L);
+        post.getParams().setSoTimeout((int) Math.min(socketTimeout == 0 ? remaining : Math.min(socketTimeout, remaining), Integer.MAX_VALUE));
+        return deadline.abortOnExpiry(post::abort);
+    }
+
+    private static boolean isNotConnected(IOException ex) {
+        return ex instanceof ConnectException || ex instanceof UnknownHostException
+                || ex instanceof NoRouteToHostException || ex instanceof ConnectTimeoutException;
+    }
+
+    private static ServiceInvokerException failure(String commandName, IOException ex) {
+        Deadline deadline = Deadline.current();
+        if (deadline != null && deadline.isExpired()) {
+            return new ServiceInvokerException(deadline.expiryMessage(commandName), ex);
+        }
+        return new ServiceInvokerException(ex.getMessage(), ex);
+    }
+
+    /**
+     * Executes the command and checks response status and declared body size.
+     * Caller must release the connection after reading the body or on failure
+     */
+    private void execute(PostMethod post, String login, String commandName, Map<String, String> parameters) throws ServiceInvokerException, IOException {
+        if(log.isDebugEnabled()){
+            String logStr = String.format("<<< [login = %s; command = %s; parameters = %s]", login,
+                    commandName, StringUtils.toString(parameters));
+            log.debug(logStr);
+        }
+        int result = httpclient.executeMethod(post);
+        long contentLength = post.getResponseContentLength();
+        if(log.isDebugEnabled()) {
+            String logStr = String.format(">>> [http_result = %d; content_length = %d]", result, contentLength);
+            log.debug(logStr);
+        }
+        if(result < 200 || result > 299){
+            throw new ServiceInvokerException("Server responded with " + result + " http code", result);
+        }
+        if (contentLength > maxResponseBodySize) {
+            throw new ServiceInvokerException("Response body of " + contentLength + " bytes exceeds " + maxResponseBodySize + " bytes", result);
+        }
+    }
+
+    /**
+     * Sent method with deadline watch, both to be released once response is read
+     */
+    private static class Exchange {
+        final PostMethod post;
+        final Runnable deadlineWatch;
+
+        Exchange(PostMethod post, Runnable deadlineWatch) {
+            this.post = post;
+            this.deadlineWatch = deadlineWatch;
+        }
+
+        void release() {
+            deadlineWatch.run();
             post.releaseConnection();
         }
     }
-    
+
     private static class UTF8PostMethod extends PostMethod {
 		public UTF8PostMethod(String url) {
 			super(url);
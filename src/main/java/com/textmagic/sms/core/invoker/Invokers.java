@@ -0,0 +1,56 @@
+package com.textmagic.sms.core.invoker;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Helpers shared by invoker decorators
+ */
+final class Invokers {
+
+    private Invokers() {
+    }
+
+    /**
+     * Calls streaming method of <tt>invoker</tt> if it supports streaming,
+     * otherwise wraps response read by {@link HttpServiceInvoker#invoke(String, String, String, java.util.Map)} into body
+     */
+    static ResponseBody invokeStreaming(HttpServiceInvoker invoker, String login, String password, String commandName,
+                                        Map<String, String> parameters) throws ServiceInvokerException {
+        if (invoker instanceof StreamingHttpServiceInvoker) {
+            return ((StreamingHttpServiceInvoker) invoker).invokeStreaming(login, password, commandName, parameters);
+        }
+        String response = invoker.invoke(login, password, commandName, parameters);
+        byte[] bytes = response == null ? new byte[0] : response.getBytes(StandardCharsets.UTF_8);
+        return new ResponseBody(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8, ResponseBody.UNLIMITED, null);
+    }
+
+    /**
+     * Tells if the call failed because of the gateway: it is inaccessible, does not respond in time
+     * or responds with 5xx http status.
+     * <br/>
+     * Calls cancelled or run out of their {@link Deadline}, rejected by other decorator
+     * ({@link CallNotPermittedException}) or refused with 4xx http status say nothing about gateway health.
+     */
+    static boolean isGatewayFailure(Throwable failure) {
+        Deadline deadline = Deadline.current();
+        if (deadline != null && deadline.isExpired()) {
+            return false;
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CallNotPermittedException) {
+                return false;
+            }
+            if (cause instanceof ServiceInvokerException
+                    && ((ServiceInvokerException) cause).getHttpStatus() != ServiceInvokerException.NO_HTTP_STATUS) {
+                return ((ServiceInvokerException) cause).getHttpStatus() >= 500;
+            }
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,250 @@
+package com.textmagic.sms.core.invoker;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.textmagic.sms.util.StringUtils;
+
+/**
+ * {@link HttpServiceInvoker} and {@link AsyncHttpServiceInvoker} implementation based on JDK
+ * {@link java.net.http.HttpClient}.
+ * <br/><br/>
+ * The invoker prefers HTTP/2, so many concurrent commands are multiplexed over one connection to the gateway.
+ * If server does not support HTTP/2, persistent HTTP/1.1 connections are pooled and reused.
+ * The invoker is thread-safe and can be shared between any number of threads, it can be set either
+ * with {@link com.textmagic.sms.TextMagicMessageService#setInvoker(HttpServiceInvoker)} or
+ * with {@link com.textmagic.sms.TextMagicAsyncMessageService#setInvoker(AsyncHttpServiceInvoker)}.
+ * <br/><br/>
+ * To customize client configuration (proxy, ssl context, executor etc.) one should construct it and pass to
+ * {@link #JdkHttpServiceInvoker(java.net.http.HttpClient)}.
+ * Synchronous calls read response body as a stream (see {@link #invokeStreaming(String, String, String, java.util.Map)}),
+ * its size can be limited with {@link #setMaxResponseBodySize(long)}. Asynchronous calls read whole body into memory
+ * and ignore the limit.
+ * <br/><br/>
+ * If calling thread has {@link Deadline}, synchronous call fails as soon as the deadline expires or is cancelled.
+ * The request is sent with timeout of the time left to the deadline, so the exchange itself ends by the deadline
+ * on any JDK. Cancellation before the deadline releases calling thread right away, but aborts the exchange only
+ * on JDK 16 or later: on older JDKs cancelling future of {@link HttpClient#sendAsync} does not reach the connection,
+ * so the exchange goes on in background until the response comes or the request times out.
+ * Reading of response body is aborted by closing the body stream on any JDK.
+ * To change https to http protocol, one should override <code>textMagicUrl<code> value
+ */
+public class JdkHttpServiceInvoker implements StreamingHttpServiceInvoker, AsyncHttpServiceInvoker {
+    Log log = LogFactory.getLog(JdkHttpServiceInvoker.class);
+
+    private static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(30);
+
+    protected String textMagicUrl = "https://www.textmagic.com/app/api";
+    protected HttpClient httpclient;
+    protected long maxResponseBodySize = ResponseBody.UNLIMITED;
+
+    /**
+     * Constructs the invoker with HTTP/2 preferring {@link HttpClient}
+     */
+    public JdkHttpServiceInvoker() {
+        this(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(DEFAULT_CONNECT_TIMEOUT)
+                .build());
+    }
+
+    /**
+     * Constructs the invoker with preconfigured client
+     *
+     * @param httpclient client to be used for gateway calls
+     */
+    public JdkHttpServiceInvoker(HttpClient httpclient) {
+        this.httpclient = httpclient;
+    }
+
+    /**
+     * Sets maximum size of gateway response body in bytes for synchronous calls.
+     * Bigger responses fail with {@link ServiceInvokerException} instead of being read into memory.
+     *
+     * @param maxResponseBodySize body size limit, {@link ResponseBody#UNLIMITED} by default
+     */
+    public void setMaxResponseBodySize(long maxResponseBodySize) {
+        if (maxResponseBodySize < 0) {
+            throw new IllegalArgumentException("Response body size limit " + maxResponseBodySize + " is negative");
+        }
+        this.maxResponseBodySize = maxResponseBodySize;
+    }
+
+    public String invoke(String login, String password, String commandName, Map<String, String> parameters) throws ServiceInvokerException {
+        ResponseBody body = invokeStreaming(login, password, commandName, parameters);
+        try {
+            String response = body.asString();
+            if(log.isDebugEnabled()) {
+                log.debug(String.format(">>> [body = %s]", response));
+            }
+            return response;
+        } catch (IOException ex) {
+            if(log.isDebugEnabled()) {
+                log.debug (">>> exception thrown" + ex.getMessage());
+            }
+            throw new ServiceInvokerException(ex.getMessage(), ex);
+        } finally {
+            body.close();
+        }
+    }
+
+    public ResponseBody invokeStreaming(String login, String password, String commandName, Map<String, String> parameters) throws ServiceInvokerException {
+        Deadline deadline = Deadline.current();
+        if (deadline != null && deadline.isExpired()) {
+            throw new ServiceInvokerException(deadline.expiryMessage(commandName));
+        }
+        HttpRequest request = createRequest(login, password, commandName, parameters, deadline);
+        final CompletableFuture<HttpResponse<InputStream>> call = httpclient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+        // aborts the exchange on JDK 16+, on older JDKs only releases the waiting thread
+        Runnable deadlineWatch = deadline == null ? () -> { } : deadline.abortOnExpiry(() -> call.cancel(true));
+        HttpResponse<InputStream> response;
+        try {
+            response = call.get();
+        } catch (InterruptedException ex) {
+            deadlineWatch.run();
+            call.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ServiceInvokerException("Call of '" + commandName + "' command was interrupted", ex);
+        } catch (ExecutionException | CancellationException ex) {
+            deadlineWatch.run();
+            Throwable cause = ex instanceof ExecutionException && ex.getCause() != null ? ex.getCause() : ex;
+            if(log.isDebugEnabled()) {
+                log.debug (">>> exception thrown" + cause.getMessage());
+            }
+            if (deadline != null && deadline.isExpired()) {
+                throw new ServiceInvokerException(deadline.expiryMessage(commandName), cause);
+            }
+            throw new ServiceInvokerException(cause.getMessage(), cause);
+        }
+        deadlineWatch.run();
+        int result = response.statusCode();
+        long contentLength = response.headers().firstValueAsLong("Content-Length").orElse(-1L);
+        if(log.isDebugEnabled()) {
+            String logStr = String.format(">>> [http_result = %d; version = %s; content_length = %d]", result,
+                    response.version(), contentLength);
+            log.debug(logStr);
+        }
+        final InputStream body = response.body();
+        if(result < 200 || result > 299 || contentLength > maxResponseBodySize){
+            closeQuietly(body);
+            throw new ServiceInvokerException(result < 200 || result > 299
+                    ? "Server responded with " + result + " http code"
+                    : "Response body of " + contentLength + " bytes exceeds " + maxResponseBodySize + " bytes", result);
+        }
+        // reading of the body is aborted by closing it
+        final Runnable bodyWatch = deadline == null ? () -> { } : deadline.abortOnExpiry(() -> closeQuietly(body));
+        return new ResponseBody(body, charsetOf(response), maxResponseBodySize, () -> bodyWatch.run());
+    }
+
+    /**
+     * Calls the gateway without blocking. The response body is read into memory whole,
+     * {@link #setMaxResponseBodySize(long)} limit is not applied
+     */
+    public CompletableFuture<String> invokeAsync(String login, String password, String commandName, Map<String, String> parameters) {
+        HttpRequest request = createRequest(login, password, commandName, parameters, null);
+        final CompletableFuture<String> result = new CompletableFuture<String>();
+        httpclient.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+                .whenComplete((response, failure) -> {
+                    try {
+                        if (failure != null) {
+                            Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                                    ? failure.getCause() : failure;
+                            if(log.isDebugEnabled()) {
+                                log.debug (">>> exception thrown" + cause.getMessage());
+                            }
+                            throw new ServiceInvokerException(cause.getMessage(), cause);
+                        }
+                        result.complete(handleResponse(response));
+                    } catch (ServiceInvokerException ex) {
+                        result.completeExceptionally(ex);
+                    }
+                });
+        return result;
+    }
+
+    private HttpRequest createRequest(String login, String password, String commandName, Map<String, String> parameters, Deadline deadline) {
+        if(log.isDebugEnabled()){
+            String logStr = String.format("<<< [login = %s; command = %s; parameters = %s]", login,
+                    commandName, StringUtils.toString(parameters));
+            log.debug(logStr);
+        }
+        StringBuilder body = new StringBuilder();
+        appendParameter(body, "username", login);
+        appendParameter(body, "password", password);
+        appendParameter(body, "cmd", commandName);
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            appendParameter(body, parameter.getKey(), parameter.getValue());
+        }
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(textMagicUrl))
+                .header("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString(), StandardCharsets.UTF_8));
+        if (deadline != null) {
+            builder.timeout(Duration.ofNanos(Math.max(deadline.remaining(TimeUnit.NANOSECONDS), 1L)));
+        }
+        return builder.build();
+    }
+
+    private static void appendParameter(StringBuilder body, String name, String value) {
+        if (body.length() > 0) {
+            body.append('&');
+        }
+        body.append(URLEncoder.encode(name, StandardCharsets.UTF_8))
+                .append('=')
+                .append(URLEncoder.encode(value, StandardCharsets.UTF_8));
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException ignore) {
+            // the body is not needed anymore
+        }
+    }
+
+    /**
+     * Takes charset from Content-Type header, UTF-8 is used if it is absent or unsupported
+     */
+    private static Charset charsetOf(HttpResponse<?> response) {
+        String contentType = response.headers().firstValue("Content-Type").orElse("");
+        for (String part : contentType.split(";")) {
+            String parameter = part.trim();
+            if (parameter.regionMatches(true, 0, "charset=", 0, 8)) {
+                try {
+                    return Charset.forName(parameter.substring(8).replace("\"", "").trim());
+                } catch (IllegalArgumentException ex) {
+                    break;
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private String handleResponse(HttpResponse<String> response) throws ServiceInvokerException {
+        int result = response.statusCode();
+        if(log.isDebugEnabled()) {
+            String logStr = String.format(">>> [http_result = %d; version = %s; body = %s", result, response.version(), response.body());
+            log.debug(logStr);
+        }
+        if(result < 200 || result > 299){
+            throw new ServiceInvokerException("Server responded with " + result + " http code", result);
+        }
+        return response.body();
+    }
+}
@@ -0,0 +1,140 @@
+package com.textmagic.sms.core.invoker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * Unread gateway response body returned by {@link StreamingHttpServiceInvoker}.
+ * <br/>
+ * The body is read straight from http connection and can not be read twice. Reading more than
+ * <tt>maxBodySize</tt> bytes fails with {@link IOException}, so unexpectedly large responses are never held in memory.
+ * The body must be closed after use, closing releases underlying http connection.
+ */
+public class ResponseBody implements Closeable {
+
+    /**
+     * Value of body size limit which means no limit
+     */
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    private final InputStream in;
+    private final Charset charset;
+    private final Closeable connection;
+
+    /**
+     * @param in raw response body stream
+     * @param charset charset of response body
+     * @param maxBodySize maximum number of bytes which can be read from the body
+     * @param connection resource to be closed together with the body, may be <tt>null</tt>
+     */
+    public ResponseBody(InputStream in, Charset charset, long maxBodySize, Closeable connection) {
+        this.in = maxBodySize == UNLIMITED ? in : new SizeLimitedInputStream(in, maxBodySize);
+        this.charset = charset;
+        this.connection = connection;
+    }
+
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return reader decoding response body with its charset
+     */
+    public Reader getReader() {
+        return new InputStreamReader(in, charset);
+    }
+
+    /**
+     * Reads the whole body into String
+     *
+     * @return response body
+     * @throws IOException if body could not be read or it exceeds size limit
+     */
+    public String asString() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return new String(out.toByteArray(), charset);
+    }
+
+    /**
+     * Closes the body and releases http connection. Failures to close are ignored
+     */
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException ignore) {
+            // the body is not needed anymore
+        }
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException ignore) {
+                // connection is released anyway
+            }
+        }
+    }
+
+    /**
+     * Throws {@link IOException} as soon as more than <tt>limit</tt> bytes are read
+     */
+    private static class SizeLimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
+
+        SizeLimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, (int) Math.min(len, limit - count + 1));
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, limit - count + 1));
+            count(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void count(long read) throws IOException {
+            count += read;
+            if (count > limit) {
+                throw new IOException("Response body exceeds " + limit + " bytes");
+            }
+        }
+    }
+}
@@ -7,15 +7,41 @@ package com.textmagic.sms.core.invoker;
  * @author Rafael Bagmanov
  */
 public class ServiceInvokerException extends Exception{
+    /**
+     * Http status value of failures which happened before any response was received
+     */
+    public static final int NO_HTTP_STATUS = 0;
+
+    private final int httpStatus;
+
     public ServiceInvokerException(String message) {
         super(message);
+        this.httpStatus = NO_HTTP_STATUS;
+    }
+
+    /**
+     * @param message the detail message
+     * @param httpStatus http status code the gateway responded with
+     */
+    public ServiceInvokerException(String message, int httpStatus) {
+        super(message);
+        this.httpStatus = httpStatus;
     }
 
     public ServiceInvokerException(String message, Throwable cause) {
         super(message, cause);
+        this.httpStatus = NO_HTTP_STATUS;
     }
 
     public ServiceInvokerException(Throwable cause) {
         super(cause);
+        this.httpStatus = NO_HTTP_STATUS;
+    }
+
+    /**
+     * @return http status code the gateway responded with, or {@link #NO_HTTP_STATUS} if the call failed before response
+     */
+    public int getHttpStatus() {
+        return httpStatus;
     }
 }
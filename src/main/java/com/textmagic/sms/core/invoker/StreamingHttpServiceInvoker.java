@@ -0,0 +1,24 @@
+package com.textmagic.sms.core.invoker;
+
+import java.util.Map;
+
+/**
+ * A <tt>StreamingHttpServiceInvoker</tt> is {@link HttpServiceInvoker} which is able to hand gateway response body
+ * over as a stream, without reading it into String first.
+ */
+public interface StreamingHttpServiceInvoker extends HttpServiceInvoker {
+    /**
+     * Calls TextMagic sms gateway command and leaves response body unread.
+     * Returned body holds http connection, so it must be closed by caller once it is read.
+     *
+     * @param login the TextMagic account username
+     * @param password the TextMagic account password
+     * @param commandName the http api command name
+     * @param parameters the command parameters to pass
+     * @return unread response body of http api gateway
+     * @throws ServiceInvokerException if TextMagic server is inaccessible, server responds with http error status code
+     * or declares body larger than allowed
+     */
+    public ResponseBody invokeStreaming(String login, String password, String commandName, Map<String, String> parameters) throws ServiceInvokerException;
+
+}
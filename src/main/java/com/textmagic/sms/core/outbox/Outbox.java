@@ -0,0 +1,470 @@
+package com.textmagic.sms.core.outbox;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Durable write-ahead log of send requests.
+ * <br/><br/>
+ * Send requests are appended to memory-mapped segment files before they are sent to the gateway, and acknowledged
+ * with ids of sent messages afterwards. Requests which were not acknowledged, because the process died or
+ * the gateway call failed technically, are loaded with {@link #pending()} when the outbox is opened again.
+ * <br/><br/>
+ * {@link #append(String, java.util.List, boolean, int)} returns only after the record is forced to disk, but forcing
+ * is done by single background thread for all records written since previous force (group commit), so under load
+ * many appends share one disk sync. Acknowledgements are not awaited: lost acknowledgement leads to repeated send
+ * after restart, so delivery is at-least-once.
+ * <br/><br/>
+ * Segments are deleted as soon as all requests in them and in all older segments are acknowledged. When new segment
+ * is started, requests still pending in the oldest segments are copied forward into it (as long as they take up to
+ * quarter of the segment), so a request failing over and over does not keep its segment and all newer ones on disk.
+ * <br/>
+ * Java has no public way to unmap a file: mapping of deleted segment is released when its buffer is garbage
+ * collected, until then the deleted file keeps its disk space. On Windows mapped file can not be deleted at all,
+ * so the outbox is meant for platforms which allow it.
+ * Every record is protected with CRC32, torn record at the end of segment is ignored on recovery.
+ * The outbox is thread-safe, directory must not be shared between processes.
+ */
+public class Outbox implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "outbox-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte SEND_RECORD = 1;
+    private static final byte ACK_RECORD = 2;
+    // record length and checksum
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final class Segment {
+        private final long id;
+        private final File file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final Set<Long> unacknowledged = new HashSet<Long>();
+
+        Segment(long id, File file, int size) throws IOException {
+            this.id = id;
+            this.file = file;
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                this.channel = raf.getChannel();
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, raf.length()));
+            } catch (IOException ex) {
+                raf.close();
+                throw ex;
+            }
+        }
+
+        /**
+         * Closes the file. The mapping stays until the buffer is garbage collected
+         */
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final Deque<Segment> segments = new ArrayDeque<Segment>();
+    private final Map<Long, Segment> sequenceSegments = new HashMap<Long, Segment>();
+    private final Map<Long, OutboxEntry> pending = new LinkedHashMap<Long, OutboxEntry>();
+    private Segment active;
+    private long nextSequence = 1;
+
+    // group commit state, guarded by this
+    private long writtenMark;
+    private long committedMark;
+    private IOException commitFailure;
+    private boolean closed;
+    private final Thread committer;
+
+    /**
+     * Opens outbox in directory with default segment size, recovering not acknowledged requests
+     *
+     * @param directory the directory segment files are kept in, created if absent
+     * @throws IOException if segments could not be read or created
+     */
+    public Outbox(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens outbox in directory, recovering not acknowledged requests
+     *
+     * @param directory the directory segment files are kept in, created if absent
+     * @param segmentSize size of one segment file in bytes, bounds the size of single request record
+     * @throws IOException if segments could not be read or created
+     */
+    public Outbox(File directory, int segmentSize) throws IOException {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("Segment size " + segmentSize + " is too small");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Couldn't create outbox directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        recover();
+        active = openSegment(segments.isEmpty() ? 1 : segments.getLast().id + 1);
+        segments.addLast(active);
+        deleteAcknowledgedSegments();
+        committer = new Thread(this::commitLoop, "textmagic-outbox-committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Persists send request. Returns after the request is forced to disk
+     *
+     * @return persisted entry
+     * @throws IOException if the request could not be written or forced, or the outbox is closed
+     * @throws IllegalArgumentException if the request does not fit into segment
+     */
+    public OutboxEntry append(String text, List<String> phones, boolean useUnicode, int maxLength) throws IOException {
+        long mark;
+        OutboxEntry entry;
+        synchronized (this) {
+            checkOpen();
+            entry = new OutboxEntry(nextSequence, text, new ArrayList<String>(phones), useUnicode, maxLength);
+            write(encodeSend(entry));
+            nextSequence++;
+            pending.put(entry.getSequence(), entry);
+            sequenceSegments.put(entry.getSequence(), active);
+            active.unacknowledged.add(entry.getSequence());
+            mark = ++writtenMark;
+            notifyAll();
+        }
+        awaitCommit(mark);
+        return entry;
+    }
+
+    /**
+     * Marks send request as done. The acknowledgement is forced to disk with next group commit
+     *
+     * @param sequence sequence of acknowledged entry
+     * @param messageIds ids of messages sent for the entry, empty if the request was rejected for good
+     * @throws IOException if the acknowledgement could not be written or the outbox is closed
+     */
+    public synchronized void acknowledge(long sequence, List<Long> messageIds) throws IOException {
+        checkOpen();
+        if (pending.remove(sequence) == null) {
+            return;
+        }
+        Segment segment = sequenceSegments.remove(sequence);
+        segment.unacknowledged.remove(sequence);
+        write(encodeAck(sequence, messageIds));
+        writtenMark++;
+        notifyAll();
+        deleteAcknowledgedSegments();
+    }
+
+    /**
+     * @return not acknowledged send requests in order of appending
+     */
+    public synchronized List<OutboxEntry> pending() {
+        return new ArrayList<OutboxEntry>(pending.values());
+    }
+
+    /**
+     * @return number of segment files in use
+     */
+    public synchronized int getSegmentsCount() {
+        return segments.size();
+    }
+
+    /**
+     * Forces all written records to disk and closes segment files
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            committer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            active.buffer.force();
+            for (Segment segment : segments) {
+                segment.close();
+            }
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Outbox is closed");
+        }
+        if (commitFailure != null) {
+            throw new IOException("Outbox failed to force records: " + commitFailure.getMessage(), commitFailure);
+        }
+    }
+
+    private synchronized void awaitCommit(long mark) throws IOException {
+        while (committedMark < mark) {
+            if (commitFailure != null) {
+                throw new IOException("Outbox failed to force records: " + commitFailure.getMessage(), commitFailure);
+            }
+            if (closed && !committer.isAlive()) {
+                throw new IOException("Outbox is closed");
+            }
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Waiting for outbox commit was interrupted");
+            }
+        }
+    }
+
+    private void commitLoop() {
+        while (true) {
+            long target;
+            MappedByteBuffer buffer;
+            synchronized (this) {
+                while (writtenMark == committedMark && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        // keep committing until closed
+                    }
+                }
+                if (writtenMark == committedMark) {
+                    notifyAll();
+                    return;
+                }
+                target = writtenMark;
+                buffer = active.buffer;
+            }
+            try {
+                buffer.force();
+            } catch (RuntimeException ex) {
+                synchronized (this) {
+                    commitFailure = new IOException(ex.getMessage(), ex);
+                    notifyAll();
+                    return;
+                }
+            }
+            synchronized (this) {
+                committedMark = Math.max(committedMark, target);
+                notifyAll();
+            }
+        }
+    }
+
+    private void write(byte[] payload) throws IOException {
+        int recordSize = RECORD_HEADER_SIZE + payload.length;
+        if (recordSize > segmentSize) {
+            throw new IllegalArgumentException("Outbox record of " + payload.length + " bytes does not fit into segment");
+        }
+        if (active.buffer.remaining() < recordSize) {
+            // records of previous segment must be durable before newer ones
+            active.buffer.force();
+            active = openSegment(active.id + 1);
+            segments.addLast(active);
+            copyPendingForward(recordSize);
+        }
+        put(payload);
+    }
+
+    private void put(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        active.buffer.putInt(payload.length);
+        active.buffer.putInt((int) crc.getValue());
+        active.buffer.put(payload);
+    }
+
+    /**
+     * Rewrites send records still pending in the oldest segments into just started active segment, oldest segment
+     * first, while they take up to quarter of the segment and leave room for the <tt>reserved</tt> bytes.
+     * Copied records are forced before the segments they were copied from are deleted
+     */
+    private void copyPendingForward(int reserved) {
+        int budget = Math.min(segmentSize / 4, segmentSize - reserved);
+        boolean copied = false;
+        for (Segment segment : segments) {
+            if (segment == active) {
+                break;
+            }
+            List<byte[]> records = new ArrayList<byte[]>();
+            int size = 0;
+            for (Long sequence : segment.unacknowledged) {
+                byte[] payload = encodeSend(pending.get(sequence));
+                records.add(payload);
+                size += RECORD_HEADER_SIZE + payload.length;
+            }
+            if (size > budget) {
+                break;
+            }
+            budget -= size;
+            for (byte[] payload : records) {
+                put(payload);
+            }
+            for (Long sequence : segment.unacknowledged) {
+                sequenceSegments.put(sequence, active);
+                active.unacknowledged.add(sequence);
+            }
+            copied |= !segment.unacknowledged.isEmpty();
+            segment.unacknowledged.clear();
+        }
+        if (copied) {
+            active.buffer.force();
+        }
+        deleteAcknowledgedSegments();
+    }
+
+    private void deleteAcknowledgedSegments() {
+        while (segments.size() > 1 && segments.getFirst() != active && segments.getFirst().unacknowledged.isEmpty()) {
+            Segment segment = segments.removeFirst();
+            try {
+                segment.close();
+            } catch (IOException ignore) {
+                // the file is deleted anyway
+            }
+            segment.file.delete();
+        }
+    }
+
+    private Segment openSegment(long id) throws IOException {
+        return new Segment(id, new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)), segmentSize);
+    }
+
+    private void recover() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            throw new IOException("Couldn't list outbox directory " + directory);
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            long id;
+            try {
+                id = Long.parseLong(file.getName().substring(SEGMENT_PREFIX.length(), file.getName().length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException ex) {
+                continue;
+            }
+            Segment segment = new Segment(id, file, 0);
+            segments.addLast(segment);
+            readSegment(segment);
+        }
+        // records copied forward are read after newer ones
+        List<OutboxEntry> entries = new ArrayList<OutboxEntry>(pending.values());
+        Collections.sort(entries, (first, second) -> Long.compare(first.getSequence(), second.getSequence()));
+        pending.clear();
+        for (OutboxEntry entry : entries) {
+            pending.put(entry.getSequence(), entry);
+        }
+    }
+
+    private void readSegment(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                return;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                return;
+            }
+            try {
+                applyRecord(ByteBuffer.wrap(payload), segment);
+            } catch (BufferUnderflowException ex) {
+                return;
+            }
+        }
+    }
+
+    private void applyRecord(ByteBuffer record, Segment segment) {
+        byte type = record.get();
+        long sequence = record.getLong();
+        nextSequence = Math.max(nextSequence, sequence + 1);
+        if (type == SEND_RECORD) {
+            boolean useUnicode = record.get() != 0;
+            int maxLength = record.getInt();
+            String text = getString(record);
+            int phonesCount = record.getInt();
+            List<String> phones = new ArrayList<String>(phonesCount);
+            for (int i = 0; i < phonesCount; i++) {
+                phones.add(getString(record));
+            }
+            pending.put(sequence, new OutboxEntry(sequence, text, phones, useUnicode, maxLength));
+            Segment copiedFrom = sequenceSegments.put(sequence, segment);
+            if (copiedFrom != null) {
+                copiedFrom.unacknowledged.remove(sequence);
+            }
+            segment.unacknowledged.add(sequence);
+        } else if (type == ACK_RECORD) {
+            pending.remove(sequence);
+            Segment sendSegment = sequenceSegments.remove(sequence);
+            if (sendSegment != null) {
+                sendSegment.unacknowledged.remove(sequence);
+            }
+        }
+    }
+
+    private static byte[] encodeSend(OutboxEntry entry) {
+        byte[] text = entry.getText().getBytes(StandardCharsets.UTF_8);
+        List<byte[]> phones = new ArrayList<byte[]>(entry.getPhones().size());
+        int size = 1 + 8 + 1 + 4 + 4 + text.length + 4;
+        for (String phone : entry.getPhones()) {
+            byte[] bytes = phone.getBytes(StandardCharsets.UTF_8);
+            phones.add(bytes);
+            size += 4 + bytes.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(SEND_RECORD).putLong(entry.getSequence());
+        buffer.put((byte) (entry.isUseUnicode() ? 1 : 0)).putInt(entry.getMaxLength());
+        buffer.putInt(text.length).put(text);
+        buffer.putInt(phones.size());
+        for (byte[] phone : phones) {
+            buffer.putInt(phone.length).put(phone);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] encodeAck(long sequence, List<Long> messageIds) {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 4 + 8 * messageIds.size());
+        buffer.put(ACK_RECORD).putLong(sequence).putInt(messageIds.size());
+        for (Long id : messageIds) {
+            buffer.putLong(id);
+        }
+        return buffer.array();
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
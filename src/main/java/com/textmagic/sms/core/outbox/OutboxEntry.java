@@ -0,0 +1,57 @@
+package com.textmagic.sms.core.outbox;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Send request persisted in {@link Outbox}
+ */
+public final class OutboxEntry {
+    private final long sequence;
+    private final String text;
+    private final List<String> phones;
+    private final boolean useUnicode;
+    private final int maxLength;
+
+    OutboxEntry(long sequence, String text, List<String> phones, boolean useUnicode, int maxLength) {
+        this.sequence = sequence;
+        this.text = text;
+        this.phones = Collections.unmodifiableList(phones);
+        this.useUnicode = useUnicode;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @return number of the entry in the outbox, unique and growing
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public List<String> getPhones() {
+        return phones;
+    }
+
+    public boolean isUseUnicode() {
+        return useUnicode;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    @Override
+    public String toString() {
+        return "OutboxEntry{" +
+                "sequence=" + sequence +
+                ", text='" + text + '\'' +
+                ", phones=" + phones +
+                ", useUnicode=" + useUnicode +
+                ", maxLength=" + maxLength +
+                '}';
+    }
+}
@@ -0,0 +1,96 @@
+package com.textmagic.sms.core.outbox;
+
+import com.textmagic.sms.MessageService;
+import com.textmagic.sms.dto.SentMessage;
+import com.textmagic.sms.exception.ServiceBackendException;
+import com.textmagic.sms.exception.ServiceTechnicalException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sends sms messages through {@link Outbox}, so accepted message is not lost if the process dies before
+ * the gateway confirms it.
+ * <br/><br/>
+ * Each send request is persisted before the gateway is called and acknowledged with ids of sent messages after.
+ * Requests rejected by the gateway with error code or failed validation are acknowledged as well, since resending them
+ * would not help. Requests failed technically stay in the outbox and are sent again by {@link #replayPending()},
+ * which is meant to be called on startup, before new messages are sent. Until then the outbox carries their records
+ * forward into new segments, so they do not keep old segments on disk.
+ */
+public class OutboxMessageSender {
+
+    private final MessageService service;
+    private final Outbox outbox;
+
+    public OutboxMessageSender(MessageService service, Outbox outbox) {
+        this.service = service;
+        this.outbox = outbox;
+    }
+
+    /**
+     * Durable version of {@link MessageService#send(String, java.util.List, boolean, Integer)}
+     *
+     * @throws ServiceTechnicalException if the request could not be persisted, or the gateway call failed
+     * (the request is kept in outbox then)
+     */
+    public List<SentMessage> send(String text, List<String> phones, boolean useUnicode, Integer maxLength) throws ServiceBackendException, ServiceTechnicalException {
+        OutboxEntry entry;
+        try {
+            entry = outbox.append(text, phones, useUnicode, maxLength);
+        } catch (IOException ex) {
+            throw new ServiceTechnicalException("Couldn't persist send request in outbox: " + ex.getMessage(), ex);
+        }
+        return send(entry);
+    }
+
+    /**
+     * Sends again all requests which were not acknowledged
+     *
+     * @return number of requests sent
+     * @throws ServiceTechnicalException if some request failed technically, the rest are not sent then
+     */
+    public int replayPending() throws ServiceTechnicalException {
+        int count = 0;
+        for (OutboxEntry entry : outbox.pending()) {
+            try {
+                send(entry);
+            } catch (ServiceBackendException ex) {
+                // acknowledged already, the gateway will not accept it on any attempt
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private List<SentMessage> send(OutboxEntry entry) throws ServiceBackendException, ServiceTechnicalException {
+        List<SentMessage> messages;
+        try {
+            messages = service.send(entry.getText(), entry.getPhones(), entry.isUseUnicode(), entry.getMaxLength());
+        } catch (ServiceBackendException ex) {
+            acknowledge(entry, Collections.<Long>emptyList());
+            throw ex;
+        } catch (IllegalArgumentException ex) {
+            acknowledge(entry, Collections.<Long>emptyList());
+            throw ex;
+        }
+        List<Long> ids = new ArrayList<Long>(messages.size());
+        for (SentMessage message : messages) {
+            if (message.getId() != null) {
+                ids.add(message.getId());
+            }
+        }
+        acknowledge(entry, ids);
+        return messages;
+    }
+
+    private void acknowledge(OutboxEntry entry, List<Long> ids) throws ServiceTechnicalException {
+        try {
+            outbox.acknowledge(entry.getSequence(), ids);
+        } catch (IOException ex) {
+            throw new ServiceTechnicalException("Couldn't acknowledge send request " + entry.getSequence() + " in outbox: " + ex.getMessage(), ex);
+        }
+    }
+}
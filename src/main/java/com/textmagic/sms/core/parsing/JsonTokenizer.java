@@ -0,0 +1,350 @@
+package com.textmagic.sms.core.parsing;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Minimal pull tokenizer of JSON text used by {@link TextMagicStreamingResponseParser}.
+ * <br/>
+ * The tokenizer reads characters straight from {@link Reader} through small internal buffer and never keeps
+ * more than one token in memory. Like "org.json" it tolerates trailing commas in objects and arrays,
+ * and lets scalar values be read either as text or as numbers regardless of whether they were quoted.
+ */
+final class JsonTokenizer {
+
+    static enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int NONEMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final Reader in;
+    private final char[] buffer = new char[1024];
+    private int pos;
+    private int limit;
+    private long consumed;
+
+    private int[] stack = new int[16];
+    private int stackSize;
+
+    private Token peeked;
+    private String peekedValue;
+    private final StringBuilder text = new StringBuilder();
+
+    JsonTokenizer(Reader in) {
+        this.in = in;
+        stack[stackSize++] = EMPTY_DOCUMENT;
+    }
+
+    Token peek() throws ResponseParsingException {
+        if (peeked == null) {
+            peeked = doPeek();
+        }
+        return peeked;
+    }
+
+    void beginObject() throws ResponseParsingException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    void endObject() throws ResponseParsingException {
+        expect(Token.END_OBJECT);
+        stackSize--;
+    }
+
+    void beginArray() throws ResponseParsingException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    void endArray() throws ResponseParsingException {
+        expect(Token.END_ARRAY);
+        stackSize--;
+    }
+
+    /**
+     * Checks that the whole document has been consumed
+     */
+    void endDocument() throws ResponseParsingException {
+        expect(Token.END_DOCUMENT);
+    }
+
+    /**
+     * @return true - if current object or array has more elements
+     */
+    boolean hasNext() throws ResponseParsingException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    String nextName() throws ResponseParsingException {
+        expect(Token.NAME);
+        return peekedValue;
+    }
+
+    /**
+     * Returns next scalar value as text. Quoted strings are unescaped, numbers and booleans are returned as is.
+     */
+    String nextString() throws ResponseParsingException {
+        Token token = peek();
+        if (token != Token.STRING && token != Token.NUMBER && token != Token.BOOLEAN) {
+            throw syntaxError("Expected string but was " + token);
+        }
+        peeked = null;
+        return peekedValue;
+    }
+
+    long nextLong() throws ResponseParsingException {
+        String value = nextString();
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new ResponseParsingException("Value '" + value + "' at " + consumed + " is not integer number", e);
+        }
+    }
+
+    int nextInt() throws ResponseParsingException {
+        long value = nextLong();
+        if (value != (int) value) {
+            throw new ResponseParsingException("Value '" + value + "' at " + consumed + " is out of integer range");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Consumes next value if it is <tt>null</tt>
+     *
+     * @return true - if <tt>null</tt> was consumed, false - next value is not null
+     */
+    boolean nextNull() throws ResponseParsingException {
+        if (peek() == Token.NULL) {
+            peeked = null;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Skips next value including all nested objects and arrays
+     */
+    void skipValue() throws ResponseParsingException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            if (token == Token.BEGIN_OBJECT) {
+                beginObject();
+                depth++;
+            } else if (token == Token.BEGIN_ARRAY) {
+                beginArray();
+                depth++;
+            } else if (token == Token.END_OBJECT) {
+                endObject();
+                depth--;
+            } else if (token == Token.END_ARRAY) {
+                endArray();
+                depth--;
+            } else if (token == Token.END_DOCUMENT) {
+                throw syntaxError("Unexpected end of document");
+            } else {
+                peeked = null;
+            }
+        } while (depth > 0);
+    }
+
+    private void expect(Token expected) throws ResponseParsingException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void push(int context) {
+        if (stackSize == stack.length) {
+            int[] newStack = new int[stackSize * 2];
+            System.arraycopy(stack, 0, newStack, 0, stackSize);
+            stack = newStack;
+        }
+        stack[stackSize++] = context;
+    }
+
+    private Token doPeek() throws ResponseParsingException {
+        int context = stack[stackSize - 1];
+        if (context == EMPTY_ARRAY || context == NONEMPTY_ARRAY) {
+            int c = nextNonWhitespace();
+            if (c == ']') {
+                return Token.END_ARRAY;
+            }
+            if (context == NONEMPTY_ARRAY) {
+                if (c != ',') {
+                    throw syntaxError("Unterminated array");
+                }
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return Token.END_ARRAY;
+                }
+            }
+            stack[stackSize - 1] = NONEMPTY_ARRAY;
+            return readValue(c);
+        } else if (context == EMPTY_OBJECT || context == NONEMPTY_OBJECT) {
+            int c = nextNonWhitespace();
+            if (c == '}') {
+                return Token.END_OBJECT;
+            }
+            if (context == NONEMPTY_OBJECT) {
+                if (c != ',') {
+                    throw syntaxError("Unterminated object");
+                }
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return Token.END_OBJECT;
+                }
+            }
+            if (c != '"') {
+                throw syntaxError("Expected name");
+            }
+            stack[stackSize - 1] = DANGLING_NAME;
+            peekedValue = readString();
+            return Token.NAME;
+        } else if (context == DANGLING_NAME) {
+            if (nextNonWhitespace() != ':') {
+                throw syntaxError("Expected ':'");
+            }
+            stack[stackSize - 1] = NONEMPTY_OBJECT;
+            return readValue(nextNonWhitespace());
+        } else if (context == EMPTY_DOCUMENT) {
+            stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+            return readValue(nextNonWhitespace());
+        } else {
+            if (nextNonWhitespace() != -1) {
+                throw syntaxError("Unexpected content after end of document");
+            }
+            return Token.END_DOCUMENT;
+        }
+    }
+
+    private Token readValue(int c) throws ResponseParsingException {
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                peekedValue = readString();
+                return Token.STRING;
+            case -1:
+                throw syntaxError("Unexpected end of document");
+            default:
+                peekedValue = readLiteral((char) c);
+                if ("null".equals(peekedValue)) {
+                    return Token.NULL;
+                }
+                if ("true".equals(peekedValue) || "false".equals(peekedValue)) {
+                    return Token.BOOLEAN;
+                }
+                char first = peekedValue.charAt(0);
+                if (first == '-' || (first >= '0' && first <= '9')) {
+                    return Token.NUMBER;
+                }
+                throw syntaxError("Unexpected value '" + peekedValue + "'");
+        }
+    }
+
+    private String readString() throws ResponseParsingException {
+        text.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw syntaxError("Unterminated string");
+            } else if (c == '"') {
+                return text.toString();
+            } else if (c == '\\') {
+                int escaped = read();
+                switch (escaped) {
+                    case 'b': text.append('\b'); break;
+                    case 'f': text.append('\f'); break;
+                    case 'n': text.append('\n'); break;
+                    case 'r': text.append('\r'); break;
+                    case 't': text.append('\t'); break;
+                    case 'u': text.append(readHexChar()); break;
+                    case '"': case '\\': case '/': text.append((char) escaped); break;
+                    default: throw syntaxError("Invalid escape sequence");
+                }
+            } else {
+                text.append((char) c);
+            }
+        }
+    }
+
+    private char readHexChar() throws ResponseParsingException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(read(), 16);
+            if (digit < 0) {
+                throw syntaxError("Invalid \\u escape sequence");
+            }
+            value = (value << 4) | digit;
+        }
+        return (char) value;
+    }
+
+    private String readLiteral(char first) throws ResponseParsingException {
+        text.setLength(0);
+        text.append(first);
+        while (true) {
+            if (pos == limit && !fill()) {
+                break;
+            }
+            char c = buffer[pos];
+            if (c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                break;
+            }
+            pos++;
+            consumed++;
+            text.append(c);
+        }
+        return text.toString();
+    }
+
+    private int nextNonWhitespace() throws ResponseParsingException {
+        while (true) {
+            int c = read();
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return c;
+            }
+        }
+    }
+
+    private int read() throws ResponseParsingException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        consumed++;
+        return buffer[pos++];
+    }
+
+    private boolean fill() throws ResponseParsingException {
+        try {
+            int count = in.read(buffer, 0, buffer.length);
+            while (count == 0) {
+                count = in.read(buffer, 0, buffer.length);
+            }
+            pos = 0;
+            limit = Math.max(count, 0);
+            return count > 0;
+        } catch (IOException e) {
+            throw new ResponseParsingException("Couldn't read gateway response: " + e.getMessage(), e);
+        }
+    }
+
+    private ResponseParsingException syntaxError(String message) {
+        return new ResponseParsingException(message + " at character " + consumed);
+    }
+}
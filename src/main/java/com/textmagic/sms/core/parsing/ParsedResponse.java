@@ -0,0 +1,68 @@
+package com.textmagic.sms.core.parsing;
+
+import com.textmagic.sms.exception.ServiceBackendException;
+
+/**
+ * <code>ParsedResponse</code> is the outcome of single parsing pass over http api response:
+ * either the typed command result or the {@link ServiceBackendException} built from gateway error code.
+ */
+public final class ParsedResponse<T> {
+
+    private final T result;
+    private final ServiceBackendException failure;
+
+    private ParsedResponse(T result, ServiceBackendException failure) {
+        this.result = result;
+        this.failure = failure;
+    }
+
+    /**
+     * @param result parsed command result
+     * @return successful response
+     */
+    public static <T> ParsedResponse<T> success(T result) {
+        return new ParsedResponse<T>(result, null);
+    }
+
+    /**
+     * @param failure exception populated with gateway error code and message
+     * @return failure response
+     */
+    public static <T> ParsedResponse<T> failure(ServiceBackendException failure) {
+        return new ParsedResponse<T>(null, failure);
+    }
+
+    /**
+     * @return true - if gateway responded with error code, false - otherwise
+     */
+    public boolean isFailure() {
+        return failure != null;
+    }
+
+    /**
+     * @return exception built from gateway error code, or <tt>null</tt> if response is successful
+     */
+    public ServiceBackendException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Returns command result
+     *
+     * @return parsed command result
+     * @throws ServiceBackendException if gateway responded with error code
+     */
+    public T getResult() throws ServiceBackendException {
+        if (failure != null) {
+            throw failure;
+        }
+        return result;
+    }
+
+    /**
+     * @return command result, <tt>null</tt> in case of failure
+     */
+    T resultOrNull() {
+        return result;
+    }
+}
@@ -1,11 +1,14 @@
 package com.textmagic.sms.core.parsing;
 
-import java.io.UnsupportedEncodingException;
-
 /**
  * Currently the TextMagic gateway, in case of sms body being encoded in Unicode, http api represents it as
  * "\\uXXXX\\uXXXX\..." codes. <code>RawReponseTextConverter </code> translates this codes into readable java
  * String
+ * <br/><br/>
+ * Text without codes is returned as is, without any allocation. Otherwise codes are decoded into single char buffer,
+ * surrogate pairs (e.g. "\\uD83D\\uDE00") are joined into one supplementary character.
+ * Backslash which is not followed by four hex digits is kept unchanged.
+ * The converter is stateless and thread-safe.
 
  * @author Rafael Bagmanov
  */
@@ -14,30 +17,72 @@ public class RawResponseTextConverter {
      * Convert raw String with hex codes to decoded string
      *
      * @param text Raw "\\uXXXX\\uXXXX" text received from gateway
-     * @return readable decoded text
+     * @return readable decoded text, <tt>text</tt> itself if it contains no codes
      */
     public String convert(String text) {
-        try {
-            StringBuilder result = new StringBuilder();
-            for (int i = 0; i < text.length(); i++) {
-                if(text.charAt(i) == '\\' && (i != text.length() -1) && text.charAt(i+1) == 'u'){
-                    Short intVal = Short.valueOf(text.substring(i+2, i+6), 16);
-                    result.append(new String(shortToByteArray(intVal),"UTF-16"));
-                    i += 5;
-                } else {
-                    result.append(text.charAt(i));
-                }
+        int first = indexOfCode(text, 0);
+        if (first < 0) {
+            return text;
+        }
+        int length = text.length();
+        char[] result = new char[length];
+        text.getChars(0, first, result, 0);
+        int count = first;
+        int i = first;
+        while (i < length) {
+            char c = text.charAt(i);
+            int code;
+            if (c == '\\' && (code = hexCode(text, i)) >= 0) {
+                result[count++] = (char) code;
+                i += 6;
+            } else {
+                result[count++] = c;
+                i++;
+            }
+        }
+        return new String(result, 0, count);
+    }
+
+    private static int indexOfCode(String text, int from) {
+        int i = text.indexOf('\\', from);
+        while (i >= 0) {
+            if (hexCode(text, i) >= 0) {
+                return i;
+            }
+            i = text.indexOf('\\', i + 1);
+        }
+        return -1;
+    }
+
+    /**
+     * @return value of "\\uXXXX" code starting at <tt>index</tt> or -1 if there is no valid code
+     */
+    private static int hexCode(String text, int index) {
+        if (index + 6 > text.length() || text.charAt(index + 1) != 'u') {
+            return -1;
+        }
+        int value = 0;
+        for (int i = index + 2; i < index + 6; i++) {
+            int digit = hexDigit(text.charAt(i));
+            if (digit < 0) {
+                return -1;
             }
-            return result.toString();
-        } catch (UnsupportedEncodingException ex){
-            throw new IllegalStateException("Text '" + text + "' contains UTF-16 codes, but UTF-16 encoding is not supported", ex);
+            value = (value << 4) | digit;
         }
+        return value;
     }
 
-    private byte[] shortToByteArray(short value) {
-        return new byte[] {
-                (byte)(value >>> 8),
-                (byte)value};
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
     }
 
 }
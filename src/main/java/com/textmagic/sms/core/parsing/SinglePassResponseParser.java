@@ -0,0 +1,72 @@
+package com.textmagic.sms.core.parsing;
+
+import com.textmagic.sms.dto.SentMessage;
+import com.textmagic.sms.dto.MessageStatus;
+import com.textmagic.sms.dto.ReceivedMessage;
+import com.textmagic.sms.dto.PhoneInfo;
+
+import java.util.List;
+import java.math.BigDecimal;
+
+/**
+ * <code>SinglePassResponseParser</code> is {@link TextMagicResponseParser} which detects gateway failure and parses
+ * command result within one pass over response body, instead of calling
+ * {@link #isFailureResponse(String)} and then parsing the same body once again.
+ * <br/>
+ * Any {@link TextMagicResponseParser} can be turned into single-pass contract with {@link SinglePassResponseParserAdapter}
+ */
+public interface SinglePassResponseParser extends TextMagicResponseParser {
+    /**
+     * Parses 'send' command http response body
+     *
+     * @param response 'send' command http response body
+     * @return list of SendMessage DTOs or gateway failure
+     * @throws ResponseParsingException if <tt>response</tt> could not be parsed
+     */
+    public ParsedResponse<List<SentMessage>> parseSendResult(String response) throws ResponseParsingException;
+
+    /**
+     * Parses 'account' command http response body
+     *
+     * @param response 'account' command http response body
+     * @return current balance value or gateway failure
+     * @throws ResponseParsingException if <tt>response</tt> could not be parsed
+     */
+    public ParsedResponse<BigDecimal> parseAccountResult(String response) throws ResponseParsingException;
+
+    /**
+     * Parses 'message_status' command http response body
+     *
+     * @param response 'message_status' command http response body
+     * @return list of MessageStatus DTOs or gateway failure
+     * @throws ResponseParsingException if <tt>response</tt> could not be parsed
+     */
+    public ParsedResponse<List<MessageStatus>> parseMessageStatusResult(String response) throws ResponseParsingException;
+
+    /**
+     * Parses 'receive' command http response body
+     *
+     * @param response 'receive' command http response body
+     * @return list of ReceivedMessage DTOs or gateway failure
+     * @throws ResponseParsingException if <tt>response</tt> could not be parsed
+     */
+    public ParsedResponse<List<ReceivedMessage>> parseReceiveResult(String response) throws ResponseParsingException;
+
+    /**
+     * Parses 'delete_reply' command http response body
+     *
+     * @param response 'delete_reply' command http response body
+     * @return list of deleted reply messages IDs or gateway failure
+     * @throws ResponseParsingException if <tt>response</tt> could not be parsed
+     */
+    public ParsedResponse<List<Long>> parseDeleteReplyResult(String response) throws ResponseParsingException;
+
+    /**
+     * Parses 'check_number' command http response body
+     *
+     * @param response 'check_number' command http response body
+     * @return list of PhoneInfo DTOs or gateway failure
+     * @throws ResponseParsingException if <tt>response</tt> could not be parsed
+     */
+    public ParsedResponse<List<PhoneInfo>> parseCheckNumberResult(String response) throws ResponseParsingException;
+}
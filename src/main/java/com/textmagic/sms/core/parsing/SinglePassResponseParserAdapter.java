@@ -0,0 +1,111 @@
+package com.textmagic.sms.core.parsing;
+
+import com.textmagic.sms.dto.SentMessage;
+import com.textmagic.sms.dto.MessageStatus;
+import com.textmagic.sms.dto.ReceivedMessage;
+import com.textmagic.sms.dto.PhoneInfo;
+import com.textmagic.sms.exception.ServiceBackendException;
+
+import java.util.List;
+import java.math.BigDecimal;
+
+/**
+ * Adapts plain {@link TextMagicResponseParser} to {@link SinglePassResponseParser} contract.
+ * The adapter checks for failure with {@link TextMagicResponseParser#isFailureResponse(String)} and then parses the response,
+ * so the response is still parsed twice. It exists to keep custom parser implementations working.
+ */
+public class SinglePassResponseParserAdapter implements SinglePassResponseParser {
+
+    private final TextMagicResponseParser parser;
+
+    public SinglePassResponseParserAdapter(TextMagicResponseParser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Returns <tt>parser</tt> itself, if it implements single-pass contract, or adapter otherwise
+     *
+     * @param parser any response parser
+     * @return single-pass parser
+     */
+    public static SinglePassResponseParser adapt(TextMagicResponseParser parser) {
+        if (parser instanceof SinglePassResponseParser) {
+            return (SinglePassResponseParser) parser;
+        }
+        return new SinglePassResponseParserAdapter(parser);
+    }
+
+    public ParsedResponse<List<SentMessage>> parseSendResult(String response) throws ResponseParsingException {
+        if (parser.isFailureResponse(response)) {
+            return ParsedResponse.failure(parser.parseFailureResponse(response));
+        }
+        return ParsedResponse.success(parser.parseSendResponse(response));
+    }
+
+    public ParsedResponse<BigDecimal> parseAccountResult(String response) throws ResponseParsingException {
+        if (parser.isFailureResponse(response)) {
+            return ParsedResponse.failure(parser.parseFailureResponse(response));
+        }
+        return ParsedResponse.success(parser.parseAccountResponse(response));
+    }
+
+    public ParsedResponse<List<MessageStatus>> parseMessageStatusResult(String response) throws ResponseParsingException {
+        if (parser.isFailureResponse(response)) {
+            return ParsedResponse.failure(parser.parseFailureResponse(response));
+        }
+        return ParsedResponse.success(parser.parseMessageStatusResponse(response));
+    }
+
+    public ParsedResponse<List<ReceivedMessage>> parseReceiveResult(String response) throws ResponseParsingException {
+        if (parser.isFailureResponse(response)) {
+            return ParsedResponse.failure(parser.parseFailureResponse(response));
+        }
+        return ParsedResponse.success(parser.parseReceiveResponse(response));
+    }
+
+    public ParsedResponse<List<Long>> parseDeleteReplyResult(String response) throws ResponseParsingException {
+        if (parser.isFailureResponse(response)) {
+            return ParsedResponse.failure(parser.parseFailureResponse(response));
+        }
+        return ParsedResponse.success(parser.parseDeleteReplyResponse(response));
+    }
+
+    public ParsedResponse<List<PhoneInfo>> parseCheckNumberResult(String response) throws ResponseParsingException {
+        if (parser.isFailureResponse(response)) {
+            return ParsedResponse.failure(parser.parseFailureResponse(response));
+        }
+        return ParsedResponse.success(parser.parseCheckNumberResponse(response));
+    }
+
+    public boolean isFailureResponse(String response) throws ResponseParsingException {
+        return parser.isFailureResponse(response);
+    }
+
+    public ServiceBackendException parseFailureResponse(String response) throws ResponseParsingException {
+        return parser.parseFailureResponse(response);
+    }
+
+    public List<SentMessage> parseSendResponse(String response) throws ResponseParsingException {
+        return parser.parseSendResponse(response);
+    }
+
+    public BigDecimal parseAccountResponse(String response) throws ResponseParsingException {
+        return parser.parseAccountResponse(response);
+    }
+
+    public List<MessageStatus> parseMessageStatusResponse(String response) throws ResponseParsingException {
+        return parser.parseMessageStatusResponse(response);
+    }
+
+    public List<ReceivedMessage> parseReceiveResponse(String response) throws ResponseParsingException {
+        return parser.parseReceiveResponse(response);
+    }
+
+    public List<Long> parseDeleteReplyResponse(String response) throws ResponseParsingException {
+        return parser.parseDeleteReplyResponse(response);
+    }
+
+    public List<PhoneInfo> parseCheckNumberResponse(String response) throws ResponseParsingException {
+        return parser.parseCheckNumberResponse(response);
+    }
+}
@@ -0,0 +1,72 @@
+package com.textmagic.sms.core.parsing;
+
+import com.textmagic.sms.dto.SentMessage;
+import com.textmagic.sms.dto.MessageStatus;
+import com.textmagic.sms.dto.ReceivedMessage;
+import com.textmagic.sms.dto.PhoneInfo;
+
+import java.io.Reader;
+import java.util.List;
+import java.math.BigDecimal;
+
+/**
+ * <code>StreamingResponseParser</code> is {@link SinglePassResponseParser} which reads response body
+ * directly from {@link Reader}, so the body is never materialized as String.
+ * <br/>
+ * The parser does not close <tt>response</tt> reader.
+ */
+public interface StreamingResponseParser extends SinglePassResponseParser {
+    /**
+     * Parses 'send' command http response body
+     *
+     * @param response 'send' command http response body
+     * @return list of SendMessage DTOs or gateway failure
+     * @throws ResponseParsingException if <tt>response</tt> could not be read or parsed
+     */
+    public ParsedResponse<List<SentMessage>> parseSendResult(Reader response) throws ResponseParsingException;
+
+    /**
+     * Parses 'account' command http response body
+     *
+     * @param response 'account' command http response body
+     * @return current balance value or gateway failure
+     * @throws ResponseParsingException if <tt>response</tt> could not be read or parsed
+     */
+    public ParsedResponse<BigDecimal> parseAccountResult(Reader response) throws ResponseParsingException;
+
+    /**
+     * Parses 'message_status' command http response body
+     *
+     * @param response 'message_status' command http response body
+     * @return list of MessageStatus DTOs or gateway failure
+     * @throws ResponseParsingException if <tt>response</tt> could not be read or parsed
+     */
+    public ParsedResponse<List<MessageStatus>> parseMessageStatusResult(Reader response) throws ResponseParsingException;
+
+    /**
+     * Parses 'receive' command http response body
+     *
+     * @param response 'receive' command http response body
+     * @return list of ReceivedMessage DTOs or gateway failure
+     * @throws ResponseParsingException if <tt>response</tt> could not be read or parsed
+     */
+    public ParsedResponse<List<ReceivedMessage>> parseReceiveResult(Reader response) throws ResponseParsingException;
+
+    /**
+     * Parses 'delete_reply' command http response body
+     *
+     * @param response 'delete_reply' command http response body
+     * @return list of deleted reply messages IDs or gateway failure
+     * @throws ResponseParsingException if <tt>response</tt> could not be read or parsed
+     */
+    public ParsedResponse<List<Long>> parseDeleteReplyResult(Reader response) throws ResponseParsingException;
+
+    /**
+     * Parses 'check_number' command http response body
+     *
+     * @param response 'check_number' command http response body
+     * @return list of PhoneInfo DTOs or gateway failure
+     * @throws ResponseParsingException if <tt>response</tt> could not be read or parsed
+     */
+    public ParsedResponse<List<PhoneInfo>> parseCheckNumberResult(Reader response) throws ResponseParsingException;
+}
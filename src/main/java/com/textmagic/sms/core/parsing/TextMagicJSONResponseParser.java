@@ -15,15 +15,17 @@ import org.apache.commons.logging.LogFactory;
 /**
  * The default {@link com.textmagic.sms.core.parsing.TextMagicResponseParser} implementation.
  * Parses JSON-based http api responses.<br/>
- * The implementation use "org.json" library for JSON parsing
+ * The implementation use "org.json" library for JSON parsing.<br/>
+ * Implements {@link SinglePassResponseParser} contract: each <tt>parseXxxResult</tt> method builds JSON tree once
+ * and either populates DTOs or gateway failure from it
  *
  * @author Rafael Bagmanov
  */
-public class TextMagicJSONResponseParser implements TextMagicResponseParser {
+public class TextMagicJSONResponseParser implements SinglePassResponseParser {
 
     private final static Log log = LogFactory.getLog(TextMagicJSONResponseParser.class);
 
-    private static final Map<String, MessageStatus.DeliveryState> codeToStateMap = new HashMap<String, MessageStatus.DeliveryState>();
+    static final Map<String, MessageStatus.DeliveryState> codeToStateMap = new HashMap<String, MessageStatus.DeliveryState>();
     static {
         codeToStateMap.put ("q", MessageStatus.DeliveryState.QueuedAtTextMagic);
         codeToStateMap.put ("r", MessageStatus.DeliveryState.SentToOperator);
@@ -45,7 +47,7 @@ public class TextMagicJSONResponseParser implements TextMagicResponseParser {
     public boolean isFailureResponse(String response) throws ResponseParsingException {
         try {
             JSONObject responseObject = new JSONObject(response);
-            return responseObject.has("error_code");
+            return isFailure(responseObject);
         } catch (JSONException e) {
             throw new ResponseParsingException("Couldn't determine whether response '" + response + "' contains error code", e);
         }
@@ -53,19 +55,27 @@ public class TextMagicJSONResponseParser implements TextMagicResponseParser {
 
     public ServiceBackendException parseFailureResponse(String response) throws ResponseParsingException {
         try {
-            JSONObject responseObject = new JSONObject(response);
-            Integer errorCode = responseObject.getInt("error_code");
-            String errorMessage = responseObject.getString("error_message");
-            return new ServiceBackendException(errorCode, errorMessage);
+            return failure(new JSONObject(response));
         } catch (JSONException e) {
             throw new ResponseParsingException("Couldn't parse '" + response + "' as gateway failure response", e);
         }
     }
 
     public List<SentMessage> parseSendResponse(String response) throws ResponseParsingException {
+        return parseSendResult(parse(response, "send"), response);
+    }
+
+    public ParsedResponse<List<SentMessage>> parseSendResult(String response) throws ResponseParsingException {
+        JSONObject responseObject = parse(response, "send");
+        if (isFailure(responseObject)) {
+            return ParsedResponse.failure(parseFailure(responseObject, response));
+        }
+        return ParsedResponse.success(parseSendResult(responseObject, response));
+    }
+
+    private List<SentMessage> parseSendResult(JSONObject responseObject, String response) throws ResponseParsingException {
         try {
             List<SentMessage> result = new ArrayList<SentMessage>();
-            JSONObject responseObject = new JSONObject(response);
             String sentText = textConverter.convert(responseObject.getString("sent_text"));
             Short partsCount = (short)responseObject.getInt("parts_count");
             JSONObject response2 = responseObject.getJSONObject("message_id");
@@ -91,8 +101,19 @@ public class TextMagicJSONResponseParser implements TextMagicResponseParser {
     }
 
     public BigDecimal parseAccountResponse(String response) throws ResponseParsingException {
+        return parseAccountResult(parse(response, "account"), response);
+    }
+
+    public ParsedResponse<BigDecimal> parseAccountResult(String response) throws ResponseParsingException {
+        JSONObject responseObject = parse(response, "account");
+        if (isFailure(responseObject)) {
+            return ParsedResponse.failure(parseFailure(responseObject, response));
+        }
+        return ParsedResponse.success(parseAccountResult(responseObject, response));
+    }
+
+    private BigDecimal parseAccountResult(JSONObject responseObject, String response) throws ResponseParsingException {
         try {
-            JSONObject responseObject = new JSONObject(response);
             return new BigDecimal(responseObject.getString("balance"));
         } catch (JSONException e) {
             throw new ResponseParsingException("Couldn't parse '" + response + "' as gateway 'account' response", e);
@@ -102,9 +123,20 @@ public class TextMagicJSONResponseParser implements TextMagicResponseParser {
     }
 
     public List<MessageStatus> parseMessageStatusResponse(String response) throws ResponseParsingException {
+        return parseMessageStatusResult(parse(response, "message_status"), response);
+    }
+
+    public ParsedResponse<List<MessageStatus>> parseMessageStatusResult(String response) throws ResponseParsingException {
+        JSONObject responseObject = parse(response, "message_status");
+        if (isFailure(responseObject)) {
+            return ParsedResponse.failure(parseFailure(responseObject, response));
+        }
+        return ParsedResponse.success(parseMessageStatusResult(responseObject, response));
+    }
+
+    private List<MessageStatus> parseMessageStatusResult(JSONObject responseObject, String response) throws ResponseParsingException {
         try {
             List<MessageStatus> result = new ArrayList<MessageStatus>();
-            JSONObject responseObject = new JSONObject(response);
             Iterator<String> messageIdIterator = responseObject.keys();
             while(messageIdIterator.hasNext()){
                 String messageId = messageIdIterator.next();
@@ -146,9 +178,20 @@ public class TextMagicJSONResponseParser implements TextMagicResponseParser {
 
 
     public List<ReceivedMessage> parseReceiveResponse(String response) throws ResponseParsingException {
+        return parseReceiveResult(parse(response, "receive"), response);
+    }
+
+    public ParsedResponse<List<ReceivedMessage>> parseReceiveResult(String response) throws ResponseParsingException {
+        JSONObject responseObject = parse(response, "receive");
+        if (isFailure(responseObject)) {
+            return ParsedResponse.failure(parseFailure(responseObject, response));
+        }
+        return ParsedResponse.success(parseReceiveResult(responseObject, response));
+    }
+
+    private List<ReceivedMessage> parseReceiveResult(JSONObject responseObject, String response) throws ResponseParsingException {
         try {
             List<ReceivedMessage> result = new ArrayList<ReceivedMessage>();
-            JSONObject responseObject = new JSONObject(response);
             JSONArray messageArray = responseObject.getJSONArray("messages");
             int length = messageArray.length();
             for(int i = 0; i < length; i++){
@@ -175,24 +218,47 @@ public class TextMagicJSONResponseParser implements TextMagicResponseParser {
     }
 
     public List<Long> parseDeleteReplyResponse(String response) throws ResponseParsingException {
+        return parseDeleteReplyResult(parse(response, "delete_reply"), response);
+    }
+
+    public ParsedResponse<List<Long>> parseDeleteReplyResult(String response) throws ResponseParsingException {
+        JSONObject responseObject = parse(response, "delete_reply");
+        if (isFailure(responseObject)) {
+            return ParsedResponse.failure(parseFailure(responseObject, response));
+        }
+        return ParsedResponse.success(parseDeleteReplyResult(responseObject, response));
+    }
+
+    private List<Long> parseDeleteReplyResult(JSONObject responseObject, String response) throws ResponseParsingException {
         try {
             List<Long> ids = new ArrayList<Long>();
-            JSONArray idArray = new JSONObject(response).getJSONArray("deleted");
+            JSONArray idArray = responseObject.getJSONArray("deleted");
             int length = idArray.length();
             for (int i = 0; i < length; i++) {
                 ids.add(idArray.getLong(i));
             }
             return ids;
         } catch (JSONException e) {
-            throw new ResponseParsingException("Couldn't determine whether response '" + response + "' contains error code", e);
+            throw new ResponseParsingException("Couldn't parse '" + response + "' as gateway 'delete_reply' response", e);
         }
 
     }
 
     public List<PhoneInfo> parseCheckNumberResponse(String response) throws ResponseParsingException {
+        return parseCheckNumberResult(parse(response, "check_number"), response);
+    }
+
+    public ParsedResponse<List<PhoneInfo>> parseCheckNumberResult(String response) throws ResponseParsingException {
+        JSONObject responseObject = parse(response, "check_number");
+        if (isFailure(responseObject)) {
+            return ParsedResponse.failure(parseFailure(responseObject, response));
+        }
+        return ParsedResponse.success(parseCheckNumberResult(responseObject, response));
+    }
+
+    private List<PhoneInfo> parseCheckNumberResult(JSONObject responseObject, String response) throws ResponseParsingException {
         try {
             List<PhoneInfo> phoneInfos = new ArrayList<PhoneInfo>();
-            JSONObject responseObject = new JSONObject(response);
             Iterator<String> phoneInfoIterator = responseObject.keys();
             while(phoneInfoIterator.hasNext()){
                 String phone = phoneInfoIterator.next();
@@ -210,4 +276,30 @@ public class TextMagicJSONResponseParser implements TextMagicResponseParser {
             throw new ResponseParsingException("Couldn't parse '" + response + "' as gateway 'check_number' response", e);
         }
     }
+
+    private JSONObject parse(String response, String command) throws ResponseParsingException {
+        try {
+            return new JSONObject(response);
+        } catch (JSONException e) {
+            throw new ResponseParsingException("Couldn't parse '" + response + "' as gateway '" + command + "' response", e);
+        }
+    }
+
+    private boolean isFailure(JSONObject responseObject) {
+        return responseObject.has("error_code");
+    }
+
+    private ServiceBackendException parseFailure(JSONObject responseObject, String response) throws ResponseParsingException {
+        try {
+            return failure(responseObject);
+        } catch (JSONException e) {
+            throw new ResponseParsingException("Couldn't parse '" + response + "' as gateway failure response", e);
+        }
+    }
+
+    private ServiceBackendException failure(JSONObject responseObject) throws JSONException {
+        Integer errorCode = responseObject.getInt("error_code");
+        String errorMessage = responseObject.getString("error_message");
+        return new ServiceBackendException(errorCode, errorMessage);
+    }
 }
@@ -0,0 +1,493 @@
+package com.textmagic.sms.core.parsing;
+
+import com.textmagic.sms.exception.ServiceBackendException;
+import com.textmagic.sms.dto.*;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.*;
+import java.math.BigDecimal;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Streaming {@link TextMagicResponseParser} implementation.
+ * <br/><br/>
+ * Unlike {@link TextMagicJSONResponseParser} the parser does not build JSON tree: it pulls tokens from
+ * {@link Reader} and populates {@link SentMessage}, {@link MessageStatus}, {@link ReceivedMessage} and {@link PhoneInfo}
+ * DTOs right away, so memory needed for parsing does not depend on response size - only the resulting DTOs are kept.
+ * Gateway failure is detected within the same pass (see {@link SinglePassResponseParser} and {@link StreamingResponseParser}).
+ * <br/><br/>
+ * Besides String based contract, the parser accepts response body as {@link Reader}. To parse {@link java.io.InputStream}
+ * wrap it with <code>new InputStreamReader(in, "UTF-8")</code>, no additional buffering is needed
+ */
+public class TextMagicStreamingResponseParser implements StreamingResponseParser {
+
+    private final static Log log = LogFactory.getLog(TextMagicStreamingResponseParser.class);
+
+    private RawResponseTextConverter textConverter;
+
+    public TextMagicStreamingResponseParser() {
+        textConverter = new RawResponseTextConverter();
+    }
+
+    /**
+     * Collects error_code and error_message fields met on top level of response object
+     */
+    private static class FailureFields {
+        private Integer errorCode;
+        private String errorMessage;
+
+        boolean accept(String name, JsonTokenizer json) throws ResponseParsingException {
+            if ("error_code".equals(name)) {
+                errorCode = json.nextInt();
+                return true;
+            }
+            if ("error_message".equals(name)) {
+                errorMessage = json.nextString();
+                return true;
+            }
+            return false;
+        }
+
+        boolean isPresent() {
+            return errorCode != null;
+        }
+
+        ServiceBackendException toException() throws ResponseParsingException {
+            if (errorMessage == null) {
+                throw new ResponseParsingException("Gateway failure response has no error_message");
+            }
+            return new ServiceBackendException(errorCode, errorMessage);
+        }
+    }
+
+    public boolean isFailureResponse(String response) throws ResponseParsingException {
+        try {
+            JsonTokenizer json = new JsonTokenizer(new StringReader(response));
+            json.beginObject();
+            while (json.hasNext()) {
+                if ("error_code".equals(json.nextName())) {
+                    return true;
+                }
+                json.skipValue();
+            }
+            json.endObject();
+            json.endDocument();
+            return false;
+        } catch (ResponseParsingException e) {
+            throw new ResponseParsingException("Couldn't determine whether response '" + response + "' contains error code", e);
+        }
+    }
+
+    public ServiceBackendException parseFailureResponse(String response) throws ResponseParsingException {
+        try {
+            JsonTokenizer json = new JsonTokenizer(new StringReader(response));
+            FailureFields failure = new FailureFields();
+            json.beginObject();
+            while (json.hasNext()) {
+                if (!failure.accept(json.nextName(), json)) {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+            json.endDocument();
+            if (!failure.isPresent()) {
+                throw new ResponseParsingException("Response has no error_code");
+            }
+            return failure.toException();
+        } catch (ResponseParsingException e) {
+            throw new ResponseParsingException("Couldn't parse '" + response + "' as gateway failure response", e);
+        }
+    }
+
+    public List<SentMessage> parseSendResponse(String response) throws ResponseParsingException {
+        return successOf(parseSendResult(response), response, "send");
+    }
+
+    public ParsedResponse<List<SentMessage>> parseSendResult(String response) throws ResponseParsingException {
+        try {
+            return parseSendResult(new StringReader(response));
+        } catch (ResponseParsingException e) {
+            throw new ResponseParsingException("Couldn't parse '" + response + "' as gateway 'send' response", e);
+        }
+    }
+
+    /**
+     * Parses 'send' command http response body
+     *
+     * @param response 'send' command http response body
+     * @return list of SendMessage DTOs or gateway failure
+     * @throws ResponseParsingException if <tt>response</tt> could not be read or parsed
+     */
+    public ParsedResponse<List<SentMessage>> parseSendResult(Reader response) throws ResponseParsingException {
+        JsonTokenizer json = new JsonTokenizer(response);
+        FailureFields failure = new FailureFields();
+        List<SentMessage> result = new ArrayList<SentMessage>();
+        String sentText = null;
+        Short partsCount = null;
+        boolean hasMessageIds = false;
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if ("message_id".equals(name)) {
+                hasMessageIds = true;
+                json.beginObject();
+                while (json.hasNext()) {
+                    SentMessage message = new SentMessage();
+                    message.setId(parseLong(json.nextName()));
+                    message.setRecipientPhone(json.nextString());
+                    result.add(message);
+                }
+                json.endObject();
+            } else if ("sent_text".equals(name)) {
+                sentText = textConverter.convert(json.nextString());
+            } else if ("parts_count".equals(name)) {
+                partsCount = (short) json.nextInt();
+            } else if (!failure.accept(name, json)) {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        json.endDocument();
+        if (failure.isPresent()) {
+            return ParsedResponse.failure(failure.toException());
+        }
+        if (!hasMessageIds || sentText == null || partsCount == null) {
+            throw new ResponseParsingException("message_id, sent_text and parts_count are expected");
+        }
+        if (result.isEmpty()) {
+            throw new ResponseParsingException("message_id cant be empty");
+        }
+        for (SentMessage message : result) {
+            message.setText(sentText);
+            message.setPartsCount(partsCount);
+        }
+        return ParsedResponse.success(result);
+    }
+
+    public BigDecimal parseAccountResponse(String response) throws ResponseParsingException {
+        return successOf(parseAccountResult(response), response, "account");
+    }
+
+    public ParsedResponse<BigDecimal> parseAccountResult(String response) throws ResponseParsingException {
+        try {
+            return parseAccountResult(new StringReader(response));
+        } catch (ResponseParsingException e) {
+            throw new ResponseParsingException("Couldn't parse '" + response + "' as gateway 'account' response", e);
+        }
+    }
+
+    /**
+     * Parses 'account' command http response body
+     *
+     * @param response 'account' command http response body
+     * @return current balance value or gateway failure
+     * @throws ResponseParsingException if <tt>response</tt> could not be read or parsed
+     */
+    public ParsedResponse<BigDecimal> parseAccountResult(Reader response) throws ResponseParsingException {
+        JsonTokenizer json = new JsonTokenizer(response);
+        FailureFields failure = new FailureFields();
+        BigDecimal balance = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if ("balance".equals(name)) {
+                balance = parseDecimal(json.nextString());
+            } else if (!failure.accept(name, json)) {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        json.endDocument();
+        if (failure.isPresent()) {
+            return ParsedResponse.failure(failure.toException());
+        }
+        if (balance == null) {
+            throw new ResponseParsingException("balance is expected");
+        }
+        return ParsedResponse.success(balance);
+    }
+
+    public List<MessageStatus> parseMessageStatusResponse(String response) throws ResponseParsingException {
+        return successOf(parseMessageStatusResult(response), response, "message_status");
+    }
+
+    public ParsedResponse<List<MessageStatus>> parseMessageStatusResult(String response) throws ResponseParsingException {
+        try {
+            return parseMessageStatusResult(new StringReader(response));
+        } catch (ResponseParsingException e) {
+            throw new ResponseParsingException("Couldn't parse '" + response + "' as gateway 'message_status' response", e);
+        }
+    }
+
+    /**
+     * Parses 'message_status' command http response body
+     *
+     * @param response 'message_status' command http response body
+     * @return list of MessageStatus DTOs or gateway failure
+     * @throws ResponseParsingException if <tt>response</tt> could not be read or parsed
+     */
+    public ParsedResponse<List<MessageStatus>> parseMessageStatusResult(Reader response) throws ResponseParsingException {
+        JsonTokenizer json = new JsonTokenizer(response);
+        FailureFields failure = new FailureFields();
+        List<MessageStatus> result = new ArrayList<MessageStatus>();
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (!failure.accept(name, json)) {
+                result.add(parseMessageStatus(parseLong(name), json));
+            }
+        }
+        json.endObject();
+        json.endDocument();
+        if (failure.isPresent()) {
+            return ParsedResponse.failure(failure.toException());
+        }
+        return ParsedResponse.success(result);
+    }
+
+    private MessageStatus parseMessageStatus(Long messageId, JsonTokenizer json) throws ResponseParsingException {
+        MessageStatus messageStatus = new MessageStatus();
+        String text = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if ("text".equals(name)) {
+                text = textConverter.convert(json.nextString());
+            } else if ("status".equals(name)) {
+                messageStatus.setDeliveryState(parseState(json.nextString()));
+            } else if ("created_time".equals(name)) {
+                messageStatus.setCreatedTime(new Date(json.nextLong() * 1000L));
+            } else if ("completed_time".equals(name)) {
+                if (!json.nextNull()) {
+                    messageStatus.setCompletedTime(new Date(json.nextLong() * 1000L));
+                }
+            } else if ("credits_cost".equals(name)) {
+                if (!json.nextNull()) {
+                    messageStatus.setCreditsCost(parseDecimal(json.nextString()));
+                }
+            } else if ("reply_number".equals(name)) {
+                messageStatus.setReplyNumber(json.nextString());
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        if (text == null || messageStatus.getDeliveryState() == null || messageStatus.getCreatedTime() == null
+                || messageStatus.getReplyNumber() == null) {
+            throw new ResponseParsingException("text, status, created_time and reply_number are expected for message " + messageId);
+        }
+        messageStatus.setMessage(new Message(messageId, text));
+        return messageStatus;
+    }
+
+    private MessageStatus.DeliveryState parseState(String statusStr) {
+        MessageStatus.DeliveryState state = TextMagicJSONResponseParser.codeToStateMap.get(statusStr);
+        if(state == null){
+            log.warn("Recieved message state '"+ statusStr+"' is unknown");
+            state = MessageStatus.DeliveryState.Unknown;
+        }
+        return state;
+    }
+
+    public List<ReceivedMessage> parseReceiveResponse(String response) throws ResponseParsingException {
+        return successOf(parseReceiveResult(response), response, "receive");
+    }
+
+    public ParsedResponse<List<ReceivedMessage>> parseReceiveResult(String response) throws ResponseParsingException {
+        try {
+            return parseReceiveResult(new StringReader(response));
+        } catch (ResponseParsingException e) {
+            throw new ResponseParsingException("Couldn't parse '" + response + "' as gateway 'receive' response", e);
+        }
+    }
+
+    /**
+     * Parses 'receive' command http response body
+     *
+     * @param response 'receive' command http response body
+     * @return list of ReceivedMessage DTOs or gateway failure
+     * @throws ResponseParsingException if <tt>response</tt> could not be read or parsed
+     */
+    public ParsedResponse<List<ReceivedMessage>> parseReceiveResult(Reader response) throws ResponseParsingException {
+        JsonTokenizer json = new JsonTokenizer(response);
+        FailureFields failure = new FailureFields();
+        List<ReceivedMessage> result = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if ("messages".equals(name)) {
+                result = new ArrayList<ReceivedMessage>();
+                json.beginArray();
+                while (json.hasNext()) {
+                    result.add(parseReceivedMessage(json));
+                }
+                json.endArray();
+            } else if (!failure.accept(name, json)) {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        json.endDocument();
+        if (failure.isPresent()) {
+            return ParsedResponse.failure(failure.toException());
+        }
+        if (result == null) {
+            throw new ResponseParsingException("messages are expected");
+        }
+        return ParsedResponse.success(result);
+    }
+
+    private ReceivedMessage parseReceivedMessage(JsonTokenizer json) throws ResponseParsingException {
+        ReceivedMessage message = new ReceivedMessage();
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if ("message_id".equals(name)) {
+                message.setId(json.nextLong());
+            } else if ("text".equals(name)) {
+                message.setText(textConverter.convert(json.nextString()));
+            } else if ("from".equals(name)) {
+                message.setSenderPhone(json.nextString());
+            } else if ("timestamp".equals(name)) {
+                message.setReceivedDate(new Date(json.nextLong() * 1000L));
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        if (message.getId() == null || message.getText() == null || message.getSenderPhone() == null
+                || message.getReceivedDate() == null) {
+            throw new ResponseParsingException("message_id, text, from and timestamp are expected for received message");
+        }
+        return message;
+    }
+
+    public List<Long> parseDeleteReplyResponse(String response) throws ResponseParsingException {
+        return successOf(parseDeleteReplyResult(response), response, "delete_reply");
+    }
+
+    public ParsedResponse<List<Long>> parseDeleteReplyResult(String response) throws ResponseParsingException {
+        try {
+            return parseDeleteReplyResult(new StringReader(response));
+        } catch (ResponseParsingException e) {
+            throw new ResponseParsingException("Couldn't parse '" + response + "' as gateway 'delete_reply' response", e);
+        }
+    }
+
+    /**
+     * Parses 'delete_reply' command http response body
+     *
+     * @param response 'delete_reply' command http response body
+     * @return list of deleted reply messages IDs or gateway failure
+     * @throws ResponseParsingException if <tt>response</tt> could not be read or parsed
+     */
+    public ParsedResponse<List<Long>> parseDeleteReplyResult(Reader response) throws ResponseParsingException {
+        JsonTokenizer json = new JsonTokenizer(response);
+        FailureFields failure = new FailureFields();
+        List<Long> ids = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if ("deleted".equals(name)) {
+                ids = new ArrayList<Long>();
+                json.beginArray();
+                while (json.hasNext()) {
+                    ids.add(json.nextLong());
+                }
+                json.endArray();
+            } else if (!failure.accept(name, json)) {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        json.endDocument();
+        if (failure.isPresent()) {
+            return ParsedResponse.failure(failure.toException());
+        }
+        if (ids == null) {
+            throw new ResponseParsingException("deleted is expected");
+        }
+        return ParsedResponse.success(ids);
+    }
+
+    public List<PhoneInfo> parseCheckNumberResponse(String response) throws ResponseParsingException {
+        return successOf(parseCheckNumberResult(response), response, "check_number");
+    }
+
+    public ParsedResponse<List<PhoneInfo>> parseCheckNumberResult(String response) throws ResponseParsingException {
+        try {
+            return parseCheckNumberResult(new StringReader(response));
+        } catch (ResponseParsingException e) {
+            throw new ResponseParsingException("Couldn't parse '" + response + "' as gateway 'check_number' response", e);
+        }
+    }
+
+    /**
+     * Parses 'check_number' command http response body
+     *
+     * @param response 'check_number' command http response body
+     * @return list of PhoneInfo DTOs or gateway failure
+     * @throws ResponseParsingException if <tt>response</tt> could not be read or parsed
+     */
+    public ParsedResponse<List<PhoneInfo>> parseCheckNumberResult(Reader response) throws ResponseParsingException {
+        JsonTokenizer json = new JsonTokenizer(response);
+        FailureFields failure = new FailureFields();
+        List<PhoneInfo> phoneInfos = new ArrayList<PhoneInfo>();
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (!failure.accept(name, json)) {
+                PhoneInfo info = new PhoneInfo();
+                info.setPhone(name);
+                json.beginObject();
+                while (json.hasNext()) {
+                    String field = json.nextName();
+                    if ("country".equals(field)) {
+                        info.setCoutryCode(json.nextString());
+                    } else if ("price".equals(field)) {
+                        info.setPrice(parseDecimal(json.nextString()));
+                    } else {
+                        json.skipValue();
+                    }
+                }
+                json.endObject();
+                if (info.getCoutryCode() == null || info.getPrice() == null) {
+                    throw new ResponseParsingException("country and price are expected for phone " + name);
+                }
+                phoneInfos.add(info);
+            }
+        }
+        json.endObject();
+        json.endDocument();
+        if (failure.isPresent()) {
+            return ParsedResponse.failure(failure.toException());
+        }
+        return ParsedResponse.success(phoneInfos);
+    }
+
+    private static <T> T successOf(ParsedResponse<T> parsedResponse, String response, String command) throws ResponseParsingException {
+        if (parsedResponse.isFailure()) {
+            throw new ResponseParsingException("Couldn't parse '" + response + "' as gateway '" + command + "' response", parsedResponse.getFailure());
+        }
+        return parsedResponse.resultOrNull();
+    }
+
+    private static Long parseLong(String value) throws ResponseParsingException {
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new ResponseParsingException("Value '" + value + "' is not integer number", e);
+        }
+    }
+
+    private static BigDecimal parseDecimal(String value) throws ResponseParsingException {
+        try {
+            return new BigDecimal(value);
+        } catch (NumberFormatException e) {
+            throw new ResponseParsingException("Value '" + value + "' is not decimal number", e);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.textmagic.sms.core.ratelimit;
+
+import com.textmagic.sms.core.invoker.Deadline;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits rate of http api calls per TextMagic account, so calls are smoothed to the rate gateway permits
+ * instead of being rejected by it.
+ * <br/><br/>
+ * Every account (login) gets its own {@link TokenBucket}s. Commands with rate set by
+ * {@link #setCommandRate(String, double, int)} (e.g. 'send') have their own bucket, all other commands of the account
+ * share the default one.
+ * <br/>
+ * Permits can be taken in three modes: waiting as long as needed ({@link #acquire(String, String)}),
+ * waiting up to timeout ({@link #tryAcquire(String, String, long, java.util.concurrent.TimeUnit)}) or without waiting
+ * ({@link #tryAcquire(String, String)}). {@link com.textmagic.sms.TextMagicMessageService} takes permits with
+ * {@link #acquirePermit(String, String)}, which waits up to {@link #setMaxWait(long, java.util.concurrent.TimeUnit)}.
+ * <br/>
+ * The limiter is thread-safe, and permits of known accounts and commands are taken without locking.
+ * Command rates should be set before the limiter is used.
+ */
+public class AccountRateLimiter {
+
+    /**
+     * Max wait value which makes {@link #acquirePermit(String, String)} wait as long as needed
+     */
+    public static final long WAIT_FOREVER = Long.MAX_VALUE;
+
+    private final Rate defaultRate;
+    private final Map<String, Rate> commandRates = new ConcurrentHashMap<String, Rate>();
+    private final ConcurrentHashMap<String, AccountBuckets> accounts = new ConcurrentHashMap<String, AccountBuckets>();
+    private volatile long maxWaitNanos = WAIT_FOREVER;
+
+    /**
+     * @param permitsPerSecond default rate of calls per account
+     * @param burst default number of calls which can be made at once after account was idle
+     */
+    public AccountRateLimiter(double permitsPerSecond, int burst) {
+        this.defaultRate = new Rate(permitsPerSecond, burst);
+    }
+
+    /**
+     * Sets separate rate of one command per account
+     *
+     * @param command http api command name, e.g. 'send'
+     * @param permitsPerSecond rate of the command calls
+     * @param burst number of the command calls which can be made at once
+     */
+    public void setCommandRate(String command, double permitsPerSecond, int burst) {
+        commandRates.put(command, new Rate(permitsPerSecond, burst));
+    }
+
+    /**
+     * @param maxWait how long {@link #acquirePermit(String, String)} waits for permit. 0 - does not wait,
+     * {@link #WAIT_FOREVER} (the default) - waits as long as needed
+     * @param unit time unit of <tt>maxWait</tt>
+     */
+    public void setMaxWait(long maxWait, TimeUnit unit) {
+        if (maxWait < 0) {
+            throw new IllegalArgumentException("maxWait should not be negative");
+        }
+        this.maxWaitNanos = maxWait == WAIT_FOREVER ? WAIT_FOREVER : unit.toNanos(maxWait);
+    }
+
+    /**
+     * Takes permit for the call waiting up to configured max wait, but not past {@link Deadline} of calling thread
+     *
+     * @return true - if permit was taken
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public boolean acquirePermit(String login, String command) throws InterruptedException {
+        long maxWait = maxWaitNanos;
+        Deadline deadline = Deadline.current();
+        if (deadline != null) {
+            maxWait = Math.max(Math.min(maxWait, deadline.remaining(TimeUnit.NANOSECONDS)), 0L);
+        }
+        return tryAcquire(login, command, maxWait, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Takes permit for the call waiting as long as needed
+     *
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public void acquire(String login, String command) throws InterruptedException {
+        bucket(login, command).acquire();
+    }
+
+    /**
+     * Takes permit for the call if it is available right now
+     *
+     * @return true - if permit was taken
+     */
+    public boolean tryAcquire(String login, String command) {
+        return bucket(login, command).tryAcquire();
+    }
+
+    /**
+     * Takes permit for the call waiting up to <tt>timeout</tt>
+     *
+     * @return true - if permit was taken
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public boolean tryAcquire(String login, String command, long timeout, TimeUnit unit) throws InterruptedException {
+        return bucket(login, command).tryAcquire(timeout, unit);
+    }
+
+    TokenBucket bucket(String login, String command) {
+        AccountBuckets account = accounts.get(login);
+        if (account == null) {
+            account = accounts.computeIfAbsent(login, key -> new AccountBuckets(defaultRate.newBucket()));
+        }
+        final Rate rate = commandRates.get(command);
+        if (rate == null) {
+            return account.shared;
+        }
+        TokenBucket bucket = account.commands.get(command);
+        if (bucket == null) {
+            bucket = account.commands.computeIfAbsent(command, key -> rate.newBucket());
+        }
+        return bucket;
+    }
+
+    private static final class Rate {
+        private final double permitsPerSecond;
+        private final int burst;
+
+        Rate(double permitsPerSecond, int burst) {
+            if (permitsPerSecond <= 0 || burst < 1) {
+                throw new IllegalArgumentException("permitsPerSecond and burst should be positive");
+            }
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+        }
+
+        TokenBucket newBucket() {
+            return new TokenBucket(permitsPerSecond, burst);
+        }
+    }
+
+    private static final class AccountBuckets {
+        private final TokenBucket shared;
+        private final ConcurrentHashMap<String, TokenBucket> commands = new ConcurrentHashMap<String, TokenBucket>();
+
+        AccountBuckets(TokenBucket shared) {
+            this.shared = shared;
+        }
+    }
+}
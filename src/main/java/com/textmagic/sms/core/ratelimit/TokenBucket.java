@@ -0,0 +1,97 @@
+package com.textmagic.sms.core.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free token bucket issuing permits at fixed rate with bursts of up to <tt>burst</tt> permits.
+ * <br/><br/>
+ * The bucket keeps single timestamp, the time when it would be full again (generic cell rate algorithm),
+ * and takes permits with compare-and-set, so no thread is ever blocked on a lock.
+ * Waiting callers reserve their permits in advance and then sleep until reserved time,
+ * so they are served in order of arrival and the rate is never exceeded.
+ * If waiting thread is interrupted its reserved permit is lost.
+ */
+public class TokenBucket {
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final LongSupplier clock;
+    // theoretical arrival time of next permit
+    private final AtomicLong nextPermitAt;
+
+    /**
+     * Constructs full bucket
+     *
+     * @param permitsPerSecond rate of permits
+     * @param burst maximum number of permits which can be taken at once after the bucket was idle
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, System::nanoTime);
+    }
+
+    TokenBucket(double permitsPerSecond, int burst, LongSupplier clock) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("permitsPerSecond and burst should be positive");
+        }
+        this.intervalNanos = Math.max((long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond), 1L);
+        this.toleranceNanos = intervalNanos * (burst - 1);
+        this.clock = clock;
+        this.nextPermitAt = new AtomicLong(clock.getAsLong());
+    }
+
+    /**
+     * Takes permit if it is available right now
+     *
+     * @return true - if permit was taken
+     */
+    public boolean tryAcquire() {
+        return reserve(0) == 0;
+    }
+
+    /**
+     * Takes permit, waiting for it up to <tt>timeout</tt>. The call returns right away if permit would not be
+     * available within timeout
+     *
+     * @return true - if permit was taken
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long wait = reserve(unit.toNanos(timeout));
+        if (wait < 0) {
+            return false;
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        return true;
+    }
+
+    /**
+     * Takes permit, waiting for it as long as needed
+     *
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        tryAcquire(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return time in nanoseconds to wait for the reserved permit, or -1 if it can not be reserved within <tt>maxWaitNanos</tt>
+     */
+    long reserve(long maxWaitNanos) {
+        while (true) {
+            long now = clock.getAsLong();
+            long next = nextPermitAt.get();
+            long base = next - now > 0 ? next : now;
+            long wait = base - now - toleranceNanos;
+            if (wait > maxWaitNanos) {
+                return -1;
+            }
+            if (nextPermitAt.compareAndSet(next, base + intervalNanos)) {
+                return wait > 0 ? wait : 0;
+            }
+        }
+    }
+}
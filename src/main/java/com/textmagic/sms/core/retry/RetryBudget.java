@@ -0,0 +1,70 @@
+package com.textmagic.sms.core.retry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits share of retried calls, so retries can not multiply load on the gateway during its outage.
+ * <br/><br/>
+ * The budget holds up to <tt>maxTokens</tt> tokens and is full initially. Every retryable failure takes one token,
+ * every successful call gives back <tt>tokenRatio</tt> of token. Retries are allowed only while more than half of
+ * tokens is left, so when most of calls fail retries stop until successful calls refill the budget.
+ * <br/>
+ * The budget is thread-safe and lock-free, one budget is usually shared by all calls to the gateway.
+ */
+public class RetryBudget {
+
+    // tokens are counted in thousandths to keep fractional ratio in integer arithmetic
+    private static final long SCALE = 1000;
+
+    private final long maxTokens;
+    private final long tokenRatio;
+    private final AtomicLong tokens;
+
+    /**
+     * @param maxTokens budget capacity, e.g. 10
+     * @param tokenRatio share of token returned by successful call, e.g. 0.1 allows about one retry per 10 successful calls
+     */
+    public RetryBudget(int maxTokens, double tokenRatio) {
+        if (maxTokens < 1 || tokenRatio <= 0) {
+            throw new IllegalArgumentException("maxTokens and tokenRatio should be positive");
+        }
+        this.maxTokens = maxTokens * SCALE;
+        this.tokenRatio = Math.max((long) (tokenRatio * SCALE), 1L);
+        this.tokens = new AtomicLong(this.maxTokens);
+    }
+
+    /**
+     * Records successful call
+     */
+    public void onSuccess() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current == maxTokens) {
+                return;
+            }
+        } while (!tokens.compareAndSet(current, Math.min(current + tokenRatio, maxTokens)));
+    }
+
+    /**
+     * Records retryable failure and checks whether it can be retried
+     *
+     * @return true - if the failed call can be retried
+     */
+    public boolean tryRetry() {
+        long current;
+        long next;
+        do {
+            current = tokens.get();
+            next = Math.max(current - SCALE, 0L);
+        } while (!tokens.compareAndSet(current, next));
+        return next > maxTokens / 2;
+    }
+
+    /**
+     * @return number of tokens left
+     */
+    public double getTokens() {
+        return (double) tokens.get() / SCALE;
+    }
+}
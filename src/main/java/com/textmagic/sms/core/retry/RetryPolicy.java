@@ -0,0 +1,198 @@
+package com.textmagic.sms.core.retry;
+
+import com.textmagic.sms.core.invoker.Deadline;
+import com.textmagic.sms.core.invoker.ServiceInvokerException;
+import com.textmagic.sms.core.parsing.ResponseParsingException;
+import com.textmagic.sms.exception.ServiceBackendException;
+import org.apache.commons.httpclient.ConnectTimeoutException;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which failed gateway calls are retried and how long to wait before the retry.
+ * <br/><br/>
+ * Failures are classified as follows:
+ * <ul>
+ * <li> gateway error codes (see {@link ServiceBackendException#getErrorCode()}) are retried only if they are listed
+ * in {@link #setRetryableErrorCodes(java.util.Set)}. The gateway rejected such call, so it is safe to retry any command.
+ * None of codes is retried by default, as they report bad credentials, low balance or invalid parameters
+ * <li> read-only commands (<tt>account</tt>, <tt>message_status</tt>, <tt>receive</tt>, <tt>check_number</tt> by default)
+ * are retried on i/o failures and on http statuses from {@link #setRetryableHttpStatuses(java.util.Set)}
+ * <li> other commands (e.g. <tt>send</tt>) are retried only when the gateway provably did not execute them:
+ * connection to the gateway was not established, or the gateway responded with 429 http status
+ * </ul>
+ * Delays between attempts grow exponentially from <tt>initialBackoff</tt> up to <tt>maxBackoff</tt>, and the actual
+ * delay is random between zero and that value ("full jitter"), so clients failed together do not retry together.
+ * Retries can be further limited with shared {@link RetryBudget}.
+ * <br/>
+ * The policy should be configured before it is used, then it can be shared between threads.
+ */
+public class RetryPolicy {
+
+    public static final Set<Integer> DEFAULT_RETRYABLE_HTTP_STATUSES =
+            Collections.unmodifiableSet(new HashSet<Integer>(Arrays.asList(408, 429, 500, 502, 503, 504)));
+    public static final Set<String> DEFAULT_READ_ONLY_COMMANDS =
+            Collections.unmodifiableSet(new HashSet<String>(Arrays.asList("account", "message_status", "receive", "check_number")));
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private Set<Integer> retryableErrorCodes = Collections.emptySet();
+    private Set<Integer> retryableHttpStatuses = DEFAULT_RETRYABLE_HTTP_STATUSES;
+    private Set<String> readOnlyCommands = DEFAULT_READ_ONLY_COMMANDS;
+    private RetryBudget budget;
+
+    /**
+     * @param maxAttempts maximum number of attempts including the first one
+     * @param initialBackoff delay limit before the first retry
+     * @param maxBackoff delay limit before any retry
+     * @param unit time unit of backoff values
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoff, long maxBackoff, TimeUnit unit) {
+        if (maxAttempts < 1 || initialBackoff < 0 || maxBackoff < initialBackoff) {
+            throw new IllegalArgumentException("maxAttempts should be positive and backoff values should satisfy 0 <= initialBackoff <= maxBackoff");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffNanos = unit.toNanos(initialBackoff);
+        this.maxBackoffNanos = unit.toNanos(maxBackoff);
+    }
+
+    /**
+     * @param retryableErrorCodes gateway error codes which are retried for any command
+     */
+    public void setRetryableErrorCodes(Set<Integer> retryableErrorCodes) {
+        this.retryableErrorCodes = new HashSet<Integer>(retryableErrorCodes);
+    }
+
+    /**
+     * @param retryableHttpStatuses http statuses which are retried for read-only commands,
+     * {@link #DEFAULT_RETRYABLE_HTTP_STATUSES} by default
+     */
+    public void setRetryableHttpStatuses(Set<Integer> retryableHttpStatuses) {
+        this.retryableHttpStatuses = new HashSet<Integer>(retryableHttpStatuses);
+    }
+
+    /**
+     * @param readOnlyCommands commands which can be repeated without side effects,
+     * {@link #DEFAULT_READ_ONLY_COMMANDS} by default
+     */
+    public void setReadOnlyCommands(Set<String> readOnlyCommands) {
+        this.readOnlyCommands = new HashSet<String>(readOnlyCommands);
+    }
+
+    /**
+     * @param budget budget limiting share of retried calls, <tt>null</tt> (the default) does not limit retries
+     */
+    public void setBudget(RetryBudget budget) {
+        this.budget = budget;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Records successful call in retry budget
+     */
+    public void onSuccess() {
+        if (budget != null) {
+            budget.onSuccess();
+        }
+    }
+
+    /**
+     * Decides whether failed call should be retried, and waits backoff delay if it should.
+     * The call is not retried if the delay would pass {@link Deadline} of calling thread.
+     * If the thread is interrupted while waiting, the call is not retried and interruption flag is kept.
+     *
+     * @param command failed http api command
+     * @param failure failure of the attempt
+     * @param attempt number of failed attempt, starting from 1
+     * @return true - if the call should be retried right now
+     */
+    public boolean awaitRetry(String command, Exception failure, int attempt) {
+        if (attempt >= maxAttempts || !isRetryable(command, failure)) {
+            return false;
+        }
+        long delay = backoffNanos(attempt);
+        Deadline deadline = Deadline.current();
+        if (deadline != null && deadline.remaining(TimeUnit.NANOSECONDS) <= delay) {
+            return false;
+        }
+        if (budget != null && !budget.tryRetry()) {
+            return false;
+        }
+        if (delay > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true - if the failure of <tt>command</tt> is transient and the command can be safely repeated
+     */
+    public boolean isRetryable(String command, Exception failure) {
+        if (failure instanceof ServiceBackendException) {
+            Integer errorCode = ((ServiceBackendException) failure).getErrorCode();
+            return errorCode != null && retryableErrorCodes.contains(errorCode);
+        }
+        boolean readOnly = readOnlyCommands.contains(command);
+        if (failure instanceof ServiceInvokerException) {
+            int httpStatus = ((ServiceInvokerException) failure).getHttpStatus();
+            if (httpStatus != ServiceInvokerException.NO_HTTP_STATUS) {
+                return readOnly ? retryableHttpStatuses.contains(httpStatus) : httpStatus == TOO_MANY_REQUESTS;
+            }
+            return readOnly ? failure.getCause() instanceof IOException : isNotConnected(failure.getCause());
+        }
+        if (failure instanceof ResponseParsingException) {
+            // response stream broke while being parsed
+            return readOnly && failure.getCause() instanceof IOException;
+        }
+        return false;
+    }
+
+    /**
+     * @param attempt number of failed attempt, starting from 1
+     * @return random delay before retry of the attempt
+     */
+    long backoffNanos(int attempt) {
+        long limit = initialBackoffNanos;
+        for (int i = 1; i < attempt && limit < maxBackoffNanos; i++) {
+            limit *= 2;
+        }
+        limit = Math.min(limit, maxBackoffNanos);
+        return limit > 0 ? ThreadLocalRandom.current().nextLong(limit + 1) : 0;
+    }
+
+    /**
+     * Checks whether the call failed before request could be sent to the gateway.
+     * Commons httpclient <tt>ConnectTimeoutException</tt> covers connection pool timeout as well
+     */
+    private static boolean isNotConnected(Throwable cause) {
+        for (Throwable current = cause; current != null; current = current.getCause()) {
+            if (current instanceof ConnectException || current instanceof UnknownHostException
+                    || current instanceof NoRouteToHostException || current instanceof HttpConnectTimeoutException
+                    || current instanceof ConnectTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
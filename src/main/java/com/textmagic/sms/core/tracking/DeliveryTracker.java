@@ -0,0 +1,314 @@
+package com.textmagic.sms.core.tracking;
+
+import com.textmagic.sms.MessageService;
+import com.textmagic.sms.dto.MessageStatus;
+import com.textmagic.sms.exception.ServiceBackendException;
+import com.textmagic.sms.exception.ServiceTechnicalException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * <code>DeliveryTracker</code> polls delivery status of sent messages until it is final.
+ * <br/><br/>
+ * Every tracked message is polled on its own schedule: first after <tt>initialDelay</tt>, then with delay growing
+ * <tt>multiplier</tt> times up to <tt>maxDelay</tt>, so fresh messages get their final state fast and long running
+ * ones cost few calls. Messages due for polling are packed into 'message_status' commands of up to
+ * <tt>maxBatchSize</tt> ids; the last batch is topped up with messages which are due soon (within half of their delay),
+ * so every call carries as many ids as it can.
+ * <br/>
+ * Message is dropped as soon as its state is final ({@link MessageStatus.DeliveryState#isFinal()}), or when it is
+ * tracked longer than <tt>maxTrackingTime</tt>. Failed polls are repeated on the schedule of the polled messages.
+ * <br/><br/>
+ * Polls are made by single daemon thread. The tracker is thread-safe, it should be configured before messages are
+ * tracked and closed with {@link #close()} when not needed anymore.
+ */
+public class DeliveryTracker {
+    Log log = LogFactory.getLog(DeliveryTracker.class);
+
+    /**
+     * Gets notified about every observed change of delivery state, including the final one
+     */
+    public static interface StatusListener {
+        void onStatusChange(MessageStatus status);
+    }
+
+    private final MessageService service;
+    private final LongSupplier clock;
+    private final ScheduledExecutorService scheduler;
+
+    private int maxBatchSize = 100;
+    private long initialDelayNanos = TimeUnit.SECONDS.toNanos(5);
+    private long maxDelayNanos = TimeUnit.MINUTES.toNanos(10);
+    private double multiplier = 2;
+    private long maxTrackingNanos = TimeUnit.DAYS.toNanos(3);
+    private volatile StatusListener listener;
+
+    // guarded by this
+    private final Map<Long, Tracked> tracked = new HashMap<Long, Tracked>();
+    private final PriorityQueue<Tracked> schedule = new PriorityQueue<Tracked>(11,
+            (first, second) -> Long.compare(first.pollAt - second.pollAt, 0));
+    private ScheduledFuture<?> wakeup;
+    private long wakeupAt;
+    private boolean closed;
+    private long pollCount;
+
+    /**
+     * @param service service the statuses are polled with
+     */
+    public DeliveryTracker(MessageService service) {
+        this(service, System::nanoTime, newScheduler());
+    }
+
+    DeliveryTracker(MessageService service, LongSupplier clock, ScheduledExecutorService scheduler) {
+        this.service = service;
+        this.clock = clock;
+        this.scheduler = scheduler;
+    }
+
+    private static ScheduledExecutorService newScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "textmagic-delivery-tracker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    /**
+     * @param maxBatchSize maximum number of ids in one 'message_status' command, 100 by default
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize should be positive");
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Sets polling schedule of every message
+     *
+     * @param initialDelay delay of the first poll, 5 seconds by default
+     * @param maxDelay the longest delay between polls, 10 minutes by default
+     * @param unit time unit of delays
+     * @param multiplier how many times delay grows after every poll, 2 by default
+     */
+    public void setPollSchedule(long initialDelay, long maxDelay, TimeUnit unit, double multiplier) {
+        if (initialDelay <= 0 || maxDelay < initialDelay || !(multiplier >= 1)) {
+            throw new IllegalArgumentException("Delays should be positive, maxDelay should not be less than initialDelay " +
+                    "and multiplier should not be less than 1");
+        }
+        this.initialDelayNanos = unit.toNanos(initialDelay);
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.multiplier = multiplier;
+    }
+
+    /**
+     * @param maxTrackingTime time after which message is dropped even if its state is not final, 3 days by default
+     * @param unit time unit of <tt>maxTrackingTime</tt>
+     */
+    public void setMaxTrackingTime(long maxTrackingTime, TimeUnit unit) {
+        if (maxTrackingTime <= 0) {
+            throw new IllegalArgumentException("maxTrackingTime should be positive");
+        }
+        this.maxTrackingNanos = unit.toNanos(maxTrackingTime);
+    }
+
+    /**
+     * @param listener listener of delivery state changes, <tt>null</tt> - no listener
+     */
+    public void setListener(StatusListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts tracking of the message. Tracking the same message again returns the same future
+     *
+     * @param messageId id of sent message
+     * @return future of final status. The future completes exceptionally with {@link ServiceTechnicalException}
+     * if the message is tracked longer than <tt>maxTrackingTime</tt> or the tracker is closed
+     */
+    public synchronized CompletableFuture<MessageStatus> track(Long messageId) {
+        Tracked message = tracked.get(messageId);
+        if (message != null) {
+            return message.future;
+        }
+        message = new Tracked(messageId, clock.getAsLong());
+        if (closed) {
+            message.future.completeExceptionally(new ServiceTechnicalException("Delivery tracker is closed"));
+            return message.future;
+        }
+        message.delayNanos = initialDelayNanos;
+        message.pollAt = message.trackedSince + initialDelayNanos;
+        tracked.put(messageId, message);
+        schedule.add(message);
+        scheduleWakeup();
+        return message.future;
+    }
+
+    /**
+     * @return number of messages being tracked
+     */
+    public synchronized int getTrackedCount() {
+        return tracked.size();
+    }
+
+    /**
+     * @return number of 'message_status' commands made
+     */
+    public synchronized long getPollCount() {
+        return pollCount;
+    }
+
+    /**
+     * Stops polling. Futures of messages still being tracked complete exceptionally
+     */
+    public void close() {
+        List<Tracked> dropped;
+        synchronized (this) {
+            closed = true;
+            dropped = new ArrayList<Tracked>(tracked.values());
+            tracked.clear();
+            schedule.clear();
+        }
+        for (Tracked message : dropped) {
+            message.future.completeExceptionally(new ServiceTechnicalException("Delivery tracker is closed"));
+        }
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Makes sure the poller wakes up by the time the earliest message is due. Caller holds the lock
+     */
+    private void scheduleWakeup() {
+        Tracked first = schedule.peek();
+        if (first == null || closed) {
+            return;
+        }
+        if (wakeup != null && !wakeup.isDone() && wakeupAt - first.pollAt <= 0) {
+            return;
+        }
+        if (wakeup != null) {
+            wakeup.cancel(false);
+        }
+        wakeupAt = first.pollAt;
+        wakeup = scheduler.schedule(this::poll, Math.max(first.pollAt - clock.getAsLong(), 0), TimeUnit.NANOSECONDS);
+    }
+
+    private void poll() {
+        List<Tracked> due = new ArrayList<Tracked>();
+        List<Tracked> expired = new ArrayList<Tracked>();
+        synchronized (this) {
+            long now = clock.getAsLong();
+            while (!schedule.isEmpty() && schedule.peek().pollAt - now <= 0) {
+                Tracked message = schedule.poll();
+                if (now - message.trackedSince >= maxTrackingNanos) {
+                    tracked.remove(message.messageId);
+                    expired.add(message);
+                } else {
+                    due.add(message);
+                }
+            }
+            // tops up the last batch with messages due soon
+            int capacity = (due.size() + maxBatchSize - 1) / maxBatchSize * maxBatchSize;
+            while (due.size() < capacity && !schedule.isEmpty()
+                    && schedule.peek().pollAt - now <= schedule.peek().delayNanos / 2) {
+                due.add(schedule.poll());
+            }
+        }
+        for (Tracked message : expired) {
+            message.future.completeExceptionally(new ServiceTechnicalException("Delivery of message " + message.messageId +
+                    " is not finished within tracking time"));
+        }
+        for (int from = 0; from < due.size(); from += maxBatchSize) {
+            pollBatch(due.subList(from, Math.min(from + maxBatchSize, due.size())));
+        }
+        synchronized (this) {
+            wakeup = null;
+            scheduleWakeup();
+        }
+    }
+
+    private void pollBatch(List<Tracked> batch) {
+        List<Long> ids = new ArrayList<Long>(batch.size());
+        for (Tracked message : batch) {
+            ids.add(message.messageId);
+        }
+        Map<Long, MessageStatus> statuses = new HashMap<Long, MessageStatus>();
+        try {
+            for (MessageStatus status : service.messageStatus(ids)) {
+                if (status != null && status.getMessage() != null) {
+                    statuses.put(status.getMessage().getId(), status);
+                }
+            }
+        } catch (ServiceBackendException | ServiceTechnicalException | RuntimeException ex) {
+            log.warn("Couldn't poll status of " + ids.size() + " messages: " + ex.getMessage());
+        }
+        List<Tracked> finished = new ArrayList<Tracked>();
+        List<MessageStatus> changes = new ArrayList<MessageStatus>();
+        synchronized (this) {
+            pollCount++;
+            long now = clock.getAsLong();
+            for (Tracked message : batch) {
+                MessageStatus status = statuses.get(message.messageId);
+                if (status != null && status.getDeliveryState() != message.state) {
+                    message.state = status.getDeliveryState();
+                    changes.add(status);
+                }
+                if (closed || tracked.get(message.messageId) != message) {
+                    continue;
+                }
+                if (status != null && status.getDeliveryState() != null && status.getDeliveryState().isFinal()) {
+                    tracked.remove(message.messageId);
+                    message.finalStatus = status;
+                    finished.add(message);
+                } else {
+                    message.delayNanos = Math.min((long) (message.delayNanos * multiplier), maxDelayNanos);
+                    message.pollAt = now + message.delayNanos;
+                    schedule.add(message);
+                }
+            }
+        }
+        StatusListener statusListener = listener;
+        if (statusListener != null) {
+            for (MessageStatus status : changes) {
+                try {
+                    statusListener.onStatusChange(status);
+                } catch (RuntimeException ex) {
+                    log.warn("Status listener failed: " + ex.getMessage(), ex);
+                }
+            }
+        }
+        for (Tracked message : finished) {
+            message.future.complete(message.finalStatus);
+        }
+    }
+
+    private static final class Tracked {
+        final Long messageId;
+        final long trackedSince;
+        final CompletableFuture<MessageStatus> future = new CompletableFuture<MessageStatus>();
+        // guarded by the tracker
+        long pollAt;
+        long delayNanos;
+        MessageStatus.DeliveryState state;
+        MessageStatus finalStatus;
+
+        Tracked(Long messageId, long trackedSince) {
+            this.messageId = messageId;
+            this.trackedSince = trackedSince;
+        }
+    }
+}
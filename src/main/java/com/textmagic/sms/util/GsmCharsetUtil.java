@@ -3,12 +3,36 @@ package com.textmagic.sms.util;
 /**
  * The class provides set of static methods that helps to check String content against
  * GSM 03.38 character set
+ * <br/><br/>
+ * Characters are classified with lookup table, so each check costs constant time.
+ * Characters of GSM 03.38 extension table (<tt>^{}\[~]|€</tt> and form feed) are transmitted as escape sequence
+ * and take two septets of sms message, all other characters take one septet.
  *
  * @author Rafael Bagmanov
  */
 public class GsmCharsetUtil {
     public static final String chars = "@£$¥èéùìòÇ\nØø\rÅåΔ_ΦΓΛΩΠΨΣΘΞ\t\f^{}\\\\[~]|€ÆæßÉ !\"#¤%&'()*+,-./0123456789:;<=>?¡ABCDEFGHIJKLMNOPQRSTUVWXYZÄÖÑÜ§¿abcdefghijklmnopqrstuvwxyzäöñüà";
 
+    /**
+     * Characters of GSM 03.38 extension table
+     */
+    public static final String extensionChars = "\f^{}\\[~]|€";
+
+    private static final char EURO_SIGN = '€';
+    // all GSM 03.38 characters but euro sign are below this bound
+    private static final int TABLE_SIZE = 0x400;
+    // septets count per character, 0 - character is not in GSM 03.38
+    private static final byte[] SEPTETS = new byte[TABLE_SIZE];
+
+    static {
+        for (int i = 0; i < chars.length(); i++) {
+            char character = chars.charAt(i);
+            if (character != EURO_SIGN) {
+                SEPTETS[character] = (byte) (extensionChars.indexOf(character) == -1 ? 1 : 2);
+            }
+        }
+    }
+
     /**
      * Indicates whether provided character belongs to GSM 03.38 character set
      *
@@ -16,7 +40,7 @@ public class GsmCharsetUtil {
      * @return true - belongs, false - not
      */
     public static boolean isLegalCharacter(char character) {
-        return chars.indexOf(character)!= -1;
+        return septetLength(character) > 0;
     }
 
     /**
@@ -33,4 +57,36 @@ public class GsmCharsetUtil {
         }
         return true;
     }
+
+    /**
+     * Returns number of septets the character takes in GSM 03.38 encoded message
+     *
+     * @param character character to check
+     * @return 1 - for basic characters, 2 - for extension table characters, 0 - if character is not in GSM 03.38
+     */
+    public static int septetLength(char character) {
+        if (character < TABLE_SIZE) {
+            return SEPTETS[character];
+        }
+        return character == EURO_SIGN ? 2 : 0;
+    }
+
+    /**
+     * Returns length of the String in GSM 03.38 encoded message, i.e. number of septets it takes.
+     * Extension table characters are counted as 2 septets
+     *
+     * @param str String to measure
+     * @return septets count, or -1 if the String contains characters which are not in GSM 03.38
+     */
+    public static int septetLength(String str) {
+        int length = 0;
+        for (int i = 0; i < str.length(); i++) {
+            int septets = septetLength(str.charAt(i));
+            if (septets == 0) {
+                return -1;
+            }
+            length += septets;
+        }
+        return length;
+    }
 }
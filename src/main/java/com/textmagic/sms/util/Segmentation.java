@@ -0,0 +1,70 @@
+package com.textmagic.sms.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of splitting sms text into message parts (see {@link SegmentationUtil}).
+ * Part boundaries are indexes of text characters, part <tt>i</tt> spans
+ * <tt>[getPartStart(i), getPartEnd(i))</tt>
+ */
+public final class Segmentation {
+    private final String text;
+    private final boolean unicode;
+    private final int length;
+    private final int[] partEnds;
+
+    Segmentation(String text, boolean unicode, int length, int[] partEnds) {
+        this.text = text;
+        this.unicode = unicode;
+        this.length = length;
+        this.partEnds = partEnds;
+    }
+
+    /**
+     * @return true - text is encoded in UCS-2, false - in GSM 03.38
+     */
+    public boolean isUnicode() {
+        return unicode;
+    }
+
+    /**
+     * @return text length in encoding units: septets for GSM 03.38 text, UTF-16 code units for Unicode text
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public int getPartsCount() {
+        return partEnds.length;
+    }
+
+    public int getPartStart(int part) {
+        return part == 0 ? 0 : partEnds[part - 1];
+    }
+
+    public int getPartEnd(int part) {
+        return partEnds[part];
+    }
+
+    public String getPart(int part) {
+        return text.substring(getPartStart(part), getPartEnd(part));
+    }
+
+    public List<String> getParts() {
+        List<String> parts = new ArrayList<String>(partEnds.length);
+        for (int i = 0; i < partEnds.length; i++) {
+            parts.add(getPart(i));
+        }
+        return parts;
+    }
+
+    @Override
+    public String toString() {
+        return "Segmentation{" +
+                "unicode=" + unicode +
+                ", length=" + length +
+                ", partsCount=" + partEnds.length +
+                '}';
+    }
+}
@@ -0,0 +1,111 @@
+package com.textmagic.sms.util;
+
+/**
+ * The class splits sms text into message parts the same way mobile network does.
+ * <br/><br/>
+ * Single sms holds 160 GSM 03.38 septets or 70 UCS-2 characters. Longer text is sent as concatenated message,
+ * each part of which loses room for concatenation header and holds 153 septets or 67 characters.
+ * GSM 03.38 extension characters take two septets and are never split between parts,
+ * neither are UTF-16 surrogate pairs of Unicode text.
+ */
+public class SegmentationUtil {
+
+    public static final int SINGLE_PLAIN_PART_LENGTH = 160;
+    public static final int MULTI_PLAIN_PART_LENGTH = 153;
+    public static final int SINGLE_UNICODE_PART_LENGTH = 70;
+    public static final int MULTI_UNICODE_PART_LENGTH = 67;
+
+    private SegmentationUtil(){}
+
+    /**
+     * Splits the text into sms parts
+     *
+     * @param text message text
+     * @param useUnicode true - text is to be sent in UCS-2, false - in GSM 03.38
+     * @return exact parts count and boundaries
+     * @throws IllegalArgumentException if <tt>useUnicode</tt> is false, but text contains non-GSM characters
+     */
+    public static Segmentation segment(String text, boolean useUnicode) {
+        int length = useUnicode ? text.length() : GsmCharsetUtil.septetLength(text);
+        if (length < 0) {
+            throw new IllegalArgumentException("Text '" +text + "' contains illegal characters. " +
+                    "Consider calling 'send' with useUnicode=true");
+        }
+        int singlePartLength = useUnicode ? SINGLE_UNICODE_PART_LENGTH : SINGLE_PLAIN_PART_LENGTH;
+        if (length <= singlePartLength) {
+            return new Segmentation(text, useUnicode, length, new int[] {text.length()});
+        }
+        int partLength = useUnicode ? MULTI_UNICODE_PART_LENGTH : MULTI_PLAIN_PART_LENGTH;
+        // parts can only be shorter than partLength, so the estimate is exact or too small by few parts
+        int[] partEnds = new int[length / partLength + 2];
+        int partsCount = 0;
+        int partUnits = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char character = text.charAt(i);
+            int units;
+            if (useUnicode) {
+                units = Character.isHighSurrogate(character) && i + 1 < text.length()
+                        && Character.isLowSurrogate(text.charAt(i + 1)) ? 2 : 1;
+            } else {
+                units = GsmCharsetUtil.septetLength(character);
+            }
+            if (partUnits + units > partLength) {
+                partEnds = ensureCapacity(partEnds, partsCount + 1);
+                partEnds[partsCount++] = i;
+                partUnits = 0;
+            }
+            partUnits += units;
+            if (useUnicode && units == 2) {
+                i++;
+            }
+        }
+        partEnds = ensureCapacity(partEnds, partsCount + 1);
+        partEnds[partsCount++] = text.length();
+        int[] result = new int[partsCount];
+        System.arraycopy(partEnds, 0, result, 0, partsCount);
+        return new Segmentation(text, useUnicode, length, result);
+    }
+
+    /**
+     * Returns number of sms parts the text takes
+     *
+     * @param text message text
+     * @param useUnicode true - text is to be sent in UCS-2, false - in GSM 03.38
+     * @return parts count
+     * @throws IllegalArgumentException if <tt>useUnicode</tt> is false, but text contains non-GSM characters
+     */
+    public static int partsCount(String text, boolean useUnicode) {
+        int length = useUnicode ? text.length() : GsmCharsetUtil.septetLength(text);
+        if (length < 0) {
+            throw new IllegalArgumentException("Text '" +text + "' contains illegal characters. " +
+                    "Consider calling 'send' with useUnicode=true");
+        }
+        if (length <= (useUnicode ? SINGLE_UNICODE_PART_LENGTH : SINGLE_PLAIN_PART_LENGTH)) {
+            return 1;
+        }
+        // without surrogate pairs and extension characters any unit can end a part
+        if (useUnicode ? !hasSurrogates(text) : length == text.length()) {
+            int partLength = useUnicode ? MULTI_UNICODE_PART_LENGTH : MULTI_PLAIN_PART_LENGTH;
+            return (length + partLength - 1) / partLength;
+        }
+        return segment(text, useUnicode).getPartsCount();
+    }
+
+    private static boolean hasSurrogates(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isSurrogate(text.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] ensureCapacity(int[] array, int capacity) {
+        if (array.length >= capacity) {
+            return array;
+        }
+        int[] newArray = new int[Math.max(capacity, array.length * 2)];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+}
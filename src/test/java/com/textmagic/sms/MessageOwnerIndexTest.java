@@ -0,0 +1,61 @@
+package com.textmagic.sms;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static junit.framework.Assert.*;
+
+public class MessageOwnerIndexTest {
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        MessageOwnerIndex index = new MessageOwnerIndex(10);
+        assertEquals(MessageOwnerIndex.UNKNOWN, index.get(5L));
+        index.put(5L, 0);
+        index.put(6L, 3);
+        assertEquals(0, index.get(5L));
+        assertEquals(3, index.get(6L));
+        index.put(5L, 2);
+        assertEquals(2, index.get(5L));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void testOldestIdsAreEvicted() throws Exception {
+        MessageOwnerIndex index = new MessageOwnerIndex(3);
+        for (long id = 1; id <= 5; id++) {
+            index.put(id, (int) id);
+        }
+        assertEquals(3, index.size());
+        assertEquals(MessageOwnerIndex.UNKNOWN, index.get(1L));
+        assertEquals(MessageOwnerIndex.UNKNOWN, index.get(2L));
+        assertEquals(3, index.get(3L));
+        assertEquals(5, index.get(5L));
+    }
+
+    @Test
+    public void testEvictionKeepsCollidingIdsReachable() throws Exception {
+        int maxSize = 1000;
+        MessageOwnerIndex index = new MessageOwnerIndex(maxSize);
+        Random random = new Random(42);
+        long[] ids = new long[5000];
+        for (int i = 0; i < ids.length; i++) {
+            // clustered ids collide often
+            ids[i] = random.nextInt(3) == 0 ? random.nextLong() : 1000000 + i * 64;
+            index.put(ids[i], i % 7);
+        }
+        assertEquals(maxSize, index.size());
+        for (int i = ids.length - maxSize; i < ids.length; i++) {
+            assertEquals(i % 7, index.get(ids[i]));
+        }
+        for (int i = 0; i < ids.length - maxSize; i++) {
+            assertEquals(MessageOwnerIndex.UNKNOWN, index.get(ids[i]));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSizeShouldBePositive() throws Exception {
+        new MessageOwnerIndex(0);
+    }
+}
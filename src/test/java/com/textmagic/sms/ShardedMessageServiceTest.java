@@ -0,0 +1,285 @@
+package com.textmagic.sms;
+
+import com.textmagic.sms.dto.Message;
+import com.textmagic.sms.dto.MessageStatus;
+import com.textmagic.sms.dto.PhoneInfo;
+import com.textmagic.sms.dto.ReceivedMessage;
+import com.textmagic.sms.dto.SentMessage;
+import com.textmagic.sms.exception.ServiceBackendException;
+import com.textmagic.sms.exception.ServiceException;
+import com.textmagic.sms.exception.ServiceTechnicalException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.Assert.*;
+
+public class ShardedMessageServiceTest {
+
+    final AtomicLong now = new AtomicLong();
+    final List<Runnable> refreshes = new ArrayList<Runnable>();
+    Account first;
+    Account second;
+    ShardedMessageService service;
+
+    @Before
+    public void setUp() throws Exception {
+        first = new Account(1000);
+        second = new Account(2000);
+        service = new ShardedMessageService(Arrays.asList(first, second), now::get, refreshes::add);
+    }
+
+    @Test
+    public void testSendingsAreSpreadByWeights() throws Exception {
+        service.setWeight(0, 2);
+        for (int i = 0; i < 6; i++) {
+            service.send("text", "123");
+        }
+        assertEquals(4, first.sent.size());
+        assertEquals(2, second.sent.size());
+    }
+
+    @Test
+    public void testStatusIsRoutedToOwner() throws Exception {
+        SentMessage one = service.send("text", "123");
+        SentMessage two = service.send("text", "456");
+        assertEquals(0, service.getOwner(one.getId()));
+        assertEquals(1, service.getOwner(two.getId()));
+        assertEquals(two.getId(), service.messageStatus(two.getId()).getMessage().getId());
+        assertEquals(Arrays.asList(two.getId()), second.statusRequests);
+        assertTrue(first.statusRequests.isEmpty());
+
+        List<MessageStatus> statuses = service.messageStatus(Arrays.asList(one.getId(), two.getId()));
+        assertEquals(2, statuses.size());
+        assertEquals(Arrays.asList(one.getId()), first.statusRequests);
+        assertEquals(Arrays.asList(two.getId(), two.getId()), second.statusRequests);
+    }
+
+    @Test
+    public void testUnknownIdIsLookedUpInAccounts() throws Exception {
+        assertEquals(Long.valueOf(2005L), service.deleteReply(2005L));
+        assertEquals(1, service.getOwner(2005L));
+        assertEquals(Arrays.asList(2005L), first.deleteRequests);
+        try {
+            service.deleteReply(5L);
+            fail("Unknown id should fail");
+        } catch (ServiceBackendException e) {
+            assertEquals(Integer.valueOf(14), e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void testEmptyAnswerIsNotOwnership() throws Exception {
+        first.ignoresUnknownIds = true;
+        assertEquals(Long.valueOf(2005L), service.messageStatus(2005L).getMessage().getId());
+        assertEquals(1, service.getOwner(2005L));
+        List<MessageStatus> statuses = service.messageStatus(Arrays.asList(2006L));
+        assertEquals(1, statuses.size());
+        assertEquals(1, service.getOwner(2006L));
+        second.ignoresUnknownIds = true;
+        assertNull(service.messageStatus(5005L));
+        assertEquals(-1, service.getOwner(5005L));
+    }
+
+    @Test
+    public void testRepliesAreTracked() throws Exception {
+        List<ReceivedMessage> received = service.receive(0L);
+        assertEquals(2, received.size());
+        assertEquals(1, service.getOwner(2000L));
+        assertEquals(Arrays.asList(2000L, 1000L), service.deleteReply(Arrays.asList(2000L, 1000L)));
+        assertEquals(Arrays.asList(1000L), first.deleteRequests);
+    }
+
+    @Test
+    public void testLeastOutstandingAccountIsChosen() throws Exception {
+        service.setBalancing(ShardedMessageService.Balancing.LEAST_OUTSTANDING);
+        first.onSend = () -> {
+            try {
+                service.send("nested", "789");
+            } catch (ServiceException e) {
+                fail(e.getMessage());
+            }
+        };
+        service.send("text", "123");
+        assertEquals(Arrays.asList("text"), first.sent);
+        assertEquals(Arrays.asList("nested"), second.sent);
+    }
+
+    private void runRefreshes() {
+        List<Runnable> started = new ArrayList<Runnable>(refreshes);
+        refreshes.clear();
+        for (Runnable refresh : started) {
+            refresh.run();
+        }
+    }
+
+    @Test
+    public void testSendingsFollowBalances() throws Exception {
+        service.setBalancing(ShardedMessageService.Balancing.BALANCE_AWARE);
+        first.balance = new BigDecimal("30");
+        second.balance = new BigDecimal("10");
+        runRefreshes();
+        service.send("text", "123");
+        // balances are refreshed in background, the sending does not wait for them
+        assertEquals(0, first.balanceRequests);
+        assertEquals(1, refreshes.size());
+        runRefreshes();
+        assertEquals(1, first.balanceRequests);
+        first.sent.clear();
+        for (int i = 0; i < 8; i++) {
+            service.send("text", "123");
+        }
+        assertEquals(6, first.sent.size());
+        assertEquals(2, second.sent.size());
+        assertTrue(refreshes.isEmpty());
+
+        first.balance = BigDecimal.ZERO;
+        now.addAndGet(TimeUnit.MINUTES.toNanos(2));
+        service.send("text", "123");
+        assertEquals(1, refreshes.size());
+        runRefreshes();
+        assertEquals(2, first.balanceRequests);
+        int sentByFirst = first.sent.size();
+        service.send("text", "123");
+        service.send("text", "123");
+        assertEquals(sentByFirst, first.sent.size());
+        assertEquals(new BigDecimal("10"), service.account());
+    }
+
+    @Test
+    public void testUnknownBalanceWeighsAsAverage() throws Exception {
+        service.setBalancing(ShardedMessageService.Balancing.BALANCE_AWARE);
+        first.balance = new BigDecimal("3000");
+        second.balance = null;
+        service.send("text", "123");
+        runRefreshes();
+        first.sent.clear();
+        second.sent.clear();
+        for (int i = 0; i < 10; i++) {
+            service.send("text", "123");
+        }
+        assertEquals(5, first.sent.size());
+        assertEquals(5, second.sent.size());
+    }
+
+    /**
+     * Account which numbers its messages starting from <tt>firstId</tt>
+     */
+    static class Account implements MessageService {
+        final long firstId;
+        final List<String> sent = new ArrayList<String>();
+        final List<Long> statusRequests = new ArrayList<Long>();
+        final List<Long> deleteRequests = new ArrayList<Long>();
+        BigDecimal balance = BigDecimal.ONE;
+        int balanceRequests;
+        Runnable onSend;
+        // answers about ids of other accounts with empty list instead of error
+        boolean ignoresUnknownIds;
+
+        Account(long firstId) {
+            this.firstId = firstId;
+        }
+
+        private boolean owns(Long messageId) {
+            return messageId >= firstId && messageId < firstId + 1000;
+        }
+
+        public SentMessage send(String text, String phone) throws ServiceBackendException, ServiceTechnicalException {
+            sent.add(text);
+            if (onSend != null) {
+                Runnable nested = onSend;
+                onSend = null;
+                nested.run();
+            }
+            SentMessage message = new SentMessage();
+            message.setId(firstId + sent.size());
+            message.setText(text);
+            message.setRecipientPhone(phone);
+            return message;
+        }
+
+        public List<SentMessage> send(String text, List<String> phones) throws ServiceBackendException, ServiceTechnicalException {
+            List<SentMessage> messages = new ArrayList<SentMessage>();
+            for (String phone : phones) {
+                messages.add(send(text, phone));
+            }
+            return messages;
+        }
+
+        public List<SentMessage> send(String text, List<String> phones, boolean useUnicode, Integer maxLength) throws ServiceBackendException, ServiceTechnicalException {
+            return send(text, phones);
+        }
+
+        public List<SentMessage> scheduleMessageSending(String text, List<String> phones, Date sendingTime, Integer maxLength) throws ServiceTechnicalException, ServiceBackendException {
+            return send(text, phones);
+        }
+
+        public BigDecimal account() throws ServiceBackendException, ServiceTechnicalException {
+            balanceRequests++;
+            return balance;
+        }
+
+        public MessageStatus messageStatus(Long messageId) throws ServiceBackendException, ServiceTechnicalException {
+            List<MessageStatus> statuses = messageStatus(Collections.singletonList(messageId));
+            return statuses.isEmpty() ? null : statuses.get(0);
+        }
+
+        public List<MessageStatus> messageStatus(List<Long> messageIds) throws ServiceBackendException, ServiceTechnicalException {
+            List<MessageStatus> statuses = new ArrayList<MessageStatus>();
+            for (Long messageId : messageIds) {
+                if (!owns(messageId) && ignoresUnknownIds) {
+                    continue;
+                }
+                if (!owns(messageId)) {
+                    throw new ServiceBackendException(14, "Unknown message id");
+                }
+                statusRequests.add(messageId);
+                MessageStatus status = new MessageStatus();
+                status.setMessage(new Message(messageId, "text"));
+                statuses.add(status);
+            }
+            return statuses;
+        }
+
+        public List<ReceivedMessage> receive() throws ServiceBackendException, ServiceTechnicalException {
+            return receive(0L);
+        }
+
+        public List<ReceivedMessage> receive(Long lastRecievedId) throws ServiceBackendException, ServiceTechnicalException {
+            ReceivedMessage reply = new ReceivedMessage();
+            reply.setId(firstId);
+            reply.setText("reply");
+            return Collections.singletonList(reply);
+        }
+
+        public List<Long> deleteReply(List<Long> messageIds) throws ServiceBackendException, ServiceTechnicalException {
+            for (Long messageId : messageIds) {
+                deleteRequests.add(messageId);
+                if (!owns(messageId)) {
+                    throw new ServiceBackendException(14, "Unknown message id");
+                }
+            }
+            return messageIds;
+        }
+
+        public Long deleteReply(Long messageId) throws ServiceBackendException, ServiceTechnicalException {
+            return deleteReply(Collections.singletonList(messageId)).get(0);
+        }
+
+        public PhoneInfo checkNumber(String phone) throws ServiceBackendException, ServiceTechnicalException {
+            return null;
+        }
+
+        public List<PhoneInfo> checkNumbers(List<String> phones) throws ServiceBackendException, ServiceTechnicalException {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.textmagic.sms;
+
+import org.junit.runner.RunWith;
+import org.junit.Before;
+import org.junit.Test;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.Expectations;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.allOf;
+import org.hamcrest.Matchers;
+import com.textmagic.sms.core.invoker.AsyncHttpServiceInvoker;
+import com.textmagic.sms.core.invoker.ServiceInvokerException;
+import com.textmagic.sms.core.parsing.TextMagicResponseParser;
+import com.textmagic.sms.core.parsing.ResponseParsingException;
+import com.textmagic.sms.dto.*;
+import com.textmagic.sms.exception.ServiceTechnicalException;
+import com.textmagic.sms.exception.ServiceBackendException;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static junit.framework.Assert.*;
+
+@RunWith(JMock.class)
+public class TextMagicAsyncMessageServiceTest {
+    JUnit4Mockery context = new JUnit4Mockery();
+    TextMagicAsyncMessageService service;
+    private static final String LOGIN = "myLogin";
+    private static final String PASSWORD = "myPassword";
+    AsyncHttpServiceInvoker serviceInvoker;
+    TextMagicResponseParser responseParser;
+    private static final String MY_TEXT = "my text";
+    private static final String CORRECT_MSISDN = "79261234567";
+
+    @Before
+    public void setUp() throws Exception {
+        serviceInvoker = context.mock(AsyncHttpServiceInvoker.class);
+        responseParser = context.mock(TextMagicResponseParser.class);
+
+        service = new TextMagicAsyncMessageService(LOGIN, PASSWORD, serviceInvoker);
+        service.setParser(responseParser);
+    }
+
+    @Test
+    public void testSend() throws Exception{
+        final List<SentMessage> messages = new ArrayList<SentMessage>();
+        SentMessage message =  new SentMessage();
+        message.setId(2L);
+        messages.add(message);
+        final String invokerResponse = "dummy response";
+        context.checking(new Expectations() {{
+            one(serviceInvoker).invokeAsync(
+                    with(equalTo(LOGIN)),
+                    with(equalTo(PASSWORD)),
+                    with(equalTo("send")),
+                    with(allOf(
+                            Matchers.hasEntry("text", MY_TEXT),
+                            Matchers.hasEntry("unicode", "0"),
+                            Matchers.hasEntry("max_length", "3"),
+                            Matchers.hasEntry("phone", CORRECT_MSISDN)
+                    ))
+            ); will(returnValue(CompletableFuture.completedFuture(invokerResponse)));
+            one(responseParser).isFailureResponse(invokerResponse); will(returnValue(false));
+            one(responseParser).parseSendResponse(invokerResponse);will(returnValue(messages));
+        }});
+        SentMessage result = service.send(MY_TEXT, CORRECT_MSISDN).get();
+        assertSame(message, result);
+    }
+
+    @Test
+    public void testSend_BackendException() throws Exception{
+        final String invokerResponse = "dummy response";
+        final ServiceBackendException backendExc = new ServiceBackendException(1,"2");
+        context.checking(new Expectations() {{
+            one(serviceInvoker).invokeAsync(
+                    with(equalTo(LOGIN)),
+                    with(equalTo(PASSWORD)),
+                    with(equalTo("send")),
+                    with(Matchers.hasEntry("phone", CORRECT_MSISDN))
+            ); will(returnValue(CompletableFuture.completedFuture(invokerResponse)));
+            one(responseParser).isFailureResponse(invokerResponse); will(returnValue(true));
+            one(responseParser).parseFailureResponse(invokerResponse);will(returnValue(backendExc));
+        }});
+        try {
+            service.send(MY_TEXT, CORRECT_MSISDN).get();
+            fail("exception should be thrown");
+        } catch (ExecutionException e) {
+            assertSame(backendExc, e.getCause());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSend_InvalidMSISDN() throws Exception{
+        service.send(MY_TEXT, "1234567890aaaa");
+    }
+
+    @Test
+    public void testAccount_InvokerException() throws Exception {
+        final CompletableFuture<String> failure = new CompletableFuture<String>();
+        failure.completeExceptionally(new ServiceInvokerException("connection refused"));
+        final Map<String,String> emptyMap = Collections.emptyMap();
+        context.checking(new Expectations() {{
+            one(serviceInvoker).invokeAsync(
+                    with(equalTo(LOGIN)),
+                    with(equalTo(PASSWORD)),
+                    with(equalTo("account")),
+                    with(equalTo(emptyMap))
+            ); will(returnValue(failure));
+        }});
+        try {
+            service.account().get();
+            fail("exception should be thrown");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ServiceTechnicalException);
+            assertTrue(e.getCause().getCause() instanceof ServiceInvokerException);
+        }
+    }
+
+    @Test
+    public void testMessageStatus_ParsingException() throws Exception {
+        final String invokerResponse = "dummy response";
+        context.checking(new Expectations() {{
+            one(serviceInvoker).invokeAsync(
+                    with(equalTo(LOGIN)),
+                    with(equalTo(PASSWORD)),
+                    with(equalTo("message_status")),
+                    with(Matchers.hasEntry("ids", "1,2,3"))
+            ); will(returnValue(CompletableFuture.completedFuture(invokerResponse)));
+            one(responseParser).isFailureResponse(invokerResponse); will(returnValue(false));
+            one(responseParser).parseMessageStatusResponse(invokerResponse); will(throwException(new ResponseParsingException()));
+        }});
+        try {
+            service.messageStatus(Arrays.asList(1L, 2L, 3L)).get();
+            fail("exception should be thrown");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ServiceTechnicalException);
+        }
+    }
+
+    @Test
+    public void testMessageStatus_EmptyList() throws Exception {
+        final String invokerResponse = "dummy response";
+        final List<MessageStatus> parsingResult = Collections.emptyList();
+        context.checking(new Expectations() {{
+            one(serviceInvoker).invokeAsync(
+                    with(equalTo(LOGIN)),
+                    with(equalTo(PASSWORD)),
+                    with(equalTo("message_status")),
+                    with(Matchers.hasEntry("ids", "1"))
+            ); will(returnValue(CompletableFuture.completedFuture(invokerResponse)));
+            one(responseParser).isFailureResponse(invokerResponse); will(returnValue(false));
+            one(responseParser).parseMessageStatusResponse(invokerResponse); will(returnValue(parsingResult));
+        }});
+        assertNull(service.messageStatus(1L).get());
+    }
+
+    @Test
+    public void testDeleteReply_TwoElementsInList() throws Exception {
+        final String invokerResponse = "dummy response";
+        final List<Long> parsingResult = Arrays.asList(1L, 2L);
+        context.checking(new Expectations() {{
+            one(serviceInvoker).invokeAsync(
+                    with(equalTo(LOGIN)),
+                    with(equalTo(PASSWORD)),
+                    with(equalTo("delete_reply")),
+                    with(Matchers.hasEntry("ids", "1"))
+            ); will(returnValue(CompletableFuture.completedFuture(invokerResponse)));
+            one(responseParser).isFailureResponse(invokerResponse); will(returnValue(false));
+            one(responseParser).parseDeleteReplyResponse(invokerResponse); will(returnValue(parsingResult));
+        }});
+        try {
+            service.deleteReply(1L).get();
+            fail("exception should be thrown");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ServiceTechnicalException);
+        }
+    }
+
+}
@@ -13,13 +13,27 @@ import com.textmagic.sms.core.invoker.HttpServiceInvoker;
 import com.textmagic.sms.core.invoker.ServiceInvokerException;
 import com.textmagic.sms.core.parsing.TextMagicResponseParser;
 import com.textmagic.sms.core.parsing.ResponseParsingException;
+import com.textmagic.sms.core.bulk.BulkExecutor;
+import com.textmagic.sms.core.bulk.BulkResult;
+import com.textmagic.sms.core.retry.RetryPolicy;
+import com.textmagic.sms.core.ratelimit.AccountRateLimiter;
+import com.textmagic.sms.core.invoker.Deadline;
+import com.textmagic.sms.core.parsing.SinglePassResponseParser;
+import com.textmagic.sms.core.parsing.ParsedResponse;
+import com.textmagic.sms.core.parsing.TextMagicStreamingResponseParser;
+import com.textmagic.sms.core.invoker.StreamingHttpServiceInvoker;
+import com.textmagic.sms.core.invoker.ResponseBody;
 import com.textmagic.sms.dto.*;
 import com.textmagic.sms.exception.ServiceTechnicalException;
 import com.textmagic.sms.exception.ServiceBackendException;
 import com.textmagic.sms.util.StringUtils;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.io.ByteArrayInputStream;
 import java.math.BigDecimal;
+import java.nio.charset.Charset;
 
 import static junit.framework.Assert.*;
 
@@ -180,6 +194,12 @@ public class TextMagicMessageServiceTest {
         }
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void testSend_ExtensionCharactersCountedTwice() throws Exception {
+        String message = StringUtils.repeat("{", 81);
+        service.send(message, Arrays.asList(CORRECT_MSISDN), false, 1);
+    }
+
     @Test
     public void testSendUnicode_TooLong() throws Exception {
         final String text = StringUtils.repeat("р", 221);
@@ -243,6 +263,123 @@ public class TextMagicMessageServiceTest {
         assertEquals(new BigDecimal(6.5), result);
     }
 
+    @Test
+    public void testAccount_RetriedOnTransientFailure() throws Exception {
+        service.setRetryPolicy(new RetryPolicy(3, 0, 0, TimeUnit.MILLISECONDS));
+        final String invokerResponse = "dummy response";
+        final Map<String,String> emptyMap = Collections.emptyMap();
+        context.checking(new Expectations() {{
+            exactly(2).of(serviceInvoker).invoke(
+                    with(equalTo(LOGIN)),
+                    with(equalTo(PASSWORD)),
+                    with(equalTo("account")),
+                    with(equalTo(emptyMap))
+            ); will(onConsecutiveCalls(
+                    throwException(new ServiceInvokerException("Server responded with 503 http code", 503)),
+                    returnValue(invokerResponse)));
+            one(responseParser).isFailureResponse(invokerResponse); will(returnValue(false));
+            one(responseParser).parseAccountResponse(invokerResponse); will(returnValue(new BigDecimal(6.5)));
+        }});
+        assertEquals(new BigDecimal(6.5), service.account());
+    }
+
+    @Test
+    public void testSend_NotRetriedAfterRequestWasSent() throws Exception {
+        service.setRetryPolicy(new RetryPolicy(3, 0, 0, TimeUnit.MILLISECONDS));
+        context.checking(new Expectations() {{
+            one(serviceInvoker).invoke(
+                    with(equalTo(LOGIN)),
+                    with(equalTo(PASSWORD)),
+                    with(equalTo("send")),
+                    with(Matchers.hasEntry("phone", CORRECT_MSISDN))
+            ); will(throwException(new ServiceInvokerException("Server responded with 503 http code", 503)));
+        }});
+        try {
+            service.send(MY_TEXT, CORRECT_MSISDN);
+            fail("exception should be thrown");
+        } catch (ServiceTechnicalException e) {
+            assertEquals(503, ((ServiceInvokerException) e.getCause()).getHttpStatus());
+        }
+    }
+
+    @Test
+    public void testSend_RetriedIfNotConnected() throws Exception {
+        service.setRetryPolicy(new RetryPolicy(3, 0, 0, TimeUnit.MILLISECONDS));
+        final SentMessage message = new SentMessage();
+        context.checking(new Expectations() {{
+            exactly(2).of(serviceInvoker).invoke(
+                    with(equalTo(LOGIN)),
+                    with(equalTo(PASSWORD)),
+                    with(equalTo("send")),
+                    with(Matchers.hasEntry("phone", CORRECT_MSISDN))
+            ); will(onConsecutiveCalls(
+                    throwException(new ServiceInvokerException("Connection refused", new java.net.ConnectException("Connection refused"))),
+                    returnValue("response")));
+            one(responseParser).isFailureResponse("response"); will(returnValue(false));
+            one(responseParser).parseSendResponse("response"); will(returnValue(Arrays.asList(message)));
+        }});
+        assertSame(message, service.send(MY_TEXT, CORRECT_MSISDN));
+    }
+
+    @Test
+    public void testAccount_RateLimitExceeded() throws Exception {
+        AccountRateLimiter limiter = new AccountRateLimiter(0.01, 1);
+        limiter.setMaxWait(0, TimeUnit.SECONDS);
+        service.setRateLimiter(limiter);
+        final String invokerResponse = "dummy response";
+        final Map<String,String> emptyMap = Collections.emptyMap();
+        context.checking(new Expectations() {{
+            one(serviceInvoker).invoke(
+                    with(equalTo(LOGIN)),
+                    with(equalTo(PASSWORD)),
+                    with(equalTo("account")),
+                    with(equalTo(emptyMap))
+            ); will(returnValue(invokerResponse));
+            one(responseParser).isFailureResponse(invokerResponse); will(returnValue(false));
+            one(responseParser).parseAccountResponse(invokerResponse); will(returnValue(new BigDecimal(6.5)));
+        }});
+        service.account();
+        try {
+            service.account();
+            fail("exception should be thrown");
+        } catch (ServiceTechnicalException e) {
+            assertEquals("Rate limit of 'account' command is exceeded", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testAccount_ExpiredDeadline() throws Exception {
+        Deadline deadline = Deadline.after(1, TimeUnit.HOURS);
+        deadline.cancel();
+        try {
+            service.withDeadline(deadline).account();
+            fail("exception should be thrown");
+        } catch (ServiceTechnicalException e) {
+            assertEquals("Call of 'account' command was cancelled", e.getMessage());
+        }
+        assertNull(Deadline.current());
+    }
+
+    @Test
+    public void testAccount_CommandTimeout() throws Exception {
+        final List<Deadline> deadlines = new ArrayList<Deadline>();
+        service.setInvoker((login, password, command, parameters) -> {
+            deadlines.add(Deadline.current());
+            return "response";
+        });
+        service.setCommandTimeout("account", 10, TimeUnit.SECONDS);
+        context.checking(new Expectations() {{
+            exactly(2).of(responseParser).isFailureResponse("response"); will(returnValue(false));
+            exactly(2).of(responseParser).parseAccountResponse("response"); will(returnValue(new BigDecimal(6.5)));
+        }});
+        service.account();
+        assertTrue(deadlines.get(0).remaining(TimeUnit.SECONDS) <= 10);
+        Deadline outer = Deadline.after(1, TimeUnit.SECONDS);
+        service.withDeadline(outer).account();
+        assertSame(outer, deadlines.get(1));
+        assertNull(Deadline.current());
+    }
+
     @Test (expected = ServiceTechnicalException.class)
     public void testAccount_ParserException() throws Exception {
         final String invokerResponse = "dummy response";
@@ -280,6 +417,28 @@ public class TextMagicMessageServiceTest {
         assertSame(parsingResult, result);
     }
 
+    @Test
+    public void testMessageStatus_Collapsing() throws Exception {
+        service.enableStatusCollapsing(1, TimeUnit.HOURS, 1);
+        final MessageStatus status = new MessageStatus();
+        status.setMessage(new Message(5L, MY_TEXT));
+        context.checking(new Expectations() {{
+            one(serviceInvoker).invoke(
+                    with(equalTo(LOGIN)),
+                    with(equalTo(PASSWORD)),
+                    with(equalTo("message_status")),
+                    with(Matchers.hasEntry("ids", "5"))
+            ); will(returnValue("response"));
+            one(responseParser).isFailureResponse("response"); will(returnValue(false));
+            one(responseParser).parseMessageStatusResponse("response"); will(returnValue(Arrays.asList(status)));
+        }});
+        try {
+            assertSame(status, service.messageStatus(5L));
+        } finally {
+            service.disableStatusCollapsing();
+        }
+    }
+
     @Test (expected = ServiceTechnicalException.class)
     public void testMessageStatus_List_ParsingException() throws Exception {
         final String invokerResponse = "dummy response";
@@ -488,5 +647,203 @@ public class TextMagicMessageServiceTest {
         assertEquals(checkNumerResponse.get(0), result);
     }
 
+    @Test
+    public void testMessageStatus_BulkMode() throws Exception {
+        service.setBulkExecutor(new BulkExecutor(Runnable::run, 2, 2));
+        final String firstResponse = "first response";
+        final String secondResponse = "second response";
+        final MessageStatus status1 = new MessageStatus();
+        final MessageStatus status2 = new MessageStatus();
+        final MessageStatus status3 = new MessageStatus();
+        context.checking(new Expectations() {{
+            one(serviceInvoker).invoke(
+                    with(equalTo(LOGIN)),
+                    with(equalTo(PASSWORD)),
+                    with(equalTo("message_status")),
+                    with(Matchers.hasEntry("ids", "1,2"))
+            ); will(returnValue(firstResponse));
+            one(serviceInvoker).invoke(
+                    with(equalTo(LOGIN)),
+                    with(equalTo(PASSWORD)),
+                    with(equalTo("message_status")),
+                    with(Matchers.hasEntry("ids", "3"))
+            ); will(returnValue(secondResponse));
+            one(responseParser).isFailureResponse(firstResponse); will(returnValue(false));
+            one(responseParser).parseMessageStatusResponse(firstResponse); will(returnValue(Arrays.asList(status1, status2)));
+            one(responseParser).isFailureResponse(secondResponse); will(returnValue(false));
+            one(responseParser).parseMessageStatusResponse(secondResponse); will(returnValue(Arrays.asList(status3)));
+        }});
+        List<MessageStatus> result = service.messageStatus(Arrays.asList(1L, 2L, 3L));
+        assertEquals(3, result.size());
+        assertSame(status1, result.get(0));
+        assertSame(status3, result.get(2));
+    }
+
+    @Test
+    public void testSend_BulkMode_InvalidPhoneInLaterChunk() throws Exception {
+        service.setBulkExecutor(new BulkExecutor(Runnable::run, 2, 1));
+        try {
+            service.send(MY_TEXT, Arrays.asList(CORRECT_MSISDN, "1234567890aaaa"));
+            fail("exception should be thrown");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("1234567890aaaa"));
+        }
+    }
+
+    @Test
+    public void testSendBulk_ChunkFailureIsReported() throws Exception {
+        service.setBulkExecutor(new BulkExecutor(Runnable::run, 1, 1));
+        final String secondPhone = "79261234568";
+        final SentMessage message = new SentMessage();
+        final ServiceBackendException backendExc = new ServiceBackendException(1, "2");
+        context.checking(new Expectations() {{
+            one(serviceInvoker).invoke(
+                    with(equalTo(LOGIN)),
+                    with(equalTo(PASSWORD)),
+                    with(equalTo("send")),
+                    with(Matchers.hasEntry("phone", CORRECT_MSISDN))
+            ); will(returnValue("first response"));
+            one(serviceInvoker).invoke(
+                    with(equalTo(LOGIN)),
+                    with(equalTo(PASSWORD)),
+                    with(equalTo("send")),
+                    with(Matchers.hasEntry("phone", secondPhone))
+            ); will(returnValue("second response"));
+            one(responseParser).isFailureResponse("first response"); will(returnValue(false));
+            one(responseParser).parseSendResponse("first response"); will(returnValue(Arrays.asList(message)));
+            one(responseParser).isFailureResponse("second response"); will(returnValue(true));
+            one(responseParser).parseFailureResponse("second response"); will(returnValue(backendExc));
+        }});
+        BulkResult<String, SentMessage> result = service.sendBulk(MY_TEXT, Arrays.asList(CORRECT_MSISDN, secondPhone));
+        assertEquals(1, result.getResults().size());
+        assertSame(message, result.getResults().get(0));
+        assertEquals(Arrays.asList(secondPhone), result.getFailedElements());
+        assertSame(backendExc, result.getFailures().get(0).getCause());
+    }
+
+    @Test
+    public void testSend_Coalescing() throws Exception {
+        service.enableSendCoalescing(1, TimeUnit.HOURS, 1);
+        final SentMessage message = new SentMessage();
+        message.setRecipientPhone(CORRECT_MSISDN);
+        context.checking(new Expectations() {{
+            one(serviceInvoker).invoke(
+                    with(equalTo(LOGIN)),
+                    with(equalTo(PASSWORD)),
+                    with(equalTo("send")),
+                    with(Matchers.hasEntry("phone", CORRECT_MSISDN))
+            ); will(returnValue("response"));
+            one(responseParser).isFailureResponse("response"); will(returnValue(false));
+            one(responseParser).parseSendResponse("response"); will(returnValue(Arrays.asList(message)));
+        }});
+        try {
+            assertSame(message, service.send(MY_TEXT, CORRECT_MSISDN));
+        } finally {
+            service.disableSendCoalescing();
+        }
+    }
+
+    @Test
+    public void testSendIdempotent_RepeatedKeyIsNotSent() throws Exception {
+        final SentMessage message = new SentMessage();
+        message.setRecipientPhone(CORRECT_MSISDN);
+        context.checking(new Expectations() {{
+            one(serviceInvoker).invoke(
+                    with(equalTo(LOGIN)),
+                    with(equalTo(PASSWORD)),
+                    with(equalTo("send")),
+                    with(Matchers.hasEntry("phone", CORRECT_MSISDN))
+            ); will(returnValue("response"));
+            one(responseParser).isFailureResponse("response"); will(returnValue(false));
+            one(responseParser).parseSendResponse("response"); will(returnValue(Arrays.asList(message)));
+        }});
+        List<SentMessage> first = service.sendIdempotent("order-1", MY_TEXT, Arrays.asList(CORRECT_MSISDN));
+        List<SentMessage> repeated = service.sendIdempotent("order-1", MY_TEXT, Arrays.asList(CORRECT_MSISDN));
+        assertSame(message, first.get(0));
+        assertSame(first, repeated);
+    }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void testSendIdempotent_KeyOfAnotherMessage() throws Exception {
+        context.checking(new Expectations() {{
+            one(serviceInvoker).invoke(
+                    with(equalTo(LOGIN)),
+                    with(equalTo(PASSWORD)),
+                    with(equalTo("send")),
+                    with(Matchers.hasEntry("phone", CORRECT_MSISDN))
+            ); will(returnValue("response"));
+            one(responseParser).isFailureResponse("response"); will(returnValue(false));
+            one(responseParser).parseSendResponse("response"); will(returnValue(Arrays.asList(new SentMessage())));
+        }});
+        service.sendIdempotent("order-1", MY_TEXT, Arrays.asList(CORRECT_MSISDN));
+        service.sendIdempotent("order-1", "another text", Arrays.asList(CORRECT_MSISDN));
+    }
+
+    @Test
+    public void testAccount_SinglePassParser() throws Exception {
+        final SinglePassResponseParser singlePassParser = context.mock(SinglePassResponseParser.class);
+        service.setParser(singlePassParser);
+        final String invokerResponse = "dummy response";
+        final ServiceBackendException backendExc = new ServiceBackendException(1,"2");
+        final Map<String,String> emptyMap = Collections.emptyMap();
+        context.checking(new Expectations() {{
+            one(serviceInvoker).invoke(
+                    with(equalTo(LOGIN)),
+                    with(equalTo(PASSWORD)),
+                    with(equalTo("account")),
+                    with(equalTo(emptyMap))
+            ); will(returnValue(invokerResponse));
+            one(singlePassParser).parseAccountResult(invokerResponse); will(returnValue(ParsedResponse.failure(backendExc)));
+        }});
+        try {
+            service.account();
+            fail("exception should be thrown");
+        } catch (ServiceBackendException e) {
+            assertSame(backendExc, e);
+        }
+    }
+
+
+    @Test
+    public void testReceive_StreamingInvokerAndParser() throws Exception {
+        final StreamingHttpServiceInvoker streamingInvoker = context.mock(StreamingHttpServiceInvoker.class);
+        service.setInvoker(streamingInvoker);
+        service.setParser(new TextMagicStreamingResponseParser());
+        final AtomicBoolean released = new AtomicBoolean();
+        final ResponseBody body = new ResponseBody(
+                new ByteArrayInputStream("{\"messages\":[{\"message_id\":\"5\",\"from\":\"444\",\"timestamp\":1242939052,\"text\":\"hi\"}],\"unread\":0}"
+                        .getBytes("UTF-8")), Charset.forName("UTF-8"), ResponseBody.UNLIMITED, () -> released.set(true));
+        context.checking(new Expectations() {{
+            one(streamingInvoker).invokeStreaming(
+                    with(equalTo(LOGIN)),
+                    with(equalTo(PASSWORD)),
+                    with(equalTo("receive")),
+                    with(Matchers.hasEntry("last_retrieved_id", "0"))
+            ); will(returnValue(body));
+        }});
+        List<ReceivedMessage> result = service.receive(0L);
+        assertEquals(1, result.size());
+        assertEquals(5L, result.get(0).getId().longValue());
+        assertEquals("hi", result.get(0).getText());
+        assertTrue(released.get());
+    }
+
+    @Test
+    public void testAccount_StreamingInvokerBodyTooLarge() throws Exception {
+        final StreamingHttpServiceInvoker streamingInvoker = context.mock(StreamingHttpServiceInvoker.class);
+        service.setInvoker(streamingInvoker);
+        service.setParser(new TextMagicStreamingResponseParser());
+        final ResponseBody body = new ResponseBody(new ByteArrayInputStream("{\"balance\":\"1.5\"}".getBytes("UTF-8")),
+                Charset.forName("UTF-8"), 10, null);
+        final Map<String,String> emptyMap = Collections.emptyMap();
+        context.checking(new Expectations() {{
+            one(streamingInvoker).invokeStreaming(LOGIN, PASSWORD, "account", emptyMap); will(returnValue(body));
+        }});
+        try {
+            service.account();
+            fail("exception should be thrown");
+        } catch (ServiceTechnicalException e) {
+            assertTrue(e.getMessage().contains("exceeds 10 bytes"));
+        }
+    }
 }
@@ -4,6 +4,7 @@ import org.junit.Test;
 import org.junit.Before;
 import com.textmagic.sms.core.parsing.TextMagicJSONResponseParser;
 import com.textmagic.sms.core.parsing.ResponseParsingException;
+import com.textmagic.sms.core.parsing.ParsedResponse;
 import com.textmagic.sms.exception.ServiceBackendException;
 import com.textmagic.sms.dto.SentMessage;
 import com.textmagic.sms.dto.MessageStatus;
@@ -282,5 +283,29 @@ public class TextResponseParserImplTest {
         parser.parseCheckNumberResponse(json);
     }
 
+    @Test
+    public void testParseAccountResult_Success() throws Exception {
+        ParsedResponse<BigDecimal> result = parser.parseAccountResult("{\"balance\":\"50\"}");
+        assertFalse(result.isFailure());
+        assertEquals(new BigDecimal("50"), result.getResult());
+    }
+
+    @Test
+    public void testParseMessageStatusResult_Failure() throws Exception {
+        ParsedResponse<List<MessageStatus>> result = parser.parseMessageStatusResult("{\"error_code\":8,\"error_message\":\"IP address is not allowed\"}");
+        assertTrue(result.isFailure());
+        assertEquals(8, result.getFailure().getErrorCode().intValue());
+        try {
+            result.getResult();
+            fail("exception should be thrown");
+        } catch (ServiceBackendException e) {
+            assertSame(result.getFailure(), e);
+        }
+    }
+
+    @Test(expected = ResponseParsingException.class)
+    public void testParseReceiveResult_InvalidJSON() throws Exception {
+        parser.parseReceiveResult("{incorrect json []}");
+    }
 
 }
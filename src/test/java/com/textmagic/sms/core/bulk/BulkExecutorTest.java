@@ -0,0 +1,152 @@
+package com.textmagic.sms.core.bulk;
+
+import com.textmagic.sms.exception.ServiceBackendException;
+import com.textmagic.sms.exception.ServiceTechnicalException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.*;
+
+public class BulkExecutorTest {
+
+    private static List<Integer> range(int count) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            list.add(i);
+        }
+        return list;
+    }
+
+    @Test
+    public void testSingleChunkIsExecutedInCallingThread() throws Exception {
+        final Thread caller = Thread.currentThread();
+        BulkExecutor executor = BulkExecutor.virtualThreads(4, 10);
+        List<Integer> result = executor.execute(range(10), chunk -> {
+            assertSame(caller, Thread.currentThread());
+            return chunk;
+        });
+        assertEquals(range(10), result);
+    }
+
+    @Test
+    public void testThreadPerTaskExecutorIsShared() throws Exception {
+        assertSame(BulkExecutor.threadPerTaskExecutor(), BulkExecutor.threadPerTaskExecutor());
+    }
+
+    @Test
+    public void testChunksAreJoinedInOrder() throws Exception {
+        final List<Integer> chunkSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        BulkExecutor executor = BulkExecutor.virtualThreads(3, 7);
+        List<Integer> result = executor.execute(range(100), chunk -> {
+            chunkSizes.add(chunk.size());
+            return chunk;
+        });
+        assertEquals(range(100), result);
+        assertEquals(15, chunkSizes.size());
+        assertTrue(Collections.max(chunkSizes) <= 7);
+    }
+
+    @Test
+    public void testConcurrencyIsCapped() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        BulkExecutor executor = BulkExecutor.virtualThreads(2, 1);
+        executor.execute(range(20), chunk -> {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+            return chunk;
+        });
+        assertTrue(maxInFlight.get() <= 2);
+    }
+
+    @Test
+    public void testBackendFailureIsRethrown() throws Exception {
+        final ServiceBackendException backendExc = new ServiceBackendException(1, "2");
+        BulkExecutor executor = new BulkExecutor(Runnable::run, 1, 2);
+        try {
+            executor.execute(Arrays.asList(1, 2, 3, 4, 5), chunk -> {
+                if (chunk.contains(3)) {
+                    throw backendExc;
+                }
+                return chunk;
+            });
+            fail("exception should be thrown");
+        } catch (ServiceBackendException e) {
+            assertSame(backendExc, e);
+        }
+    }
+
+    @Test(expected = ServiceTechnicalException.class)
+    public void testTechnicalFailureIsRethrown() throws Exception {
+        BulkExecutor executor = BulkExecutor.virtualThreads(4, 2);
+        executor.execute(Arrays.asList(1, 2, 3, 4, 5), chunk -> {
+            throw new ServiceTechnicalException("failed");
+        });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidChunkSize() throws Exception {
+        new BulkExecutor(Runnable::run, 1, 0);
+    }
+
+    @Test
+    public void testExecuteAll_FailedChunksAreReported() throws Exception {
+        final ServiceBackendException backendExc = new ServiceBackendException(1, "2");
+        BulkExecutor executor = BulkExecutor.virtualThreads(3, 2);
+        BulkResult<Integer, Integer> result = executor.executeAll(range(9), chunk -> {
+            if (chunk.contains(2)) {
+                throw backendExc;
+            }
+            if (chunk.contains(6)) {
+                throw new IllegalStateException("broken");
+            }
+            return chunk;
+        });
+        assertFalse(result.isComplete());
+        assertEquals(Arrays.asList(0, 1, 4, 5, 8), result.getResults());
+        assertEquals(2, result.getFailures().size());
+        ChunkFailure<Integer> first = result.getFailures().get(0);
+        assertEquals(1, first.getChunkIndex());
+        assertEquals(Arrays.asList(2, 3), first.getElements());
+        assertSame(backendExc, first.getCause());
+        ChunkFailure<Integer> second = result.getFailures().get(1);
+        assertEquals(3, second.getChunkIndex());
+        assertTrue(second.getCause() instanceof ServiceTechnicalException);
+        assertEquals(Arrays.asList(2, 3, 6, 7), result.getFailedElements());
+    }
+
+    @Test
+    public void testExecuteAll_Empty() throws Exception {
+        BulkResult<Integer, Integer> result = new BulkExecutor(Runnable::run, 1, 2).executeAll(range(0), chunk -> {
+            fail("no chunk expected");
+            return chunk;
+        });
+        assertTrue(result.isComplete());
+        assertTrue(result.getResults().isEmpty());
+    }
+
+    @Test
+    public void testExecuteAll_Interrupted() throws Exception {
+        BulkExecutor executor = new BulkExecutor(Runnable::run, 1, 1);
+        Thread.currentThread().interrupt();
+        try {
+            BulkResult<Integer, Integer> result = executor.executeAll(range(3), chunk -> chunk);
+            assertTrue(Thread.currentThread().isInterrupted());
+            assertEquals(3, result.getFailures().size());
+            assertTrue(result.getResults().isEmpty());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.textmagic.sms.core.bulk;
+
+import com.textmagic.sms.dto.SentMessage;
+import com.textmagic.sms.exception.ServiceBackendException;
+import com.textmagic.sms.exception.ServiceTechnicalException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.*;
+
+public class SendCoalescerTest {
+
+    final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+    SendCoalescer coalescer;
+
+    @After
+    public void tearDown() throws Exception {
+        if (coalescer != null) {
+            coalescer.close();
+        }
+    }
+
+    private static SentMessage message(long id, String phone) {
+        SentMessage message = new SentMessage();
+        message.setId(id);
+        message.setRecipientPhone(phone);
+        return message;
+    }
+
+    private SendCoalescer.BatchSender echoSender() {
+        return (text, maxLength, useUnicode, phones) -> {
+            batches.add(phones);
+            List<SentMessage> messages = new ArrayList<SentMessage>();
+            // gateway does not keep phones order
+            for (int i = phones.size() - 1; i >= 0; i--) {
+                messages.add(message(i, phones.get(i)));
+            }
+            return messages;
+        };
+    }
+
+    @Test
+    public void testSendsWithinWindowAreMerged() throws Exception {
+        coalescer = new SendCoalescer(echoSender(), 100, TimeUnit.MILLISECONDS, 10, Runnable::run);
+        CompletableFuture<SentMessage> first = coalescer.submit("text", 3, false, "111111111");
+        CompletableFuture<SentMessage> second = coalescer.submit("text", 3, false, "222222222");
+        CompletableFuture<SentMessage> other = coalescer.submit("other", 3, false, "333333333");
+        assertEquals(3, coalescer.getPendingCount());
+        assertEquals("111111111", first.get(5, TimeUnit.SECONDS).getRecipientPhone());
+        assertEquals(0L, first.get().getId().longValue());
+        assertEquals("222222222", second.get(5, TimeUnit.SECONDS).getRecipientPhone());
+        assertEquals(1L, second.get().getId().longValue());
+        assertEquals("333333333", other.get(5, TimeUnit.SECONDS).getRecipientPhone());
+        assertEquals(2, batches.size());
+        assertTrue(batches.contains(Arrays.asList("111111111", "222222222")));
+        assertEquals(0, coalescer.getPendingCount());
+    }
+
+    @Test
+    public void testFullBatchIsSentImmediately() throws Exception {
+        coalescer = new SendCoalescer(echoSender(), 1, TimeUnit.HOURS, 2, Runnable::run);
+        CompletableFuture<SentMessage> first = coalescer.submit("text", 3, false, "111111111");
+        assertFalse(first.isDone());
+        coalescer.submit("text", 3, false, "222222222");
+        assertTrue(first.isDone());
+        assertEquals(Arrays.asList(Arrays.asList("111111111", "222222222")), batches);
+    }
+
+    @Test
+    public void testRepeatedPhoneStartsNewBatch() throws Exception {
+        coalescer = new SendCoalescer(echoSender(), 1, TimeUnit.HOURS, 10, Runnable::run);
+        CompletableFuture<SentMessage> first = coalescer.submit("text", 3, false, "111111111");
+        CompletableFuture<SentMessage> second = coalescer.submit("text", 3, false, "111111111");
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        coalescer.close();
+        assertTrue(second.isDone());
+        assertEquals(2, batches.size());
+    }
+
+    @Test
+    public void testBatchFailureIsPropagatedToAll() throws Exception {
+        final ServiceBackendException backendExc = new ServiceBackendException(1, "2");
+        coalescer = new SendCoalescer((text, maxLength, useUnicode, phones) -> {
+            batches.add(phones);
+            throw backendExc;
+        }, 1, TimeUnit.HOURS, 2, Runnable::run);
+        CompletableFuture<SentMessage> first = coalescer.submit("text", 3, false, "111111111");
+        CompletableFuture<SentMessage> second = coalescer.submit("text", 3, false, "222222222");
+        assertSame(backendExc, causeOf(first));
+        assertSame(backendExc, causeOf(second));
+        assertEquals(3, batches.size());
+    }
+
+    @Test
+    public void testFaultyPhoneIsIsolated() throws Exception {
+        final SendCoalescer.BatchSender echo = echoSender();
+        coalescer = new SendCoalescer((text, maxLength, useUnicode, phones) -> {
+            if (phones.contains("000000000")) {
+                batches.add(phones);
+                throw new ServiceBackendException(9, "Invalid phone number format");
+            }
+            return echo.send(text, maxLength, useUnicode, phones);
+        }, 1, TimeUnit.HOURS, 3, Runnable::run);
+        CompletableFuture<SentMessage> first = coalescer.submit("text", 3, false, "111111111");
+        CompletableFuture<SentMessage> faulty = coalescer.submit("text", 3, false, "000000000");
+        CompletableFuture<SentMessage> third = coalescer.submit("text", 3, false, "333333333");
+        assertEquals("111111111", first.get().getRecipientPhone());
+        assertEquals("333333333", third.get().getRecipientPhone());
+        assertEquals(9, ((ServiceBackendException) causeOf(faulty)).getErrorCode().intValue());
+        assertEquals(Arrays.asList(Arrays.asList("111111111", "000000000", "333333333"), Arrays.asList("111111111"),
+                Arrays.asList("000000000", "333333333"), Arrays.asList("000000000"), Arrays.asList("333333333")), batches);
+    }
+
+    @Test
+    public void testMissingPhoneInResponse() throws Exception {
+        coalescer = new SendCoalescer((text, maxLength, useUnicode, phones) -> Arrays.asList(message(1, "111111111")),
+                1, TimeUnit.HOURS, 2, Runnable::run);
+        CompletableFuture<SentMessage> first = coalescer.submit("text", 3, false, "111111111");
+        CompletableFuture<SentMessage> second = coalescer.submit("text", 3, false, "222222222");
+        assertEquals(1L, first.get().getId().longValue());
+        assertTrue(causeOf(second) instanceof ServiceTechnicalException);
+    }
+
+    @Test
+    public void testClosedCoalescerRejectsSends() throws Exception {
+        coalescer = new SendCoalescer(echoSender(), 1, TimeUnit.HOURS, 2, Runnable::run);
+        coalescer.close();
+        assertTrue(causeOf(coalescer.submit("text", 3, false, "111111111")) instanceof ServiceTechnicalException);
+    }
+
+    private static Throwable causeOf(CompletableFuture<SentMessage> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("exception should be thrown");
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+}
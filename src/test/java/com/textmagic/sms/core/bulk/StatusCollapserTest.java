@@ -0,0 +1,125 @@
+package com.textmagic.sms.core.bulk;
+
+import com.textmagic.sms.dto.Message;
+import com.textmagic.sms.dto.MessageStatus;
+import com.textmagic.sms.exception.ServiceBackendException;
+import com.textmagic.sms.exception.ServiceTechnicalException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.*;
+
+public class StatusCollapserTest {
+
+    final List<List<Long>> batches = Collections.synchronizedList(new ArrayList<List<Long>>());
+    StatusCollapser collapser;
+
+    @After
+    public void tearDown() throws Exception {
+        if (collapser != null) {
+            collapser.close();
+        }
+    }
+
+    private StatusCollapser.BatchLookup echoLookup() {
+        return messageIds -> {
+            batches.add(messageIds);
+            List<MessageStatus> statuses = new ArrayList<MessageStatus>();
+            // gateway does not keep ids order, and ignores unknown ones
+            for (int i = messageIds.size() - 1; i >= 0; i--) {
+                Long messageId = messageIds.get(i);
+                if (messageId == 0) {
+                    throw new ServiceBackendException(14, "Invalid message id");
+                }
+                if (messageId > 0) {
+                    MessageStatus status = new MessageStatus();
+                    status.setMessage(new Message(messageId, "text"));
+                    status.setDeliveryState(MessageStatus.DeliveryState.Delivered);
+                    statuses.add(status);
+                }
+            }
+            return statuses;
+        };
+    }
+
+    @Test
+    public void testLookupsWithinWindowAreMerged() throws Exception {
+        collapser = new StatusCollapser(echoLookup(), 100, TimeUnit.MILLISECONDS, 10, Runnable::run);
+        CompletableFuture<MessageStatus> first = collapser.submit(1L);
+        CompletableFuture<MessageStatus> second = collapser.submit(2L);
+        CompletableFuture<MessageStatus> missing = collapser.submit(-3L);
+        assertSame(first, collapser.submit(1L));
+        assertEquals(3, collapser.getPendingCount());
+        assertEquals(Long.valueOf(1L), first.get(5, TimeUnit.SECONDS).getMessage().getId());
+        assertEquals(Long.valueOf(2L), second.get(5, TimeUnit.SECONDS).getMessage().getId());
+        assertNull(missing.get(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(Arrays.asList(1L, 2L, -3L)), batches);
+    }
+
+    @Test
+    public void testFullBatchIsLookedUpRightAway() throws Exception {
+        collapser = new StatusCollapser(echoLookup(), 1, TimeUnit.HOURS, 2, Runnable::run);
+        CompletableFuture<MessageStatus> first = collapser.submit(1L);
+        assertFalse(first.isDone());
+        collapser.submit(2L);
+        assertTrue(first.isDone());
+        assertEquals(0, collapser.getPendingCount());
+    }
+
+    @Test
+    public void testFaultyIdFailsOnlyItsLookup() throws Exception {
+        collapser = new StatusCollapser(echoLookup(), 1, TimeUnit.HOURS, 2, Runnable::run);
+        CompletableFuture<MessageStatus> valid = collapser.submit(1L);
+        CompletableFuture<MessageStatus> faulty = collapser.submit(0L);
+        assertEquals(Long.valueOf(1L), valid.get().getMessage().getId());
+        try {
+            faulty.get();
+            fail("Lookup of invalid id should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ServiceBackendException);
+        }
+        assertEquals(3, batches.size());
+    }
+
+    @Test
+    public void testFaultyIdIsIsolatedByHalving() throws Exception {
+        collapser = new StatusCollapser(echoLookup(), 1, TimeUnit.HOURS, 8, Runnable::run);
+        List<CompletableFuture<MessageStatus>> lookups = new ArrayList<CompletableFuture<MessageStatus>>();
+        for (long id = 1; id <= 8; id++) {
+            lookups.add(collapser.submit(id == 6 ? 0L : id));
+        }
+        for (int i = 0; i < 8; i++) {
+            assertEquals(i != 5, !lookups.get(i).isCompletedExceptionally());
+        }
+        // 8 ids, then 4 + 4, 2 + 2 and 1 + 1 within the faulty half
+        assertEquals(7, batches.size());
+    }
+
+    @Test
+    public void testTechnicalFailureFailsWholeBatch() throws Exception {
+        collapser = new StatusCollapser(messageIds -> {
+            throw new ServiceTechnicalException("Server responded with 503 http code");
+        }, 1, TimeUnit.HOURS, 2, Runnable::run);
+        CompletableFuture<MessageStatus> first = collapser.submit(1L);
+        CompletableFuture<MessageStatus> second = collapser.submit(2L);
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testCloseLooksUpPendingBatch() throws Exception {
+        collapser = new StatusCollapser(echoLookup(), 1, TimeUnit.HOURS, 10, Runnable::run);
+        CompletableFuture<MessageStatus> first = collapser.submit(1L);
+        collapser.close();
+        assertTrue(first.isDone());
+        assertTrue(collapser.submit(2L).isCompletedExceptionally());
+    }
+}
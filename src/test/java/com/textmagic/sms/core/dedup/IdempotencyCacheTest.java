@@ -0,0 +1,202 @@
+package com.textmagic.sms.core.dedup;
+
+import com.textmagic.sms.dto.SentMessage;
+import com.textmagic.sms.exception.ServiceBackendException;
+import com.textmagic.sms.exception.ServiceException;
+import com.textmagic.sms.exception.ServiceTechnicalException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.Assert.*;
+
+public class IdempotencyCacheTest {
+
+    final AtomicLong now = new AtomicLong();
+    final AtomicInteger calls = new AtomicInteger();
+    final List<SentMessage> messages = Arrays.asList(new SentMessage());
+
+    IdempotencyCache.Sender sender = () -> {
+        calls.incrementAndGet();
+        return messages;
+    };
+
+    @Test
+    public void testRepeatedKeyReturnsCachedResult() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(10, 1, TimeUnit.MINUTES, now::get);
+        assertSame(messages, cache.execute("key", "text", sender));
+        assertSame(messages, cache.execute("key", "text", sender));
+        assertEquals(1, calls.get());
+        cache.execute("another key", "text", sender);
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testExpiredResultIsSentAgain() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(10, 1, TimeUnit.MINUTES, now::get);
+        cache.execute("key", "text", sender);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(59));
+        cache.execute("key", "text", sender);
+        assertEquals(1, calls.get());
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        cache.execute("key", "text", sender);
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testFailureIsNotCached() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(10, 1, TimeUnit.MINUTES, now::get);
+        try {
+            cache.execute("key", "text", () -> {
+                throw new ServiceBackendException(10, "Wrong parameter value");
+            });
+            fail("exception should be thrown");
+        } catch (ServiceBackendException e) {
+            assertEquals(10, e.getErrorCode().intValue());
+        }
+        assertEquals(0, cache.size());
+        assertSame(messages, cache.execute("key", "text", sender));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeyReusedWithAnotherFingerprint() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(10, 1, TimeUnit.MINUTES, now::get);
+        cache.execute("key", "text", sender);
+        cache.execute("key", "another text", sender);
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(10, 1, TimeUnit.MINUTES, now::get);
+        cache.execute("key", "text", sender);
+        cache.invalidate("key");
+        cache.execute("key", "text", sender);
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testSizeIsBounded() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(20, 1, TimeUnit.MINUTES, now::get);
+        for (int i = 0; i < 1000; i++) {
+            cache.execute("key" + i, "text", sender);
+        }
+        assertTrue(cache.size() <= 20);
+        // the latest key is never evicted by its own insertion
+        cache.execute("key999", "text", sender);
+        assertEquals(1000, calls.get());
+    }
+
+    @Test
+    public void testSendInFlightIsNotEvicted() throws Exception {
+        final IdempotencyCache cache = new IdempotencyCache(1, 1, TimeUnit.MINUTES, now::get);
+        cache.execute("first", "text", () -> {
+            calls.incrementAndGet();
+            // fills the cache while the first send is in flight
+            cache.execute("second", "text", sender);
+            assertEquals(2, cache.size());
+            return messages;
+        });
+        assertEquals(2, calls.get());
+        cache.execute("first", "text", sender);
+        assertEquals(2, calls.get());
+        cache.execute("third", "text", sender);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testConcurrentSendsWithSameKeyWaitForFirstOne() throws Exception {
+        final IdempotencyCache cache = new IdempotencyCache(10, 1, TimeUnit.MINUTES, now::get);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread first = new Thread(() -> {
+            try {
+                cache.execute("key", "text", () -> {
+                    started.countDown();
+                    awaitUninterruptibly(release);
+                    return sender.send();
+                });
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        first.start();
+        started.await();
+        final List<List<SentMessage>> results = new ArrayList<List<SentMessage>>();
+        List<Thread> repeated = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    List<SentMessage> result = cache.execute("key", "text", sender);
+                    synchronized (results) {
+                        results.add(result);
+                    }
+                } catch (ServiceException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            thread.start();
+            repeated.add(thread);
+        }
+        release.countDown();
+        first.join(10000);
+        for (Thread thread : repeated) {
+            thread.join(10000);
+        }
+        assertEquals(1, calls.get());
+        assertEquals(4, results.size());
+        for (List<SentMessage> result : results) {
+            assertSame(messages, result);
+        }
+    }
+
+    @Test
+    public void testWaitingSendGetsFailureOfFirstOne() throws Exception {
+        final IdempotencyCache cache = new IdempotencyCache(10, 1, TimeUnit.MINUTES, now::get);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread first = new Thread(() -> {
+            try {
+                cache.execute("key", "text", () -> {
+                    started.countDown();
+                    awaitUninterruptibly(release);
+                    throw new ServiceTechnicalException("Connection refused");
+                });
+            } catch (ServiceException e) {
+                // expected
+            }
+        });
+        first.start();
+        started.await();
+        final AtomicInteger failures = new AtomicInteger();
+        Thread repeated = new Thread(() -> {
+            try {
+                cache.execute("key", "text", sender);
+            } catch (ServiceTechnicalException e) {
+                failures.incrementAndGet();
+            } catch (ServiceBackendException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        repeated.start();
+        // let repeated send find in flight entry before the first one fails
+        Thread.sleep(100);
+        release.countDown();
+        first.join(10000);
+        repeated.join(10000);
+        assertEquals(1, failures.get() + calls.get());
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.textmagic.sms.core.dispatch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.Assert.*;
+
+public class MpmcRingBufferTest {
+
+    @Test
+    public void testOfferPoll() throws Exception {
+        MpmcRingBuffer<Integer> buffer = new MpmcRingBuffer<Integer>(3);
+        assertEquals(4, buffer.capacity());
+        assertNull(buffer.poll());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+        assertEquals(0, buffer.poll().intValue());
+        assertTrue(buffer.offer(4));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, buffer.poll().intValue());
+        }
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testSingleSlotCapacityIsRoundedUp() throws Exception {
+        MpmcRingBuffer<Integer> buffer = new MpmcRingBuffer<Integer>(1);
+        assertEquals(2, buffer.capacity());
+        assertTrue(buffer.offer(1));
+        assertTrue(buffer.offer(2));
+        assertFalse(buffer.offer(3));
+        assertEquals(1, buffer.poll().intValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() throws Exception {
+        new MpmcRingBuffer<Integer>(0);
+    }
+
+    @Test
+    public void testConcurrentProducersAndConsumers() throws Exception {
+        final MpmcRingBuffer<Integer> buffer = new MpmcRingBuffer<Integer>(64);
+        final int producers = 4;
+        final int perProducer = 50000;
+        final AtomicLong sum = new AtomicLong();
+        final AtomicInteger consumed = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            threads.add(new Thread(() -> {
+                for (int i = 1; i <= perProducer; i++) {
+                    while (!buffer.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+            }));
+            threads.add(new Thread(() -> {
+                while (consumed.get() < producers * perProducer) {
+                    Integer value = buffer.poll();
+                    if (value == null) {
+                        Thread.yield();
+                    } else {
+                        sum.addAndGet(value);
+                        consumed.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(30000);
+        }
+        assertEquals(producers * perProducer, consumed.get());
+        assertEquals((long) producers * perProducer * (perProducer + 1) / 2, sum.get());
+        assertTrue(buffer.isEmpty());
+    }
+}
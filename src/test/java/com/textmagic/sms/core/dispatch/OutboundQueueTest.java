@@ -0,0 +1,144 @@
+package com.textmagic.sms.core.dispatch;
+
+import com.textmagic.sms.TextMagicMessageService;
+import com.textmagic.sms.dto.SentMessage;
+import com.textmagic.sms.exception.ServiceTechnicalException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.*;
+
+public class OutboundQueueTest {
+
+    TextMagicMessageService service;
+    final CountDownLatch gatewayOpen = new CountDownLatch(1);
+    final CountDownLatch gatewayEntered = new CountDownLatch(1);
+    final AtomicInteger calls = new AtomicInteger();
+    OutboundQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        service = new TextMagicMessageService("login", "password");
+        service.setInvoker((login, password, command, parameters) -> {
+            gatewayEntered.countDown();
+            try {
+                gatewayOpen.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            int id = calls.incrementAndGet();
+            return "{\"message_id\":{\"" + id + "\":\"" + parameters.get("phone") + "\"},\"sent_text\":\"text\",\"parts_count\":1}";
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        gatewayOpen.countDown();
+        if (queue != null) {
+            queue.shutdown();
+            queue.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testSubmit() throws Exception {
+        gatewayOpen.countDown();
+        queue = new OutboundQueue(service, 16, 2, OverflowPolicy.BLOCK);
+        List<SentMessage> result = queue.submit("text", "79261234567").get(5, TimeUnit.SECONDS);
+        assertEquals(1, result.size());
+        assertEquals("79261234567", result.get(0).getRecipientPhone());
+        assertEquals(1, queue.getSubmittedCount());
+        assertEquals(1, queue.getDispatchedCount());
+        assertTrue(queue.getMaxWaitNanos() >= queue.getAverageWaitNanos());
+    }
+
+    @Test
+    public void testInvalidMessageFailsFuture() throws Exception {
+        gatewayOpen.countDown();
+        queue = new OutboundQueue(service, 16, 1, OverflowPolicy.BLOCK);
+        try {
+            queue.submit("text", "invalid phone").get(5, TimeUnit.SECONDS);
+            fail("exception should be thrown");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void testFailFast() throws Exception {
+        queue = new OutboundQueue(service, 2, 1, OverflowPolicy.FAIL_FAST);
+        CompletableFuture<List<SentMessage>> inFlight = queue.submit("text", "79261234567");
+        assertTrue(gatewayEntered.await(5, TimeUnit.SECONDS));
+        CompletableFuture<List<SentMessage>> queued = queue.submit("text", "79261234568");
+        queue.submit("text", "79261234560");
+        assertEquals(2, queue.getDepth());
+        CompletableFuture<List<SentMessage>> rejected = queue.submit("text", "79261234569");
+        assertTrue(causeOf(rejected) instanceof ServiceTechnicalException);
+        assertEquals(1, queue.getRejectedCount());
+        gatewayOpen.countDown();
+        assertEquals("79261234567", inFlight.get(5, TimeUnit.SECONDS).get(0).getRecipientPhone());
+        assertEquals("79261234568", queued.get(5, TimeUnit.SECONDS).get(0).getRecipientPhone());
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        queue = new OutboundQueue(service, 2, 1, OverflowPolicy.DROP_OLDEST);
+        CompletableFuture<List<SentMessage>> inFlight = queue.submit("text", "79261234567");
+        assertTrue(gatewayEntered.await(5, TimeUnit.SECONDS));
+        CompletableFuture<List<SentMessage>> dropped = queue.submit("text", "79261234568");
+        queue.submit("text", "79261234560");
+        CompletableFuture<List<SentMessage>> newest = queue.submit("text", "79261234569");
+        assertTrue(causeOf(dropped) instanceof ServiceTechnicalException);
+        assertEquals(1, queue.getDroppedCount());
+        gatewayOpen.countDown();
+        inFlight.get(5, TimeUnit.SECONDS);
+        assertEquals("79261234569", newest.get(5, TimeUnit.SECONDS).get(0).getRecipientPhone());
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        queue = new OutboundQueue(service, 2, 1, OverflowPolicy.BLOCK);
+        queue.submit("text", "79261234567");
+        assertTrue(gatewayEntered.await(5, TimeUnit.SECONDS));
+        queue.submit("text", "79261234568");
+        queue.submit("text", "79261234560");
+        final CompletableFuture<CompletableFuture<List<SentMessage>>> blocked = new CompletableFuture<CompletableFuture<List<SentMessage>>>();
+        Thread producer = new Thread(() -> blocked.complete(queue.submit("text", "79261234569")));
+        producer.start();
+        Thread.sleep(50);
+        assertFalse(blocked.isDone());
+        gatewayOpen.countDown();
+        assertEquals("79261234569", blocked.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS).get(0).getRecipientPhone());
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        queue = new OutboundQueue(service, 16, 1, OverflowPolicy.BLOCK);
+        queue.submit("text", "79261234567");
+        CompletableFuture<List<SentMessage>> queued = queue.submit("text", "79261234568");
+        queue.shutdown();
+        assertTrue(causeOf(queue.submit("text", "79261234569")) instanceof ServiceTechnicalException);
+        gatewayOpen.countDown();
+        assertTrue(queue.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals("79261234568", queued.get().get(0).getRecipientPhone());
+    }
+
+    private static Throwable causeOf(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("exception should be thrown");
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.textmagic.sms.core.invoker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.Assert.*;
+
+public class AdaptiveConcurrencyInvokerTest {
+
+    final Map<String, String> parameters = Collections.emptyMap();
+    final AtomicLong now = new AtomicLong();
+    volatile long callDurationNanos = TimeUnit.MILLISECONDS.toNanos(10);
+    volatile boolean failing;
+    volatile ServiceInvokerException failure = new ServiceInvokerException("Server responded with 503 http code", 503);
+    AdaptiveConcurrencyInvoker limiter;
+
+    @Before
+    public void setUp() throws Exception {
+        limiter = new AdaptiveConcurrencyInvoker((login, password, command, parameters) -> {
+            now.addAndGet(callDurationNanos);
+            if (failing) {
+                throw failure;
+            }
+            return "{}";
+        }, now::get);
+        limiter.setLimits(2, 1, 10);
+        limiter.setWindowSize(5);
+    }
+
+    private void call(int times) {
+        for (int i = 0; i < times; i++) {
+            try {
+                limiter.invoke("login", "password", "account", parameters);
+            } catch (ServiceInvokerException e) {
+                // counted by limiter
+            }
+        }
+    }
+
+    @Test
+    public void testLimitGrowsWhenReachedAndLatencyIsFlat() throws Exception {
+        ResponseBody first = limiter.invokeStreaming("login", "password", "account", parameters);
+        ResponseBody second = limiter.invokeStreaming("login", "password", "account", parameters);
+        assertEquals(2, limiter.getInFlight());
+        first.close();
+        second.close();
+        second.close();
+        assertEquals(0, limiter.getInFlight());
+        call(3);
+        assertEquals(3, limiter.getLimit());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(10), limiter.getBaselineLatencyNanos());
+    }
+
+    @Test
+    public void testLimitDoesNotGrowWithoutDemand() throws Exception {
+        call(20);
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testLimitShrinksOnLatencyGrowth() throws Exception {
+        limiter.setLimits(8, 1, 10);
+        call(5);
+        callDurationNanos = TimeUnit.MILLISECONDS.toNanos(50);
+        call(5);
+        assertEquals(6, limiter.getLimit());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(50), limiter.getLatencyP99Nanos());
+        call(5);
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testLimitRecoversAfterSustainedLatencyGrowth() throws Exception {
+        limiter.setLimits(8, 1, 10);
+        call(5);
+        callDurationNanos = TimeUnit.MILLISECONDS.toNanos(50);
+        call(5);
+        assertEquals(6, limiter.getLimit());
+        call(5 * 30);
+        assertTrue(limiter.getBaselineLatencyNanos() > TimeUnit.MILLISECONDS.toNanos(25));
+        assertTrue(limiter.getLimit() > 1);
+    }
+
+    @Test
+    public void testLimitShrinksOnErrors() throws Exception {
+        limiter.setLimits(8, 5, 10);
+        failing = true;
+        call(5);
+        assertEquals(6, limiter.getLimit());
+        call(5);
+        assertEquals(5, limiter.getLimit());
+    }
+
+    @Test
+    public void testClientErrorsAndCancelledCallsAreNotSampled() throws Exception {
+        limiter.setLimits(8, 5, 10);
+        failing = true;
+        failure = new ServiceInvokerException("Server responded with 400 http code", 400);
+        call(5);
+        failure = new CallNotPermittedException("Circuit breaker is OPEN, call of 'account' command was not sent");
+        call(5);
+        failure = new ServiceInvokerException("Server responded with 503 http code", 503);
+        Deadline deadline = Deadline.after(1, TimeUnit.MINUTES);
+        Deadline previous = Deadline.bind(deadline);
+        try {
+            deadline.cancel();
+            call(5);
+        } finally {
+            Deadline.bind(previous);
+        }
+        assertEquals(8, limiter.getLimit());
+        assertEquals(-1, limiter.getLatencyP99Nanos());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testCallIsRejectedAfterQueueWait() throws Exception {
+        limiter.setMaxQueueWait(0, TimeUnit.SECONDS);
+        ResponseBody first = limiter.invokeStreaming("login", "password", "account", parameters);
+        ResponseBody second = limiter.invokeStreaming("login", "password", "account", parameters);
+        try {
+            limiter.invoke("login", "password", "account", parameters);
+            fail("exception should be thrown");
+        } catch (CallNotPermittedException e) {
+            assertEquals(1, limiter.getRejectedCount());
+        } finally {
+            first.close();
+            second.close();
+        }
+        call(1);
+    }
+
+    @Test
+    public void testQueuedCallProceedsWhenSlotIsReleased() throws Exception {
+        limiter.setLimits(1, 1, 1);
+        ResponseBody body = limiter.invokeStreaming("login", "password", "account", parameters);
+        Thread queued = new Thread(() -> call(1));
+        queued.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (limiter.getQueueLength() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, limiter.getQueueLength());
+        body.close();
+        queued.join(10000);
+        assertEquals(0, limiter.getQueueLength());
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(1, limiter.getQueuedCount());
+    }
+}
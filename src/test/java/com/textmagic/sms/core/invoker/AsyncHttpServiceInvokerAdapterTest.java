@@ -0,0 +1,75 @@
+package com.textmagic.sms.core.invoker;
+
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.Mockery;
+import org.jmock.Expectations;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static junit.framework.Assert.*;
+
+@RunWith(JMock.class)
+public class AsyncHttpServiceInvokerAdapterTest {
+    Mockery context = new JUnit4Mockery();
+
+    HttpServiceInvoker invoker;
+    Map<String, String> params = Collections.emptyMap();
+
+    private static final Executor directExecutor = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        invoker = context.mock(HttpServiceInvoker.class);
+    }
+
+    @Test
+    public void testInvokeAsync() throws Exception {
+        context.checking(new Expectations(){{
+            one(invoker).invoke("login", "pass", "cmd", params); will(returnValue("response"));
+        }});
+        AsyncHttpServiceInvokerAdapter adapter = new AsyncHttpServiceInvokerAdapter(invoker, directExecutor);
+        assertEquals("response", adapter.invokeAsync("login", "pass", "cmd", params).get());
+    }
+
+    @Test
+    public void testInvokeAsync_ServiceInvokerException() throws Exception {
+        final ServiceInvokerException exception = new ServiceInvokerException("failed");
+        context.checking(new Expectations(){{
+            one(invoker).invoke("login", "pass", "cmd", params); will(throwException(exception));
+        }});
+        AsyncHttpServiceInvokerAdapter adapter = new AsyncHttpServiceInvokerAdapter(invoker, directExecutor);
+        try {
+            adapter.invokeAsync("login", "pass", "cmd", params).get();
+            fail("exception should be thrown");
+        } catch (ExecutionException e) {
+            assertSame(exception, e.getCause());
+        }
+    }
+
+    @Test
+    public void testInvokeAsync_Rejected() throws Exception {
+        AsyncHttpServiceInvokerAdapter adapter = new AsyncHttpServiceInvokerAdapter(invoker, new Executor() {
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        try {
+            adapter.invokeAsync("login", "pass", "cmd", params).get();
+            fail("exception should be thrown");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ServiceInvokerException);
+        }
+    }
+}
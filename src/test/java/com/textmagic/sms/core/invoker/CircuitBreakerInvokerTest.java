@@ -0,0 +1,205 @@
+package com.textmagic.sms.core.invoker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.Assert.*;
+
+public class CircuitBreakerInvokerTest {
+
+    final Map<String, String> parameters = Collections.emptyMap();
+    final AtomicLong now = new AtomicLong();
+    final AtomicInteger calls = new AtomicInteger();
+    volatile boolean failing;
+    volatile ServiceInvokerException failure = new ServiceInvokerException("Server responded with 503 http code", 503);
+    volatile long callDurationNanos;
+    final List<String> transitions = new ArrayList<String>();
+    CircuitBreakerInvoker breaker;
+
+    @Before
+    public void setUp() throws Exception {
+        breaker = new CircuitBreakerInvoker((login, password, command, parameters) -> {
+            calls.incrementAndGet();
+            now.addAndGet(callDurationNanos);
+            if (failing) {
+                throw failure;
+            }
+            return "{}";
+        }, now::get);
+        breaker.setWindow(10, 4);
+        breaker.setHalfOpenCalls(2);
+        breaker.setOpenDuration(30, TimeUnit.SECONDS);
+        breaker.setSlowCallDuration(1, TimeUnit.SECONDS);
+        breaker.setSlowCallRateThreshold(50);
+        breaker.addListener((breaker, from, to) -> transitions.add(from + "->" + to));
+    }
+
+    private void call(int times) {
+        for (int i = 0; i < times; i++) {
+            try {
+                breaker.invoke("login", "password", "account", parameters);
+            } catch (ServiceInvokerException e) {
+                // counted by breaker
+            }
+        }
+    }
+
+    @Test
+    public void testOpensOnFailureRate() throws Exception {
+        call(3);
+        failing = true;
+        call(2);
+        assertEquals(CircuitBreakerInvoker.State.CLOSED, breaker.getState());
+        assertEquals(40f, breaker.getFailureRate(), 0.01);
+        call(1);
+        assertEquals(CircuitBreakerInvoker.State.OPEN, breaker.getState());
+        assertEquals(Collections.singletonList("CLOSED->OPEN"), transitions);
+        try {
+            breaker.invoke("login", "password", "account", parameters);
+            fail("exception should be thrown");
+        } catch (CallNotPermittedException e) {
+            assertEquals(6, calls.get());
+        }
+    }
+
+    @Test
+    public void testOpensOnConnectFailures() throws Exception {
+        failing = true;
+        failure = new ServiceInvokerException("Connection refused", new ConnectException("Connection refused"));
+        call(4);
+        assertEquals(CircuitBreakerInvoker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testClientErrorsAreNotRecorded() throws Exception {
+        failing = true;
+        failure = new ServiceInvokerException("Server responded with 400 http code", 400);
+        call(6);
+        assertEquals(CircuitBreakerInvoker.State.CLOSED, breaker.getState());
+        assertEquals(-1f, breaker.getFailureRate(), 0.01);
+        assertEquals(6, calls.get());
+    }
+
+    @Test
+    public void testCancelledCallsAreNotRecorded() throws Exception {
+        failing = true;
+        Deadline deadline = Deadline.after(1, TimeUnit.MINUTES);
+        Deadline previous = Deadline.bind(deadline);
+        try {
+            deadline.cancel();
+            call(6);
+        } finally {
+            Deadline.bind(previous);
+        }
+        assertEquals(CircuitBreakerInvoker.State.CLOSED, breaker.getState());
+        assertEquals(-1f, breaker.getFailureRate(), 0.01);
+    }
+
+    @Test
+    public void testIgnoredTrialCallReturnsPermit() throws Exception {
+        failing = true;
+        call(4);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        failure = new ServiceInvokerException("Server responded with 400 http code", 400);
+        call(2);
+        failing = false;
+        call(2);
+        assertEquals(CircuitBreakerInvoker.State.CLOSED, breaker.getState());
+        assertEquals(8, calls.get());
+    }
+
+    @Test
+    public void testNotEnoughCallsToOpen() throws Exception {
+        failing = true;
+        call(3);
+        assertEquals(CircuitBreakerInvoker.State.CLOSED, breaker.getState());
+        assertEquals(-1f, breaker.getFailureRate(), 0.01);
+    }
+
+    @Test
+    public void testOpensOnSlowCallRate() throws Exception {
+        callDurationNanos = TimeUnit.SECONDS.toNanos(2);
+        call(4);
+        assertEquals(CircuitBreakerInvoker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenClosesAfterSuccessfulTrialCalls() throws Exception {
+        failing = true;
+        call(4);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        failing = false;
+        call(2);
+        assertEquals(CircuitBreakerInvoker.State.CLOSED, breaker.getState());
+        assertEquals(6, calls.get());
+        assertEquals("[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->CLOSED]", transitions.toString());
+    }
+
+    @Test
+    public void testHalfOpenReopensAfterFailedTrialCalls() throws Exception {
+        failing = true;
+        call(4);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        call(2);
+        assertEquals(CircuitBreakerInvoker.State.OPEN, breaker.getState());
+        call(5);
+        assertEquals(6, calls.get());
+        assertEquals("[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->OPEN]", transitions.toString());
+    }
+
+    @Test
+    public void testHalfOpenLimitsTrialCalls() throws Exception {
+        final CircuitBreakerInvoker[] holder = new CircuitBreakerInvoker[1];
+        final AtomicInteger rejected = new AtomicInteger();
+        // trial call which starts other calls while being in flight
+        CircuitBreakerInvoker breaker = new CircuitBreakerInvoker((login, password, command, parameters) -> {
+            if (failing) {
+                throw new ServiceInvokerException("Connection refused", new ConnectException("Connection refused"));
+            }
+            if ("outer".equals(command)) {
+                for (int i = 0; i < 3; i++) {
+                    try {
+                        holder[0].invoke(login, password, "inner", parameters);
+                    } catch (CallNotPermittedException e) {
+                        rejected.incrementAndGet();
+                    }
+                }
+            }
+            return "{}";
+        }, now::get);
+        holder[0] = breaker;
+        breaker.setWindow(4, 4);
+        breaker.setHalfOpenCalls(2);
+        failing = true;
+        for (int i = 0; i < 4; i++) {
+            try {
+                breaker.invoke("login", "password", "account", parameters);
+            } catch (ServiceInvokerException e) {
+                // counted by breaker
+            }
+        }
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        failing = false;
+        breaker.invoke("login", "password", "outer", parameters);
+        assertEquals(2, rejected.get());
+    }
+
+    @Test
+    public void testStreamingOverPlainInvoker() throws Exception {
+        ResponseBody body = breaker.invokeStreaming("login", "password", "account", parameters);
+        try {
+            assertEquals("{}", body.asString());
+        } finally {
+            body.close();
+        }
+    }
+}
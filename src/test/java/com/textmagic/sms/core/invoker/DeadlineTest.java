@@ -0,0 +1,82 @@
+package com.textmagic.sms.core.invoker;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.*;
+
+public class DeadlineTest {
+
+    @Test
+    public void testWithTimeoutTakesEarlierDeadline() throws Exception {
+        Deadline deadline = Deadline.after(1, TimeUnit.HOURS);
+        Deadline shorter = deadline.withTimeout(1, TimeUnit.MINUTES);
+        assertTrue(shorter.remaining(TimeUnit.MINUTES) <= 1);
+        assertSame(deadline, deadline.withTimeout(2, TimeUnit.HOURS));
+        deadline.cancel();
+        assertTrue(shorter.isCancelled());
+        assertTrue(shorter.isExpired());
+    }
+
+    @Test
+    public void testForkIsCancelledSeparately() throws Exception {
+        Deadline deadline = Deadline.after(1, TimeUnit.HOURS);
+        Deadline first = deadline.fork();
+        Deadline second = deadline.fork();
+        assertEquals(deadline.remaining(TimeUnit.MINUTES), first.remaining(TimeUnit.MINUTES));
+        first.cancel();
+        assertTrue(first.isCancelled());
+        assertFalse(deadline.isCancelled());
+        assertFalse(second.isCancelled());
+        deadline.cancel();
+        assertTrue(second.isCancelled());
+        assertTrue(deadline.fork().isCancelled());
+    }
+
+    @Test
+    public void testBind() throws Exception {
+        assertNull(Deadline.current());
+        Deadline deadline = Deadline.after(1, TimeUnit.HOURS);
+        assertNull(Deadline.bind(deadline));
+        assertSame(deadline, Deadline.current());
+        assertSame(deadline, Deadline.bind(null));
+        assertNull(Deadline.current());
+    }
+
+    @Test
+    public void testAbortOnCancel() throws Exception {
+        Deadline deadline = Deadline.after(1, TimeUnit.HOURS);
+        AtomicInteger aborts = new AtomicInteger();
+        deadline.abortOnExpiry(aborts::incrementAndGet);
+        Runnable unregistered = deadline.abortOnExpiry(aborts::incrementAndGet);
+        unregistered.run();
+        deadline.cancel();
+        deadline.cancel();
+        assertEquals(1, aborts.get());
+        deadline.abortOnExpiry(aborts::incrementAndGet);
+        assertEquals(2, aborts.get());
+    }
+
+    @Test
+    public void testAbortOnExpiry() throws Exception {
+        Deadline deadline = Deadline.after(50, TimeUnit.MILLISECONDS);
+        final CountDownLatch aborted = new CountDownLatch(1);
+        deadline.abortOnExpiry(aborted::countDown);
+        assertTrue(aborted.await(5, TimeUnit.SECONDS));
+        assertTrue(deadline.isExpired());
+        assertFalse(deadline.isCancelled());
+        assertEquals("Deadline of 'send' command is exceeded", deadline.expiryMessage("send"));
+    }
+
+    @Test
+    public void testUnregisteredAbortIsNotRun() throws Exception {
+        Deadline deadline = Deadline.after(50, TimeUnit.MILLISECONDS);
+        AtomicInteger aborts = new AtomicInteger();
+        deadline.abortOnExpiry(aborts::incrementAndGet).run();
+        Thread.sleep(150);
+        assertEquals(0, aborts.get());
+    }
+}
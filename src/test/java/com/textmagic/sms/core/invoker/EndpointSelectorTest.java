@@ -0,0 +1,91 @@
+package com.textmagic.sms.core.invoker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.Assert.*;
+
+public class EndpointSelectorTest {
+
+    final AtomicLong now = new AtomicLong();
+    EndpointSelector selector;
+    EndpointSelector.Endpoint primary;
+    EndpointSelector.Endpoint backup;
+
+    @Before
+    public void setUp() throws Exception {
+        selector = new EndpointSelector(Arrays.asList("http://primary/api", "http://backup/api"), now::get);
+        selector.setEjection(2, 30, TimeUnit.SECONDS);
+        selector.setDecayTime(10, TimeUnit.SECONDS);
+        primary = selector.getEndpoints().get(0);
+        backup = selector.getEndpoints().get(1);
+    }
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    public void testPrimaryIsPreferredWhileLatencyIsUnknownOrComparable() throws Exception {
+        assertSame(primary, selector.select());
+        selector.onSuccess(primary, millis(100));
+        assertEquals(millis(100), primary.getLatencyNanos());
+        assertEquals(-1, backup.getLatencyNanos());
+        assertSame(primary, selector.select());
+        selector.onSuccess(backup, millis(80));
+        assertSame(primary, selector.select());
+    }
+
+    @Test
+    public void testFasterEndpointIsChosenAndSlowOneIsRetriedLater() throws Exception {
+        selector.onSuccess(primary, millis(1000));
+        selector.onSuccess(backup, millis(100));
+        assertSame(backup, selector.select());
+        // latency of unused primary decays
+        now.addAndGet(TimeUnit.SECONDS.toNanos(25));
+        selector.onSuccess(backup, millis(100));
+        assertSame(primary, selector.select());
+    }
+
+    @Test
+    public void testFailingEndpointIsEjectedForAWhile() throws Exception {
+        selector.onFailure(primary);
+        assertTrue(primary.isHealthy());
+        assertSame(primary, selector.select());
+        selector.onFailure(primary);
+        assertFalse(primary.isHealthy());
+        assertSame(backup, selector.select());
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        assertSame(primary, selector.select());
+        // the first failure after ejection ejects it once more
+        selector.onFailure(primary);
+        assertSame(backup, selector.select());
+        now.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        selector.onSuccess(primary, millis(10));
+        assertEquals(0, primary.getConsecutiveFailures());
+        selector.onFailure(primary);
+        assertSame(primary, selector.select());
+    }
+
+    @Test
+    public void testEndpointToBeBackSoonestIsChosenIfAllAreEjected() throws Exception {
+        selector.onFailure(primary);
+        selector.onFailure(primary);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        selector.onFailure(backup);
+        selector.onFailure(backup);
+        assertSame(primary, selector.select());
+        assertSame(backup, selector.select(Collections.singleton(primary)));
+        assertNull(selector.select(Arrays.asList(primary, backup)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEndpointsAreRequired() throws Exception {
+        new EndpointSelector(Collections.<String>emptyList());
+    }
+}
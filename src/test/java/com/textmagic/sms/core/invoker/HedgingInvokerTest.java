@@ -0,0 +1,168 @@
+package com.textmagic.sms.core.invoker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.*;
+
+public class HedgingInvokerTest {
+
+    final Map<String, String> parameters = Collections.emptyMap();
+    final AtomicInteger calls = new AtomicInteger();
+    final AtomicInteger aborted = new AtomicInteger();
+    // number of the call which hangs until it is aborted, zero - no such call
+    volatile int hangingCall;
+    // number of the call which fails after a while, zero - no such call
+    volatile int failingCall;
+    // number of the call which responds after a while, zero - no such call
+    volatile int sleepingCall;
+    HedgingInvoker hedging;
+
+    @Before
+    public void setUp() throws Exception {
+        hedging = new HedgingInvoker((login, password, command, parameters) -> {
+            int call = calls.incrementAndGet();
+            if (call == failingCall || call == sleepingCall) {
+                try {
+                    Thread.sleep(call == failingCall ? 50 : 100);
+                } catch (InterruptedException e) {
+                    throw new ServiceInvokerException("interrupted", e);
+                }
+            }
+            if (call == failingCall) {
+                throw new ServiceInvokerException("Server responded with 503 http code", 503);
+            }
+            if (call == hangingCall) {
+                Deadline deadline = Deadline.current();
+                final CountDownLatch abort = new CountDownLatch(1);
+                deadline.abortOnExpiry(abort::countDown);
+                try {
+                    abort.await();
+                } catch (InterruptedException e) {
+                    throw new ServiceInvokerException("interrupted", e);
+                }
+                aborted.incrementAndGet();
+                throw new ServiceInvokerException(deadline.expiryMessage(command));
+            }
+            return "{\"call\":" + call + "}";
+        });
+        hedging.setSamples(2, 10);
+        hedging.setPercentile(50);
+        hedging.setMinDelay(20, TimeUnit.MILLISECONDS);
+        hedging.setMaxExtraLoad(1);
+    }
+
+    private void warmUp() throws Exception {
+        hedging.invoke("login", "password", "account", parameters);
+        hedging.invoke("login", "password", "account", parameters);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(20), hedging.getHedgeDelayNanos());
+    }
+
+    @Test
+    public void testCallsAreNotHedgedUntilLatenciesAreObserved() throws Exception {
+        assertEquals(-1, hedging.getHedgeDelayNanos());
+        assertEquals("{\"call\":1}", hedging.invoke("login", "password", "message_status", parameters));
+        assertEquals(-1, hedging.getHedgeDelayNanos());
+        hedging.invoke("login", "password", "send", parameters);
+        assertEquals(-1, hedging.getHedgeDelayNanos());
+        assertEquals(1, hedging.getCallCount());
+    }
+
+    @Test
+    public void testSlowCallIsHedgedAndAborted() throws Exception {
+        warmUp();
+        hangingCall = 3;
+        assertEquals("{\"call\":4}", hedging.invoke("login", "password", "message_status", parameters));
+        assertEquals(1, hedging.getHedgeCount());
+        // the winner is counted right after response is handed over
+        for (int i = 0; i < 100 && (aborted.get() == 0 || hedging.getHedgeWinCount() == 0); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, hedging.getHedgeWinCount());
+        assertEquals(1, aborted.get());
+    }
+
+    @Test
+    public void testAbortedCallKeepsDelayUp() throws Exception {
+        warmUp();
+        hedging.setMinDelay(0, TimeUnit.MILLISECONDS);
+        hedging.setPercentile(99);
+        hangingCall = 3;
+        assertEquals("{\"call\":4}", hedging.invoke("login", "password", "message_status", parameters));
+        for (int i = 0; i < 100 && hedging.getHedgeWinCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+        // the first call took at least the hedge delay, fast response of the hedge is not a sample
+        assertTrue(hedging.getHedgeDelayNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void testFastCallIsNotHedged() throws Exception {
+        warmUp();
+        assertEquals("{\"call\":3}", hedging.invoke("login", "password", "check_number", parameters));
+        assertEquals(0, hedging.getHedgeCount());
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void testHedgesAreCappedByExtraLoad() throws Exception {
+        hedging.setMaxExtraLoad(0.4);
+        warmUp();
+        hangingCall = 3;
+        // three calls earn one hedge and a fifth, the fourth call does not earn another one
+        assertEquals("{\"call\":4}", hedging.invoke("login", "password", "receive", parameters));
+        hangingCall = 5;
+        Deadline deadline = Deadline.after(200, TimeUnit.MILLISECONDS);
+        Deadline.bind(deadline);
+        try {
+            hedging.invoke("login", "password", "receive", parameters);
+            fail("Call without hedge should hang until deadline");
+        } catch (ServiceInvokerException e) {
+            assertEquals("Deadline of 'receive' command is exceeded", e.getMessage());
+        } finally {
+            Deadline.bind(null);
+        }
+        assertEquals(1, hedging.getHedgeCount());
+        assertEquals(5, calls.get());
+    }
+
+    @Test
+    public void testHedgeResponseIsAwaitedIfFirstCallFails() throws Exception {
+        warmUp();
+        failingCall = 3;
+        sleepingCall = 4;
+        assertEquals("{\"call\":4}", hedging.invoke("login", "password", "account", parameters));
+        assertEquals(1, hedging.getHedgeCount());
+    }
+
+    @Test
+    public void testFailureIsThrownIfBothCallsFail() throws Exception {
+        warmUp();
+        failingCall = 3;
+        hangingCall = 4;
+        Deadline deadline = Deadline.after(1, TimeUnit.SECONDS);
+        Deadline.bind(deadline);
+        new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignore) {
+            }
+            deadline.cancel();
+        }).start();
+        try {
+            hedging.invoke("login", "password", "account", parameters);
+            fail("Both calls should fail");
+        } catch (ServiceInvokerException e) {
+            assertEquals("Call of 'account' command was cancelled", e.getMessage());
+        } finally {
+            Deadline.bind(null);
+        }
+        assertEquals(1, aborted.get());
+    }
+}
@@ -10,20 +10,33 @@ import org.jmock.Expectations;
 import org.jmock.lib.legacy.ClassImposteriser;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.hamcrest.Matcher;
 import org.hamcrest.BaseMatcher;
 import org.hamcrest.Description;
 import org.hamcrest.TypeSafeMatcher;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.io.UnsupportedEncodingException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpServer;
 
 import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.fail;
 
 /**
  * Date: 24.05.2009
@@ -89,7 +102,7 @@ public class HttpServiceInvokerImplTest {
         Map<String, String> params = Collections.emptyMap();
         context.checking(new Expectations(){{
             one(serviceInvoker.httpclient).executeMethod(
-                    (HttpMethod) with(anything())
+                    with(any(HttpMethod.class))
             ); will(returnValue(404));
         }});
         String result = serviceInvoker.invoke("login", "pass", "cmd", params);
@@ -100,10 +113,184 @@ public class HttpServiceInvokerImplTest {
         Map<String, String> params = Collections.emptyMap();
         context.checking(new Expectations(){{
             one(serviceInvoker.httpclient).executeMethod(
-                    (HttpMethod) with(anything())
+                    with(any(HttpMethod.class))
             ); will(throwException(new IOException()));
         }});
         String result = serviceInvoker.invoke("login", "pass", "cmd", params);
     }
 
+    @Test
+    public void testPooledMode() throws Exception{
+        HttpServiceInvokerImpl pooledInvoker = new HttpServiceInvokerImpl(64, 16, 30000L);
+        try {
+            assertTrue(pooledInvoker.httpclient.getHttpConnectionManager() instanceof MultiThreadedHttpConnectionManager);
+            HttpConnectionManagerParams params = pooledInvoker.httpclient.getHttpConnectionManager().getParams();
+            assertEquals(64, params.getMaxTotalConnections());
+            assertEquals(16, params.getDefaultMaxConnectionsPerHost());
+            assertTrue(params.isStaleCheckingEnabled());
+            assertTrue(pooledInvoker.idleConnectionEvictor.isAlive());
+        } finally {
+            pooledInvoker.shutdown();
+        }
+        assertNull(pooledInvoker.idleConnectionEvictor);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPooledMode_InvalidLimits() throws Exception{
+        new HttpServiceInvokerImpl(4, 8, 0L);
+    }
+
+
+    @Test
+    public void testInvoke_ExpiredDeadline() throws Exception {
+        Deadline deadline = Deadline.after(1, TimeUnit.HOURS);
+        deadline.cancel();
+        Deadline previous = Deadline.bind(deadline);
+        try {
+            serviceInvoker.invoke("login", "pas", "account", Collections.<String, String>emptyMap());
+            fail("exception should be thrown");
+        } catch (ServiceInvokerException e) {
+            assertEquals("Call of 'account' command was cancelled", e.getMessage());
+        } finally {
+            Deadline.bind(previous);
+        }
+    }
+
+    @Test
+    public void testInvoke_DeadlineAbortsHungCall() throws Exception {
+        HttpServer server = hungServer();
+        try {
+            HttpServiceInvokerImpl invoker = new HttpServiceInvokerImpl();
+            invoker.textMagicUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/app/api";
+            Deadline previous = Deadline.bind(Deadline.after(200, TimeUnit.MILLISECONDS));
+            long start = System.nanoTime();
+            try {
+                invoker.invoke("login", "pas", "account", Collections.<String, String>emptyMap());
+                fail("exception should be thrown");
+            } catch (ServiceInvokerException e) {
+                assertEquals("Deadline of 'account' command is exceeded", e.getMessage());
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3));
+            } finally {
+                Deadline.bind(previous);
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testInvoke_CancellationAbortsCall() throws Exception {
+        HttpServer server = hungServer();
+        try {
+            HttpServiceInvokerImpl invoker = new HttpServiceInvokerImpl();
+            invoker.textMagicUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/app/api";
+            final Deadline deadline = Deadline.after(1, TimeUnit.HOURS);
+            Executors.newSingleThreadScheduledExecutor().schedule(() -> deadline.cancel(), 200, TimeUnit.MILLISECONDS);
+            Deadline previous = Deadline.bind(deadline);
+            try {
+                invoker.invoke("login", "pas", "account", Collections.<String, String>emptyMap());
+                fail("exception should be thrown");
+            } catch (ServiceInvokerException e) {
+                assertEquals("Call of 'account' command was cancelled", e.getMessage());
+            } finally {
+                Deadline.bind(previous);
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testTimeoutsAreApplied() throws Exception {
+        HttpServiceInvokerImpl invoker = new HttpServiceInvokerImpl(4, 2, 0);
+        invoker.setConnectTimeout(1, TimeUnit.SECONDS);
+        invoker.setSocketTimeout(2, TimeUnit.SECONDS);
+        invoker.setConnectionAcquireTimeout(3, TimeUnit.SECONDS);
+        assertEquals(1000, invoker.httpclient.getHttpConnectionManager().getParams().getConnectionTimeout());
+        assertEquals(2000, invoker.httpclient.getHttpConnectionManager().getParams().getSoTimeout());
+        assertEquals(3000, invoker.httpclient.getParams().getConnectionManagerTimeout());
+        invoker.shutdown();
+    }
+
+    @Test
+    public void testInvoke_FailsOverToReachableEndpoint() throws Exception {
+        HttpServer backup = stubServer(200, "{\"balance\":1}");
+        try {
+            HttpServiceInvokerImpl invoker = new HttpServiceInvokerImpl();
+            invoker.setEndpoints(Arrays.asList(unreachableUrl(), urlOf(backup)));
+            assertEquals("{\"balance\":1}", invoker.invoke("login", "pas", "account", Collections.<String, String>emptyMap()));
+            EndpointSelector.Endpoint primary = invoker.getEndpointSelector().getEndpoints().get(0);
+            EndpointSelector.Endpoint secondary = invoker.getEndpointSelector().getEndpoints().get(1);
+            assertEquals(1, primary.getConsecutiveFailures());
+            assertTrue(secondary.getLatencyNanos() > 0);
+        } finally {
+            backup.stop(0);
+        }
+    }
+
+    @Test
+    public void testInvoke_ServerErrorEjectsEndpointWithoutFailover() throws Exception {
+        HttpServer primary = stubServer(503, "");
+        HttpServer backup = stubServer(200, "{\"balance\":1}");
+        try {
+            HttpServiceInvokerImpl invoker = new HttpServiceInvokerImpl();
+            EndpointSelector selector = new EndpointSelector(Arrays.asList(urlOf(primary), urlOf(backup)));
+            selector.setEjection(1, 1, TimeUnit.MINUTES);
+            invoker.setEndpointSelector(selector);
+            try {
+                invoker.invoke("login", "pas", "send", Collections.<String, String>emptyMap());
+                fail("exception should be thrown");
+            } catch (ServiceInvokerException e) {
+                assertEquals(503, e.getHttpStatus());
+            }
+            assertEquals(false, selector.getEndpoints().get(0).isHealthy());
+            assertEquals("{\"balance\":1}", invoker.invoke("login", "pas", "account", Collections.<String, String>emptyMap()));
+        } finally {
+            primary.stop(0);
+            backup.stop(0);
+        }
+    }
+
+    private static String urlOf(HttpServer server) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/app/api";
+    }
+
+    private static String unreachableUrl() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return "http://127.0.0.1:" + socket.getLocalPort() + "/app/api";
+        }
+    }
+
+    private static HttpServer stubServer(final int status, final String body) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/app/api", exchange -> {
+            byte[] bytes = body.getBytes("UTF-8");
+            exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static HttpServer hungServer() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/app/api", exchange -> {
+            try {
+                Thread.sleep(5000);
+                exchange.sendResponseHeaders(200, 2);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write("{}".getBytes("UTF-8"));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // the client is gone
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        return server;
+    }
 }
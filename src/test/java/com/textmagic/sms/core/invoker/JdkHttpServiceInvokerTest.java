@@ -0,0 +1,146 @@
+package com.textmagic.sms.core.invoker;
+
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.*;
+
+public class JdkHttpServiceInvokerTest {
+
+    HttpServer server;
+    JdkHttpServiceInvoker serviceInvoker;
+    AtomicReference<String> requestBody = new AtomicReference<String>();
+    volatile int responseCode = 200;
+    volatile long responseDelay;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/app/api", (HttpExchange exchange) -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                requestBody.set(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            if (responseDelay > 0) {
+                try {
+                    Thread.sleep(responseDelay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            byte[] body = "{\"balance\":\"1.5\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(responseCode, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        serviceInvoker = new JdkHttpServiceInvoker();
+        serviceInvoker.textMagicUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/app/api";
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+    }
+
+    @Test
+    public void testInvoke() throws Exception {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("text", "тест & co");
+        String result = serviceInvoker.invoke("login", "pas", "cmd1", params);
+        assertEquals("{\"balance\":\"1.5\"}", result);
+        String body = requestBody.get();
+        assertTrue(body.contains("username=login"));
+        assertTrue(body.contains("password=pas"));
+        assertTrue(body.contains("cmd=cmd1"));
+        assertTrue(body.contains("text=%D1%82%D0%B5%D1%81%D1%82+%26+co"));
+    }
+
+    @Test
+    public void testInvoke_DeadlineExceeded() throws Exception {
+        responseDelay = 5000;
+        Deadline previous = Deadline.bind(Deadline.after(200, TimeUnit.MILLISECONDS));
+        long start = System.nanoTime();
+        try {
+            serviceInvoker.invoke("login", "pas", "account", new HashMap<String, String>());
+            fail("exception should be thrown");
+        } catch (ServiceInvokerException e) {
+            assertEquals("Deadline of 'account' command is exceeded", e.getMessage());
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3));
+        } finally {
+            Deadline.bind(previous);
+        }
+    }
+
+    @Test
+    public void testInvokeAsync() throws Exception {
+        Map<String, String> params = new HashMap<String, String>();
+        assertEquals("{\"balance\":\"1.5\"}", serviceInvoker.invokeAsync("login", "pas", "account", params).get());
+    }
+
+    @Test(expected = ServiceInvokerException.class)
+    public void testInvoke_ServerResponse() throws Exception {
+        responseCode = 404;
+        serviceInvoker.invoke("login", "pas", "cmd1", new HashMap<String, String>());
+    }
+
+    @Test
+    public void testInvokeAsync_ServerResponse() throws Exception {
+        responseCode = 500;
+        try {
+            serviceInvoker.invokeAsync("login", "pas", "cmd1", new HashMap<String, String>()).get();
+            fail("exception should be thrown");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ServiceInvokerException);
+        }
+    }
+
+    @Test
+    public void testInvokeAsync_ConnectionRefused() throws Exception {
+        server.stop(0);
+        try {
+            serviceInvoker.invokeAsync("login", "pas", "cmd1", new HashMap<String, String>()).get();
+            fail("exception should be thrown");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ServiceInvokerException);
+        }
+    }
+
+    @Test
+    public void testInvokeStreaming() throws Exception {
+        ResponseBody body = serviceInvoker.invokeStreaming("login", "pas", "account", new HashMap<String, String>());
+        try {
+            assertEquals(StandardCharsets.UTF_8, body.getCharset());
+            assertEquals("{\"balance\":\"1.5\"}", body.asString());
+        } finally {
+            body.close();
+        }
+    }
+
+    @Test
+    public void testInvoke_MaxResponseBodySize() throws Exception {
+        serviceInvoker.setMaxResponseBodySize(17);
+        assertEquals("{\"balance\":\"1.5\"}", serviceInvoker.invoke("login", "pas", "account", new HashMap<String, String>()));
+        serviceInvoker.setMaxResponseBodySize(16);
+        try {
+            serviceInvoker.invoke("login", "pas", "account", new HashMap<String, String>());
+            fail("exception should be thrown");
+        } catch (ServiceInvokerException e) {
+            assertTrue(e.getMessage().contains("exceeds 16 bytes"));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.textmagic.sms.core.invoker;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static junit.framework.Assert.*;
+
+public class ResponseBodyTest {
+
+    @Test
+    public void testAsString() throws Exception {
+        ResponseBody body = new ResponseBody(stream("тест"), StandardCharsets.UTF_8, ResponseBody.UNLIMITED, null);
+        assertEquals("тест", body.asString());
+    }
+
+    @Test
+    public void testGetReader_ExactLimit() throws Exception {
+        ResponseBody body = new ResponseBody(stream("тест"), StandardCharsets.UTF_8, 8, null);
+        Reader reader = body.getReader();
+        char[] chars = new char[16];
+        assertEquals(4, reader.read(chars));
+        assertEquals(-1, reader.read(chars));
+    }
+
+    @Test(expected = IOException.class)
+    public void testAsString_LimitExceeded() throws Exception {
+        new ResponseBody(stream("тест"), StandardCharsets.UTF_8, 7, null).asString();
+    }
+
+    @Test(expected = IOException.class)
+    public void testGetInputStream_LimitExceededBySingleBytes() throws Exception {
+        ResponseBody body = new ResponseBody(stream("abc"), StandardCharsets.UTF_8, 2, null);
+        while (body.getInputStream().read() != -1) {
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        final AtomicBoolean released = new AtomicBoolean();
+        ResponseBody body = new ResponseBody(stream("abc"), StandardCharsets.UTF_8, 2, new Closeable() {
+            public void close() throws IOException {
+                released.set(true);
+                throw new IOException("ignored");
+            }
+        });
+        body.close();
+        assertTrue(released.get());
+    }
+
+    private static ByteArrayInputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
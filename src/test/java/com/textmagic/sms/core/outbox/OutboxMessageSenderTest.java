@@ -0,0 +1,86 @@
+package com.textmagic.sms.core.outbox;
+
+import com.textmagic.sms.TextMagicMessageService;
+import com.textmagic.sms.core.invoker.ServiceInvokerException;
+import com.textmagic.sms.dto.SentMessage;
+import com.textmagic.sms.exception.ServiceBackendException;
+import com.textmagic.sms.exception.ServiceTechnicalException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+public class OutboxMessageSenderTest {
+
+    File directory;
+    Outbox outbox;
+    TextMagicMessageService service;
+    volatile String gatewayResponse;
+    OutboxMessageSender sender;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("outbox", "");
+        directory.delete();
+        outbox = new Outbox(directory, 4096);
+        service = new TextMagicMessageService("login", "password");
+        service.setInvoker((login, password, command, parameters) -> {
+            if (gatewayResponse == null) {
+                throw new ServiceInvokerException("Connection refused");
+            }
+            return gatewayResponse;
+        });
+        sender = new OutboxMessageSender(service, outbox);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        outbox.close();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testSend() throws Exception {
+        gatewayResponse = "{\"message_id\":{\"7\":\"79261234567\"},\"sent_text\":\"text\",\"parts_count\":1}";
+        List<SentMessage> messages = sender.send("text", Arrays.asList("79261234567"), false, 3);
+        assertEquals(7L, messages.get(0).getId().longValue());
+        assertTrue(outbox.pending().isEmpty());
+    }
+
+    @Test
+    public void testTechnicalFailureIsReplayed() throws Exception {
+        try {
+            sender.send("text", Arrays.asList("79261234567"), false, 3);
+            fail("exception should be thrown");
+        } catch (ServiceTechnicalException e) {
+            // expected
+        }
+        assertEquals(1, outbox.pending().size());
+        outbox.close();
+        outbox = new Outbox(directory, 4096);
+        sender = new OutboxMessageSender(service, outbox);
+        gatewayResponse = "{\"message_id\":{\"7\":\"79261234567\"},\"sent_text\":\"text\",\"parts_count\":1}";
+        assertEquals(1, sender.replayPending());
+        assertTrue(outbox.pending().isEmpty());
+    }
+
+    @Test
+    public void testBackendFailureIsAcknowledged() throws Exception {
+        gatewayResponse = "{\"error_code\":10,\"error_message\":\"Wrong parameter value\"}";
+        try {
+            sender.send("text", Arrays.asList("79261234567"), false, 3);
+            fail("exception should be thrown");
+        } catch (ServiceBackendException e) {
+            assertEquals(10, e.getErrorCode().intValue());
+        }
+        assertTrue(outbox.pending().isEmpty());
+    }
+}
@@ -0,0 +1,167 @@
+package com.textmagic.sms.core.outbox;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.*;
+
+public class OutboxTest {
+
+    File directory;
+    Outbox outbox;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("outbox", "");
+        directory.delete();
+        outbox = new Outbox(directory, 4096);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        outbox.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private void reopen() throws IOException {
+        outbox.close();
+        outbox = new Outbox(directory, 4096);
+    }
+
+    @Test
+    public void testPendingEntriesAreRecovered() throws Exception {
+        OutboxEntry first = outbox.append("Привет", Arrays.asList("79261234567", "79261234568"), true, 2);
+        OutboxEntry second = outbox.append("text", Arrays.asList("79261234569"), false, 3);
+        outbox.acknowledge(first.getSequence(), Arrays.asList(10L, 11L));
+        reopen();
+        List<OutboxEntry> pending = outbox.pending();
+        assertEquals(1, pending.size());
+        OutboxEntry recovered = pending.get(0);
+        assertEquals(second.getSequence(), recovered.getSequence());
+        assertEquals("text", recovered.getText());
+        assertEquals(Arrays.asList("79261234569"), recovered.getPhones());
+        assertFalse(recovered.isUseUnicode());
+        assertEquals(3, recovered.getMaxLength());
+        assertTrue(outbox.append("next", Arrays.asList("79261234560"), false, 1).getSequence() > second.getSequence());
+    }
+
+    @Test
+    public void testUnicodeEntryIsRecovered() throws Exception {
+        outbox.append("Привет", Arrays.asList("79261234567"), true, 2);
+        reopen();
+        assertEquals("Привет", outbox.pending().get(0).getText());
+        assertTrue(outbox.pending().get(0).isUseUnicode());
+    }
+
+    @Test
+    public void testAcknowledgedSegmentsAreDeleted() throws Exception {
+        List<OutboxEntry> entries = new ArrayList<OutboxEntry>();
+        for (int i = 0; i < 100; i++) {
+            entries.add(outbox.append("message number " + i, Arrays.asList("79261234567"), false, 3));
+        }
+        assertTrue(outbox.getSegmentsCount() > 1);
+        for (OutboxEntry entry : entries) {
+            outbox.acknowledge(entry.getSequence(), Collections.singletonList(entry.getSequence()));
+        }
+        assertEquals(1, outbox.getSegmentsCount());
+        reopen();
+        assertTrue(outbox.pending().isEmpty());
+    }
+
+    @Test
+    public void testPendingEntryIsCopiedForward() throws Exception {
+        OutboxEntry stuck = outbox.append("stuck", Arrays.asList("79261234567"), false, 3);
+        for (int i = 0; i < 200; i++) {
+            OutboxEntry entry = outbox.append("message number " + i, Arrays.asList("79261234567"), false, 3);
+            outbox.acknowledge(entry.getSequence(), Collections.singletonList(entry.getSequence()));
+        }
+        assertTrue(outbox.getSegmentsCount() <= 2);
+        OutboxEntry last = outbox.append("last", Arrays.asList("79261234568"), false, 3);
+        reopen();
+        List<OutboxEntry> pending = outbox.pending();
+        assertEquals(2, pending.size());
+        assertEquals(stuck.getSequence(), pending.get(0).getSequence());
+        assertEquals("stuck", pending.get(0).getText());
+        assertEquals(last.getSequence(), pending.get(1).getSequence());
+        outbox.acknowledge(stuck.getSequence(), Collections.singletonList(1L));
+        reopen();
+        assertEquals(1, outbox.pending().size());
+    }
+
+    @Test
+    public void testTornRecordIsIgnored() throws Exception {
+        outbox.append("text", Arrays.asList("79261234567"), false, 3);
+        outbox.close();
+        File[] files = directory.listFiles();
+        Arrays.sort(files);
+        RandomAccessFile file = new RandomAccessFile(files[files.length - 1], "rw");
+        try {
+            // length and checksum of record which body was not written
+            file.seek(200);
+            file.writeInt(100);
+            file.writeInt(12345);
+        } finally {
+            file.close();
+        }
+        outbox = new Outbox(directory, 4096);
+        assertEquals(1, outbox.pending().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRecordLargerThanSegment() throws Exception {
+        char[] text = new char[5000];
+        Arrays.fill(text, 'a');
+        outbox.append(new String(text), Arrays.asList("79261234567"), false, 3);
+    }
+
+    @Test
+    public void testConcurrentAppendsShareCommits() throws Exception {
+        outbox.close();
+        outbox = new Outbox(directory);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 50; i++) {
+                        outbox.append("text", Arrays.asList("79261234567"), false, 3);
+                    }
+                } catch (Throwable ex) {
+                    failure.set(ex);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(30000);
+        }
+        assertNull(failure.get());
+        outbox.close();
+        outbox = new Outbox(directory);
+        assertEquals(400, outbox.pending().size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testClosedOutbox() throws Exception {
+        outbox.close();
+        outbox.append("text", Arrays.asList("79261234567"), false, 3);
+    }
+}
@@ -0,0 +1,74 @@
+package com.textmagic.sms.core.parsing;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Micro benchmark comparing {@link RawResponseTextConverter} with previous StringBuilder and UTF-16 charset
+ * based implementation. It is not run as part of the build, run it manually:
+ * <pre>
+ *   mvn test-compile
+ *   java -cp target/classes:target/test-classes com.textmagic.sms.core.parsing.RawResponseTextConverterBenchmark
+ * </pre>
+ */
+public class RawResponseTextConverterBenchmark {
+
+    private static final int ITERATIONS = 2000000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        RawResponseTextConverter converter = new RawResponseTextConverter();
+        String plain = "Your order 12345 has been shipped and will be delivered tomorrow";
+        String unicode = "\\u0421\\u0432\\u043e\\u0431\\u043e\\u0434\\u043d\\u0430\\u044f \\u044d\\u043d\\u0446\\u0438\\u043a\\u043b\\u043e\\u043f\\u0435\\u0434\\u0438\\u044f";
+        for (int round = 1; round <= ROUNDS; round++) {
+            System.out.println("round " + round);
+            report("plain, legacy", measureLegacy(plain));
+            report("plain, current", measure(converter, plain));
+            report("unicode, legacy", measureLegacy(unicode));
+            report("unicode, current", measure(converter, unicode));
+        }
+    }
+
+    private static long measure(RawResponseTextConverter converter, String text) {
+        long start = System.nanoTime();
+        int blackhole = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            blackhole += converter.convert(text).length();
+        }
+        return check(start, blackhole);
+    }
+
+    private static long measureLegacy(String text) throws UnsupportedEncodingException {
+        long start = System.nanoTime();
+        int blackhole = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            blackhole += legacyConvert(text).length();
+        }
+        return check(start, blackhole);
+    }
+
+    private static long check(long start, int blackhole) {
+        long elapsed = System.nanoTime() - start;
+        if (blackhole == 0) {
+            throw new IllegalStateException("Nothing was converted");
+        }
+        return elapsed;
+    }
+
+    private static void report(String name, long elapsed) {
+        System.out.println(String.format("  %-18s %8.1f ns/op", name, (double) elapsed / ITERATIONS));
+    }
+
+    private static String legacyConvert(String text) throws UnsupportedEncodingException {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            if(text.charAt(i) == '\\' && (i != text.length() -1) && text.charAt(i+1) == 'u'){
+                short value = Short.valueOf(text.substring(i+2, i+6), 16);
+                result.append(new String(new byte[] {(byte)(value >>> 8), (byte)value}, "UTF-16"));
+                i += 5;
+            } else {
+                result.append(text.charAt(i));
+            }
+        }
+        return result.toString();
+    }
+}
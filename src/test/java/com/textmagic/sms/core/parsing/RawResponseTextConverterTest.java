@@ -2,6 +2,7 @@ package com.textmagic.sms.core.parsing;
 
 import org.junit.Test;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
 import com.textmagic.sms.dto.MessageStatus;
 
 /**
@@ -15,7 +16,7 @@ public class RawResponseTextConverterTest {
     public void testConvert () throws Exception{
         final String freeEncyclopediaInRussian = "\\u0421\\u0432\\u043e\\u0431\\u043e\\u0434\\u043d\\u0430\\u044f \\u044d\\u043d\\u0446\\u0438\\u043a\\u043b\\u043e\\u043f\\u0435\\u0434\\u0438\\u044f";
         String result = converter.convert(freeEncyclopediaInRussian);
-        assertEquals(" ", result);
+        assertEquals("Свободная энциклопедия", result);
         
     }
 
@@ -25,5 +26,26 @@ public class RawResponseTextConverterTest {
         assertEquals("text\\", result);
     }
 
+    @Test
+    public void testConvert_NoCodes () throws Exception{
+        String text = "plain \\ text \\n";
+        assertSame(text, converter.convert(text));
+    }
+
+    @Test
+    public void testConvert_UpperHalfAndUpperCaseHex () throws Exception{
+        assertEquals("\u4E2D\u6587 \u00e9", converter.convert("\\u4E2D\\u6587 \\u00e9"));
+    }
 
+    @Test
+    public void testConvert_SurrogatePair () throws Exception{
+        String result = converter.convert("smile \\uD83D\\uDE00!");
+        assertEquals("smile \uD83D\uDE00!", result);
+        assertEquals(0x1F600, result.codePointAt(6));
+    }
+
+    @Test
+    public void testConvert_IncompleteCode () throws Exception{
+        assertEquals("\u0421 \\u04 \\uzzzz\\u", converter.convert("\\u0421 \\u04 \\uzzzz\\u"));
+    }
 }
@@ -0,0 +1,224 @@
+package com.textmagic.sms.core.parsing;
+
+import org.junit.Test;
+import org.junit.Before;
+import com.textmagic.sms.exception.ServiceBackendException;
+import com.textmagic.sms.dto.SentMessage;
+import com.textmagic.sms.dto.MessageStatus;
+import com.textmagic.sms.dto.ReceivedMessage;
+import com.textmagic.sms.dto.PhoneInfo;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Date;
+import java.math.BigDecimal;
+
+import static junit.framework.Assert.*;
+
+public class TextMagicStreamingResponseParserTest {
+
+    TextMagicStreamingResponseParser parser;
+
+    @Before
+    public void setUp() throws Exception {
+        parser = new TextMagicStreamingResponseParser();
+    }
+
+    @Test
+    public void testIsFailureResponse() throws Exception {
+        assertTrue(parser.isFailureResponse("{\"error_code\":10,\"error_message\":\"Wrong parameter value 5 for parameter max_length\"}"));
+        assertFalse(parser.isFailureResponse("{\"balance\":\"50\", \"nested\":{\"error_code\":1}}"));
+    }
+
+    @Test(expected = ResponseParsingException.class)
+    public void testIsFailureResponse_Exception() throws Exception {
+        parser.isFailureResponse("{incorrect json []}");
+    }
+
+    @Test
+    public void testParseFailureResponse() throws Exception {
+        ServiceBackendException exception = parser.parseFailureResponse("{\"error_code\":8,\"error_message\":\"IP address is not allowed\"}");
+        assertEquals(8, exception.getErrorCode().intValue());
+        assertEquals("IP address is not allowed", exception.getErrorMessage());
+    }
+
+    @Test(expected = ResponseParsingException.class)
+    public void testParseFailureResponse_NotFailureResonse() throws Exception {
+        parser.parseFailureResponse("{\"balance\":\"50\"}");
+    }
+
+    @Test
+    public void testParseSendResult() throws Exception {
+        String json = "{\"message_id\":{\"1\":\"phone1\", \"2\":\"phone2\" },\"sent_text\":\"\\\\u0421\\\\u0432\",\"parts_count\":2}";
+        List<SentMessage> result = parser.parseSendResult(json).getResult();
+        assertEquals(2, result.size());
+        assertEquals(1L, result.get(0).getId().longValue());
+        assertEquals("phone1", result.get(0).getRecipientPhone());
+        assertEquals("Св", result.get(0).getText());
+        assertEquals(2, result.get(1).getPartsCount().shortValue());
+        assertEquals("phone2", result.get(1).getRecipientPhone());
+    }
+
+    @Test
+    public void testParseSendResult_Failure() throws Exception {
+        ParsedResponse<List<SentMessage>> result = parser.parseSendResult("{\"error_code\":10,\"error_message\":\"Wrong max_length\"}");
+        assertTrue(result.isFailure());
+        assertEquals(10, result.getFailure().getErrorCode().intValue());
+        assertEquals("Wrong max_length", result.getFailure().getErrorMessage());
+    }
+
+    @Test(expected = ResponseParsingException.class)
+    public void testParseSendResponse_FailureResponse() throws Exception {
+        parser.parseSendResponse("{\"error_code\":10,\"error_message\":\"Wrong max_length\"}");
+    }
+
+    @Test(expected = ResponseParsingException.class)
+    public void testParseSendResponse_EmptyMessageId() throws Exception {
+        parser.parseSendResponse("{\"message_id\":{},\"sent_text\":\"plain english\",\"parts_count\":2}");
+    }
+
+    @Test
+    public void testParseAccountResponse() throws Exception {
+        assertEquals(new BigDecimal("45.5"), parser.parseAccountResponse("{\"balance\":\"45.5\"}"));
+        assertEquals(new BigDecimal("7"), parser.parseAccountResponse("{\"balance\":7}"));
+    }
+
+    @Test(expected = ResponseParsingException.class)
+    public void testParseAccountResponse_InvalidValue() throws Exception {
+        parser.parseAccountResponse("{\"balance\":\"aaaa\"}");
+    }
+
+    @Test
+    public void testParseMessageStatusResponse() throws Exception {
+        String json = "{\"1\":" +
+                "{\"text\":\"message1\"," +
+                "\"status\":\"d\"," +
+                "\"created_time\":\"1242937000\"," +
+                "\"reply_number\":\"987654\"," +
+                "\"completed_time\":null," +
+                "\"credits_cost\":0.5}," +
+                "\"2\":" +
+                "{\"text\":\"message2\"," +
+                "\"status\":\"j\"," +
+                "\"created_time\":\"1234567\"," +
+                "\"reply_number\":\"12345\"," +
+                "\"completed_time\": \"111111\"," +
+                "\"credits_cost\":6.5}," +
+                "}";
+
+        List<MessageStatus> result = parser.parseMessageStatusResponse(json);
+        assertEquals(2, result.size());
+        MessageStatus firstResult = result.get(0);
+        MessageStatus secondResult = result.get(1);
+
+        assertEquals(1, firstResult.getMessage().getId().longValue());
+        assertEquals("message1", firstResult.getMessage().getText());
+        assertEquals(new Date(1242937000L * 1000L), firstResult.getCreatedTime());
+        assertNull(firstResult.getCompletedTime());
+        assertEquals("987654", firstResult.getReplyNumber());
+        assertEquals(new BigDecimal("0.5"), firstResult.getCreditsCost());
+        assertEquals(MessageStatus.DeliveryState.Delivered, firstResult.getDeliveryState());
+
+        assertEquals(2, secondResult.getMessage().getId().longValue());
+        assertEquals(new Date(111111 * 1000L), secondResult.getCompletedTime());
+        assertEquals(MessageStatus.DeliveryState.Rejected, secondResult.getDeliveryState());
+    }
+
+    @Test
+    public void testParseMessageStatusResult_LargeStream() throws Exception {
+        final int count = 20000;
+        StringBuilder json = new StringBuilder("{");
+        for (int i = 1; i <= count; i++) {
+            json.append(i == 1 ? "" : ",").append('"').append(i).append("\":{\"text\":\"text ").append(i)
+                    .append("\",\"status\":\"q\",\"created_time\":1242937000,\"reply_number\":\"447624800500\",")
+                    .append("\"completed_time\":null,\"credits_cost\":null}");
+        }
+        json.append("}");
+        Reader reader = new StringReader(json.toString());
+        List<MessageStatus> result = parser.parseMessageStatusResult(reader).getResult();
+        assertEquals(count, result.size());
+        assertEquals("text " + count, result.get(count - 1).getMessage().getText());
+        assertNull(result.get(0).getCreditsCost());
+    }
+
+    @Test(expected = ResponseParsingException.class)
+    public void testParseMessageStatus_IncorrectResponse() throws Exception{
+        parser.parseMessageStatusResponse("{\"balance\":\"aaaa\"}");
+    }
+
+    @Test(expected = ResponseParsingException.class)
+    public void testParseMessageStatus_NumerFormatException() throws Exception{
+        String json = "{\"1\":" +
+                  "{\"text\":\"message1\"," +
+                  "\"status\":\"z\"," +
+                  "\"created_time\":\"12429a37000\"," +
+                  "\"reply_number\":\"9876a54\"," +
+                  "\"completed_time\":null," +
+                  "\"credits_cost\":0.5}" +
+                  "}";
+        parser.parseMessageStatusResponse(json);
+    }
+
+    @Test
+    public void testParseRecieveResponse() throws Exception {
+        String json = "{\"messages\":" +
+                            "[{\"message_id\":\"1\"," +
+                                 "\"from\":\"from1\"," +
+                                 "\"timestamp\":1242939052," +
+                                 "\"text\":\"message1\"}," +
+                              "{\"message_id\":\"2\"," +
+                                 "\"from\":\"from2\"," +
+                                 "\"timestamp\":1242939235," +
+                                 "\"text\":\"message2\"}]," +
+                        "\"unread\":0}";
+        List<ReceivedMessage> result = parser.parseReceiveResponse(json);
+        assertEquals(2, result.size());
+        assertEquals(1, result.get(0).getId().longValue());
+        assertEquals("from1", result.get(0).getSenderPhone());
+        assertEquals("message1", result.get(0).getText());
+        assertEquals(new Date(1242939052 * 1000L), result.get(0).getReceivedDate());
+        assertEquals(2, result.get(1).getId().longValue());
+    }
+
+    @Test
+    public void testParseRecieveResponse_NoMessages() throws Exception {
+        assertEquals(0, parser.parseReceiveResponse("{\"messages\": [],\"unread\":0}").size());
+    }
+
+    @Test
+    public void testParseDeleteReplyResponse() throws Exception{
+        List<Long> ids = parser.parseDeleteReplyResponse("{\"deleted\":[\"1\", 2, \"3\"]}");
+        assertEquals(3, ids.size());
+        assertEquals(2L, ids.get(1).longValue());
+    }
+
+    @Test(expected = ResponseParsingException.class)
+    public void testParseDeleteReplyResponse_WrongResponse() throws Exception{
+        parser.parseDeleteReplyResponse("{\"balance\":50}");
+    }
+
+    @Test
+    public void testParseCheckNumberResponse() throws Exception{
+        String json = "{\"447123456789\":{\n" +
+                "                 \"price\":0.8,\n" +
+                "                 \"country\":\"GB\"\n" +
+                "                }\n" +
+                "}";
+        List<PhoneInfo> result = parser.parseCheckNumberResponse(json);
+        assertEquals(1, result.size());
+        assertEquals("447123456789", result.get(0).getPhone());
+        assertEquals(new BigDecimal("0.8"), result.get(0).getPrice());
+        assertEquals("GB", result.get(0).getCoutryCode());
+    }
+
+    @Test(expected = ResponseParsingException.class)
+    public void testParseCheckNumberResponse_WrongPrice() throws Exception{
+        parser.parseCheckNumberResponse("{\"447123456789\":{\"price\":wrong,\"country\":\"GB\"}}");
+    }
+
+    @Test(expected = ResponseParsingException.class)
+    public void testParseCheckNumberResponse_TrailingContent() throws Exception{
+        parser.parseCheckNumberResponse("{\"447123456789\":{\"price\":0.8,\"country\":\"GB\"}} {}");
+    }
+}
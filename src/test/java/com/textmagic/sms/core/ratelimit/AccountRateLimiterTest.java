@@ -0,0 +1,48 @@
+package com.textmagic.sms.core.ratelimit;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.*;
+
+public class AccountRateLimiterTest {
+
+    @Test
+    public void testAccountsHaveSeparateBudgets() throws Exception {
+        AccountRateLimiter limiter = new AccountRateLimiter(0.01, 1);
+        assertTrue(limiter.tryAcquire("first", "account"));
+        assertFalse(limiter.tryAcquire("first", "account"));
+        assertTrue(limiter.tryAcquire("second", "account"));
+    }
+
+    @Test
+    public void testCommandsWithRateHaveSeparateBudgets() throws Exception {
+        AccountRateLimiter limiter = new AccountRateLimiter(0.01, 1);
+        limiter.setCommandRate("send", 0.01, 2);
+        assertTrue(limiter.tryAcquire("login", "message_status"));
+        // commands without own rate share default budget
+        assertFalse(limiter.tryAcquire("login", "receive"));
+        assertTrue(limiter.tryAcquire("login", "send"));
+        assertTrue(limiter.tryAcquire("login", "send"));
+        assertFalse(limiter.tryAcquire("login", "send"));
+        assertSame(limiter.bucket("login", "send"), limiter.bucket("login", "send"));
+    }
+
+    @Test
+    public void testAcquirePermitWithoutWaiting() throws Exception {
+        AccountRateLimiter limiter = new AccountRateLimiter(0.01, 1);
+        limiter.setMaxWait(0, TimeUnit.SECONDS);
+        assertTrue(limiter.acquirePermit("login", "account"));
+        assertFalse(limiter.acquirePermit("login", "account"));
+    }
+
+    @Test
+    public void testAcquireWaits() throws Exception {
+        AccountRateLimiter limiter = new AccountRateLimiter(20, 1);
+        limiter.acquire("login", "account");
+        long start = System.nanoTime();
+        limiter.acquire("login", "account");
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+    }
+}
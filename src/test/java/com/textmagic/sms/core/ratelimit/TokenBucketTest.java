@@ -0,0 +1,77 @@
+package com.textmagic.sms.core.ratelimit;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.Assert.*;
+
+public class TokenBucketTest {
+
+    final AtomicLong now = new AtomicLong(1000);
+
+    @Test
+    public void testBurstThenRate() throws Exception {
+        TokenBucket bucket = new TokenBucket(10, 3, now::get);
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void testIdleBucketDoesNotExceedBurst() throws Exception {
+        TokenBucket bucket = new TokenBucket(10, 2, now::get);
+        now.addAndGet(TimeUnit.HOURS.toNanos(1));
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void testReservationsAreQueued() throws Exception {
+        TokenBucket bucket = new TokenBucket(10, 1, now::get);
+        long interval = TimeUnit.MILLISECONDS.toNanos(100);
+        assertEquals(0, bucket.reserve(Long.MAX_VALUE));
+        assertEquals(interval, bucket.reserve(Long.MAX_VALUE));
+        assertEquals(2 * interval, bucket.reserve(Long.MAX_VALUE));
+        assertEquals(-1, bucket.reserve(2 * interval));
+        assertEquals(3 * interval, bucket.reserve(3 * interval));
+    }
+
+    @Test
+    public void testTimedAcquireWaits() throws Exception {
+        TokenBucket bucket = new TokenBucket(20, 1);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire(1, TimeUnit.MILLISECONDS));
+        long start = System.nanoTime();
+        assertTrue(bucket.tryAcquire(1, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+    }
+
+    @Test
+    public void testConcurrentCallersDoNotExceedBurst() throws Exception {
+        final TokenBucket bucket = new TokenBucket(0.001, 50, now::get);
+        final AtomicInteger acquired = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 100; j++) {
+                    if (bucket.tryAcquire()) {
+                        acquired.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        assertEquals(50, acquired.get());
+    }
+}
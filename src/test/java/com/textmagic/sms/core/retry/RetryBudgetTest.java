@@ -0,0 +1,35 @@
+package com.textmagic.sms.core.retry;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class RetryBudgetTest {
+
+    @Test
+    public void testRetriesStopAtHalfOfTokens() throws Exception {
+        RetryBudget budget = new RetryBudget(10, 0.1);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(budget.tryRetry());
+        }
+        assertFalse(budget.tryRetry());
+        assertEquals(5.0, budget.getTokens(), 0.001);
+    }
+
+    @Test
+    public void testSuccessesRefillBudget() throws Exception {
+        RetryBudget budget = new RetryBudget(10, 0.1);
+        for (int i = 0; i < 20; i++) {
+            budget.tryRetry();
+        }
+        assertEquals(0.0, budget.getTokens(), 0.001);
+        for (int i = 0; i < 70; i++) {
+            budget.onSuccess();
+        }
+        assertTrue(budget.tryRetry());
+        for (int i = 0; i < 1000; i++) {
+            budget.onSuccess();
+        }
+        assertEquals(10.0, budget.getTokens(), 0.001);
+    }
+}
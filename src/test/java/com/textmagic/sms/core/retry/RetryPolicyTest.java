@@ -0,0 +1,91 @@
+package com.textmagic.sms.core.retry;
+
+import com.textmagic.sms.core.invoker.ServiceInvokerException;
+import com.textmagic.sms.core.parsing.ResponseParsingException;
+import com.textmagic.sms.exception.ServiceBackendException;
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.*;
+
+public class RetryPolicyTest {
+
+    RetryPolicy policy = new RetryPolicy(3, 0, 0, TimeUnit.MILLISECONDS);
+
+    @Test
+    public void testReadOnlyCommandFailures() throws Exception {
+        assertTrue(policy.isRetryable("account", new ServiceInvokerException("Server responded with 503 http code", 503)));
+        assertTrue(policy.isRetryable("receive", new ServiceInvokerException("Read timed out", new SocketTimeoutException())));
+        assertTrue(policy.isRetryable("message_status", new ResponseParsingException("Couldn't read gateway response", new IOException())));
+        assertFalse(policy.isRetryable("account", new ServiceInvokerException("Server responded with 403 http code", 403)));
+        assertFalse(policy.isRetryable("check_number", new ResponseParsingException("Unexpected value")));
+    }
+
+    @Test
+    public void testSendIsRetriedOnlyIfNotReceived() throws Exception {
+        assertTrue(policy.isRetryable("send", new ServiceInvokerException("Connection refused", new ConnectException())));
+        assertTrue(policy.isRetryable("send", new ServiceInvokerException("Timeout", new ConnectionPoolTimeoutException())));
+        assertTrue(policy.isRetryable("send", new ServiceInvokerException("Server responded with 429 http code", 429)));
+        assertFalse(policy.isRetryable("send", new ServiceInvokerException("Read timed out", new SocketTimeoutException())));
+        assertFalse(policy.isRetryable("send", new ServiceInvokerException("Server responded with 503 http code", 503)));
+        assertFalse(policy.isRetryable("send", new ResponseParsingException("Couldn't read gateway response", new IOException())));
+    }
+
+    @Test
+    public void testErrorCodes() throws Exception {
+        assertFalse(policy.isRetryable("account", new ServiceBackendException(1, "Messages limit reached")));
+        policy.setRetryableErrorCodes(Collections.singleton(1));
+        assertTrue(policy.isRetryable("account", new ServiceBackendException(1, "Messages limit reached")));
+        assertTrue(policy.isRetryable("send", new ServiceBackendException(1, "Messages limit reached")));
+        assertFalse(policy.isRetryable("send", new ServiceBackendException(10, "Wrong parameter value")));
+    }
+
+    @Test
+    public void testMaxAttempts() throws Exception {
+        ServiceInvokerException failure = new ServiceInvokerException("Server responded with 503 http code", 503);
+        assertTrue(policy.awaitRetry("account", failure, 1));
+        assertTrue(policy.awaitRetry("account", failure, 2));
+        assertFalse(policy.awaitRetry("account", failure, 3));
+    }
+
+    @Test
+    public void testBudgetStopsRetries() throws Exception {
+        policy.setBudget(new RetryBudget(4, 0.5));
+        ServiceInvokerException failure = new ServiceInvokerException("Server responded with 503 http code", 503);
+        assertTrue(policy.awaitRetry("account", failure, 1));
+        assertFalse(policy.awaitRetry("account", failure, 1));
+        for (int i = 0; i < 4; i++) {
+            policy.onSuccess();
+        }
+        assertTrue(policy.awaitRetry("account", failure, 1));
+    }
+
+    @Test
+    public void testBackoffIsBounded() throws Exception {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.backoffNanos(1) <= TimeUnit.MILLISECONDS.toNanos(100));
+            assertTrue(policy.backoffNanos(3) <= TimeUnit.MILLISECONDS.toNanos(400));
+            assertTrue(policy.backoffNanos(9) <= TimeUnit.MILLISECONDS.toNanos(1000));
+            assertTrue(policy.backoffNanos(9) >= 0);
+        }
+    }
+
+    @Test
+    public void testInterruptedBackoff() throws Exception {
+        RetryPolicy policy = new RetryPolicy(3, 1, 1, TimeUnit.HOURS);
+        Thread.currentThread().interrupt();
+        try {
+            assertFalse(policy.awaitRetry("account", new ServiceInvokerException("Server responded with 503 http code", 503), 1));
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+}
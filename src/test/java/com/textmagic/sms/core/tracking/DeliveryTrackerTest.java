@@ -0,0 +1,226 @@
+package com.textmagic.sms.core.tracking;
+
+import com.textmagic.sms.TextMagicMessageService;
+import com.textmagic.sms.dto.Message;
+import com.textmagic.sms.dto.MessageStatus;
+import com.textmagic.sms.exception.ServiceBackendException;
+import com.textmagic.sms.exception.ServiceTechnicalException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.Assert.*;
+
+public class DeliveryTrackerTest {
+
+    // states reported for message on successive polls, the last one is repeated
+    final Map<Long, List<MessageStatus.DeliveryState>> states = new ConcurrentHashMap<Long, List<MessageStatus.DeliveryState>>();
+    final List<List<Long>> polls = new CopyOnWriteArrayList<List<Long>>();
+    volatile boolean failing;
+    final AtomicLong now = new AtomicLong();
+    ManualScheduler scheduler;
+    DeliveryTracker tracker;
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new ManualScheduler();
+        tracker = new DeliveryTracker(new TextMagicMessageService("login", "password") {
+            @Override
+            public List<MessageStatus> messageStatus(List<Long> messageIds) throws ServiceBackendException, ServiceTechnicalException {
+                polls.add(new ArrayList<Long>(messageIds));
+                if (failing) {
+                    failing = false;
+                    throw new ServiceTechnicalException("Server responded with 503 http code");
+                }
+                List<MessageStatus> statuses = new ArrayList<MessageStatus>();
+                for (Long messageId : messageIds) {
+                    List<MessageStatus.DeliveryState> messageStates = states.get(messageId);
+                    MessageStatus status = new MessageStatus();
+                    status.setMessage(new Message(messageId, "text"));
+                    status.setDeliveryState(messageStates.size() > 1 ? messageStates.remove(0) : messageStates.get(0));
+                    statuses.add(status);
+                }
+                return statuses;
+            }
+        }, now::get, scheduler);
+        tracker.setPollSchedule(20, 80, TimeUnit.MILLISECONDS, 2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        tracker.close();
+    }
+
+    private void advance(long millis) {
+        scheduler.advance(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private void willReport(Long messageId, MessageStatus.DeliveryState... messageStates) {
+        List<MessageStatus.DeliveryState> list = new CopyOnWriteArrayList<MessageStatus.DeliveryState>();
+        Collections.addAll(list, messageStates);
+        states.put(messageId, list);
+    }
+
+    @Test
+    public void testMessageIsPolledUntilFinalState() throws Exception {
+        willReport(1L, MessageStatus.DeliveryState.QueuedAtTextMagic, MessageStatus.DeliveryState.QueuedAtTextMagic,
+                MessageStatus.DeliveryState.SentToOperator, MessageStatus.DeliveryState.Delivered);
+        final List<MessageStatus.DeliveryState> changes = new CopyOnWriteArrayList<MessageStatus.DeliveryState>();
+        tracker.setListener(status -> changes.add(status.getDeliveryState()));
+        CompletableFuture<MessageStatus> delivery = tracker.track(1L);
+        assertSame(delivery, tracker.track(1L));
+        advance(19);
+        assertTrue(polls.isEmpty());
+        // polls after 20, 40, 80 and 80 ms
+        advance(1);
+        advance(40);
+        advance(80);
+        assertEquals(3, polls.size());
+        assertFalse(delivery.isDone());
+        advance(80);
+        assertEquals(MessageStatus.DeliveryState.Delivered, delivery.getNow(null).getDeliveryState());
+        assertEquals(4, polls.size());
+        assertEquals(0, tracker.getTrackedCount());
+        advance(1000);
+        assertEquals(4, polls.size());
+        assertEquals(3, changes.size());
+        assertEquals(MessageStatus.DeliveryState.Delivered, changes.get(2));
+    }
+
+    @Test
+    public void testDueMessagesArePackedIntoBatches() throws Exception {
+        tracker.setMaxBatchSize(2);
+        List<CompletableFuture<MessageStatus>> deliveries = new ArrayList<CompletableFuture<MessageStatus>>();
+        for (long id = 1; id <= 5; id++) {
+            willReport(id, MessageStatus.DeliveryState.Delivered);
+            deliveries.add(tracker.track(id));
+        }
+        advance(20);
+        for (CompletableFuture<MessageStatus> delivery : deliveries) {
+            assertTrue(delivery.isDone());
+        }
+        assertEquals(3, polls.size());
+        assertEquals(2, polls.get(0).size());
+        assertEquals(2, polls.get(1).size());
+        assertEquals(1, polls.get(2).size());
+        assertEquals(3, tracker.getPollCount());
+    }
+
+    @Test
+    public void testMessageDueSoonJoinsBatch() throws Exception {
+        tracker.setPollSchedule(100, 400, TimeUnit.MILLISECONDS, 2);
+        willReport(1L, MessageStatus.DeliveryState.Delivered);
+        willReport(2L, MessageStatus.DeliveryState.Delivered);
+        CompletableFuture<MessageStatus> first = tracker.track(1L);
+        advance(20);
+        CompletableFuture<MessageStatus> second = tracker.track(2L);
+        advance(80);
+        // the second one is due in 20 ms, within half of its delay
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        assertEquals(1, polls.size());
+        assertEquals(2, polls.get(0).size());
+    }
+
+    @Test
+    public void testFailedPollIsRepeated() throws Exception {
+        willReport(1L, MessageStatus.DeliveryState.Rejected);
+        failing = true;
+        CompletableFuture<MessageStatus> delivery = tracker.track(1L);
+        advance(20);
+        assertEquals(1, polls.size());
+        assertFalse(delivery.isDone());
+        advance(40);
+        assertEquals(MessageStatus.DeliveryState.Rejected, delivery.getNow(null).getDeliveryState());
+        assertEquals(2, polls.size());
+    }
+
+    @Test
+    public void testMessageIsDroppedAfterTrackingTime() throws Exception {
+        tracker.setMaxTrackingTime(100, TimeUnit.MILLISECONDS);
+        willReport(1L, MessageStatus.DeliveryState.QueuedAtOperator);
+        CompletableFuture<MessageStatus> delivery = tracker.track(1L);
+        advance(1000);
+        try {
+            delivery.get(0, TimeUnit.SECONDS);
+            fail("Tracking should expire");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ServiceTechnicalException);
+        }
+        assertEquals(0, tracker.getTrackedCount());
+    }
+
+    @Test
+    public void testCloseDropsTrackedMessages() throws Exception {
+        willReport(1L, MessageStatus.DeliveryState.QueuedAtOperator);
+        CompletableFuture<MessageStatus> delivery = tracker.track(1L);
+        tracker.close();
+        assertTrue(delivery.isCompletedExceptionally());
+        assertTrue(tracker.track(2L).isCompletedExceptionally());
+    }
+
+    /**
+     * Scheduler which runs tasks in calling thread when the test advances the clock
+     */
+    class ManualScheduler extends ScheduledThreadPoolExecutor {
+        final List<Task> tasks = new ArrayList<Task>();
+
+        ManualScheduler() {
+            super(1);
+            setRemoveOnCancelPolicy(true);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            // never runs by itself, only tells if the task is cancelled
+            ScheduledFuture<?> future = super.schedule(() -> { }, 1, TimeUnit.DAYS);
+            tasks.add(new Task(now.get() + unit.toNanos(delay), command, future));
+            return future;
+        }
+
+        void advance(long nanos) {
+            long until = now.get() + nanos;
+            while (true) {
+                Task next = null;
+                for (Task task : tasks) {
+                    if (!task.future.isCancelled() && task.dueAt <= until && (next == null || task.dueAt < next.dueAt)) {
+                        next = task;
+                    }
+                }
+                if (next == null) {
+                    break;
+                }
+                tasks.remove(next);
+                now.set(Math.max(now.get(), next.dueAt));
+                next.future.cancel(false);
+                next.command.run();
+            }
+            now.set(until);
+        }
+    }
+
+    static class Task {
+        final long dueAt;
+        final Runnable command;
+        final ScheduledFuture<?> future;
+
+        Task(long dueAt, Runnable command, ScheduledFuture<?> future) {
+            this.dueAt = dueAt;
+            this.command = command;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.textmagic.sms.util;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class GsmCharsetUtilTest {
+
+    @Test
+    public void testIsLegalCharacter() throws Exception {
+        for (int i = 0; i < GsmCharsetUtil.chars.length(); i++) {
+            assertTrue(GsmCharsetUtil.isLegalCharacter(GsmCharsetUtil.chars.charAt(i)));
+        }
+        assertFalse(GsmCharsetUtil.isLegalCharacter('р'));
+        assertFalse(GsmCharsetUtil.isLegalCharacter('`'));
+        assertFalse(GsmCharsetUtil.isLegalCharacter('₭'));
+        assertFalse(GsmCharsetUtil.isLegalCharacter('￿'));
+    }
+
+    @Test
+    public void testIsLegalString() throws Exception {
+        assertTrue(GsmCharsetUtil.isLegalString("Hello {world} €5"));
+        assertFalse(GsmCharsetUtil.isLegalString("Привет"));
+    }
+
+    @Test
+    public void testSeptetLength() throws Exception {
+        assertEquals(1, GsmCharsetUtil.septetLength('a'));
+        assertEquals(1, GsmCharsetUtil.septetLength('Δ'));
+        assertEquals(2, GsmCharsetUtil.septetLength('€'));
+        assertEquals(2, GsmCharsetUtil.septetLength('\\'));
+        assertEquals(0, GsmCharsetUtil.septetLength('р'));
+        assertEquals(0, GsmCharsetUtil.septetLength(""));
+        assertEquals(5, GsmCharsetUtil.septetLength("price"));
+        assertEquals(21, GsmCharsetUtil.septetLength("{a|b} [c~d]^€"));
+        assertEquals(-1, GsmCharsetUtil.septetLength("price р"));
+    }
+}
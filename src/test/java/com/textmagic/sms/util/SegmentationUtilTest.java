@@ -0,0 +1,88 @@
+package com.textmagic.sms.util;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class SegmentationUtilTest {
+
+    @Test
+    public void testSegment_SinglePart() throws Exception {
+        Segmentation segmentation = SegmentationUtil.segment(StringUtils.repeat("a", 160), false);
+        assertEquals(1, segmentation.getPartsCount());
+        assertEquals(160, segmentation.getLength());
+        assertFalse(segmentation.isUnicode());
+        assertEquals(0, segmentation.getPartStart(0));
+        assertEquals(160, segmentation.getPartEnd(0));
+    }
+
+    @Test
+    public void testSegment_Empty() throws Exception {
+        Segmentation segmentation = SegmentationUtil.segment("", true);
+        assertEquals(1, segmentation.getPartsCount());
+        assertEquals("", segmentation.getPart(0));
+    }
+
+    @Test
+    public void testSegment_Concatenated() throws Exception {
+        Segmentation segmentation = SegmentationUtil.segment(StringUtils.repeat("a", 161), false);
+        assertEquals(2, segmentation.getPartsCount());
+        assertEquals(153, segmentation.getPartEnd(0));
+        assertEquals(153, segmentation.getPartStart(1));
+        assertEquals(161, segmentation.getPartEnd(1));
+        assertEquals(3, SegmentationUtil.segment(StringUtils.repeat("a", 459), false).getPartsCount());
+        assertEquals(4, SegmentationUtil.segment(StringUtils.repeat("a", 460), false).getPartsCount());
+    }
+
+    @Test
+    public void testSegment_ExtensionCharacterNotSplit() throws Exception {
+        String text = StringUtils.repeat("a", 152) + "€" + StringUtils.repeat("b", 10);
+        Segmentation segmentation = SegmentationUtil.segment(text, false);
+        assertEquals(164, segmentation.getLength());
+        assertEquals(2, segmentation.getPartsCount());
+        assertEquals(StringUtils.repeat("a", 152), segmentation.getPart(0));
+        assertEquals("€" + StringUtils.repeat("b", 10), segmentation.getPart(1));
+    }
+
+    @Test
+    public void testSegment_ExtensionCharactersInSinglePart() throws Exception {
+        assertEquals(1, SegmentationUtil.segment(StringUtils.repeat("{", 80), false).getPartsCount());
+        assertEquals(2, SegmentationUtil.segment(StringUtils.repeat("{", 81), false).getPartsCount());
+    }
+
+    @Test
+    public void testSegment_Unicode() throws Exception {
+        assertEquals(1, SegmentationUtil.segment(StringUtils.repeat("р", 70), true).getPartsCount());
+        Segmentation segmentation = SegmentationUtil.segment(StringUtils.repeat("р", 135), true);
+        assertTrue(segmentation.isUnicode());
+        assertEquals(3, segmentation.getPartsCount());
+        assertEquals(67, segmentation.getPartEnd(0));
+        assertEquals(134, segmentation.getPartEnd(1));
+    }
+
+    @Test
+    public void testSegment_SurrogatePairNotSplit() throws Exception {
+        String text = StringUtils.repeat("р", 66) + "😀" + StringUtils.repeat("р", 10);
+        Segmentation segmentation = SegmentationUtil.segment(text, true);
+        assertEquals(2, segmentation.getPartsCount());
+        assertEquals(66, segmentation.getPartEnd(0));
+        assertEquals("😀" + StringUtils.repeat("р", 10), segmentation.getPart(1));
+        assertEquals(2, SegmentationUtil.partsCount(text, true));
+    }
+
+    @Test
+    public void testPartsCount() throws Exception {
+        assertEquals(1, SegmentationUtil.partsCount("hello", false));
+        assertEquals(2, SegmentationUtil.partsCount(StringUtils.repeat("a", 306), false));
+        assertEquals(3, SegmentationUtil.partsCount(StringUtils.repeat("a", 307), false));
+        assertEquals(3, SegmentationUtil.partsCount(StringUtils.repeat("р", 201), true));
+        assertEquals(4, SegmentationUtil.partsCount(StringUtils.repeat("р", 202), true));
+        // 152 + 2 septets do not fit first part, so the euro sign moves to the second one
+        assertEquals(3, SegmentationUtil.partsCount(StringUtils.repeat("a", 152) + "€" + StringUtils.repeat("b", 152), false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSegment_IllegalCharacters() throws Exception {
+        SegmentationUtil.segment("Привет", false);
+    }
+}